@@ -1,8 +1,14 @@
 package app;
 
+import org.springframework.boot.LazyInitializationExcludeFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.security.web.SecurityFilterChain;
+
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+import jakarta.persistence.EntityManagerFactory;
 
 @SpringBootApplication
 public class SpringBootWebapp {
@@ -10,4 +16,18 @@ public class SpringBootWebapp {
 	public static void main(String[] args) {
 		SpringApplication.run(SpringBootWebapp.class, args);
 	}
+	
+	/**
+	 * Con l'inizializzazione lazy (spring.main.lazy-initialization=true, vedi il profilo
+	 * "fast") i bean elencati qui vengono comunque creati all'avvio:
+	 * - l'EntityManagerFactory, perché l'avvio di Hibernate è l'operazione più costosa, e
+	 *   rimandarlo significherebbe farlo pagare alla prima richiesta;
+	 * - le catene di filtri di Spring Security, per lo stesso motivo;
+	 * - lo store degli shard, così che eventuali errori di configurazione emergano subito.
+	 */
+	
+	@Bean
+	static LazyInitializationExcludeFilter eagerBeans() {
+		return LazyInitializationExcludeFilter.forBeanTypes(EntityManagerFactory.class, SecurityFilterChain.class, ShardedMedicalTestsStore.class);
+	}
 }
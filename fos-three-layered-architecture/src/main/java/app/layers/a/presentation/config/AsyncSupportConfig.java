@@ -0,0 +1,65 @@
+package app.layers.a.presentation.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Quando un controller restituisce un Flux in streaming (vedi ReactiveReadsController.java),
+ * Spring MVC non può scrivere gli elementi sul thread che li produce (quello del driver
+ * R2DBC, che non deve mai bloccarsi): ogni elemento viene scritto nella risposta da un thread
+ * dell'executor configurato qui. Senza questa configurazione verrebbe usato l'executor
+ * generico di Spring Boot (applicationTaskExecutor, 8 thread), condiviso con qualunque altro
+ * compito asincrono dell'applicazione.
+ *
+ * La scrittura sulla socket resta bloccante: se il client non legge, il buffer TCP si riempie
+ * e il thread che sta scrivendo resta fermo finché Tomcat non rinuncia, dopo
+ * server.tomcat.connection-timeout (che per Tomcat vale anche come timeout di scrittura).
+ * Il numero di client lenti serviti contemporaneamente è quindi limitato da
+ * app.async.writer-threads, non dal numero di connessioni: gli elementi degli altri stream
+ * restano in coda (app.async.writer-queue-capacity) e, quando anche la coda è piena, lo stream
+ * che non trova posto viene interrotto invece di accumulare dati in memoria.
+ *
+ * app.async.request-timeout-millis limita la durata complessiva di una richiesta asincrona,
+ * compreso il tempo passato a scrivere la risposta: uno stream più lungo viene interrotto.
+ * Non vale per il feed SSE, che ha un proprio timeout (vedi MedicalTestsFeedBroadcaster.java).
+ *
+ * L'executor non è esposto come bean: in presenza di un bean di tipo Executor, Spring Boot
+ * smetterebbe di creare il proprio applicationTaskExecutor.
+ */
+
+@Configuration
+public class AsyncSupportConfig implements WebMvcConfigurer, DisposableBean {
+
+	private final ThreadPoolTaskExecutor writerExecutor = new ThreadPoolTaskExecutor();
+	private final long requestTimeoutMillis;
+
+	public AsyncSupportConfig(
+			@Value("${app.async.writer-threads:8}") int writerThreads,
+			@Value("${app.async.writer-queue-capacity:1000}") int queueCapacity,
+			@Value("${app.async.request-timeout-millis:60000}") long requestTimeoutMillis) {
+
+		this.requestTimeoutMillis = requestTimeoutMillis;
+
+		writerExecutor.setThreadNamePrefix("mvc-writer-");
+		writerExecutor.setCorePoolSize(writerThreads);
+		writerExecutor.setMaxPoolSize(writerThreads);
+		writerExecutor.setQueueCapacity(queueCapacity);
+		writerExecutor.setDaemon(true);
+		writerExecutor.initialize();
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(writerExecutor);
+		configurer.setDefaultTimeout(requestTimeoutMillis);
+	}
+
+	@Override
+	public void destroy() {
+		writerExecutor.shutdown();
+	}
+}
@@ -0,0 +1,61 @@
+package app.layers.a.presentation.config;
+
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Di default i controller REST serializzano le risposte in JSON, ma il formato effettivo
+ * viene scelto da Spring MVC in base all'header Accept inviato dal client (content
+ * negotiation). Se nel classpath sono presenti i moduli jackson-dataformat-cbor e
+ * jackson-dataformat-smile, Spring registra automaticamente anche i convertitori per i
+ * formati binari CBOR ("application/cbor") e Smile ("application/x-jackson-smile"), che
+ * producono payload più compatti e più veloci da codificare rispetto al testo JSON.
+ *
+ * Quei convertitori, però, usano un ObjectMapper costruito da zero, senza le impostazioni
+ * che Spring Boot applica a quello del JSON (es. le date scritte come stringhe ISO-8601
+ * invece che come array di numeri). Per fare in modo che tutti i formati restituiscano gli
+ * stessi dati, sostituiamo i loro ObjectMapper con altri costruiti a partire dal builder
+ * configurato da Spring Boot.
+ *
+ * La compressione gzip del JSON (e degli altri formati) non è compito dei controller, ma
+ * del webserver: vedi le proprietà server.compression.* in application.properties.
+ */
+
+@Configuration
+public class ContentNegotiationConfig implements WebMvcConfigurer {
+
+	/**
+	 * Il builder esposto da Spring Boot ha scope "prototype": ogni volta che lo chiediamo
+	 * otteniamo una nuova istanza, che possiamo quindi modificare senza effetti collaterali.
+	 */
+
+	private ObjectProvider<Jackson2ObjectMapperBuilder> mapperBuilders;
+
+	@Autowired
+	public ContentNegotiationConfig(ObjectProvider<Jackson2ObjectMapperBuilder> mapperBuilders) {
+		this.mapperBuilders = mapperBuilders;
+	}
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		for(HttpMessageConverter<?> converter : converters) {
+			if(converter instanceof MappingJackson2CborHttpMessageConverter cborConverter) {
+				cborConverter.setObjectMapper(mapperBuilders.getObject().factory(new CBORFactory()).build());
+			}
+			else if(converter instanceof MappingJackson2SmileHttpMessageConverter smileConverter) {
+				smileConverter.setObjectMapper(mapperBuilders.getObject().factory(new SmileFactory()).build());
+			}
+		}
+	}
+}
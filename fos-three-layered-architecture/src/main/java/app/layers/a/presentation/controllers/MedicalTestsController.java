@@ -1,18 +1,26 @@
 package app.layers.a.presentation.controllers;
 
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import app.layers.a.presentation.sse.MedicalTestsFeedBroadcaster;
 
 import app.layers.b.service.medicaltests.MedicalTestsService;
 import app.layers.b.service.medicaltests.TestDetails;
@@ -23,10 +31,12 @@ import app.layers.b.service.medicaltests.TestSummary;
 public class MedicalTestsController {
 
 	private MedicalTestsService medicalTestsService;
+	private MedicalTestsFeedBroadcaster feedBroadcaster;
 	
 	@Autowired
-	public MedicalTestsController(MedicalTestsService medicalTestsService) {
+	public MedicalTestsController(MedicalTestsService medicalTestsService, MedicalTestsFeedBroadcaster feedBroadcaster) {
 		this.medicalTestsService = medicalTestsService;
+		this.feedBroadcaster = feedBroadcaster;
 	}
 	
 	@GetMapping
@@ -34,11 +44,53 @@ public class MedicalTestsController {
 		return medicalTestsService.getAllTests();
 	}
 	
+	/**
+	 * Invece di interrogare periodicamente l'endpoint precedente, un client può restare in
+	 * ascolto dei nuovi esami tramite Server-Sent Events: la connessione HTTP rimane aperta
+	 * e il server vi scrive un evento "medical-test" per ogni esame salvato. Ogni evento ha
+	 * un id ("<epoca>-<sequenza>", vedi MedicalTestsFeed.java); dopo una disconnessione, il
+	 * browser rimanda l'ultimo id ricevuto nell'header Last-Event-ID (in alternativa si può
+	 * usare il parametro "after") per ricevere gli eventi persi nel frattempo. Se l'id non è
+	 * stato assegnato da questa istanza (es. dopo un riavvio) il client riceve un evento
+	 * "reset", e deve ricaricare l'elenco completo degli esami.
+	 */
+	
+	@GetMapping(path="feed", produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> getMedicalTestsFeed(
+			@RequestHeader(name="Last-Event-ID", required=false) String lastEventId,
+			@RequestParam(name="after", required=false) String after) {
+		
+		SseEmitter emitter = feedBroadcaster.subscribe(lastEventId != null ? lastEventId : after);
+		
+		if(emitter == null) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+		}
+		
+		return ResponseEntity.ok(emitter);
+	}
+	
 	@GetMapping("{id}")
 	public TestDetails getMedicalTestDetails(@PathVariable long id) {
 		return medicalTestsService.getTestDetails(id);
 	}
 	
+	/**
+	 * Grazie al parametro "params" di @GetMapping, le chiamate che specificano i campi da
+	 * restituire (es. "/medical-tests?fields=id,dateTime") vengono gestite da questi metodi
+	 * invece che dai precedenti. L'id è sempre incluso; per il singolo esame si può chiedere
+	 * anche il campo "results".
+	 */
+	
+	@GetMapping(params="fields")
+	public List<Map<String, Object>> getMedicalTests(@RequestParam String fields) {
+		return medicalTestsService.getAllTests(fields);
+	}
+	
+	@GetMapping(path="{id}", params="fields")
+	public Map<String, Object> getMedicalTestDetails(@PathVariable long id, @RequestParam String fields) {
+		return medicalTestsService.getTestDetails(id, fields);
+	}
+	
 	/**
 	 * {
 	 * 	  description: "Analisi del sangue",
@@ -67,4 +119,10 @@ public class MedicalTestsController {
 	private String handleUserNotFound(UsernameNotFoundException e) {
 		return "Utente non trovato.";
 	}
+	
+	@ExceptionHandler({ IllegalArgumentException.class })
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	private String handleIllegalArgument(IllegalArgumentException e) {
+		return e.getMessage();
+	}
 }
@@ -3,17 +3,27 @@ package app.layers.a.presentation.controllers;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.access.annotation.Secured;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import app.layers.b.service.medicaltests.MedicalTestsService;
 import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.medicaltests.history.ParameterHistory;
+import app.layers.b.service.patients.PatientDetails;
 import app.layers.b.service.patients.PatientSummary;
 import app.layers.b.service.patients.PatientsService;
+import app.layers.b.service.patients.chart.PatientChart;
+import app.layers.b.service.patients.chart.PatientChartService;
+import app.layers.b.service.patients.chart.PatientChartUnavailableException;
 import app.layers.c.data.entities.Patient;
 
 @RestController
@@ -33,10 +43,14 @@ public class PatientsController {
 	 */
 	
 	PatientsService patientsService;
+	MedicalTestsService medicalTestsService;
+	PatientChartService patientChartService;
 	
 	@Autowired
-	public PatientsController(PatientsService patientsService) {
+	public PatientsController(PatientsService patientsService, MedicalTestsService medicalTestsService, PatientChartService patientChartService) {
 		this.patientsService = patientsService;
+		this.medicalTestsService = medicalTestsService;
+		this.patientChartService = patientChartService;
 	}
 	
 	/*
@@ -54,11 +68,26 @@ public class PatientsController {
 	 * Il client potrà poi reperire i dettagli di una singola risorsa chiamando un
 	 * altro endpoint (es. "/patient/2"). A questo scopo, utilizziamo come tipo di
 	 * ritorno un'interfaccia dotata di getter per le proprietà desiderate.
+	 *
+	 * I parametri opzionali della query string permettono di filtrare i pazienti per età
+	 * (es. "/patients?minAge=18&maxAge=65") e di scorrere i risultati una pagina alla volta
+	 * (es. "/patients?afterId=120&limit=50"). Senza parametri, l'endpoint continua a
+	 * restituire l'elenco completo. Con il filtro sull'età i pazienti sono ordinati per data
+	 * di nascita, ma per la pagina successiva basta comunque passare in afterId l'id
+	 * dell'ultimo paziente ricevuto.
 	 */
-	
+
 	@GetMapping
-	public List<PatientSummary> getPatients() {
-		List<PatientSummary> summaries = patientsService.getAllPatients();
+	public List<PatientSummary> getPatients(
+			@RequestParam(required=false) Integer minAge,
+			@RequestParam(required=false) Integer maxAge,
+			@RequestParam(required=false) Long afterId,
+			@RequestParam(required=false) Integer limit) {
+
+		List<PatientSummary> summaries =
+			minAge == null && maxAge == null && afterId == null && limit == null
+				? patientsService.getAllPatients()
+				: patientsService.getPatients(minAge, maxAge, afterId, limit);
 		
 		// Mapping verso un DTO
 		
@@ -79,15 +108,36 @@ public class PatientsController {
 	 * 	 "id": 1,
 	 *   "firstName": "Walter",
 	 *   "lastName": "Paganini",
-	 *   ...
-	 *   ...
+	 *   "testsCount": 12,
+	 *   "lastTestDateTime": "2023-03-01T10:15:00",
+	 *   "latestValues": { "Ca++": 15.6, "K": 4.1 },
 	 *   ...
 	 * }
 	 */
 	
 	@GetMapping("{id}")
-	public Object getPatientDetails(@PathVariable long id) {
-		return null;
+	public PatientDetails getPatientDetails(@PathVariable long id) {
+		return patientsService.getPatientDetails(id);
+	}
+	
+	/**
+	 * La cartella del paziente: dettagli, esami più recenti e ultimo valore di ogni parametro,
+	 * caricati in parallelo (vedi PatientChartService.java).
+	 */
+	
+	@GetMapping("{id}/chart")
+	public PatientChart getPatientChart(@PathVariable long id) {
+		return patientChartService.getPatientChart(id);
+	}
+	
+	/**
+	 * Serie storica di un parametro, ridotta ad al più "points" punti per essere disegnata
+	 * in un grafico (es. "/patients/1/parameters/K/history?points=200").
+	 */
+	
+	@GetMapping("{id}/parameters/{name}/history")
+	public ParameterHistory getParameterHistory(@PathVariable long id, @PathVariable String name, @RequestParam(required=false) Integer points) {
+		return medicalTestsService.getParameterHistory(id, name, points);
 	}
 	
 	/**
@@ -110,6 +160,19 @@ public class PatientsController {
 	// @Secured("DOCTOR")
 	// @Secured({ "DOCTOR", "ADMIN" })
 	public List<TestSummary> getMedicalTestsOfPatient(@PathVariable long id) {
-		return null;
+		return medicalTestsService.getTestsOfPatient(id);
+	}
+	
+	// Es. un'età fuori dall'intervallo ammesso (vedi PatientsService.getPatients()).
+	@ExceptionHandler({ IllegalArgumentException.class })
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	private String handleIllegalArgument(IllegalArgumentException e) {
+		return e.getMessage();
+	}
+	
+	@ExceptionHandler({ PatientChartUnavailableException.class })
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	private String handleChartUnavailable(PatientChartUnavailableException e) {
+		return e.getMessage();
 	}
 }
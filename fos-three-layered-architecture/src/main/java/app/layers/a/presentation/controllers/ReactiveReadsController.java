@@ -0,0 +1,70 @@
+package app.layers.a.presentation.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import app.layers.b.service.medicaltests.TestDetails;
+import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.patients.PatientSummary;
+import app.layers.b.service.reactive.ReactiveReadsService;
+import app.layers.c.data.reactive.ReactiveReadsConfig;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Variante reattiva degli endpoint di lettura, affiancata a quelli "classici":
+ * - /reactive/patients             (vedi GET /patients)
+ * - /reactive/medical-tests        (vedi GET /medical-tests)
+ * - /reactive/medical-tests/{id}   (vedi GET /medical-tests/{id})
+ *
+ * Spring MVC riconosce i tipi di ritorno Flux e Mono e gestisce la richiesta in modo
+ * asincrono: il thread di Tomcat torna subito disponibile per altre richieste, e durante
+ * la query non viene occupata nessuna connessione JDBC (le righe arrivano dal driver R2DBC).
+ *
+ * Non è però uno stack reattivo "da capo a piedi": sotto Spring MVC la risposta viene scritta
+ * con le normali scritture bloccanti della Servlet API, su un pool dedicato di thread (vedi
+ * AsyncSupportConfig.java). Un client lento che smette di leggere occupa uno di quei thread
+ * finché la scrittura non va a buon fine o non scade: il numero di client lenti serviti
+ * contemporaneamente è quindi limitato dalla dimensione di quel pool, e non dal numero di
+ * connessioni accettate da Tomcat. Per liberarsi anche di questo limite servirebbe Spring
+ * WebFlux, con un webserver non bloccante.
+ *
+ * Di default (o con l'header "Accept: application/x-ndjson") gli elenchi vengono inviati
+ * in streaming, un oggetto JSON per riga, man mano che le righe arrivano dal DB e al ritmo
+ * con cui il client le legge (backpressure). Con "Accept: application/json" la risposta è
+ * invece il solito array JSON, che Spring MVC può scrivere solo dopo aver raccolto tutti
+ * gli elementi.
+ */
+
+@RestController
+@RequestMapping("reactive")
+@ConditionalOnExpression(ReactiveReadsConfig.ENABLED)
+public class ReactiveReadsController {
+
+	private ReactiveReadsService reactiveReadsService;
+
+	@Autowired
+	public ReactiveReadsController(ReactiveReadsService reactiveReadsService) {
+		this.reactiveReadsService = reactiveReadsService;
+	}
+
+	@GetMapping(path="patients", produces={ MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+	public Flux<PatientSummary> getPatients() {
+		return reactiveReadsService.getAllPatients();
+	}
+
+	@GetMapping(path="medical-tests", produces={ MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+	public Flux<TestSummary> getMedicalTests() {
+		return reactiveReadsService.getAllTests();
+	}
+
+	@GetMapping("medical-tests/{id}")
+	public Mono<TestDetails> getMedicalTestDetails(@PathVariable long id) {
+		return reactiveReadsService.getTestDetails(id);
+	}
+}
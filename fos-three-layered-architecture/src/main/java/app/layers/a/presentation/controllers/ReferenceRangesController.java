@@ -0,0 +1,55 @@
+package app.layers.a.presentation.controllers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import app.layers.b.service.medicaltests.ranges.RangeLimits;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangeCatalog;
+
+@RestController
+@RequestMapping("reference-ranges")
+public class ReferenceRangesController {
+
+	private ReferenceRangeCatalog rangeCatalog;
+	
+	@Autowired
+	public ReferenceRangesController(ReferenceRangeCatalog rangeCatalog) {
+		this.rangeCatalog = rangeCatalog;
+	}
+	
+	@GetMapping
+	public List<RangeLimits> getReferenceRanges() {
+		return rangeCatalog.getRanges();
+	}
+	
+	/**
+	 * {
+	 *    lowerLimit: 3.5,
+	 *    upperLimit: 5.1
+	 * }
+	 * 
+	 * Il nome del parametro è quello indicato nel path (es. "/reference-ranges/K"). I flag
+	 * dei risultati già salvati vengono ricalcolati in background.
+	 */
+	
+	@PutMapping("{paramName}")
+	public RangeLimits saveReferenceRange(@PathVariable String paramName, @RequestBody RangeLimits range) {
+		return rangeCatalog.saveRange(new RangeLimits(paramName, range.getLowerLimit(), range.getUpperLimit()));
+	}
+	
+	@ExceptionHandler({ IllegalArgumentException.class })
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	private String handleIllegalArgument(IllegalArgumentException e) {
+		return e.getMessage();
+	}
+}
@@ -0,0 +1,92 @@
+package app.layers.a.presentation.serialization;
+
+import java.io.IOException;
+
+import org.springframework.boot.jackson.JsonComponent;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import app.layers.b.service.medicaltests.CompactTestResults;
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Serializza i risultati di un esame (vedi CompactTestResults.java) leggendoli direttamente
+ * dagli array, senza creare un TestResult per ogni risultato e senza passare dalla reflection
+ * con cui Jackson invocherebbe i getter di ogni oggetto. I nomi dei campi e dei flag sono
+ * stringhe già codificate (SerializedString), che il generatore copia così come sono.
+ * 
+ * Il JSON prodotto è identico a quello che Jackson scriverebbe per una lista di TestResult:
+ * 
+ * [ { "paramName": "K", "paramValue": 4.1, "flag": "NORMAL" }, ... ]
+ * 
+ * perciò se TestResult cambia (es. un nuovo campo), va modificato anche questo serializer.
+ * 
+ * Le classi annotate con @JsonComponent vengono registrate da Spring Boot nell'ObjectMapper
+ * dell'applicazione, e quindi anche in quelli di CBOR e Smile (vedi ContentNegotiationConfig.java).
+ */
+
+@JsonComponent
+public class CompactTestResultsSerializer extends StdSerializer<CompactTestResults> {
+
+	private static final long serialVersionUID = 1L;
+	
+	private static final SerializableString PARAM_NAME = new SerializedString("paramName");
+	private static final SerializableString PARAM_VALUE = new SerializedString("paramValue");
+	private static final SerializableString FLAG = new SerializedString("flag");
+	private static final SerializableString[] FLAG_NAMES = flagNames();
+	
+	public CompactTestResultsSerializer() {
+		super(CompactTestResults.class);
+	}
+	
+	@Override
+	public void serialize(CompactTestResults results, JsonGenerator generator, SerializerProvider provider) throws IOException {
+		int size = results.size();
+		generator.writeStartArray(results, size);
+		
+		for(int i = 0; i < size; i++) {
+			generator.writeStartObject();
+			
+			generator.writeFieldName(PARAM_NAME);
+			generator.writeString(results.getParamName(i));
+			
+			generator.writeFieldName(PARAM_VALUE);
+			
+			if(results.hasParamValue(i)) {
+				generator.writeNumber(results.getParamValue(i));
+			}
+			else {
+				generator.writeNull();
+			}
+			
+			generator.writeFieldName(FLAG);
+			ResultFlag flag = results.getFlag(i);
+			
+			if(flag != null) {
+				generator.writeString(FLAG_NAMES[flag.ordinal()]);
+			}
+			else {
+				generator.writeNull();
+			}
+			
+			generator.writeEndObject();
+		}
+		
+		generator.writeEndArray();
+	}
+	
+	private static SerializableString[] flagNames() {
+		ResultFlag[] flags = ResultFlag.values();
+		SerializableString[] names = new SerializableString[flags.length];
+		
+		for(ResultFlag flag : flags) {
+			names[flag.ordinal()] = new SerializedString(flag.name());
+		}
+		
+		return names;
+	}
+}
@@ -0,0 +1,295 @@
+package app.layers.a.presentation.sse;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import app.layers.b.service.medicaltests.feed.FeedEntry;
+import app.layers.b.service.medicaltests.feed.FeedSlice;
+import app.layers.b.service.medicaltests.feed.MedicalTestsFeed;
+
+/**
+ * Inoltra gli eventi del MedicalTestsFeed ai client collegati tramite Server-Sent Events.
+ *
+ * Ogni client (subscriber) ricorda soltanto il numero di sequenza dell'ultimo evento che gli
+ * è stato inviato: gli eventi veri e propri vengono letti di volta in volta dal buffer del
+ * feed, perciò un client lento non accumula una coda in memoria. Se resta così indietro che
+ * i suoi eventi vengono sovrascritti, riceve un evento "reset" che gli chiede di ricaricare
+ * l'elenco completo degli esami, e riprende poi dagli eventi ancora disponibili.
+ *
+ * Gli invii avvengono su un pool di thread dedicato: il thread che salva un esame si limita
+ * a pianificarli, e non aspetta mai la rete. Per ogni client c'è al più un invio in corso
+ * alla volta (vedi Subscriber.schedule()), così gli eventi arrivano sempre in ordine.
+ *
+ * Un client che smette di leggere senza chiudere la connessione riempie i buffer TCP, e a
+ * quel punto emitter.send() resta bloccato: con un pool di 4 thread, 4 client di questo tipo
+ * fermerebbero le consegne a tutti gli altri. Per questo un thread di controllo ("watchdog")
+ * tiene d'occhio gli invii in corso, e un client il cui invio dura più di
+ * app.feed.send-timeout-millis viene scollegato: non riceverà più eventi, e la sua
+ * connessione viene chiusa non appena l'invio bloccato termina.
+ *
+ * L'invio bloccato però non può essere interrotto da qui (i metodi di SseEmitter sono
+ * synchronized, e il lock è in mano proprio al thread bloccato): il thread resta occupato
+ * finché Tomcat non rinuncia a scrivere sulla connessione (server.tomcat.connection-timeout).
+ * Nel frattempo il pool viene ampliato di un thread per ogni invio bloccato, fino a
+ * app.feed.max-blocked-senders thread in più: oltre quel limite le consegne agli altri client
+ * rallentano, perché i thread liberi sono di meno, ma non si fermano finché ne resta almeno uno.
+ */
+
+@Component
+public class MedicalTestsFeedBroadcaster implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(MedicalTestsFeedBroadcaster.class);
+
+	private static final int BATCH_SIZE = 64;
+
+	// Valori speciali di Subscriber.sendStartedAt (gli istanti di inizio di un invio, misurati
+	// da originNanos, sono sempre positivi).
+	private static final long IDLE = 0;
+	private static final long TIMED_OUT = -1;
+
+	private final MedicalTestsFeed feed;
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final ThreadPoolExecutor sendExecutor;
+	private final ScheduledExecutorService watchdog;
+	private final Runnable unregister;
+
+	private final long timeoutMillis;
+	private final int maxSubscribers;
+	private final int senderThreads;
+	private final int maxBlockedSenders;
+	private final long sendTimeoutNanos;
+	private final long originNanos = System.nanoTime();
+
+	// Protetto dal lock su this (vedi adjustBlockedSenders()).
+	private int blockedSenders;
+
+	@Autowired
+	public MedicalTestsFeedBroadcaster(
+			MedicalTestsFeed feed,
+			@Value("${app.feed.sender-threads:4}") int senderThreads,
+			@Value("${app.feed.timeout-millis:1800000}") long timeoutMillis,
+			@Value("${app.feed.max-subscribers:1000}") int maxSubscribers,
+			@Value("${app.feed.send-timeout-millis:5000}") long sendTimeoutMillis,
+			@Value("${app.feed.max-blocked-senders:16}") int maxBlockedSenders) {
+
+		this.feed = feed;
+		this.timeoutMillis = timeoutMillis;
+		this.maxSubscribers = maxSubscribers;
+		this.senderThreads = senderThreads;
+		this.maxBlockedSenders = maxBlockedSenders;
+		this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+
+		AtomicInteger threadCount = new AtomicInteger();
+
+		// Con una coda illimitata il pool non supera mai corePoolSize thread: è
+		// adjustBlockedSenders() a spostarlo, entro maximumPoolSize.
+		this.sendExecutor = new ThreadPoolExecutor(senderThreads, senderThreads + maxBlockedSenders,
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+				Thread thread = new Thread(runnable, "feed-sender-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "feed-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long checkIntervalMillis = Math.max(100, sendTimeoutMillis / 4);
+		watchdog.scheduleWithFixedDelay(this::dropBlockedSubscribers, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+
+		this.unregister = feed.addListener(this::onNewEvents);
+	}
+
+	/**
+	 * Registra un nuovo client. Se lastEventId è null il client riceverà soltanto gli eventi
+	 * successivi alla sua connessione; altrimenti riceverà anche quelli che si è perso dopo
+	 * l'evento indicato. Un id assegnato da un'altra istanza dell'applicazione non permette di
+	 * sapere quali eventi il client abbia già ricevuto: il client riceve un evento "reset" e
+	 * poi tutti gli eventi ancora disponibili nel buffer.
+	 *
+	 * Restituisce null se è già stato raggiunto il numero massimo di client collegati.
+	 */
+
+	public SseEmitter subscribe(String lastEventId) {
+		if(subscribers.size() >= maxSubscribers) {
+			return null;
+		}
+
+		SseEmitter emitter = new SseEmitter(timeoutMillis);
+		long cursor = lastEventId != null ? feed.sequenceOf(lastEventId) : feed.getLastSequence();
+		Subscriber subscriber = new Subscriber(emitter, cursor);
+
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(e -> subscribers.remove(subscriber));
+
+		subscribers.add(subscriber);
+		subscriber.schedule();
+
+		return emitter;
+	}
+
+	private void onNewEvents() {
+		for(Subscriber subscriber : subscribers) {
+			subscriber.schedule();
+		}
+	}
+
+	/**
+	 * Eseguito periodicamente dal watchdog: scollega i client il cui invio in corso è
+	 * iniziato da più di app.feed.send-timeout-millis. Non chiama i metodi dell'emitter, che
+	 * resterebbero in attesa del lock tenuto dal thread bloccato: la connessione viene chiusa
+	 * da quel thread, quando l'invio termina (vedi Subscriber.send()).
+	 */
+
+	private void dropBlockedSubscribers() {
+		long now = System.nanoTime() - originNanos + 1;
+
+		for(Subscriber subscriber : subscribers) {
+			long startedAt = subscriber.sendStartedAt.get();
+
+			if(startedAt > 0 && now - startedAt > sendTimeoutNanos && subscriber.sendStartedAt.compareAndSet(startedAt, TIMED_OUT)) {
+				subscribers.remove(subscriber);
+				adjustBlockedSenders(1);
+				log.warn("Dropped a feed subscriber blocked on a send for more than {} ms", TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos));
+			}
+		}
+	}
+
+	private synchronized void adjustBlockedSenders(int delta) {
+		blockedSenders += delta;
+		sendExecutor.setCorePoolSize(senderThreads + Math.min(blockedSenders, maxBlockedSenders));
+	}
+
+	@Override
+	public void destroy() {
+		unregister.run();
+		watchdog.shutdownNow();
+		sendExecutor.shutdownNow();
+
+		for(Subscriber subscriber : subscribers) {
+			subscriber.emitter.complete();
+		}
+	}
+
+	private class Subscriber {
+		final SseEmitter emitter;
+		final AtomicInteger pendingSignals = new AtomicInteger();
+
+		// Letto e scritto solo dal thread che sta eseguendo drain().
+		long cursor;
+
+		// Istante di inizio dell'invio in corso (misurato da originNanos), IDLE se non ci sono
+		// invii in corso, oppure TIMED_OUT se il watchdog ha scollegato il client.
+		final AtomicLong sendStartedAt = new AtomicLong(IDLE);
+
+		Subscriber(SseEmitter emitter, long cursor) {
+			this.emitter = emitter;
+			this.cursor = cursor;
+		}
+
+		/**
+		 * Il contatore pendingSignals conta le notifiche ricevute: solo chi lo porta da 0 a 1
+		 * avvia un drain() sul pool, mentre le notifiche che arrivano durante un invio vengono
+		 * raccolte dal drain() già in corso prima di terminare.
+		 */
+
+		void schedule() {
+			if(pendingSignals.getAndIncrement() == 0) {
+				sendExecutor.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			int missed = pendingSignals.get();
+
+			do {
+				if(!sendAvailableEvents()) {
+					subscribers.remove(this);
+					return;
+				}
+
+				missed = pendingSignals.addAndGet(-missed);
+			}
+			while(missed != 0);
+		}
+
+		private boolean sendAvailableEvents() {
+			try {
+				FeedSlice slice;
+
+				do {
+					slice = feed.readAfter(cursor, BATCH_SIZE);
+
+					if(slice.hasGap()) {
+						send(SseEmitter.event().name("reset").data(""));
+					}
+
+					for(FeedEntry entry : slice.getEntries()) {
+						send(SseEmitter.event()
+							.id(entry.getId())
+							.name("medical-test")
+							.data(entry.getTest()));
+					}
+
+					cursor = slice.getCursor();
+				}
+				while(slice.getEntries().size() == BATCH_SIZE);
+
+				return true;
+			}
+			catch(IOException | IllegalStateException e) {
+
+				// Il client si è disconnesso (o la connessione è già stata chiusa).
+				emitter.completeWithError(e);
+				return false;
+			}
+		}
+
+		/**
+		 * Se durante l'invio il watchdog ha scollegato il client, il posto aggiunto al pool
+		 * per compensare questo thread viene restituito e l'invio viene considerato fallito,
+		 * così sendAvailableEvents() chiude la connessione.
+		 */
+
+		private void send(SseEventBuilder event) throws IOException {
+			long startedAt = System.nanoTime() - originNanos + 1;
+			boolean timedOut = false;
+
+			sendStartedAt.set(startedAt);
+
+			try {
+				emitter.send(event);
+			}
+			finally {
+				if(!sendStartedAt.compareAndSet(startedAt, IDLE)) {
+					adjustBlockedSenders(-1);
+					timedOut = true;
+				}
+			}
+
+			if(timedOut) {
+				throw new IOException("Send to feed subscriber timed out");
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package app.layers.b.service.coalescing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Quando molti client chiedono contemporaneamente la stessa risorsa (es. lo stesso esame),
+ * ogni richiesta eseguirebbe la stessa identica query sul DB. Con il "single-flight" la
+ * prima richiesta per una certa chiave esegue davvero il caricamento, mentre quelle che
+ * arrivano mentre il caricamento è ancora in corso si mettono in attesa e ne condividono
+ * il risultato (o l'eccezione).
+ *
+ * Non si tratta di una cache: appena il caricamento termina, la chiave viene rimossa, e la
+ * richiesta successiva eseguirà una nuova query. Inoltre, dopo una scrittura, il service
+ * layer chiama invalidate(): le richieste che arrivano da quel momento in poi non vengono
+ * più agganciate ai caricamenti iniziati prima della scrittura, perciò non possono ricevere
+ * dati che non tengono conto della scrittura stessa.
+ *
+ * Il risultato di un caricamento viene restituito a tutte le richieste agganciate: se è un
+ * oggetto modificabile, la modifica fatta da una di esse sarebbe visibile anche alle altre.
+ * I valori devono quindi essere immutabili (es. liste non modificabili di oggetti
+ * immutabili), oppure il costruttore deve ricevere una funzione che ne crei una copia: in
+ * quel caso ogni richiesta agganciata riceve la propria copia, ottenuta da un esemplare
+ * che nessuna richiesta può modificare.
+ *
+ * Il numero di chiamate che hanno eseguito il caricamento e di quelle che lo hanno invece
+ * condiviso è esposto come metrica (app.singleflight.calls, consultabile anche tramite
+ * l'endpoint /actuator/metrics).
+ */
+
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	private final UnaryOperator<V> copier;
+	private final Counter loadedCalls;
+	private final Counter coalescedCalls;
+
+	public SingleFlight(String name, MeterRegistry meterRegistry) {
+		this(name, meterRegistry, null);
+	}
+
+	public SingleFlight(String name, MeterRegistry meterRegistry, UnaryOperator<V> copier) {
+		this.copier = copier;
+
+		this.loadedCalls = Counter.builder("app.singleflight.calls")
+			.tag("name", name)
+			.tag("outcome", "loaded")
+			.register(meterRegistry);
+
+		this.coalescedCalls = Counter.builder("app.singleflight.calls")
+			.tag("name", name)
+			.tag("outcome", "coalesced")
+			.register(meterRegistry);
+
+		meterRegistry.gaugeMapSize("app.singleflight.in.flight", Tags.of("name", name), inFlight);
+	}
+
+	/**
+	 * Il caricamento viene eseguito sul thread del primo chiamante, che quindi resta
+	 * l'unico a occupare una connessione al DB; gli altri si limitano ad aspettare.
+	 */
+
+	public V load(K key, Supplier<V> loader) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+
+		if(existing != null) {
+			coalescedCalls.increment();
+			V value = join(existing);
+			return copier != null && value != null ? copier.apply(value) : value;
+		}
+
+		loadedCalls.increment();
+
+		try {
+			V value = loader.get();
+			flight.complete(copier != null && value != null ? copier.apply(value) : value);
+			return value;
+		}
+		catch(RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Da chiamare dopo ogni scrittura che potrebbe cambiare il risultato dei caricamenti:
+	 * chi è già in attesa riceverà comunque il risultato del caricamento in corso, ma le
+	 * richieste successive ne avvieranno uno nuovo.
+	 */
+
+	public void invalidate() {
+		inFlight.clear();
+	}
+
+	private static <V> V join(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		}
+		catch(CompletionException e) {
+			if(e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+
+			if(e.getCause() instanceof Error cause) {
+				throw cause;
+			}
+
+			throw e;
+		}
+	}
+}
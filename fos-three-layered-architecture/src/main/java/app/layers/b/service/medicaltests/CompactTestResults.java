@@ -0,0 +1,136 @@
+package app.layers.b.service.medicaltests;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Rappresentazione compatta dei risultati di un esame letti dal DB (o dall'archivio): invece
+ * di un oggetto TestResult per risultato, ognuno con la sua String e il suo Float, i valori
+ * sono tenuti in tre array paralleli di tipi primitivi. Un pannello di 40 parametri occupa
+ * così quattro oggetti (la lista e i suoi tre array) invece di oltre ottanta.
+ * 
+ * I nomi dei parametri vengono "internati": i risultati di tutti gli esami condividono la
+ * stessa istanza di String per lo stesso nome, invece di tenerne in memoria una copia per
+ * ogni risultato letto. Un valore mancante è rappresentato da NaN (il JSON ricevuto dai
+ * client non può contenere NaN).
+ * 
+ * La classe è comunque una List<TestResult>, perciò il codice che scorre i risultati di un
+ * esame non deve cambiare: get() crea al momento un TestResult con i dati richiesti. La lista
+ * non è modificabile dall'esterno, e le modifiche ai TestResult restituiti da get() non hanno
+ * effetto sulla lista. Il presentation layer la serializza direttamente, senza passare da
+ * get() (vedi CompactTestResultsSerializer.java).
+ */
+
+public class CompactTestResults extends AbstractList<TestResult> implements RandomAccess {
+	
+	private static final int MAX_INTERNED_NAMES = 4096;
+	private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+	private static final ResultFlag[] FLAGS = ResultFlag.values();
+	
+	private String[] paramNames;
+	private float[] paramValues;
+	private byte[] flags;
+	private int size;
+	
+	public CompactTestResults(int capacity) {
+		int length = Math.max(1, capacity);
+		
+		this.paramNames = new String[length];
+		this.paramValues = new float[length];
+		this.flags = new byte[length];
+	}
+	
+	/**
+	 * Aggiunge un risultato; un paramValue NaN indica un valore mancante.
+	 */
+	
+	public void add(String paramName, float paramValue, ResultFlag flag) {
+		if(size == paramNames.length) {
+			int length = size * 2;
+			
+			paramNames = Arrays.copyOf(paramNames, length);
+			paramValues = Arrays.copyOf(paramValues, length);
+			flags = Arrays.copyOf(flags, length);
+		}
+		
+		paramNames[size] = intern(paramName);
+		paramValues[size] = paramValue;
+		flags[size] = flag != null ? (byte) (flag.ordinal() + 1) : 0;
+		size++;
+	}
+	
+	public void add(String paramName, Float paramValue, ResultFlag flag) {
+		add(paramName, paramValue != null ? paramValue : Float.NaN, flag);
+	}
+	
+	public String getParamName(int index) {
+		return paramNames[index];
+	}
+	
+	public boolean hasParamValue(int index) {
+		return !Float.isNaN(paramValues[index]);
+	}
+	
+	public float getParamValue(int index) {
+		return paramValues[index];
+	}
+	
+	public ResultFlag getFlag(int index) {
+		return flags[index] != 0 ? FLAGS[flags[index] - 1] : null;
+	}
+	
+	/**
+	 * Una copia indipendente della lista: i nomi internati sono condivisi, gli array no.
+	 */
+	
+	public CompactTestResults copy() {
+		CompactTestResults copy = new CompactTestResults(size);
+		
+		System.arraycopy(paramNames, 0, copy.paramNames, 0, size);
+		System.arraycopy(paramValues, 0, copy.paramValues, 0, size);
+		System.arraycopy(flags, 0, copy.flags, 0, size);
+		copy.size = size;
+		
+		return copy;
+	}
+	
+	@Override
+	public TestResult get(int index) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		
+		return new TestResult(paramNames[index], hasParamValue(index) ? paramValues[index] : null, getFlag(index));
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * I nomi dei parametri sono poche centinaia: oltre MAX_INTERNED_NAMES (es. nomi generati
+	 * per errore da un client) smettiamo di aggiungerne, per non far crescere la mappa senza
+	 * limiti.
+	 */
+	
+	private static String intern(String name) {
+		String interned = NAMES.get(name);
+		
+		if(interned != null) {
+			return interned;
+		}
+		
+		if(NAMES.size() >= MAX_INTERNED_NAMES) {
+			return name;
+		}
+		
+		interned = NAMES.putIfAbsent(name, name);
+		
+		return interned != null ? interned : name;
+	}
+}
@@ -0,0 +1,47 @@
+package app.layers.b.service.medicaltests;
+
+import java.time.LocalDateTime;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * L'ultimo valore misurato di un parametro per un paziente, con la data e l'id dell'esame
+ * da cui proviene. Come per TestSummary, il repository lo legge con una constructor
+ * expression (vedi MedicalTestResultsRepository.findLatestByPatientId()).
+ */
+
+public class LatestResult {
+	private final String paramName;
+	private final Float paramValue;
+	private final ResultFlag flag;
+	private final LocalDateTime dateTime;
+	private final Long testId;
+	
+	public LatestResult(String paramName, Float paramValue, ResultFlag flag, LocalDateTime dateTime, Long testId) {
+		this.paramName = paramName;
+		this.paramValue = paramValue;
+		this.flag = flag;
+		this.dateTime = dateTime;
+		this.testId = testId;
+	}
+	
+	public String getParamName() {
+		return paramName;
+	}
+	
+	public Float getParamValue() {
+		return paramValue;
+	}
+	
+	public ResultFlag getFlag() {
+		return flag;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+	
+	public Long getTestId() {
+		return testId;
+	}
+}
@@ -1,39 +1,206 @@
 package app.layers.b.service.medicaltests;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import app.layers.b.service.coalescing.SingleFlight;
+import app.layers.b.service.medicaltests.feed.TestCreatedEvent;
+import app.layers.b.service.medicaltests.history.HistoryPoint;
+import app.layers.b.service.medicaltests.history.HistoryRange;
+import app.layers.b.service.medicaltests.history.MergedSeries;
+import app.layers.b.service.medicaltests.history.MinMaxDownsampler;
+import app.layers.b.service.medicaltests.history.ParameterHistory;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangeCatalog;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangesSnapshot;
+import app.layers.c.data.archive.ArchivedResult;
+import app.layers.c.data.archive.ArchivedTest;
+import app.layers.c.data.archive.MedicalTestsArchive;
+import app.layers.c.data.cache.invalidation.CacheInvalidation;
+import app.layers.c.data.cache.invalidation.CacheInvalidationBus;
 import app.layers.c.data.entities.MedicalTest;
 import app.layers.c.data.entities.MedicalTestResult;
 import app.layers.c.data.entities.Patient;
+import app.layers.c.data.entities.PatientDashboard;
+import app.layers.c.data.entities.ResultFlag;
+import app.layers.c.data.packed.PackedResultsCodec;
+import app.layers.c.data.packed.PackedTestRow;
+import app.layers.c.data.projections.HistoryPointRow;
+import app.layers.c.data.projections.HistoryRangeRow;
+import app.layers.c.data.projections.LatestResultRow;
+import app.layers.c.data.projections.TestResultRow;
+import app.layers.c.data.projections.TestSummaryRow;
+import app.layers.c.data.repositories.PatientDashboardsRepository;
 import app.layers.c.data.repositories.MedicalTestResultsRepository;
 import app.layers.c.data.repositories.MedicalTestsRepository;
+import app.layers.c.data.repositories.PatientsRepository;
+import app.layers.c.data.repositories.SparseFieldsPlan;
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+import app.layers.c.data.sharding.ShardedResultRow;
+import app.tracing.jfr.MappingEvent;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Service
 public class MedicalTestsService {
 	
+	private static final int DEFAULT_HISTORY_POINTS = 300;
+	private static final int MAX_HISTORY_POINTS = 2000;
+	
+	private static final Logger log = LoggerFactory.getLogger(MedicalTestsService.class);
+	
 	private MedicalTestsRepository medicalTestsRepo;
 	private MedicalTestResultsRepository medicalTestResultsRepo;
+	private ApplicationEventPublisher eventPublisher;
+	private PatientDashboardsRepository patientDashboardsRepo;
+	private PatientsRepository patientsRepo;
+	private ReferenceRangeCatalog rangeCatalog;
+	
+	/**
+	 * Con app.results.packed=true i risultati dei nuovi esami vengono salvati nel formato
+	 * compatto (vedi PackedResultsCodec.java) invece che come righe di medical_test_results.
+	 * Le letture gestiscono sempre entrambi i formati, perciò la proprietà può essere
+	 * cambiata in qualsiasi momento: gli esami già salvati restano nel loro formato.
+	 */
+	
+	private PackedResultsCodec packedCodec;
+	private boolean packedResults;
+	
+	/**
+	 * Le letture più richieste vengono "accorpate": se più client chiedono la stessa cosa
+	 * nello stesso momento, la query viene eseguita una volta sola (vedi SingleFlight.java).
+	 * Il risultato è condiviso tra le richieste accorpate: l'elenco degli esami è una lista
+	 * non modificabile di oggetti immutabili, mentre ogni richiesta accorpata del dettaglio
+	 * di un esame ne riceve una copia.
+	 */
+	
+	private SingleFlight<Boolean, List<TestSummary>> allTestsFlight;
+	private SingleFlight<Long, TestDetails> testDetailsFlight;
+	
+	/**
+	 * Le chiamate accorpate aspettano il risultato di un'altra chiamata: se getAllTests() fosse
+	 * annotato con @Transactional, ognuna di esse aprirebbe comunque una transazione (e,
+	 * con un livello di isolamento diverso da quello di default, occuperebbe una connessione)
+	 * solo per restare in attesa. Per questo la transazione viene aperta manualmente, tramite
+	 * un TransactionTemplate, soltanto da chi esegue davvero la query.
+	 */
+	
+	private TransactionTemplate readUncommittedTx;
+	
+	/**
+	 * Con Open Session In View disattivato (vedi application.properties), le entità sono
+	 * utilizzabili solo all'interno di una transazione: la conversione in oggetti del
+	 * dominio applicativo deve quindi avvenire qui, prima di restituirli al controller.
+	 * Una transazione in sola lettura evita inoltre a Hibernate di tenere una copia di ogni
+	 * entità caricata per controllarne le modifiche al momento del commit.
+	 */
+	
+	private TransactionTemplate readOnlyTx;
 
 	@Autowired
-	public MedicalTestsService(MedicalTestsRepository medicalTestsRepo, MedicalTestResultsRepository medicalTestResultsRepo) {
+	public MedicalTestsService(MedicalTestsRepository medicalTestsRepo, MedicalTestResultsRepository medicalTestResultsRepo, ApplicationEventPublisher eventPublisher, PatientDashboardsRepository patientDashboardsRepo, PatientsRepository patientsRepo, ReferenceRangeCatalog rangeCatalog, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry, PackedResultsCodec packedCodec, @Value("${app.results.packed:false}") boolean packedResults) {
 		this.medicalTestsRepo = medicalTestsRepo;
 		this.medicalTestResultsRepo = medicalTestResultsRepo;
+		this.eventPublisher = eventPublisher;
+		this.patientDashboardsRepo = patientDashboardsRepo;
+		this.patientsRepo = patientsRepo;
+		this.rangeCatalog = rangeCatalog;
+		this.packedCodec = packedCodec;
+		this.packedResults = packedResults;
+		
+		this.allTestsFlight = new SingleFlight<>("getAllTests", meterRegistry);
+		this.testDetailsFlight = new SingleFlight<>("getTestDetails", meterRegistry, TestDetails::copy);
+		
+		this.readUncommittedTx = new TransactionTemplate(transactionManager);
+		this.readUncommittedTx.setIsolationLevel(TransactionDefinition.ISOLATION_READ_UNCOMMITTED);
+		this.readUncommittedTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+		
+		this.readOnlyTx = new TransactionTemplate(transactionManager);
+		this.readOnlyTx.setReadOnly(true);
+	}
+	
+	/**
+	 * Se lo sharding è attivo (vedi ShardingConfig.java), gli esami non si trovano più sul
+	 * DB principale ma sono partizionati su più database. Come per il PasswordEncoder di
+	 * UsersService, la dipendenza è facoltativa: se il bean non esiste, continuiamo a usare
+	 * i repository JPA.
+	 */
+	
+	private ShardedMedicalTestsStore shardedStore;
+	
+	@Autowired(required=false)
+	public void setShardedStore(ShardedMedicalTestsStore shardedStore) {
+		this.shardedStore = shardedStore;
+	}
+	
+	/**
+	 * Anche l'archivio degli esami più vecchi (vedi ArchiveConfig.java) è facoltativo: se
+	 * esiste, il dettaglio di un esame che non si trova più sul DB viene letto da lì.
+	 */
+	
+	private MedicalTestsArchive archive;
+	
+	@Autowired(required=false)
+	public void setArchive(MedicalTestsArchive archive) {
+		this.archive = archive;
+	}
+	
+	/**
+	 * Con più istanze dell'applicazione, il bus delle invalidazioni (vedi
+	 * CacheInvalidationBus.java) avvisa gli altri nodi dei nuovi esami, e di quelli
+	 * cancellati, archiviati o ricalcolati dai job.
+	 */
+	
+	private CacheInvalidationBus invalidationBus;
+	
+	@Autowired(required=false)
+	public void setInvalidationBus(CacheInvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
 	}
 	
-	@Transactional(isolation=Isolation.READ_UNCOMMITTED, propagation=Propagation.REQUIRED)
 	public List<TestSummary> getAllTests() {
-		medicalTestsRepo.findBy(TestSummary.class);
-
-		// se qualcuno inserisce nella tabelle un nuovo record
-		// (quindi non una modifica a un record già esistente)
+		return allTestsFlight.load(Boolean.TRUE, () -> Collections.unmodifiableList(loadAllTests()));
+	}
+	
+	private List<TestSummary> loadAllTests() {
+		if(shardedStore != null) {
+			return toSummaries(shardedStore.findAll());
+		}
 		
-		return medicalTestsRepo.findBy(TestSummary.class);
+		return readUncommittedTx.execute(status -> {
+			medicalTestsRepo.findAllSummaries();
+
+			// se qualcuno inserisce nella tabelle un nuovo record
+			// (quindi non una modifica a un record già esistente)
+			
+			return toSummaries(medicalTestsRepo.findAllSummaries());
+		});
 	}
 
 	/**
@@ -50,17 +217,345 @@ public class MedicalTestsService {
 	 * il presentation layer, e a maggior ragione per il client). Anche in questo caso, le
 	 * proiezioni supportate dai repository di Spring Data ci aiutano notevolmente a rendere
 	 * più automatico il mapping tra le entità e gli oggetti del dominio applicativo.
+	 * 
+	 * In questo caso, però, l'esame e i suoi risultati vengono letti con un'unica query
+	 * grazie all'entity graph "MedicalTest.withResults" (vedi MedicalTest.java), invece di
+	 * eseguire due query separate. Restituisce null se l'esame non esiste.
 	 */
 	
 	public TestDetails getTestDetails(Long id) {
-		TestDetails testDetails = medicalTestsRepo.findById(id, TestDetails.class);
-		List<TestResult> testResults = medicalTestResultsRepo.findAllByMedicalTestId(id, TestResult.class);
+		return testDetailsFlight.load(id, () -> loadTestDetails(id));
+	}
+	
+	private TestDetails loadTestDetails(Long id) {
+		if(shardedStore != null) {
+			return getShardedTestDetails(id);
+		}
+		
+		TestDetails testDetails = readOnlyTx.execute(status -> medicalTestsRepo.findWithResultsById(id)
+			.map(this::toTestDetails)
+			.orElse(null));
+		
+		if(testDetails == null && archive != null) {
+			ArchivedTest archivedTest = archive.findById(id);
+			testDetails = archivedTest != null ? toTestDetails(archivedTest) : null;
+		}
+		
+		return testDetails;
+	}
+	
+	/**
+	 * La collezione dei risultati è già stata caricata dall'entity graph, e l'id del paziente
+	 * si trova nel proxy creato da Hibernate (vedi MedicalTest.patient): qui non viene
+	 * eseguita nessuna query. Se l'esame ha i risultati in formato compatto, la collezione è
+	 * vuota e i risultati vengono decodificati dalla colonna packedResults.
+	 */
+	
+	private TestDetails toTestDetails(MedicalTest testEntity) {
+		MappingEvent event = MappingEvent.start();
+		TestDetails testDetails = new TestDetails(testEntity.getId(), testEntity.getPatient().getId(), testEntity.getDescription(), testEntity.getDateTime());
+		CompactTestResults testResults;
+		
+		if(testEntity.getPackedResults() != null) {
+			testResults = decodeResults(testEntity.getPackedResults());
+		}
+		else {
+			testResults = new CompactTestResults(testEntity.getMedicalTestResults().size());
+			
+			for(MedicalTestResult res : testEntity.getMedicalTestResults()) {
+				testResults.add(res.getParamName(), res.getParamValue(), res.getFlag());
+			}
+		}
 		
 		testDetails.setResults(testResults);
 		
+		event.finish(MedicalTest.class, TestDetails.class, testResults.size());
+		
 		return testDetails;
 	}
 	
+	private static TestDetails toTestDetails(ArchivedTest archivedTest) {
+		MappingEvent event = MappingEvent.start();
+		TestDetails testDetails = new TestDetails(archivedTest.getId(), archivedTest.getPatientId(), archivedTest.getDescription(), archivedTest.getDateTime());
+		CompactTestResults testResults = new CompactTestResults(archivedTest.getResults().size());
+		
+		for(ArchivedResult res : archivedTest.getResults()) {
+			testResults.add(res.getParamName(), res.getParamValue(), res.getFlag());
+		}
+		
+		testDetails.setResults(testResults);
+		
+		event.finish(ArchivedTest.class, TestDetails.class, testResults.size());
+		
+		return testDetails;
+	}
+	
+	/**
+	 * Il formato compatto non contiene i flag: vengono calcolati qui, con gli intervalli di
+	 * riferimento attuali. Il risultato è lo stesso dei flag salvati nelle righe, che vengono
+	 * ricalcolati quando cambia un intervallo (vedi ReferenceRangeReevaluator.java).
+	 */
+	
+	private CompactTestResults decodeResults(byte[] packed) {
+		ReferenceRangesSnapshot ranges = rangeCatalog.current();
+		CompactTestResults testResults = new CompactTestResults(PackedResultsCodec.count(packed));
+		
+		packedCodec.decode(packed, (paramName, paramValue) ->
+			testResults.add(paramName, paramValue, ranges.evaluate(paramName, paramValue)));
+		
+		return testResults;
+	}
+	
+	/**
+	 * Varianti di getAllTests() e getTestDetails() per i client che chiedono soltanto alcuni
+	 * campi (es. "id,dateTime"): il repository costruisce una query che seleziona solo le
+	 * colonne richieste, e i risultati dell'esame vengono letti solo se compaiono tra i campi.
+	 * Con lo sharding attivo, invece, le righe vengono lette per intero e poi filtrate qui.
+	 * 
+	 * Come per getTestDetails(), un esame che non si trova più sul DB viene cercato
+	 * nell'archivio, da cui i campi vengono poi filtrati qui. Come getAllTests(), invece,
+	 * l'elenco contiene soltanto gli esami presenti sul DB: l'archivio si può leggere
+	 * solo per id.
+	 * 
+	 * Un campo sconosciuto provoca una IllegalArgumentException.
+	 */
+	
+	public List<Map<String, Object>> getAllTests(String fields) {
+		SparseFieldsPlan plan = medicalTestsRepo.planFor(fields);
+		
+		if(plan.includesResults()) {
+			throw new IllegalArgumentException("Il campo results è disponibile solo per il singolo esame");
+		}
+		
+		if(shardedStore != null) {
+			List<Map<String, Object>> rows = new ArrayList<>();
+			
+			for(TestSummaryRow row : shardedStore.findAll()) {
+				rows.add(project(row, plan));
+			}
+			
+			return rows;
+		}
+		
+		return medicalTestsRepo.findFieldsBy(plan);
+	}
+	
+	public Map<String, Object> getTestDetails(long id, String fields) {
+		SparseFieldsPlan plan = medicalTestsRepo.planFor(fields);
+		Map<String, Object> testDetails;
+		
+		if(shardedStore != null) {
+			TestSummaryRow row = shardedStore.findById(id);
+			testDetails = row != null ? project(row, plan) : null;
+		}
+		else {
+			testDetails = medicalTestsRepo.findFieldsById(id, plan).orElse(null);
+			
+			if(testDetails == null && archive != null) {
+				ArchivedTest archivedTest = archive.findById(id);
+				
+				if(archivedTest == null) {
+					return null;
+				}
+				
+				TestSummaryRow row = new TestSummaryRow(archivedTest.getId(), archivedTest.getPatientId(), archivedTest.getDescription(), archivedTest.getDateTime());
+				testDetails = project(row, plan);
+				
+				if(plan.includesResults()) {
+					testDetails.put(SparseFieldsPlan.RESULTS, toTestDetails(archivedTest).getResults());
+				}
+				
+				return testDetails;
+			}
+		}
+		
+		if(testDetails != null && plan.includesResults()) {
+			testDetails.put(SparseFieldsPlan.RESULTS, loadTestResults(id));
+		}
+		
+		return testDetails;
+	}
+	
+	/**
+	 * Gli esami di un singolo paziente si trovano tutti sullo stesso shard, perciò in questo
+	 * caso la query viene eseguita su un solo database anche quando lo sharding è attivo.
+	 */
+	
+	public List<TestSummary> getTestsOfPatient(long patientId) {
+		if(shardedStore != null) {
+			return toSummaries(shardedStore.findAllByPatientId(patientId));
+		}
+		
+		return toSummaries(medicalTestsRepo.findSummariesByPatientId(patientId));
+	}
+	
+	/**
+	 * Gli ultimi "limit" esami di un paziente, dal più recente. Con lo sharding gli esami del
+	 * paziente sono comunque su un solo shard: li leggiamo tutti e li ordiniamo qui.
+	 */
+	
+	public List<TestSummary> getRecentTestsOfPatient(long patientId, int limit) {
+		if(shardedStore != null) {
+			List<TestSummaryRow> rows = new ArrayList<>(shardedStore.findAllByPatientId(patientId));
+			rows.sort(Comparator.comparing(TestSummaryRow::getDateTime, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+				.thenComparing(TestSummaryRow::getId)
+				.reversed());
+			
+			return toSummaries(rows.subList(0, Math.min(limit, rows.size())));
+		}
+		
+		return toSummaries(medicalTestsRepo.findRecentSummariesByPatientId(patientId, PageRequest.of(0, limit)));
+	}
+	
+	/**
+	 * L'ultimo valore misurato di ogni parametro di un paziente, in ordine di nome. Sul DB
+	 * principale basta una query (vedi MedicalTestResultsRepository.findLatestByPatientId()),
+	 * a cui si aggiungono i valori degli esami salvati in formato compatto, se più recenti;
+	 * con lo sharding leggiamo invece i risultati di tutti gli esami del paziente con un'unica
+	 * query (vedi ShardedMedicalTestsStore.findResultsByTestIds()) e scorriamo gli esami dal
+	 * più recente, tenendo il primo valore trovato per ogni parametro.
+	 */
+	
+	public List<LatestResult> getLatestResultsOfPatient(long patientId) {
+		Map<String, LatestResult> latest = new TreeMap<>();
+		
+		if(shardedStore != null) {
+			List<TestSummary> tests = getRecentTestsOfPatient(patientId, Integer.MAX_VALUE);
+			List<Long> testIds = new ArrayList<>(tests.size());
+			
+			for(TestSummary test : tests) {
+				testIds.add(test.getId());
+			}
+			
+			Map<Long, List<ShardedResultRow>> results = shardedStore.findResultsByTestIds(testIds);
+			
+			for(TestSummary test : tests) {
+				for(ShardedResultRow res : results.getOrDefault(test.getId(), List.of())) {
+					ResultFlag flag = res.getFlag() != null ? ResultFlag.valueOf(res.getFlag()) : null;
+					latest.putIfAbsent(res.getParamName(), new LatestResult(res.getParamName(), res.getParamValue(), flag, test.getDateTime(), test.getId()));
+				}
+			}
+		}
+		else {
+			readOnlyTx.executeWithoutResult(status -> {
+				for(LatestResultRow res : medicalTestResultsRepo.findLatestByPatientId(patientId)) {
+					latest.putIfAbsent(res.getParamName(), new LatestResult(res.getParamName(), res.getParamValue(), res.getFlag(), res.getDateTime(), res.getTestId()));
+				}
+				
+				ReferenceRangesSnapshot ranges = rangeCatalog.current();
+				Set<String> packedParams = new HashSet<>();
+				
+				// Dal più recente: di ogni parametro conta solo il primo esame che lo contiene.
+				try(Stream<PackedTestRow> tests = medicalTestsRepo.streamPackedNewestFirstByPatientId(patientId)) {
+					tests.forEach(test -> packedCodec.decode(test.getPackedResults(), (paramName, paramValue) -> {
+						if(!packedParams.add(paramName)) {
+							return;
+						}
+						
+						LatestResult current = latest.get(paramName);
+						
+						if(current == null || current.getDateTime() == null || !test.getDateTime().isBefore(current.getDateTime())) {
+							Float value = Float.isNaN(paramValue) ? null : paramValue;
+							latest.put(paramName, new LatestResult(paramName, value, ranges.evaluate(paramName, paramValue), test.getDateTime(), test.getId()));
+						}
+					}));
+				}
+			});
+		}
+		
+		return new ArrayList<>(latest.values());
+	}
+	
+	/**
+	 * Serie storica dei valori di un parametro di un paziente, pensata per essere disegnata
+	 * in un grafico: indipendentemente dal numero di esami del paziente, la risposta contiene
+	 * al più "points" punti (di default DEFAULT_HISTORY_POINTS, mai più di MAX_HISTORY_POINTS).
+	 * 
+	 * Una prima query (che usa lo stesso indice della seconda) legge soltanto il numero di
+	 * valori e l'intervallo temporale della serie. Se i valori sono pochi vengono restituiti
+	 * tutti; altrimenti la serie viene letta una riga alla volta e ridotta man mano dal
+	 * MinMaxDownsampler, che usa una quantità di memoria costante.
+	 * 
+	 * I valori degli esami salvati in formato compatto (vedi PackedResultsCodec.java) non si
+	 * possono selezionare con una query: gli esami vengono letti un po' alla volta e
+	 * decodificati uno per uno, e i valori vengono uniti in ordine di tempo a quelli letti
+	 * dalla tabella dei risultati. Gli esami in formato compatto vengono letti due volte (per
+	 * l'intervallo e per la serie), così la memoria usata non dipende dal loro numero.
+	 */
+	
+	public ParameterHistory getParameterHistory(long patientId, String paramName, Integer points) {
+		int maxPoints = points == null || points <= 0 ? DEFAULT_HISTORY_POINTS : Math.min(Math.max(points, 2), MAX_HISTORY_POINTS);
+		
+		if(shardedStore != null) {
+			return loadShardedHistory(patientId, paramName, maxPoints);
+		}
+		
+		return readOnlyTx.execute(status -> {
+			HistoryRange range = toRange(medicalTestResultsRepo.findHistoryRange(patientId, paramName));
+			
+			try(Stream<PackedTestRow> tests = medicalTestsRepo.streamPackedByPatientId(patientId)) {
+				range = range.include(HistoryRange.of(decodeHistory(tests, paramName)));
+			}
+			
+			if(range.getCount() == 0) {
+				return new ParameterHistory(paramName, 0, List.of());
+			}
+			
+			try(Stream<HistoryPointRow> rows = medicalTestResultsRepo.streamHistory(patientId, paramName);
+				Stream<PackedTestRow> tests = medicalTestsRepo.streamPackedByPatientId(patientId)) {
+				
+				Stream<HistoryPoint> series = MergedSeries.merge(rows.map(row -> new HistoryPoint(row.getDateTime(), row.getParamValue())), decodeHistory(tests, paramName));
+				
+				if(range.getCount() <= maxPoints) {
+					return new ParameterHistory(paramName, range.getCount(), series.limit(maxPoints).toList());
+				}
+				
+				MinMaxDownsampler downsampler = new MinMaxDownsampler(range.getFrom(), range.getTo(), maxPoints);
+				series.forEach(point -> downsampler.add(point.getDateTime(), point.getParamValue()));
+				
+				return new ParameterHistory(paramName, range.getCount(), downsampler.finish());
+			}
+		});
+	}
+	
+	/**
+	 * Con mapMulti ogni esame passa i propri valori direttamente allo Stream successivo,
+	 * tramite il visitor del codec, senza creare una lista per ogni esame.
+	 */
+	
+	private Stream<HistoryPoint> decodeHistory(Stream<PackedTestRow> tests, String paramName) {
+		return tests.mapMulti((test, downstream) -> packedCodec.decode(test.getPackedResults(), (name, value) -> {
+			if(!Float.isNaN(value) && name.equals(paramName)) {
+				downstream.accept(new HistoryPoint(test.getDateTime(), value));
+			}
+		}));
+	}
+	
+	private ParameterHistory loadShardedHistory(long patientId, String paramName, int maxPoints) {
+		HistoryRange range = toRange(shardedStore.findHistoryRange(patientId, paramName));
+		
+		if(range.getCount() == 0) {
+			return new ParameterHistory(paramName, 0, List.of());
+		}
+		
+		if(range.getCount() <= maxPoints) {
+			List<HistoryPoint> points = new ArrayList<>((int) range.getCount());
+			
+			shardedStore.streamHistory(patientId, paramName, (dateTime, value) -> {
+				if(points.size() < maxPoints) {
+					points.add(new HistoryPoint(dateTime, value));
+				}
+			});
+			
+			return new ParameterHistory(paramName, range.getCount(), points);
+		}
+		
+		MinMaxDownsampler downsampler = new MinMaxDownsampler(range.getFrom(), range.getTo(), maxPoints);
+		shardedStore.streamHistory(patientId, paramName, downsampler::add);
+		
+		return new ParameterHistory(paramName, range.getCount(), downsampler.finish());
+	}
+	
 	/**
 	 * La discrepanza tra la struttura degli oggetti applicativi e la struttura del DB pone
 	 * qui un'ulteriore difficoltà. Il service layer ha la responsabilità di effettuare il
@@ -86,11 +581,25 @@ public class MedicalTestsService {
 	 * Un altro possibile modo di avviare, annullare, o committare una transazione è quello
 	 * di farsi iniettare come dipendenza l'EntityManager di JPA, il quale espone metodi
 	 * che possiamo utilizzare per effettuare manualmente queste operazioni.
+	 * 
+	 * I flag dei risultati (basso, normale, alto) vengono calcolati qui, una volta sola, e
+	 * salvati insieme ai risultati: le letture si limitano a restituirli.
 	 * @throws Exception 
 	 */
 
 	@Transactional(rollbackFor = { Exception.class })
 	public TestDetails saveTest(TestDetails testDetails) throws Exception {		
+		if(testDetails.getDateTime() == null) {
+			testDetails.setDateTime(LocalDateTime.now());
+		}
+		
+		evaluateFlags(testDetails);
+		
+		if(shardedStore != null) {
+			saveShardedTest(testDetails);
+			return publishCreated(testDetails);
+		}
+		
 		MedicalTest testEntity = new MedicalTest();
 		
 		Patient p = new Patient();
@@ -98,6 +607,11 @@ public class MedicalTestsService {
 		
 		testEntity.setPatient(p);
 		testEntity.setDescription(testDetails.getDescription());
+		testEntity.setDateTime(testDetails.getDateTime());
+		
+		if(packedResults) {
+			testEntity.setPackedResults(packedCodec.encode(testDetails.getResults(), TestResult::getParamName, TestResult::getParamValue));
+		}
 		
 		// Senza @Transactional, questa operazione verrebbe committata immediatamente.
 		medicalTestsRepo.save(testEntity);
@@ -110,14 +624,305 @@ public class MedicalTestsService {
 			throw new Exception("Something went wrong while saving the test.");
 		}
 		*/
-				
-		for(TestResult res : testDetails.getResults()) {
-			MedicalTestResult resultEntity = new MedicalTestResult(testEntity, res.getParamName(), res.getParamValue());
-			medicalTestResultsRepo.save(resultEntity);
+		
+		if(!packedResults) {
+			for(TestResult res : testDetails.getResults()) {
+				MedicalTestResult resultEntity = new MedicalTestResult(testEntity, res.getParamName(), res.getParamValue(), res.getFlag());
+				medicalTestResultsRepo.save(resultEntity);
+			}
 		}
 		
 		testDetails.setId(testEntity.getId());
+		
+		updateDashboard(testDetails);
 				
+		return publishCreated(testDetails);
+	}
+	
+	/**
+	 * Tutti i risultati dell'esame vengono valutati con la stessa fotografia degli intervalli
+	 * di riferimento, anche se nel frattempo un intervallo dovesse cambiare.
+	 */
+	
+	private void evaluateFlags(TestDetails testDetails) {
+		if(testDetails.getResults() == null) {
+			return;
+		}
+		
+		ReferenceRangesSnapshot ranges = rangeCatalog.current();
+		
+		for(TestResult res : testDetails.getResults()) {
+			res.setFlag(ranges.evaluate(res.getParamName(), res.getParamValue()));
+		}
+	}
+	
+	/**
+	 * Dopo il commit di un nuovo esame, le letture già in corso potrebbero non vederlo:
+	 * le richieste successive non devono quindi accodarsi a quelle letture. Gli altri nodi
+	 * devono invece scartare il paziente e gli elenchi di esami che hanno in cache.
+	 *
+	 * L'invalidazione deve avvenire prima che l'esame compaia nel feed (vedi
+	 * MedicalTestsFeed.onTestCreated()): un client che ricarica l'elenco degli esami appena
+	 * ricevuto l'evento non deve accodarsi a una lettura iniziata prima del commit, che non lo
+	 * contiene. Per questo l'ascoltatore ha la precedenza più alta, e quello del feed la più bassa.
+	 */
+	
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	@TransactionalEventListener(fallbackExecution=true)
+	public void onTestCreated(TestCreatedEvent event) {
+		allTestsFlight.invalidate();
+		testDetailsFlight.invalidate();
+		
+		if(invalidationBus != null) {
+			TestSummary test = event.getTest();
+			
+			invalidationBus.publish(
+				CacheInvalidation.entity(CacheInvalidation.MEDICAL_TESTS, test.getId()),
+				CacheInvalidation.entity(CacheInvalidation.PATIENTS, test.getPatientId()),
+				CacheInvalidation.queries());
+		}
+	}
+	
+	/**
+	 * Lo stesso vale quando gli esami vengono cancellati, archiviati o ricalcolati da un job
+	 * (vedi TestsChangedEvent.java): le letture iniziate prima potrebbero restituire esami
+	 * che non esistono più, o flag non aggiornati. Gli altri nodi devono scartare gli esami
+	 * coinvolti, oppure tutti quelli in cache se l'evento non li elenca.
+	 */
+	
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	@TransactionalEventListener(fallbackExecution=true)
+	public void onTestsChanged(TestsChangedEvent event) {
+		allTestsFlight.invalidate();
+		testDetailsFlight.invalidate();
+		
+		if(invalidationBus != null) {
+			List<CacheInvalidation> invalidations = new ArrayList<>(event.getTestIds().size() + 2);
+			
+			if(event.isAll()) {
+				invalidations.add(CacheInvalidation.region(CacheInvalidation.MEDICAL_TESTS));
+			}
+			
+			for(Long id : event.getTestIds()) {
+				invalidations.add(CacheInvalidation.entity(CacheInvalidation.MEDICAL_TESTS, id));
+			}
+			
+			invalidations.add(CacheInvalidation.queries());
+			invalidationBus.publish(invalidations);
+		}
+	}
+	
+	/**
+	 * Il riepilogo del paziente (vedi PatientDashboard.java) viene aggiornato all'interno
+	 * della stessa transazione che salva l'esame: o vengono salvati entrambi, o nessuno dei
+	 * due. Il lock sulla riga del riepilogo serializza i salvataggi concorrenti degli esami
+	 * di uno stesso paziente, ma non quelli di pazienti diversi.
+	 */
+	
+	private void updateDashboard(TestDetails testDetails) {
+		PatientDashboard dashboard = lockDashboard(testDetails.getPatientId());
+		
+		Map<String, Float> values = new LinkedHashMap<>();
+		
+		if(testDetails.getResults() != null) {
+			for(TestResult res : testDetails.getResults()) {
+				values.put(res.getParamName(), res.getParamValue());
+			}
+		}
+		
+		dashboard.recordTest(testDetails.getDateTime(), testDetails.getDescription(), values);
+		patientDashboardsRepo.save(dashboard);
+	}
+	
+	/**
+	 * Ricalcola da capo i riepiloghi dei pazienti indicati a partire dagli esami rimasti sul
+	 * DB. Viene invocato dai job che cancellano o archiviano gli esami (vedi RetentionPurgeJob
+	 * .java e MedicalTestsArchiver.java) nella stessa transazione della cancellazione, perciò
+	 * come quei job non supporta lo sharding.
+	 * 
+	 * Il lock sul riepilogo viene acquisito prima di leggere gli esami: un salvataggio
+	 * concorrente ha già fatto il commit (e le letture vedono il suo esame), oppure aspetta
+	 * il lock e aggiorna il riepilogo già ricalcolato. In entrambi i casi l'esame viene
+	 * contato una sola volta.
+	 */
+	
+	public void rebuildDashboards(Collection<Long> patientIds) {
+		for(Long patientId : patientIds) {
+			PatientDashboard dashboard = lockDashboard(patientId);
+			int testsCount = medicalTestsRepo.countByPatientId(patientId);
+			
+			if(testsCount == 0) {
+				patientDashboardsRepo.delete(dashboard);
+				continue;
+			}
+			
+			TestSummaryRow lastTest = medicalTestsRepo.findRecentSummariesByPatientId(patientId, PageRequest.ofSize(1)).get(0);
+			Map<String, Float> values = new LinkedHashMap<>();
+			Map<String, LocalDateTime> times = new LinkedHashMap<>();
+			
+			for(LatestResult res : getLatestResultsOfPatient(patientId)) {
+				values.put(res.getParamName(), res.getParamValue());
+				times.put(res.getParamName(), res.getDateTime());
+			}
+			
+			dashboard.rebuild(testsCount, lastTest.getDateTime(), lastTest.getDescription(), values, times);
+			patientDashboardsRepo.save(dashboard);
+		}
+	}
+	
+	/**
+	 * Restituisce il riepilogo del paziente, bloccato fino alla fine della transazione,
+	 * creandolo se non esiste ancora. Un SELECT ... FOR UPDATE su una riga che non esiste non
+	 * blocca nulla: due primi esami concorrenti dello stesso paziente proverebbero entrambi a
+	 * inserire il riepilogo, e il secondo fallirebbe per la chiave primaria duplicata. In quel
+	 * caso blocchiamo quindi la riga del paziente, che esiste sempre, e cerchiamo di nuovo il
+	 * riepilogo: chi arriva per secondo aspetta il commit del primo, e trova la sua riga.
+	 */
+	
+	private PatientDashboard lockDashboard(long patientId) {
+		Optional<PatientDashboard> dashboard = patientDashboardsRepo.findForUpdate(patientId);
+		
+		if(dashboard.isPresent()) {
+			return dashboard.get();
+		}
+		
+		if(patientsRepo.findForUpdate(patientId).isEmpty()) {
+			throw new IllegalArgumentException("Unknown patient: " + patientId);
+		}
+		
+		return patientDashboardsRepo.findForUpdate(patientId)
+			.orElseGet(() -> patientDashboardsRepo.save(new PatientDashboard(patientId)));
+	}
+	
+	/**
+	 * Segnaliamo la creazione dell'esame a chi è interessato (es. il feed dei nuovi esami).
+	 * L'evento viene consegnato solo dopo il commit della transazione di saveTest().
+	 */
+	
+	private TestDetails publishCreated(TestDetails testDetails) {
+		TestSummary summary = new TestSummary(testDetails.getId(), testDetails.getPatientId(), testDetails.getDescription(), testDetails.getDateTime());
+		eventPublisher.publishEvent(new TestCreatedEvent(summary));
+		
+		return testDetails;
+	}
+	
+	private TestDetails getShardedTestDetails(long id) {
+		TestSummaryRow row = shardedStore.findById(id);
+		
+		if(row == null) {
+			return null;
+		}
+		
+		TestDetails testDetails = new TestDetails(row.getId(), row.getPatientId(), row.getDescription(), row.getDateTime());
+		testDetails.setResults(loadTestResults(id));
+		
+		return testDetails;
+	}
+	
+	private List<TestResult> loadTestResults(long id) {
+		if(shardedStore == null) {
+			List<TestResultRow> rows = medicalTestResultsRepo.findRowsByMedicalTestId(id);
+			
+			if(rows.isEmpty()) {
+				byte[] packed = medicalTestsRepo.findPackedResultsById(id);
+				return packed != null ? decodeResults(packed) : new CompactTestResults(0);
+			}
+			
+			CompactTestResults testResults = new CompactTestResults(rows.size());
+			
+			for(TestResultRow res : rows) {
+				testResults.add(res.getParamName(), res.getParamValue(), res.getFlag());
+			}
+			
+			return testResults;
+		}
+		
+		List<ShardedResultRow> rows = shardedStore.findResultsByTestId(id);
+		CompactTestResults testResults = new CompactTestResults(rows.size());
+		
+		for(ShardedResultRow res : rows) {
+			ResultFlag flag = res.getFlag() != null ? ResultFlag.valueOf(res.getFlag()) : null;
+			testResults.add(res.getParamName(), res.getParamValue(), flag);
+		}
+		
+		return testResults;
+	}
+	
+	private static Map<String, Object> project(TestSummaryRow row, SparseFieldsPlan plan) {
+		Map<String, Object> projected = new LinkedHashMap<>();
+		
+		for(String column : plan.getColumns()) {
+			switch(column) {
+				case "id" -> projected.put(column, row.getId());
+				case "patientId" -> projected.put(column, row.getPatientId());
+				case "description" -> projected.put(column, row.getDescription());
+				case "dateTime" -> projected.put(column, row.getDateTime());
+				default -> throw new IllegalStateException(column);
+			}
+		}
+		
+		return projected;
+	}
+	
+	/**
+	 * Con lo sharding l'esame viene salvato sullo shard del paziente, con una transazione
+	 * locale di quel database, mentre il paziente e il suo riepilogo si trovano sul DB
+	 * principale, nella transazione JPA di saveTest(): le due transazioni non possono essere
+	 * committate in modo atomico, e lo shard non può nemmeno verificare con una foreign key
+	 * che il paziente esista.
+	 * 
+	 * Per questo il paziente viene cercato esplicitamente e il riepilogo viene aggiornato
+	 * prima di scrivere sullo shard: se una di queste operazioni fallisce, lo shard non viene
+	 * toccato. L'esame viene scritto per ultimo, e se dopo il suo commit la transazione JPA
+	 * viene comunque annullata (es. per un errore al momento del commit), lo eliminiamo dallo
+	 * shard ("transazione di compensazione"). Resta una breve finestra in cui l'esame è
+	 * visibile sullo shard prima che il riepilogo sia committato.
+	 */
+	
+	private TestDetails saveShardedTest(TestDetails testDetails) {
+		if(testDetails.getPatientId() == null || !patientsRepo.existsById(testDetails.getPatientId())) {
+			throw new IllegalArgumentException("Unknown patient: " + testDetails.getPatientId());
+		}
+		
+		updateDashboard(testDetails);
+		
+		List<ShardedResultRow> results = new ArrayList<>();
+		
+		if(testDetails.getResults() != null) {
+			for(TestResult res : testDetails.getResults()) {
+				results.add(new ShardedResultRow(res.getParamName(), res.getParamValue(), res.getFlag() != null ? res.getFlag().name() : null));
+			}
+		}
+		
+		long id = shardedStore.saveTest(testDetails.getPatientId(), testDetails.getDescription(), testDetails.getDateTime(), results);
+		testDetails.setId(id);
+		
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if(status == STATUS_ROLLED_BACK) {
+						log.warn("Main transaction rolled back: removing medical test {} from its shard", id);
+						shardedStore.deleteTest(id);
+					}
+				}
+			});
+		}
+		
 		return testDetails;
 	}
+	
+	private static List<TestSummary> toSummaries(List<TestSummaryRow> rows) {
+		List<TestSummary> summaries = new ArrayList<>(rows.size());
+		
+		for(TestSummaryRow row : rows) {
+			summaries.add(new TestSummary(row.getId(), row.getPatientId(), row.getDescription(), row.getDateTime()));
+		}
+		
+		return summaries;
+	}
+	
+	private static HistoryRange toRange(HistoryRangeRow row) {
+		return new HistoryRange(row.getCount(), row.getFrom(), row.getTo());
+	}
 }
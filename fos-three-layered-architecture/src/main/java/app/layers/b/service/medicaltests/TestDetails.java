@@ -1,7 +1,9 @@
 package app.layers.b.service.medicaltests;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -81,4 +83,28 @@ public class TestDetails {
 	public void setResults(Collection<TestResult> results) {
 		this.results = results;
 	}
+	
+	/**
+	 * Una copia dell'esame e dei suoi risultati, che può essere modificata senza effetti
+	 * sull'originale (vedi SingleFlight.java).
+	 */
+	
+	public TestDetails copy() {
+		TestDetails copy = new TestDetails(id, patientId, description, dateTime);
+		
+		if(results instanceof CompactTestResults compact) {
+			copy.setResults(compact.copy());
+		}
+		else if(results != null) {
+			List<TestResult> copiedResults = new ArrayList<>(results.size());
+			
+			for(TestResult res : results) {
+				copiedResults.add(new TestResult(res.getParamName(), res.getParamValue(), res.getFlag()));
+			}
+			
+			copy.setResults(copiedResults);
+		}
+		
+		return copy;
+	}
 }
@@ -1,12 +1,23 @@
 package app.layers.b.service.medicaltests;
 
+import app.layers.c.data.entities.ResultFlag;
+
 public class TestResult {
 	private String paramName; // Es. Ca++
 	private Float paramValue; // Es. 16.8
 	
-	public TestResult(String paramName, Float paramValue) {
+	/**
+	 * Calcolato al salvataggio dell'esame, rispetto all'intervallo di riferimento del
+	 * parametro (vedi ReferenceRangeCatalog.java): un eventuale valore inviato dal client
+	 * viene quindi ignorato.
+	 */
+	
+	private ResultFlag flag;
+	
+	public TestResult(String paramName, Float paramValue, ResultFlag flag) {
 		this.paramName = paramName;
 		this.paramValue = paramValue;
+		this.flag = flag;
 	}
 
 	public String getParamName() {
@@ -24,4 +35,12 @@ public class TestResult {
 	public void setParamValue(Float paramValue) {
 		this.paramValue = paramValue;
 	}
+
+	public ResultFlag getFlag() {
+		return flag;
+	}
+
+	public void setFlag(ResultFlag flag) {
+		this.flag = flag;
+	}
 }
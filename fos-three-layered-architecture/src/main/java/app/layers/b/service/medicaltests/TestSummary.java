@@ -2,9 +2,47 @@ package app.layers.b.service.medicaltests;
 
 import java.time.LocalDateTime;
 
-public interface TestSummary {
-	Long getId();
-	Long getPatientId();
-	String getDescription();
-	LocalDateTime getDateTime();
+/**
+ * Inizialmente questa proiezione era un'interfaccia: comoda da scrivere, ma per ogni riga
+ * restituita Spring Data deve creare un proxy dinamico (basato su una mappa dei valori) che
+ * Jackson, a sua volta, serializza invocandone i getter tramite reflection. Su elenchi lunghi
+ * il costo in termini di allocazioni e CPU diventa significativo.
+ * 
+ * Il repository seleziona invece soltanto le colonne che ci servono con una "constructor
+ * expression" JPQL (select new ...), e Hibernate istanzia direttamente un oggetto per riga,
+ * senza proxy né mappe intermedie. L'oggetto istanziato è una proiezione del data layer
+ * (TestSummaryRow), che il service layer converte in questa classe con un semplice
+ * costruttore.
+ * 
+ * (Vedi MedicalTestsRepository.java)
+ */
+
+public class TestSummary {
+	private final Long id;
+	private final Long patientId;
+	private final String description;
+	private final LocalDateTime dateTime;
+	
+	public TestSummary(Long id, Long patientId, String description, LocalDateTime dateTime) {
+		this.id = id;
+		this.patientId = patientId;
+		this.description = description;
+		this.dateTime = dateTime;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public Long getPatientId() {
+		return patientId;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
 }
@@ -0,0 +1,36 @@
+package app.layers.b.service.medicaltests;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Evento pubblicato quando degli esami già salvati vengono cancellati o modificati fuori
+ * da MedicalTestsService: la cancellazione degli esami troppo vecchi (vedi
+ * RetentionPurgeJob.java), lo spostamento nell'archivio (vedi MedicalTestsArchiver.java)
+ * e il ricalcolo dei flag dopo la modifica di un intervallo di riferimento (vedi
+ * ReferenceRangeReevaluator.java). Come per TestCreatedEvent, gli ascoltatori registrati
+ * con @TransactionalEventListener lo ricevono soltanto dopo il commit della transazione.
+ * 
+ * Gli id indicano gli esami coinvolti; un elenco vuoto indica che potrebbero essere
+ * coinvolti tutti (es. il ricalcolo dei flag di un parametro).
+ */
+
+public class TestsChangedEvent {
+	private final List<Long> testIds;
+	
+	public TestsChangedEvent(Collection<Long> testIds) {
+		this.testIds = List.copyOf(testIds);
+	}
+	
+	public static TestsChangedEvent all() {
+		return new TestsChangedEvent(List.of());
+	}
+	
+	public List<Long> getTestIds() {
+		return testIds;
+	}
+	
+	public boolean isAll() {
+		return testIds.isEmpty();
+	}
+}
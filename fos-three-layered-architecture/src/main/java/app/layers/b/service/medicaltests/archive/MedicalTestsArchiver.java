@@ -0,0 +1,248 @@
+package app.layers.b.service.medicaltests.archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import app.layers.b.service.medicaltests.MedicalTestsService;
+import app.layers.b.service.medicaltests.TestsChangedEvent;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangeCatalog;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangesSnapshot;
+import app.layers.c.data.archive.ArchivedResult;
+import app.layers.c.data.archive.ArchivedTest;
+import app.layers.c.data.archive.MedicalTestsArchive;
+import app.layers.c.data.entities.MedicalTest;
+import app.layers.c.data.entities.MedicalTestResult;
+import app.layers.c.data.packed.PackedResultsCodec;
+import app.layers.c.data.repositories.MedicalTestResultsRepository;
+import app.layers.c.data.repositories.MedicalTestsRepository;
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Job periodico che sposta nell'archivio (vedi MedicalTestsArchive.java) gli esami più
+ * vecchi di app.archive.cutoff-months mesi. Come l'archivio, il job esiste solo se la
+ * proprietà app.archive.enabled vale true.
+ *
+ * Gli esami vengono spostati a blocchi di app.archive.batch-size, con una transazione per
+ * ogni blocco: gli esami del blocco vengono letti insieme ai loro risultati, scritti
+ * nell'archivio (che li sincronizza su disco) e infine cancellati dal DB. Se la transazione
+ * fallisce dopo la scrittura nell'archivio, gli esami restano sul DB e verranno archiviati
+ * di nuovo al passaggio successivo: l'archivio tiene solo la copia più recente di ogni
+ * esame, perciò il risultato non cambia. Nella stessa transazione vengono ricalcolati i
+ * riepiloghi (vedi PatientDashboard.java) dei pazienti coinvolti.
+ *
+ * Limiti di questa prima versione:
+ * - con lo sharding attivo (vedi ShardingConfig.java) il job non fa nulla, perché gli
+ *   esami non si trovano sul DB principale;
+ * - gli elenchi degli esami, le serie storiche dei parametri e i riepiloghi dei pazienti
+ *   includono solo gli esami ancora presenti sul DB: l'archivio viene consultato solo per
+ *   il dettaglio di un esame;
+ * - se cambia un intervallo di riferimento, i flag dei risultati già archiviati non
+ *   vengono ricalcolati (vedi ReferenceRangeReevaluator.java).
+ */
+
+@Component
+@ConditionalOnProperty(name="app.archive.enabled", havingValue="true")
+public class MedicalTestsArchiver implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(MedicalTestsArchiver.class);
+
+	private MedicalTestsRepository medicalTestsRepo;
+	private MedicalTestResultsRepository medicalTestResultsRepo;
+	private MedicalTestsArchive archive;
+	private MedicalTestsService medicalTestsService;
+	private PackedResultsCodec packedCodec;
+	private ReferenceRangeCatalog rangeCatalog;
+	private ApplicationEventPublisher eventPublisher;
+	private TransactionTemplate batchTx;
+	private int cutoffMonths;
+	private int intervalMinutes;
+	private int batchSize;
+	private Counter archivedTests;
+
+	private final ScheduledExecutorService executor;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private ShardedMedicalTestsStore shardedStore;
+
+	@Autowired
+	public MedicalTestsArchiver(
+			MedicalTestsRepository medicalTestsRepo,
+			MedicalTestResultsRepository medicalTestResultsRepo,
+			MedicalTestsArchive archive,
+			MedicalTestsService medicalTestsService,
+			PackedResultsCodec packedCodec,
+			ReferenceRangeCatalog rangeCatalog,
+			ApplicationEventPublisher eventPublisher,
+			PlatformTransactionManager transactionManager,
+			MeterRegistry meterRegistry,
+			@Value("${app.archive.cutoff-months:12}") int cutoffMonths,
+			@Value("${app.archive.interval-minutes:60}") int intervalMinutes,
+			@Value("${app.archive.batch-size:500}") int batchSize) {
+
+		this.medicalTestsRepo = medicalTestsRepo;
+		this.medicalTestResultsRepo = medicalTestResultsRepo;
+		this.archive = archive;
+		this.medicalTestsService = medicalTestsService;
+		this.packedCodec = packedCodec;
+		this.rangeCatalog = rangeCatalog;
+		this.eventPublisher = eventPublisher;
+		this.batchTx = new TransactionTemplate(transactionManager);
+		this.cutoffMonths = Math.max(1, cutoffMonths);
+		this.intervalMinutes = Math.max(1, intervalMinutes);
+		this.batchSize = Math.max(1, batchSize);
+
+		this.archivedTests = Counter.builder("app.archive.archived")
+			.description("Esami spostati dal DB all'archivio")
+			.register(meterRegistry);
+
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "medical-tests-archiver");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// Vedi MedicalTestsService.setShardedStore().
+	@Autowired(required=false)
+	public void setShardedStore(ShardedMedicalTestsStore shardedStore) {
+		this.shardedStore = shardedStore;
+	}
+
+	/**
+	 * Il primo passaggio parte subito dopo l'avvio, quando l'applicazione è già pronta a
+	 * ricevere richieste.
+	 */
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if(shardedStore != null) {
+			log.warn("The medical tests archive is not supported with sharding: no test will be archived");
+			return;
+		}
+
+		executor.scheduleWithFixedDelay(this::run, 0, intervalMinutes, TimeUnit.MINUTES);
+	}
+
+	private void run() {
+		try {
+			LocalDateTime cutoff = LocalDateTime.now().minusMonths(cutoffMonths);
+			long sizeBefore = archive.getSizeBytes();
+			int[] moved = new int[2];
+
+			while(true) {
+				int[] batch = batchTx.execute(status -> archiveBatch(cutoff));
+
+				if(batch[0] == 0) {
+					break;
+				}
+
+				moved[0] += batch[0];
+				moved[1] += batch[1];
+			}
+
+			if(moved[0] > 0) {
+				log.info("Archived {} medical tests ({} results) older than {}: {} bytes appended, archive size {} bytes",
+					moved[0], moved[1], cutoff, archive.getSizeBytes() - sizeBefore, archive.getSizeBytes());
+			}
+		}
+		catch(RuntimeException e) {
+			log.error("Archiving of old medical tests failed", e);
+		}
+	}
+
+	/**
+	 * Restituisce il numero di esami e di risultati spostati (0 esami se non ce ne sono più).
+	 */
+
+	private int[] archiveBatch(LocalDateTime cutoff) {
+		List<Long> ids = medicalTestsRepo.findIdsOlderThan(cutoff, PageRequest.ofSize(batchSize));
+
+		if(ids.isEmpty()) {
+			return new int[] { 0, 0 };
+		}
+
+		List<ArchivedTest> tests = new ArrayList<>(ids.size());
+		Set<Long> patientIds = new LinkedHashSet<>();
+
+		for(MedicalTest test : medicalTestsRepo.findWithResultsByIdIn(ids)) {
+			tests.add(toArchivedTest(test));
+			patientIds.add(test.getPatient().getId());
+		}
+
+		// Gli esami letti non servono più: i DELETE che seguono non passano dalle entità, e
+		// senza svuotare l'EntityManager ogni query di rebuildDashboards() provocherebbe un
+		// flush che controlla tutte le entità caricate (batchSize esami con i loro risultati),
+		// una volta per ogni paziente coinvolto.
+		entityManager.clear();
+
+		try {
+			archive.append(tests);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		int results = medicalTestResultsRepo.deleteAllByMedicalTestIds(ids);
+		medicalTestsRepo.deleteAllByIds(ids);
+		medicalTestsService.rebuildDashboards(patientIds);
+		archivedTests.increment(tests.size());
+		eventPublisher.publishEvent(new TestsChangedEvent(ids));
+
+		return new int[] { tests.size(), results };
+	}
+
+	/**
+	 * Per gli esami con i risultati in formato compatto (vedi PackedResultsCodec.java) i flag
+	 * vengono calcolati qui, come fa MedicalTestsService quando legge il dettaglio.
+	 */
+
+	private ArchivedTest toArchivedTest(MedicalTest test) {
+		List<ArchivedResult> results = new ArrayList<>(test.getMedicalTestResults().size());
+
+		if(test.getPackedResults() != null) {
+			ReferenceRangesSnapshot ranges = rangeCatalog.current();
+
+			packedCodec.decode(test.getPackedResults(), (paramName, paramValue) ->
+				results.add(new ArchivedResult(paramName, Float.isNaN(paramValue) ? null : paramValue, ranges.evaluate(paramName, paramValue))));
+		}
+
+		for(MedicalTestResult result : test.getMedicalTestResults()) {
+			results.add(new ArchivedResult(result.getParamName(), result.getParamValue(), result.getFlag()));
+		}
+
+		return new ArchivedTest(test.getId(), test.getPatient().getId(), test.getDescription(), test.getDateTime(), results);
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,34 @@
+package app.layers.b.service.medicaltests.feed;
+
+import app.layers.b.service.medicaltests.TestSummary;
+
+/**
+ * Un elemento del feed: l'esame appena creato, insieme al numero di sequenza che il feed
+ * gli ha assegnato. I numeri di sequenza crescono sempre di uno e sono il "segnalibro" che
+ * i client usano per riprendere la lettura da dove l'avevano interrotta; ai client viene
+ * inviato l'id completo, che include anche l'epoca del feed (vedi MedicalTestsFeed.java).
+ */
+
+public class FeedEntry {
+	private final long sequence;
+	private final String id;
+	private final TestSummary test;
+	
+	public FeedEntry(long sequence, String id, TestSummary test) {
+		this.sequence = sequence;
+		this.id = id;
+		this.test = test;
+	}
+	
+	public long getSequence() {
+		return sequence;
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public TestSummary getTest() {
+		return test;
+	}
+}
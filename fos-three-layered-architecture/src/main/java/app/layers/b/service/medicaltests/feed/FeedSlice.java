@@ -0,0 +1,38 @@
+package app.layers.b.service.medicaltests.feed;
+
+import java.util.List;
+
+/**
+ * Il risultato di una lettura dal feed. Se il lettore è rimasto indietro al punto che
+ * alcuni degli eventi che gli mancano sono già stati sovrascritti nel buffer circolare,
+ * "gap" vale true: gli elementi restituiti partono allora dal più vecchio ancora disponibile
+ * e il lettore deve ricaricare l'elenco completo per recuperare ciò che ha perso.
+ */
+
+public class FeedSlice {
+	private final List<FeedEntry> entries;
+	private final boolean gap;
+	private final long cursor;
+	
+	public FeedSlice(List<FeedEntry> entries, boolean gap, long cursor) {
+		this.entries = entries;
+		this.gap = gap;
+		this.cursor = cursor;
+	}
+	
+	public List<FeedEntry> getEntries() {
+		return entries;
+	}
+	
+	public boolean hasGap() {
+		return gap;
+	}
+	
+	/**
+	 * Il numero di sequenza da passare alla lettura successiva.
+	 */
+	
+	public long getCursor() {
+		return cursor;
+	}
+}
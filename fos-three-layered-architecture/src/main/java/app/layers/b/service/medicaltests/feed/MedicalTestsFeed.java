@@ -0,0 +1,144 @@
+package app.layers.b.service.medicaltests.feed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import app.layers.b.service.medicaltests.TestSummary;
+
+/**
+ * Molti client interrogano periodicamente GET "/medical-tests" solo per scoprire se sono
+ * stati creati nuovi esami. Il feed permette invece di ricevere i nuovi esami man mano che
+ * vengono salvati (vedi l'endpoint "/medical-tests/feed" di MedicalTestsController).
+ *
+ * Gli ultimi eventi sono conservati in un buffer circolare di dimensione fissa: quando il
+ * buffer è pieno, ogni nuovo evento sovrascrive il più vecchio. In questo modo la memoria
+ * occupata non cresce mai, e un client che si riconnette può comunque recuperare gli eventi
+ * che si è perso, purché non siano già stati sovrascritti.
+ *
+ * I numeri di sequenza valgono solo all'interno di questa istanza dell'applicazione: dopo
+ * un riavvio ripartono da zero, e dietro un load balancer un client può riconnettersi a un
+ * nodo diverso, con una propria numerazione. Per questo l'id di ogni evento è preceduto da
+ * un identificativo casuale dell'istanza ("epoca"), scelto all'avvio: "<epoca>-<sequenza>".
+ * Un id di un'altra epoca non dice nulla su quali eventi il client abbia già ricevuto, e
+ * viene trattato come un buco nel feed (il client riceve un "reset").
+ *
+ * Chi scrive (saveTest) non aspetta mai chi legge: la pubblicazione si limita a copiare un
+ * riferimento nel buffer e ad avvisare gli ascoltatori, i quali devono a loro volta limitarsi
+ * a pianificare l'invio degli eventi su altri thread.
+ */
+
+@Service
+public class MedicalTestsFeed {
+
+	private final TestSummary[] buffer;
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+
+	// Numero di sequenza dell'ultimo evento pubblicato (0 = nessun evento).
+	private long lastSequence = 0;
+
+	public MedicalTestsFeed(@Value("${app.feed.capacity:1024}") int capacity) {
+		this.buffer = new TestSummary[capacity];
+	}
+
+	/**
+	 * Grazie a @TransactionalEventListener, il metodo viene invocato soltanto dopo il commit
+	 * della transazione all'interno della quale l'evento è stato pubblicato: se il salvataggio
+	 * dell'esame fallisce, il feed non ne saprà mai nulla. Con fallbackExecution l'evento viene
+	 * comunque consegnato anche se pubblicato al di fuori di una transazione.
+	 *
+	 * Tra gli ascoltatori dello stesso evento, questo viene eseguito per ultimo: quando i
+	 * client ricevono l'evento, le cache e le letture condivise sono già state invalidate
+	 * (vedi MedicalTestsService.onTestCreated()).
+	 */
+
+	@Order(Ordered.LOWEST_PRECEDENCE)
+	@TransactionalEventListener(fallbackExecution=true)
+	public void onTestCreated(TestCreatedEvent event) {
+		publish(event.getTest());
+	}
+
+	public void publish(TestSummary test) {
+		synchronized(this) {
+			lastSequence++;
+			buffer[(int) (lastSequence % buffer.length)] = test;
+		}
+
+		for(Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	public String eventIdOf(long sequence) {
+		return epoch + "-" + sequence;
+	}
+
+	/**
+	 * Il numero di sequenza contenuto in un id di evento assegnato da questa istanza, oppure
+	 * -1 se l'id appartiene a un'altra epoca o non è valido.
+	 */
+
+	public long sequenceOf(String eventId) {
+		int separator = eventId.lastIndexOf('-');
+
+		if(separator <= 0 || !eventId.regionMatches(0, epoch, 0, separator) || separator != epoch.length()) {
+			return -1;
+		}
+
+		try {
+			long sequence = Long.parseLong(eventId.substring(separator + 1));
+			return sequence >= 0 ? sequence : -1;
+		}
+		catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Restituisce al più maxEntries eventi successivi a quello con numero di sequenza
+	 * afterSequence, nell'ordine in cui sono stati pubblicati. Un afterSequence negativo
+	 * indica un client di cui non conosciamo la posizione (vedi sequenceOf()).
+	 */
+
+	public synchronized FeedSlice readAfter(long afterSequence, int maxEntries) {
+		long oldestAvailable = Math.max(1, lastSequence - buffer.length + 1);
+
+		// Un numero di sequenza sconosciuto, o "dal futuro", non indica quali eventi il client
+		// abbia già ricevuto: lo trattiamo come un buco nel feed.
+		boolean unknown = afterSequence < 0 || afterSequence > lastSequence;
+		boolean gap = unknown || afterSequence + 1 < oldestAvailable;
+
+		long from = unknown ? oldestAvailable : Math.max(afterSequence + 1, oldestAvailable);
+		long to = Math.min(lastSequence, from + maxEntries - 1);
+
+		List<FeedEntry> entries = new ArrayList<>((int) Math.max(0, to - from + 1));
+
+		for(long seq = from; seq <= to; seq++) {
+			entries.add(new FeedEntry(seq, eventIdOf(seq), buffer[(int) (seq % buffer.length)]));
+		}
+
+		return new FeedSlice(entries, gap, Math.max(from - 1, to));
+	}
+
+	/**
+	 * L'ascoltatore viene invocato sul thread di chi pubblica, perciò deve essere veloce e
+	 * non bloccante. Il valore restituito serve a cancellare la registrazione.
+	 */
+
+	public Runnable addListener(Runnable listener) {
+		listeners.add(listener);
+		return () -> listeners.remove(listener);
+	}
+}
@@ -0,0 +1,21 @@
+package app.layers.b.service.medicaltests.feed;
+
+import app.layers.b.service.medicaltests.TestSummary;
+
+/**
+ * Evento pubblicato da MedicalTestsService.saveTest() ogni volta che viene salvato un nuovo
+ * esame. Gli ascoltatori registrati con @TransactionalEventListener lo ricevono soltanto
+ * dopo il commit della transazione, perciò non vedono mai esami che verranno poi annullati.
+ */
+
+public class TestCreatedEvent {
+	private final TestSummary test;
+	
+	public TestCreatedEvent(TestSummary test) {
+		this.test = test;
+	}
+	
+	public TestSummary getTest() {
+		return test;
+	}
+}
@@ -0,0 +1,25 @@
+package app.layers.b.service.medicaltests.history;
+
+import java.time.LocalDateTime;
+
+/**
+ * Un punto della serie storica di un parametro: il valore misurato e la data dell'esame.
+ */
+
+public class HistoryPoint {
+	private final LocalDateTime dateTime;
+	private final float paramValue;
+	
+	public HistoryPoint(LocalDateTime dateTime, float paramValue) {
+		this.dateTime = dateTime;
+		this.paramValue = paramValue;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+	
+	public float getParamValue() {
+		return paramValue;
+	}
+}
@@ -0,0 +1,71 @@
+package app.layers.b.service.medicaltests.history;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Numero di valori e intervallo temporale della serie storica di un parametro: servono a
+ * dimensionare i bucket del MinMaxDownsampler prima di leggere la serie vera e propria.
+ */
+
+public class HistoryRange {
+	private final long count;
+	private final LocalDateTime from;
+	private final LocalDateTime to;
+	
+	public HistoryRange(long count, LocalDateTime from, LocalDateTime to) {
+		this.count = count;
+		this.from = from;
+		this.to = to;
+	}
+	
+	/**
+	 * L'intervallo di una serie già ordinata (vedi MergedSeries.java), calcolato leggendo un
+	 * punto alla volta, senza tenere la serie in memoria.
+	 */
+	
+	public static HistoryRange of(Stream<HistoryPoint> points) {
+		long count = 0;
+		LocalDateTime first = null;
+		LocalDateTime last = null;
+		
+		for(Iterator<HistoryPoint> it = points.iterator(); it.hasNext(); count++) {
+			last = it.next().getDateTime();
+			
+			if(first == null) {
+				first = last;
+			}
+		}
+		
+		return new HistoryRange(count, first, last);
+	}
+	
+	/**
+	 * L'intervallo che comprende entrambe le serie.
+	 */
+	
+	public HistoryRange include(HistoryRange other) {
+		if(other.count == 0) {
+			return this;
+		}
+		
+		if(count == 0) {
+			return other;
+		}
+		
+		return new HistoryRange(count + other.count, other.from.isBefore(from) ? other.from : from, other.to.isAfter(to) ? other.to : to);
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public LocalDateTime getFrom() {
+		return from;
+	}
+	
+	public LocalDateTime getTo() {
+		return to;
+	}
+}
@@ -0,0 +1,57 @@
+package app.layers.b.service.medicaltests.history;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Unisce in ordine di tempo due serie già ordinate: quella letta dalla tabella dei
+ * risultati e quella ricavata dagli esami con i risultati in formato compatto (vedi
+ * PackedResultsCodec.java). Entrambe vengono lette un punto alla volta, e la serie
+ * risultante viene prodotta a sua volta un punto alla volta, senza copiarla in una lista.
+ */
+
+public final class MergedSeries {
+	
+	private MergedSeries() {}
+	
+	public static Stream<HistoryPoint> merge(Stream<HistoryPoint> rows, Stream<HistoryPoint> packed) {
+		Iterator<HistoryPoint> rowsIterator = rows.iterator();
+		Iterator<HistoryPoint> packedIterator = packed.iterator();
+		
+		Iterator<HistoryPoint> merged = new Iterator<>() {
+			private HistoryPoint nextRow = rowsIterator.hasNext() ? rowsIterator.next() : null;
+			private HistoryPoint nextPacked = packedIterator.hasNext() ? packedIterator.next() : null;
+			
+			@Override
+			public boolean hasNext() {
+				return nextRow != null || nextPacked != null;
+			}
+			
+			@Override
+			public HistoryPoint next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				HistoryPoint point;
+				
+				if(nextPacked != null && (nextRow == null || nextPacked.getDateTime().isBefore(nextRow.getDateTime()))) {
+					point = nextPacked;
+					nextPacked = packedIterator.hasNext() ? packedIterator.next() : null;
+				}
+				else {
+					point = nextRow;
+					nextRow = rowsIterator.hasNext() ? rowsIterator.next() : null;
+				}
+				
+				return point;
+			}
+		};
+		
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false);
+	}
+}
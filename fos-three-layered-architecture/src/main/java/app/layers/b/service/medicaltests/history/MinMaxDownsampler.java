@@ -0,0 +1,111 @@
+package app.layers.b.service.medicaltests.history;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Riduce una serie storica a un numero massimo di punti, per disegnarla in un grafico.
+ *
+ * L'intervallo temporale della serie viene diviso in bucket di uguale durata (idealmente,
+ * uno per ogni colonna di pixel del grafico) e per ogni bucket si tengono soltanto il
+ * valore minimo e quello massimo, nell'ordine in cui sono stati misurati. A differenza di
+ * una media, in questo modo i picchi restano visibili nel grafico, che è proprio ciò che
+ * interessa in una serie clinica.
+ *
+ * I punti devono essere aggiunti in ordine di tempo, e vengono elaborati uno alla volta:
+ * la memoria usata dipende solo dal numero di bucket, e non dalla lunghezza della serie.
+ */
+
+public class MinMaxDownsampler {
+	
+	private final long startMillis;
+	private final long spanMillis;
+	private final int buckets;
+	private final List<HistoryPoint> output;
+	
+	private int currentBucket = -1;
+	private LocalDateTime minDateTime;
+	private float minValue;
+	private LocalDateTime maxDateTime;
+	private float maxValue;
+	
+	/**
+	 * La serie ridotta contiene al più maxPoints punti (due per ogni bucket).
+	 */
+	
+	public MinMaxDownsampler(LocalDateTime from, LocalDateTime to, int maxPoints) {
+		this.startMillis = toMillis(from);
+		this.spanMillis = Math.max(0, toMillis(to) - startMillis) + 1;
+		this.buckets = Math.max(1, maxPoints / 2);
+		this.output = new ArrayList<>(buckets * 2);
+	}
+	
+	public void add(LocalDateTime dateTime, float value) {
+		int bucket = bucketOf(dateTime);
+		
+		if(bucket != currentBucket) {
+			flush();
+			
+			currentBucket = bucket;
+			minDateTime = maxDateTime = dateTime;
+			minValue = maxValue = value;
+			return;
+		}
+		
+		if(value < minValue) {
+			minDateTime = dateTime;
+			minValue = value;
+		}
+		
+		if(value > maxValue) {
+			maxDateTime = dateTime;
+			maxValue = value;
+		}
+	}
+	
+	public List<HistoryPoint> finish() {
+		flush();
+		currentBucket = -1;
+		
+		return output;
+	}
+	
+	private void flush() {
+		if(currentBucket < 0) {
+			return;
+		}
+		
+		HistoryPoint min = new HistoryPoint(minDateTime, minValue);
+		HistoryPoint max = new HistoryPoint(maxDateTime, maxValue);
+		
+		if(minDateTime.equals(maxDateTime) && minValue == maxValue) {
+			output.add(min);
+		}
+		else if(minDateTime.isAfter(maxDateTime)) {
+			output.add(max);
+			output.add(min);
+		}
+		else {
+			output.add(min);
+			output.add(max);
+		}
+	}
+	
+	/**
+	 * I valori fuori dall'intervallo iniziale (es. esami salvati dopo la lettura del
+	 * HistoryRange) finiscono nel primo o nell'ultimo bucket.
+	 */
+	
+	private int bucketOf(LocalDateTime dateTime) {
+		long offset = toMillis(dateTime) - startMillis;
+		long bucket = offset * buckets / spanMillis;
+		
+		return (int) Math.max(0, Math.min(buckets - 1, bucket));
+	}
+	
+	private static long toMillis(LocalDateTime dateTime) {
+		return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+}
@@ -0,0 +1,32 @@
+package app.layers.b.service.medicaltests.history;
+
+import java.util.List;
+
+/**
+ * Serie storica (eventualmente ridotta) di un parametro di un paziente. sourceCount indica
+ * il numero di valori originali, così il client sa se la serie è stata ridotta o no.
+ */
+
+public class ParameterHistory {
+	private final String paramName;
+	private final long sourceCount;
+	private final List<HistoryPoint> points;
+	
+	public ParameterHistory(String paramName, long sourceCount, List<HistoryPoint> points) {
+		this.paramName = paramName;
+		this.sourceCount = sourceCount;
+		this.points = points;
+	}
+	
+	public String getParamName() {
+		return paramName;
+	}
+	
+	public long getSourceCount() {
+		return sourceCount;
+	}
+	
+	public List<HistoryPoint> getPoints() {
+		return points;
+	}
+}
@@ -0,0 +1,17 @@
+package app.layers.b.service.medicaltests.ranges;
+
+/**
+ * Evento pubblicato da ReferenceRangeCatalog.saveRange(), consegnato dopo il commit.
+ */
+
+public class RangeChangedEvent {
+	private final RangeLimits range;
+	
+	public RangeChangedEvent(RangeLimits range) {
+		this.range = range;
+	}
+	
+	public RangeLimits getRange() {
+		return range;
+	}
+}
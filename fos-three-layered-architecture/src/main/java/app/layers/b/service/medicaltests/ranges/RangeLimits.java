@@ -0,0 +1,63 @@
+package app.layers.b.service.medicaltests.ranges;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Intervallo di riferimento di un parametro, così come viene esposto dal service layer.
+ * Gli oggetti di questa classe sono immutabili, perciò possono essere condivisi tra più
+ * thread senza alcuna sincronizzazione (vedi ReferenceRangesSnapshot.java).
+ */
+
+public class RangeLimits {
+	private final String paramName;
+	private final Float lowerLimit;
+	private final Float upperLimit;
+	
+	public RangeLimits(String paramName, Float lowerLimit, Float upperLimit) {
+		this.paramName = paramName;
+		this.lowerLimit = lowerLimit;
+		this.upperLimit = upperLimit;
+	}
+	
+	public String getParamName() {
+		return paramName;
+	}
+	
+	public Float getLowerLimit() {
+		return lowerLimit;
+	}
+	
+	public Float getUpperLimit() {
+		return upperLimit;
+	}
+	
+	/**
+	 * Stessa logica di MedicalTestResultsRepository.updateFlags(), che la applica invece
+	 * direttamente sul DB: le due implementazioni devono restare allineate.
+	 */
+	
+	public ResultFlag evaluate(Float value) {
+		return value != null ? evaluate(value.floatValue()) : null;
+	}
+	
+	/**
+	 * Versione per i valori letti dal formato compatto (vedi PackedResultsCodec.java), dove
+	 * un valore mancante è NaN.
+	 */
+	
+	public ResultFlag evaluate(float value) {
+		if(Float.isNaN(value)) {
+			return null;
+		}
+		
+		if(lowerLimit != null && value < lowerLimit) {
+			return ResultFlag.LOW;
+		}
+		
+		if(upperLimit != null && value > upperLimit) {
+			return ResultFlag.HIGH;
+		}
+		
+		return ResultFlag.NORMAL;
+	}
+}
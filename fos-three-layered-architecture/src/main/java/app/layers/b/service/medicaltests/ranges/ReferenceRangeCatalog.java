@@ -0,0 +1,146 @@
+package app.layers.b.service.medicaltests.ranges;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import app.layers.c.data.cache.invalidation.CacheInvalidation;
+import app.layers.c.data.cache.invalidation.CacheInvalidationBus;
+import app.layers.c.data.cache.invalidation.CacheInvalidationListener;
+import app.layers.c.data.entities.ReferenceRange;
+import app.layers.c.data.repositories.ReferenceRangesRepository;
+
+/**
+ * Catalogo degli intervalli di riferimento dei parametri clinici. Gli intervalli cambiano
+ * raramente, mentre vengono consultati a ogni esame salvato: per questo li teniamo in
+ * memoria, in una fotografia immutabile (vedi ReferenceRangesSnapshot.java) che viene
+ * sostituita atomicamente a ogni modifica. Leggere gli intervalli costa quindi una sola
+ * lettura di un AtomicReference, senza query e senza lock.
+ *
+ * Quando un intervallo cambia, i flag dei risultati già salvati vengono ricalcolati in
+ * background (vedi ReferenceRangeReevaluator.java).
+ *
+ * Con più istanze dell'applicazione, ogni nodo ha la sua fotografia: il nodo che salva un
+ * intervallo avvisa gli altri tramite il bus delle invalidazioni (vedi
+ * CacheInvalidationBus.java), e ciascuno di loro ricarica il catalogo dal DB. Il ricalcolo
+ * dei flag sul DB viene invece eseguito soltanto dal nodo che ha salvato l'intervallo.
+ *
+ * Il bus riceve a sua volta il catalogo tra le cache da invalidare: per non creare una
+ * dipendenza circolare, viene cercato solo quando serve (ObjectProvider), e non esiste se
+ * le invalidazioni sono disattivate.
+ */
+
+@Service
+public class ReferenceRangeCatalog implements SmartInitializingSingleton, CacheInvalidationListener {
+	
+	private ReferenceRangesRepository referenceRangesRepo;
+	private ApplicationEventPublisher eventPublisher;
+	private ReferenceRangeReevaluator reevaluator;
+	private ObjectProvider<CacheInvalidationBus> invalidationBus;
+	
+	private final AtomicReference<ReferenceRangesSnapshot> snapshot = new AtomicReference<>(ReferenceRangesSnapshot.EMPTY);
+	
+	@Autowired
+	public ReferenceRangeCatalog(
+			ReferenceRangesRepository referenceRangesRepo,
+			ApplicationEventPublisher eventPublisher,
+			ReferenceRangeReevaluator reevaluator,
+			ObjectProvider<CacheInvalidationBus> invalidationBus) {
+		
+		this.referenceRangesRepo = referenceRangesRepo;
+		this.eventPublisher = eventPublisher;
+		this.reevaluator = reevaluator;
+		this.invalidationBus = invalidationBus;
+	}
+	
+	/**
+	 * Il catalogo viene caricato dal DB quando tutti i bean sono stati creati: dopo
+	 * l'inserimento dei dati di esempio (vedi DbInit.java), ma prima dell'avvio del webserver e
+	 * del riscaldamento (vedi JitWarmup.java), che valuta i risultati degli esami di prova.
+	 */
+	
+	@Override
+	public void afterSingletonsInstantiated() {
+		reload();
+	}
+	
+	public void reload() {
+		List<RangeLimits> ranges = new ArrayList<>();
+		
+		for(ReferenceRange range : referenceRangesRepo.findAll()) {
+			ranges.add(new RangeLimits(range.getParamName(), range.getLowerLimit(), range.getUpperLimit()));
+		}
+		
+		snapshot.set(ReferenceRangesSnapshot.of(ranges));
+	}
+	
+	/**
+	 * Chi deve valutare più risultati (es. tutti quelli di un esame) deve leggere la
+	 * fotografia una volta sola e usarla per tutti: così un cambio di intervallo avvenuto
+	 * nel frattempo non può produrre flag calcolati con intervalli diversi.
+	 */
+	
+	public ReferenceRangesSnapshot current() {
+		return snapshot.get();
+	}
+	
+	public List<RangeLimits> getRanges() {
+		return snapshot.get().getRanges();
+	}
+	
+	/**
+	 * Salva (o sostituisce) l'intervallo di un parametro. Il catalogo in memoria viene
+	 * aggiornato solo dopo il commit, insieme all'avvio del ricalcolo dei flag; anche
+	 * l'invalidazione per gli altri nodi parte dopo il commit.
+	 */
+	
+	@Transactional
+	public RangeLimits saveRange(RangeLimits range) {
+		if(range.getParamName() == null || range.getParamName().isBlank()) {
+			throw new IllegalArgumentException("Il nome del parametro è obbligatorio");
+		}
+		
+		if(range.getLowerLimit() == null && range.getUpperLimit() == null) {
+			throw new IllegalArgumentException("Serve almeno uno dei due limiti");
+		}
+		
+		if(range.getLowerLimit() != null && range.getUpperLimit() != null && range.getLowerLimit() > range.getUpperLimit()) {
+			throw new IllegalArgumentException("Il limite inferiore supera quello superiore");
+		}
+		
+		referenceRangesRepo.save(new ReferenceRange(range.getParamName(), range.getLowerLimit(), range.getUpperLimit()));
+		eventPublisher.publishEvent(new RangeChangedEvent(range));
+		invalidationBus.ifAvailable(bus -> bus.publish(CacheInvalidation.referenceRanges()));
+		
+		return range;
+	}
+	
+	@TransactionalEventListener
+	public void onRangeChanged(RangeChangedEvent event) {
+		snapshot.updateAndGet(current -> current.with(event.getRange()));
+		reevaluator.reevaluate(event.getRange());
+	}
+	
+	/**
+	 * Un intervallo è cambiato su un altro nodo: il messaggio non dice quale, e il catalogo
+	 * viene ricaricato per intero.
+	 */
+	
+	@Override
+	public void invalidate(List<CacheInvalidation> invalidations) {
+		for(CacheInvalidation invalidation : invalidations) {
+			if(invalidation.getKind() == CacheInvalidation.Kind.REFERENCE_RANGES) {
+				reload();
+				return;
+			}
+		}
+	}
+}
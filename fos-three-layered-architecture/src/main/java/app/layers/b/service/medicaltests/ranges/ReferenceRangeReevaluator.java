@@ -0,0 +1,163 @@
+package app.layers.b.service.medicaltests.ranges;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import app.layers.b.service.medicaltests.TestsChangedEvent;
+import app.layers.c.data.entities.ResultFlag;
+import app.layers.c.data.repositories.MedicalTestResultsRepository;
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+
+/**
+ * Job che ricalcola i flag dei risultati già salvati quando cambia l'intervallo di
+ * riferimento di un parametro. Il lavoro viene svolto su un thread dedicato, perciò la
+ * richiesta che ha modificato l'intervallo non deve aspettarne la fine.
+ *
+ * La tabella dei risultati viene aggiornata a blocchi di id consecutivi (vedi la proprietà
+ * app.ranges.reevaluation-batch-size), con una transazione per ogni blocco: ogni
+ * transazione blocca quindi poche righe e per poco tempo, e i salvataggi dei nuovi esami
+ * possono procedere in parallelo al ricalcolo. Se nel frattempo lo stesso parametro cambia
+ * di nuovo, le richieste ancora in attesa vengono accorpate e si ricalcola una volta sola,
+ * con l'intervallo più recente.
+ *
+ * Con lo sharding attivo ogni shard viene aggiornato allo stesso modo, un blocco di id alla
+ * volta, uno shard dopo l'altro.
+ * 
+ * Un esame salvato proprio mentre l'intervallo cambia potrebbe essere stato valutato con
+ * l'intervallo precedente e venire salvato dopo il passaggio del job sul suo blocco: in
+ * quel caso basta salvare di nuovo l'intervallo per rilanciare il ricalcolo.
+ */
+
+@Component
+public class ReferenceRangeReevaluator implements DisposableBean {
+	
+	private static final Logger log = LoggerFactory.getLogger(ReferenceRangeReevaluator.class);
+	
+	private MedicalTestResultsRepository medicalTestResultsRepo;
+	private ApplicationEventPublisher eventPublisher;
+	private TransactionTemplate batchTx;
+	private int batchSize;
+	
+	private final ConcurrentHashMap<String, RangeLimits> pending = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	
+	private ShardedMedicalTestsStore shardedStore;
+	
+	@Autowired
+	public ReferenceRangeReevaluator(
+			MedicalTestResultsRepository medicalTestResultsRepo,
+			ApplicationEventPublisher eventPublisher,
+			PlatformTransactionManager transactionManager,
+			@Value("${app.ranges.reevaluation-batch-size:5000}") int batchSize) {
+		
+		this.medicalTestResultsRepo = medicalTestResultsRepo;
+		this.eventPublisher = eventPublisher;
+		this.batchTx = new TransactionTemplate(transactionManager);
+		this.batchSize = Math.max(1, batchSize);
+		
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ranges-reevaluator");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	// Vedi MedicalTestsService.setShardedStore().
+	@Autowired(required=false)
+	public void setShardedStore(ShardedMedicalTestsStore shardedStore) {
+		this.shardedStore = shardedStore;
+	}
+	
+	/**
+	 * Solo chi inserisce per primo il parametro tra quelli in attesa pianifica il job: chi
+	 * arriva dopo si limita a sostituire l'intervallo, che il job leggerà quando partirà.
+	 */
+	
+	public void reevaluate(RangeLimits range) {
+		if(pending.put(range.getParamName(), range) == null) {
+			executor.execute(() -> run(range.getParamName()));
+		}
+	}
+	
+	private void run(String paramName) {
+		RangeLimits range = pending.remove(paramName);
+		
+		if(range == null) {
+			return;
+		}
+		
+		try {
+			int updated = shardedStore != null ? updateShards(range) : updateInBatches(range);
+			log.info("Reference range of {} changed: {} results re-evaluated", paramName, updated);
+		}
+		catch(RuntimeException e) {
+			log.error("Re-evaluation of the results of " + paramName + " failed", e);
+		}
+		finally {
+			// Anche se il ricalcolo si è interrotto, i blocchi già committati sono cambiati.
+			eventPublisher.publishEvent(TestsChangedEvent.all());
+		}
+	}
+	
+	private int updateInBatches(RangeLimits range) {
+		return updateInBatches(medicalTestResultsRepo::findMaxId, (fromId, toId) -> batchTx.execute(status ->
+			medicalTestResultsRepo.updateFlags(range.getParamName(), range.getLowerLimit(), range.getUpperLimit(), fromId, toId)));
+	}
+	
+	private int updateShards(RangeLimits range) {
+		int updated = 0;
+		
+		for(int shard = 0; shard < shardedStore.getShardCount(); shard++) {
+			int shardIndex = shard;
+			
+			updated += updateInBatches(() -> shardedStore.findMaxResultId(shardIndex), (fromId, toId) ->
+				shardedStore.updateFlags(shardIndex, range.getParamName(), range.getLowerLimit(), range.getUpperLimit(),
+					ResultFlag.LOW.name(), ResultFlag.NORMAL.name(), ResultFlag.HIGH.name(), fromId, toId));
+		}
+		
+		return updated;
+	}
+	
+	private int updateInBatches(LongSupplier maxIdQuery, BatchUpdate batchUpdate) {
+		int updated = 0;
+		long fromId = 0;
+		long maxId = maxIdQuery.getAsLong();
+		
+		while(fromId < maxId) {
+			long toId = fromId + batchSize;
+			
+			updated += batchUpdate.update(fromId, toId);
+			fromId = toId;
+			
+			// I risultati salvati durante il ricalcolo vengono raggiunti anch'essi.
+			if(fromId >= maxId) {
+				maxId = maxIdQuery.getAsLong();
+			}
+		}
+		
+		return updated;
+	}
+	
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+	
+	// Aggiorna i risultati con fromId < id <= toId, restituendo il numero di righe aggiornate.
+	@FunctionalInterface
+	private interface BatchUpdate {
+		int update(long fromId, long toId);
+	}
+}
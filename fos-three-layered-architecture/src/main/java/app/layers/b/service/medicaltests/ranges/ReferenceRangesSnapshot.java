@@ -0,0 +1,65 @@
+package app.layers.b.service.medicaltests.ranges;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Fotografia immutabile di tutti gli intervalli di riferimento in un certo istante. Quando
+ * un intervallo cambia non modifichiamo la fotografia esistente, ma ne creiamo una nuova
+ * (vedi with()) che sostituisce la precedente con un'unica operazione atomica: chi sta
+ * ancora usando quella vecchia continua a vedere dati coerenti tra loro, senza lock.
+ */
+
+public class ReferenceRangesSnapshot {
+	
+	public static final ReferenceRangesSnapshot EMPTY = new ReferenceRangesSnapshot(Map.of());
+	
+	private final Map<String, RangeLimits> ranges;
+	
+	private ReferenceRangesSnapshot(Map<String, RangeLimits> ranges) {
+		this.ranges = ranges;
+	}
+	
+	public static ReferenceRangesSnapshot of(List<RangeLimits> ranges) {
+		Map<String, RangeLimits> byName = new HashMap<>();
+		
+		for(RangeLimits range : ranges) {
+			byName.put(range.getParamName(), range);
+		}
+		
+		return new ReferenceRangesSnapshot(Map.copyOf(byName));
+	}
+	
+	public ReferenceRangesSnapshot with(RangeLimits range) {
+		Map<String, RangeLimits> byName = new HashMap<>(ranges);
+		byName.put(range.getParamName(), range);
+		
+		return new ReferenceRangesSnapshot(Map.copyOf(byName));
+	}
+	
+	/**
+	 * Restituisce null se il valore è null o se non esiste un intervallo per il parametro.
+	 */
+	
+	public ResultFlag evaluate(String paramName, Float value) {
+		RangeLimits range = ranges.get(paramName);
+		return range != null ? range.evaluate(value) : null;
+	}
+	
+	public ResultFlag evaluate(String paramName, float value) {
+		RangeLimits range = ranges.get(paramName);
+		return range != null ? range.evaluate(value) : null;
+	}
+	
+	public List<RangeLimits> getRanges() {
+		List<RangeLimits> sorted = new ArrayList<>(ranges.values());
+		sorted.sort(Comparator.comparing(RangeLimits::getParamName));
+		
+		return sorted;
+	}
+}
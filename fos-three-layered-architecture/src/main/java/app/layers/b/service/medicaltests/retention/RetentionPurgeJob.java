@@ -0,0 +1,314 @@
+package app.layers.b.service.medicaltests.retention;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import app.layers.b.service.medicaltests.MedicalTestsService;
+import app.layers.b.service.medicaltests.TestsChangedEvent;
+import app.layers.c.data.archive.MedicalTestsArchive;
+import app.layers.c.data.entities.PurgeCheckpoint;
+import app.layers.c.data.repositories.MedicalTestResultsRepository;
+import app.layers.c.data.repositories.MedicalTestsRepository;
+import app.layers.c.data.repositories.PurgeCheckpointsRepository;
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Job periodico che cancella gli esami (e i loro risultati) più vecchi del periodo di
+ * conservazione, app.retention.months mesi. Il job esiste solo se la proprietà
+ * app.retention.enabled vale true.
+ * 
+ * Un'unica DELETE su medical_test_results e medical_tests terrebbe bloccate le due tabelle
+ * per tutta la sua durata, e i salvataggi dei nuovi esami resterebbero in attesa. Il job
+ * procede invece a blocchi di app.retention.chunk-size esami, ognuno con una transazione
+ * breve:
+ * - gli id del blocco vengono letti in ordine, a partire dall'ultimo id del blocco
+ *   precedente (paginazione keyset: la query non riparte mai dall'inizio della tabella);
+ * - vengono cancellati prima i risultati e poi gli esami, così il vincolo di chiave esterna
+ *   non viene mai violato;
+ * - i riepiloghi (vedi PatientDashboard.java) dei pazienti coinvolti vengono ricalcolati a
+ *   partire dagli esami rimasti, o cancellati se il paziente non ha più esami;
+ * - l'avanzamento viene salvato nella stessa transazione (vedi PurgeCheckpoint.java).
+ * 
+ * Tra un blocco e l'altro il job si ferma quanto basta per non superare il budget di
+ * app.retention.rows-per-second righe cancellate al secondo (esami più risultati), lasciando
+ * spazio al traffico normale. L'avanzamento è visibile nel log, a intervalli regolari, e
+ * nelle metriche app.retention.purged.tests e app.retention.purged.results.
+ * 
+ * Se l'applicazione si ferma durante un passaggio, al riavvio il job riprende dall'ultimo
+ * blocco cancellato con la stessa data limite.
+ * 
+ * Se l'archivio è attivo (vedi MedicalTestsArchive.java), al termine di ogni passaggio sul
+ * DB vengono cancellati, con la stessa data limite e a blocchi della stessa dimensione,
+ * anche gli esami già archiviati. Nell'archivio la cancellazione è immediata per le
+ * letture, ma lo spazio su disco viene recuperato solo al successivo avvio (compattazione).
+ * Questa fase non ha bisogno di un checkpoint: se viene interrotta, il passaggio successivo
+ * ritrova gli esami rimasti. I riepiloghi dei pazienti non vanno ricalcolati, perché non
+ * includono gli esami archiviati (vedi MedicalTestsArchiver.java).
+ * 
+ * Con lo sharding attivo (vedi ShardingConfig.java) il job non fa nulla, come
+ * MedicalTestsArchiver.
+ */
+
+@Component
+@ConditionalOnProperty(name="app.retention.enabled", havingValue="true")
+public class RetentionPurgeJob implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(RetentionPurgeJob.class);
+	
+	private static final String JOB = "medical-tests-retention";
+	private static final long PROGRESS_LOG_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private MedicalTestsRepository medicalTestsRepo;
+	private MedicalTestResultsRepository medicalTestResultsRepo;
+	private MedicalTestsService medicalTestsService;
+	private PurgeCheckpointsRepository checkpointsRepo;
+	private ApplicationEventPublisher eventPublisher;
+	private TransactionTemplate chunkTx;
+	private int retentionMonths;
+	private int intervalMinutes;
+	private int chunkSize;
+	private int rowsPerSecond;
+	private Counter purgedTests;
+	private Counter purgedResults;
+	private Counter purgedArchived;
+
+	private final ScheduledExecutorService executor;
+
+	private ShardedMedicalTestsStore shardedStore;
+	private MedicalTestsArchive archive;
+
+	@Autowired
+	public RetentionPurgeJob(
+			MedicalTestsRepository medicalTestsRepo,
+			MedicalTestResultsRepository medicalTestResultsRepo,
+			MedicalTestsService medicalTestsService,
+			PurgeCheckpointsRepository checkpointsRepo,
+			ApplicationEventPublisher eventPublisher,
+			PlatformTransactionManager transactionManager,
+			MeterRegistry meterRegistry,
+			@Value("${app.retention.months:120}") int retentionMonths,
+			@Value("${app.retention.interval-minutes:1440}") int intervalMinutes,
+			@Value("${app.retention.chunk-size:200}") int chunkSize,
+			@Value("${app.retention.rows-per-second:2000}") int rowsPerSecond) {
+
+		this.medicalTestsRepo = medicalTestsRepo;
+		this.medicalTestResultsRepo = medicalTestResultsRepo;
+		this.medicalTestsService = medicalTestsService;
+		this.checkpointsRepo = checkpointsRepo;
+		this.eventPublisher = eventPublisher;
+		this.chunkTx = new TransactionTemplate(transactionManager);
+		this.retentionMonths = Math.max(1, retentionMonths);
+		this.intervalMinutes = Math.max(1, intervalMinutes);
+		this.chunkSize = Math.max(1, chunkSize);
+		this.rowsPerSecond = rowsPerSecond;
+
+		this.purgedTests = Counter.builder("app.retention.purged.tests")
+			.description("Esami cancellati perché più vecchi del periodo di conservazione")
+			.register(meterRegistry);
+
+		this.purgedResults = Counter.builder("app.retention.purged.results")
+			.description("Risultati cancellati perché più vecchi del periodo di conservazione")
+			.register(meterRegistry);
+
+		this.purgedArchived = Counter.builder("app.retention.purged.archived")
+			.description("Esami archiviati cancellati perché più vecchi del periodo di conservazione")
+			.register(meterRegistry);
+
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "retention-purge");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// Vedi MedicalTestsService.setShardedStore().
+	@Autowired(required=false)
+	public void setShardedStore(ShardedMedicalTestsStore shardedStore) {
+		this.shardedStore = shardedStore;
+	}
+
+	// Vedi MedicalTestsService.setArchive().
+	@Autowired(required=false)
+	public void setArchive(MedicalTestsArchive archive) {
+		this.archive = archive;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if(shardedStore != null) {
+			log.warn("The retention purge is not supported with sharding: no test will be purged");
+			return;
+		}
+
+		executor.scheduleWithFixedDelay(this::run, 0, intervalMinutes, TimeUnit.MINUTES);
+	}
+
+	private void run() {
+		try {
+			PurgeCheckpoint checkpoint = chunkTx.execute(status -> startOrResume());
+			long lastLog = System.nanoTime();
+
+			while(!Thread.currentThread().isInterrupted()) {
+				long chunkStart = System.nanoTime();
+				long purgedBefore = checkpoint.getPurgedTests() + checkpoint.getPurgedResults();
+				checkpoint = chunkTx.execute(status -> purgeChunk());
+
+				if(!checkpoint.isInProgress()) {
+					break;
+				}
+
+				if(chunkStart - lastLog >= PROGRESS_LOG_NANOS) {
+					log.info("Retention purge in progress: {} medical tests ({} results) older than {} purged, last test id {}",
+						checkpoint.getPurgedTests(), checkpoint.getPurgedResults(), checkpoint.getCutoff(), checkpoint.getLastId());
+					lastLog = chunkStart;
+				}
+
+				throttle(chunkStart, checkpoint.getPurgedTests() + checkpoint.getPurgedResults() - purgedBefore);
+			}
+
+			if(!checkpoint.isInProgress() && checkpoint.getPurgedTests() > 0) {
+				log.info("Retention purge completed: {} medical tests ({} results) older than {} purged",
+					checkpoint.getPurgedTests(), checkpoint.getPurgedResults(), checkpoint.getCutoff());
+			}
+
+			if(!checkpoint.isInProgress() && archive != null) {
+				purgeArchive(checkpoint.getCutoff());
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(RuntimeException e) {
+			log.error("Retention purge of old medical tests failed", e);
+		}
+	}
+
+	/**
+	 * Se il passaggio precedente non è terminato lo riprende, altrimenti ne inizia uno nuovo.
+	 */
+
+	private PurgeCheckpoint startOrResume() {
+		PurgeCheckpoint checkpoint = checkpointsRepo.findById(JOB).orElseGet(() -> new PurgeCheckpoint(JOB));
+
+		if(checkpoint.isInProgress()) {
+			log.info("Resuming retention purge after test id {} (cutoff {}, {} medical tests already purged)",
+				checkpoint.getLastId(), checkpoint.getCutoff(), checkpoint.getPurgedTests());
+
+			return checkpoint;
+		}
+
+		checkpoint.start(LocalDateTime.now().minusMonths(retentionMonths));
+
+		return checkpointsRepo.save(checkpoint);
+	}
+
+	/**
+	 * Cancella il blocco successivo all'ultimo salvato nel checkpoint e restituisce il
+	 * checkpoint aggiornato, che risulta completato se non ci sono più esami da cancellare.
+	 */
+
+	private PurgeCheckpoint purgeChunk() {
+		PurgeCheckpoint checkpoint = checkpointsRepo.findById(JOB).orElseThrow();
+		List<Long> ids = medicalTestsRepo.findIdsAfterOlderThan(checkpoint.getLastId(), checkpoint.getCutoff(), PageRequest.ofSize(chunkSize));
+
+		if(ids.isEmpty()) {
+			checkpoint.complete();
+
+			return checkpointsRepo.save(checkpoint);
+		}
+
+		List<Long> patientIds = medicalTestsRepo.findPatientIdsByIds(ids);
+		int results = medicalTestResultsRepo.deleteAllByMedicalTestIds(ids);
+		int tests = medicalTestsRepo.deleteAllByIds(ids);
+		medicalTestsService.rebuildDashboards(patientIds);
+
+		checkpoint.advance(ids.get(ids.size() - 1), tests, results);
+		purgedTests.increment(tests);
+		purgedResults.increment(results);
+		eventPublisher.publishEvent(new TestsChangedEvent(ids));
+
+		return checkpointsRepo.save(checkpoint);
+	}
+
+	/**
+	 * Cancella dall'archivio gli esami più vecchi di cutoff, a blocchi di chunkSize e con lo
+	 * stesso budget di righe al secondo usato per il DB. Non c'è una transazione: ogni
+	 * blocco è già stato sincronizzato su disco quando vengono pubblicati gli eventi.
+	 */
+
+	private void purgeArchive(LocalDateTime cutoff) throws InterruptedException {
+		long afterId = 0;
+		long purged = 0;
+
+		while(!Thread.currentThread().isInterrupted()) {
+			long chunkStart = System.nanoTime();
+			List<Long> ids = archive.findIdsOlderThan(cutoff, afterId, chunkSize);
+
+			if(ids.isEmpty()) {
+				break;
+			}
+
+			try {
+				archive.remove(ids);
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			afterId = ids.get(ids.size() - 1);
+			purged += ids.size();
+			purgedArchived.increment(ids.size());
+			eventPublisher.publishEvent(new TestsChangedEvent(ids));
+
+			throttle(chunkStart, ids.size());
+		}
+
+		if(purged > 0) {
+			log.info("Retention purge completed: {} archived medical tests older than {} purged", purged, cutoff);
+		}
+	}
+
+	/**
+	 * Dopo aver cancellato un blocco di n righe, il job aspetta che siano trascorsi almeno
+	 * n / rowsPerSecond secondi dall'inizio del blocco. Con rows-per-second=0 non c'è limite.
+	 */
+
+	private void throttle(long chunkStart, long rows) throws InterruptedException {
+		if(rowsPerSecond <= 0) {
+			return;
+		}
+
+		long budgetNanos = rows * TimeUnit.SECONDS.toNanos(1) / rowsPerSecond;
+		long pauseNanos = budgetNanos - (System.nanoTime() - chunkStart);
+
+		if(pauseNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(pauseNanos);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
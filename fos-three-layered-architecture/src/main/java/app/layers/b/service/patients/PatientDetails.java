@@ -0,0 +1,70 @@
+package app.layers.b.service.patients;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.Map;
+
+/**
+ * I dettagli di un paziente, completi del riepilogo dei suoi esami. Il repository legge in
+ * un colpo solo la riga del paziente e quella del suo riepilogo denormalizzato (vedi
+ * PatientsRepository.findDetailsById()), e PatientsService la converte in questo oggetto.
+ */
+
+public class PatientDetails {
+	private final Long id;
+	private final String firstName;
+	private final String lastName;
+	private final LocalDate birthdate;
+	private final int testsCount;
+	private final LocalDateTime lastTestDateTime;
+	private final String lastTestDescription;
+	private final Map<String, Float> latestValues;
+	
+	public PatientDetails(Long id, String firstName, String lastName, LocalDate birthdate, Integer testsCount, LocalDateTime lastTestDateTime, String lastTestDescription, Map<String, Float> latestValues) {
+		this.id = id;
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.birthdate = birthdate;
+		this.testsCount = testsCount != null ? testsCount : 0;
+		this.lastTestDateTime = lastTestDateTime;
+		this.lastTestDescription = lastTestDescription;
+		this.latestValues = latestValues != null ? latestValues : Map.of();
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public String getFirstName() {
+		return firstName;
+	}
+	
+	public String getLastName() {
+		return lastName;
+	}
+	
+	public LocalDate getBirthdate() {
+		return birthdate;
+	}
+	
+	public Integer getAge() {
+		return birthdate != null ? Period.between(birthdate, LocalDate.now()).getYears() : null;
+	}
+	
+	public int getTestsCount() {
+		return testsCount;
+	}
+	
+	public LocalDateTime getLastTestDateTime() {
+		return lastTestDateTime;
+	}
+	
+	public String getLastTestDescription() {
+		return lastTestDescription;
+	}
+	
+	public Map<String, Float> getLatestValues() {
+		return latestValues;
+	}
+}
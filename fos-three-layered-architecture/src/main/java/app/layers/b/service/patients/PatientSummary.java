@@ -1,7 +1,34 @@
 package app.layers.b.service.patients;
 
-public interface PatientSummary {
-	Long getId();
-	String getFirstName();
-	String getLastName();
-}
\ No newline at end of file
+/**
+ * Come TestSummary, anche questa proiezione è una classe invece di un'interfaccia: Spring
+ * Data la passa al repository come parametro (es. PatientsRepository.findBy()) e ricava
+ * le colonne da selezionare dai parametri del costruttore, istanziando direttamente un
+ * oggetto per riga, senza proxy né mappe intermedie.
+ * 
+ * (Vedi PatientsRepository.java)
+ */
+
+public class PatientSummary {
+	private final Long id;
+	private final String firstName;
+	private final String lastName;
+	
+	public PatientSummary(Long id, String firstName, String lastName) {
+		this.id = id;
+		this.firstName = firstName;
+		this.lastName = lastName;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public String getFirstName() {
+		return firstName;
+	}
+	
+	public String getLastName() {
+		return lastName;
+	}
+}
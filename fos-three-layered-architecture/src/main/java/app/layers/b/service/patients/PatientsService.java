@@ -1,12 +1,21 @@
 package app.layers.b.service.patients;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import app.layers.b.service.coalescing.SingleFlight;
 import app.layers.c.data.entities.Patient;
+import app.layers.c.data.projections.PatientDetailsRow;
+import app.layers.c.data.projections.PatientSummaryRow;
 import app.layers.c.data.repositories.PatientsRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.persistence.EntityManager;
 
 /**
@@ -17,7 +26,11 @@ import jakarta.persistence.EntityManager;
 
 @Service
 public class PatientsService {
-	
+
+	private static final int DEFAULT_PAGE_SIZE = 50;
+	private static final int MAX_PAGE_SIZE = 500;
+	private static final int MAX_AGE = 150;
+
 	/**
 	 * Similmente a come i controller del presentation layer non devono conoscere i dettagli
 	 * della logica applicativa, allo stesso modo è bene che il service layer non conosca i
@@ -27,9 +40,19 @@ public class PatientsService {
 	
 	private PatientsRepository patientsRepository;
 	
+	/**
+	 * Le richieste contemporanee dell'elenco completo dei pazienti condividono la stessa
+	 * query (vedi SingleFlight.java), perciò l'elenco restituito non è modificabile. Se in
+	 * futuro questo service dovesse scrivere sulla tabella dei pazienti, dovrà chiamare
+	 * allPatientsFlight.invalidate() dopo il commit.
+	 */
+	
+	private SingleFlight<Boolean, List<PatientSummary>> allPatientsFlight;
+	
 	@Autowired
-	public PatientsService(PatientsRepository patientsRepository) {
+	public PatientsService(PatientsRepository patientsRepository, MeterRegistry meterRegistry) {
 		this.patientsRepository = patientsRepository;
+		this.allPatientsFlight = new SingleFlight<>("getAllPatients", meterRegistry);
 	}
 	
 	/**
@@ -58,6 +81,100 @@ public class PatientsService {
 	 */
 	
 	public List<PatientSummary> getAllPatients() {
-		return patientsRepository.findBy(PatientSummary.class);
+		return allPatientsFlight.load(Boolean.TRUE, () -> Collections.unmodifiableList(patientsRepository.findBy(PatientSummary.class)));
+	}
+
+	/**
+	 * L'età non è salvata sul DB, perciò non possiamo filtrarla direttamente con una query:
+	 * caricare tutti i pazienti per poi scartare in Java quelli fuori dall'intervallo sarebbe
+	 * uno spreco. Sfruttiamo invece il fatto che l'età dipende solo dalla data di nascita, e
+	 * trasformiamo l'intervallo di età in un intervallo di date su cui il DB può usare un
+	 * indice. Un paziente ha almeno minAge anni se è nato entro oggi - minAge anni, e ha al
+	 * massimo maxAge anni se è nato dopo oggi - (maxAge + 1) anni.
+	 *
+	 * Il risultato viene restituito una pagina alla volta con la paginazione keyset: il
+	 * client passa l'id dell'ultimo paziente ricevuto (afterId) per ottenere la pagina dopo.
+	 * Con il filtro sull'età i pazienti sono ordinati per data di nascita e poi per id, e il
+	 * cursore è la coppia (data di nascita, id): la data di nascita viene letta qui, a partire
+	 * da afterId, così il client continua a passare soltanto l'id. Se il paziente afterId non
+	 * esiste viene lanciata una IllegalArgumentException.
+	 *
+	 * Le età devono essere comprese tra 0 e MAX_AGE (e minAge non può superare maxAge):
+	 * altrimenti viene lanciata una IllegalArgumentException, che il controller trasforma
+	 * in una risposta 400.
+	 */
+
+	public List<PatientSummary> getPatients(Integer minAge, Integer maxAge, Long afterId, Integer limit) {
+		validateAge("minAge", minAge);
+		validateAge("maxAge", maxAge);
+
+		if(minAge != null && maxAge != null && minAge > maxAge) {
+			throw new IllegalArgumentException("minAge cannot be greater than maxAge");
+		}
+
+		long lastId = afterId != null ? afterId : 0L;
+		Pageable page = PageRequest.of(0, pageSize(limit));
+
+		if(minAge == null && maxAge == null) {
+			return patientsRepository.findByIdGreaterThanOrderByIdAsc(lastId, page, PatientSummary.class);
+		}
+
+		LocalDate today = LocalDate.now();
+
+		LocalDate maxBirthdate = minAge != null ? today.minusYears(minAge) : today;
+		LocalDate minBirthdate = maxAge != null ? today.minusYears(maxAge + 1L).plusDays(1) : LocalDate.of(1, 1, 1);
+		LocalDate fromBirthdate = minBirthdate;
+
+		if(afterId != null) {
+			LocalDate afterBirthdate = patientsRepository.findBirthdateById(afterId)
+				.orElseThrow(() -> new IllegalArgumentException("Unknown patient " + afterId + " in afterId"));
+
+			// Un cursore che precede l'intervallo equivale a partire dall'inizio.
+			if(afterBirthdate.isBefore(minBirthdate)) {
+				lastId = 0L;
+			}
+			else {
+				fromBirthdate = afterBirthdate;
+			}
+		}
+
+		List<PatientSummaryRow> rows = patientsRepository.findPageByBirthdate(fromBirthdate, maxBirthdate, lastId, page);
+		List<PatientSummary> summaries = new ArrayList<>(rows.size());
+
+		for(PatientSummaryRow row : rows) {
+			summaries.add(new PatientSummary(row.getId(), row.getFirstName(), row.getLastName()));
+		}
+
+		return summaries;
+	}
+
+	/**
+	 * I dettagli del paziente includono il riepilogo dei suoi esami, che viene mantenuto
+	 * aggiornato da MedicalTestsService.saveTest(): qui ci limitiamo a leggerlo.
+	 */
+
+	public PatientDetails getPatientDetails(long id) {
+		PatientDetailsRow row = patientsRepository.findDetailsById(id);
+		
+		if(row == null) {
+			return null;
+		}
+		
+		return new PatientDetails(row.getId(), row.getFirstName(), row.getLastName(), row.getBirthdate(),
+			row.getTestsCount(), row.getLastTestDateTime(), row.getLastTestDescription(), row.getLatestValues());
+	}
+
+	private static void validateAge(String name, Integer age) {
+		if(age != null && (age < 0 || age > MAX_AGE)) {
+			throw new IllegalArgumentException(name + " must be between 0 and " + MAX_AGE);
+		}
+	}
+
+	private static int pageSize(Integer limit) {
+		if(limit == null || limit <= 0) {
+			return DEFAULT_PAGE_SIZE;
+		}
+
+		return Math.min(limit, MAX_PAGE_SIZE);
 	}
 }
@@ -0,0 +1,48 @@
+package app.layers.b.service.patients.chart;
+
+import java.util.List;
+
+import app.layers.b.service.medicaltests.LatestResult;
+import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.patients.PatientDetails;
+
+/**
+ * La cartella di un paziente: i suoi dettagli, gli esami più recenti e l'ultimo valore di
+ * ogni parametro. Le tre parti vengono caricate in parallelo (vedi PatientChartService.java);
+ * se le risposte parziali sono abilitate, "missing" elenca le parti che non è stato
+ * possibile caricare in tempo, e che nella risposta valgono null.
+ */
+
+public class PatientChart {
+	private final PatientDetails patient;
+	private final List<TestSummary> recentTests;
+	private final List<LatestResult> latestResults;
+	private final List<String> missing;
+	
+	public PatientChart(PatientDetails patient, List<TestSummary> recentTests, List<LatestResult> latestResults, List<String> missing) {
+		this.patient = patient;
+		this.recentTests = recentTests;
+		this.latestResults = latestResults;
+		this.missing = missing;
+	}
+	
+	public PatientDetails getPatient() {
+		return patient;
+	}
+	
+	public List<TestSummary> getRecentTests() {
+		return recentTests;
+	}
+	
+	public List<LatestResult> getLatestResults() {
+		return latestResults;
+	}
+	
+	public List<String> getMissing() {
+		return missing;
+	}
+	
+	public boolean isPartial() {
+		return !missing.isEmpty();
+	}
+}
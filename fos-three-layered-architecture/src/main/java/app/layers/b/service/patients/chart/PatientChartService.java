@@ -0,0 +1,275 @@
+package app.layers.b.service.patients.chart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import app.layers.b.service.medicaltests.LatestResult;
+import app.layers.b.service.medicaltests.MedicalTestsService;
+import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.patients.PatientDetails;
+import app.layers.b.service.patients.PatientsService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Compone la cartella di un paziente a partire da tre letture indipendenti: i dettagli del
+ * paziente, gli esami più recenti e l'ultimo valore di ogni parametro. Eseguite una dopo
+ * l'altra, i loro tempi si sommerebbero; qui vengono invece avviate insieme su un pool di
+ * thread dedicato, e la risposta arriva dopo un tempo vicino a quello della più lenta.
+ * 
+ * Ogni lettura (un "ramo") ha un proprio timeout, che parte dal momento in cui il ramo
+ * viene affidato al pool: comprende quindi anche l'attesa in coda di un thread libero. Un
+ * ramo che lo supera viene considerato fallito e il suo task viene annullato, ma annullarlo
+ * interrompe soltanto il thread, e un thread fermo dentro una chiamata JDBC non se ne
+ * accorge. Per questo ogni ramo viene eseguito in una transazione di sola lettura il cui
+ * timeout è il tempo che resta al ramo quando un thread lo prende in carico: Hibernate lo
+ * passa a ogni query (Statement.setQueryTimeout), ed è il DB stesso a interrompere una query
+ * che lo supera. Il timeout JDBC si esprime in secondi, perciò viene arrotondato per eccesso.
+ *
+ * Cosa succede quando un ramo fallisce dipende da app.chart.partial-results:
+ * - false (default): gli altri rami vengono annullati subito, senza aspettarne la fine, e
+ *   il chiamante riceve una PatientChartUnavailableException;
+ * - true: gli altri rami proseguono, e la cartella viene restituita con le parti mancanti
+ *   elencate in PatientChart.getMissing().
+ * 
+ * In entrambi i casi getPatientChart() non aspetta i rami falliti, che possono essere ancora
+ * in esecuzione quando restituisce la risposta: la loro query viene interrotta dal DB al più
+ * tardi allo scadere del timeout arrotondato, e il loro risultato viene scartato. Fanno
+ * eccezione le query sugli shard (app.sharding.enabled), che non passano da JPA e non sono
+ * legate alla transazione del ramo: proseguono fino alla fine, occupando il thread.
+ *
+ * I rami girano su thread diversi da quello della richiesta,
+ * perciò le loro query non compaiono nelle tracce di app.tracing; i loro tempi sono però
+ * visibili in /actuator/metrics/app.chart.branch, suddivisi per ramo ed esito, e quelli
+ * dell'intera composizione in /actuator/metrics/app.chart.requests.
+ */
+
+@Service
+public class PatientChartService implements DisposableBean {
+	
+	private static final Logger log = LoggerFactory.getLogger(PatientChartService.class);
+	
+	// I nomi dei rami coincidono con quelli delle proprietà di PatientChart.
+	private static final String PATIENT = "patient";
+	private static final String RECENT_TESTS = "recentTests";
+	private static final String LATEST_RESULTS = "latestResults";
+	
+	private PatientsService patientsService;
+	private MedicalTestsService medicalTestsService;
+	private MeterRegistry meterRegistry;
+	private PlatformTransactionManager transactionManager;
+	
+	private final ExecutorService executor;
+	
+	private final int recentTestsLimit;
+	private final boolean partialResults;
+	private final long patientTimeoutMillis;
+	private final long recentTestsTimeoutMillis;
+	private final long latestResultsTimeoutMillis;
+	
+	@Autowired
+	public PatientChartService(
+			PatientsService patientsService,
+			MedicalTestsService medicalTestsService,
+			MeterRegistry meterRegistry,
+			PlatformTransactionManager transactionManager,
+			@Value("${app.chart.threads:8}") int threads,
+			@Value("${app.chart.recent-tests:20}") int recentTestsLimit,
+			@Value("${app.chart.partial-results:false}") boolean partialResults,
+			@Value("${app.chart.patient-timeout-millis:2000}") long patientTimeoutMillis,
+			@Value("${app.chart.recent-tests-timeout-millis:3000}") long recentTestsTimeoutMillis,
+			@Value("${app.chart.latest-results-timeout-millis:3000}") long latestResultsTimeoutMillis) {
+		
+		this.patientsService = patientsService;
+		this.medicalTestsService = medicalTestsService;
+		this.meterRegistry = meterRegistry;
+		this.transactionManager = transactionManager;
+		
+		this.recentTestsLimit = Math.max(1, recentTestsLimit);
+		this.partialResults = partialResults;
+		this.patientTimeoutMillis = patientTimeoutMillis;
+		this.recentTestsTimeoutMillis = recentTestsTimeoutMillis;
+		this.latestResultsTimeoutMillis = latestResultsTimeoutMillis;
+		
+		AtomicInteger threadCount = new AtomicInteger();
+		
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+			Thread thread = new Thread(runnable, "patient-chart-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Restituisce null se il paziente non esiste, come PatientsService.getPatientDetails().
+	 */
+	
+	public PatientChart getPatientChart(long patientId) {
+		long start = System.nanoTime();
+		List<Branch<?>> branches = new ArrayList<>(3);
+		
+		Branch<PatientDetails> patient = fork(branches, PATIENT, patientTimeoutMillis,
+			() -> patientsService.getPatientDetails(patientId));
+		
+		Branch<List<TestSummary>> recentTests = fork(branches, RECENT_TESTS, recentTestsTimeoutMillis,
+			() -> medicalTestsService.getRecentTestsOfPatient(patientId, recentTestsLimit));
+		
+		Branch<List<LatestResult>> latestResults = fork(branches, LATEST_RESULTS, latestResultsTimeoutMillis,
+			() -> medicalTestsService.getLatestResultsOfPatient(patientId));
+		
+		CompletableFuture<Void> all = CompletableFuture.allOf(branches.stream().map(b -> b.result).toArray(CompletableFuture[]::new));
+		
+		if(partialResults) {
+			// Ogni ramo termina al più tardi allo scadere del suo timeout.
+			all.handle((v, e) -> null).join();
+		}
+		else {
+			// Il primo ramo che fallisce completa "all" con un errore, senza aspettare gli altri.
+			try {
+				all.join();
+			}
+			catch(CompletionException | CancellationException e) {
+				Branch<?> failed = branches.stream().filter(b -> b.result.isCompletedExceptionally()).findFirst().orElse(patient);
+				branches.forEach(Branch::cancel);
+				
+				record(start, "failed");
+				throw new PatientChartUnavailableException(patientId, failed.name, failed.failure());
+			}
+		}
+		
+		List<String> missing = new ArrayList<>(0);
+		
+		for(Branch<?> branch : branches) {
+			if(branch.result.isCompletedExceptionally()) {
+				log.warn("Patient chart {}: branch {} not loaded: {}", patientId, branch.name, branch.failure().toString());
+				missing.add(branch.name);
+			}
+		}
+		
+		record(start, missing.isEmpty() ? "complete" : "partial");
+		
+		if(!missing.contains(PATIENT) && patient.value() == null) {
+			return null;
+		}
+		
+		return new PatientChart(patient.value(), recentTests.value(), latestResults.value(), missing);
+	}
+	
+	/**
+	 * Avvia un ramo sul pool di thread. Il timeout viene applicato al CompletableFuture del
+	 * ramo: quando scade (o quando il ramo viene annullato) il future si completa con un
+	 * errore, e il task ancora in coda viene annullato di conseguenza; a quello già in
+	 * esecuzione pensa il timeout della transazione (vedi callWithinDeadline()).
+	 */
+	
+	private <T> Branch<T> fork(List<Branch<?>> branches, String name, long timeoutMillis, Supplier<T> loader) {
+		Branch<T> branch = new Branch<>(name);
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		
+		branch.task = executor.submit(() -> {
+			try {
+				branch.result.complete(callWithinDeadline(name, deadline, loader));
+			}
+			catch(Throwable e) {
+				branch.result.completeExceptionally(e);
+			}
+		});
+		
+		branch.result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+		branch.result.whenComplete((value, e) -> {
+			if(e != null) {
+				branch.task.cancel(true);
+			}
+			
+			meterRegistry.timer("app.chart.branch", "branch", name, "outcome", outcome(e))
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		});
+		
+		branches.add(branch);
+		
+		return branch;
+	}
+	
+	/**
+	 * Esegue il ramo in una transazione di sola lettura che scade insieme al ramo: le letture
+	 * dei service partecipano a questa transazione, e Hibernate applica a ogni loro query il
+	 * tempo che resta prima della scadenza. Un ramo rimasto in coda oltre la scadenza non
+	 * viene nemmeno avviato.
+	 */
+	
+	private <T> T callWithinDeadline(String name, long deadline, Supplier<T> loader) throws TimeoutException {
+		long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		
+		if(remainingMillis <= 0) {
+			throw new TimeoutException("Branch " + name + " expired while waiting for a thread");
+		}
+		
+		TransactionTemplate tx = new TransactionTemplate(transactionManager);
+		tx.setReadOnly(true);
+		tx.setTimeout((int) Math.min(Integer.MAX_VALUE, (remainingMillis + 999) / 1000));
+		
+		return tx.execute(status -> loader.get());
+	}
+	
+	private static String outcome(Throwable e) {
+		if(e == null) {
+			return "success";
+		}
+		
+		if(e instanceof TimeoutException) {
+			return "timeout";
+		}
+		
+		return e instanceof CancellationException ? "cancelled" : "failure";
+	}
+	
+	private void record(long start, String outcome) {
+		meterRegistry.timer("app.chart.requests", "outcome", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+	
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+	
+	private static class Branch<T> {
+		private final String name;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		private volatile Future<?> task;
+		
+		private Branch(String name) {
+			this.name = name;
+		}
+		
+		private T value() {
+			return result.isCompletedExceptionally() ? null : result.join();
+		}
+		
+		private Throwable failure() {
+			return result.handle((value, e) -> e).join();
+		}
+		
+		private void cancel() {
+			result.cancel(false);
+		}
+	}
+}
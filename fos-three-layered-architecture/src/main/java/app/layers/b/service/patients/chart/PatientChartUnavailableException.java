@@ -0,0 +1,22 @@
+package app.layers.b.service.patients.chart;
+
+/**
+ * Una delle parti della cartella non è stata caricata (per un errore o perché ha superato
+ * il suo timeout) e le risposte parziali non sono abilitate.
+ */
+
+public class PatientChartUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final String branch;
+	
+	public PatientChartUnavailableException(long patientId, String branch, Throwable cause) {
+		super("La cartella del paziente " + patientId + " non è disponibile (" + branch + ")", cause);
+		this.branch = branch;
+	}
+	
+	public String getBranch() {
+		return branch;
+	}
+}
@@ -0,0 +1,82 @@
+package app.layers.b.service.reactive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import app.layers.b.service.medicaltests.TestDetails;
+import app.layers.b.service.medicaltests.TestResult;
+import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangeCatalog;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangesSnapshot;
+import app.layers.b.service.patients.PatientSummary;
+import app.layers.c.data.entities.ResultFlag;
+import app.layers.c.data.projections.TestResultRow;
+import app.layers.c.data.projections.TestSummaryRow;
+import app.layers.c.data.reactive.ReactiveReadsConfig;
+import app.layers.c.data.reactive.ReactiveReadsStore;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Variante reattiva delle letture di PatientsService e MedicalTestsService. I metodi non
+ * restituiscono i dati, ma un Flux (o un Mono) che li produrrà: nessuna query viene
+ * eseguita finché il presentation layer non si "iscrive" al risultato.
+ *
+ * A differenza delle letture bloccanti, qui non c'è SingleFlight (vedi SingleFlight.java):
+ * ogni client riceve le righe man mano che vengono lette, al proprio ritmo, perciò non ha
+ * senso condividere il risultato di una query tra più richieste.
+ */
+
+@Service
+@ConditionalOnExpression(ReactiveReadsConfig.ENABLED)
+public class ReactiveReadsService {
+
+	private ReactiveReadsStore reactiveReadsStore;
+	private ReferenceRangeCatalog rangeCatalog;
+
+	@Autowired
+	public ReactiveReadsService(ReactiveReadsStore reactiveReadsStore, ReferenceRangeCatalog rangeCatalog) {
+		this.reactiveReadsStore = reactiveReadsStore;
+		this.rangeCatalog = rangeCatalog;
+	}
+
+	public Flux<PatientSummary> getAllPatients() {
+		return reactiveReadsStore.findAllPatients()
+			.map(row -> new PatientSummary(row.getId(), row.getFirstName(), row.getLastName()));
+	}
+
+	public Flux<TestSummary> getAllTests() {
+		return reactiveReadsStore.findAllTests().map(ReactiveReadsService::toTestSummary);
+	}
+
+	/**
+	 * I risultati in formato compatto arrivano senza flag (vedi ReactiveReadsStore.
+	 * findTestDetails()): li calcoliamo con gli intervalli di riferimento attuali.
+	 */
+
+	public Mono<TestDetails> getTestDetails(long id) {
+		return reactiveReadsStore.findTestDetails(id).map(row -> {
+			ReferenceRangesSnapshot ranges = rangeCatalog.current();
+			TestSummaryRow test = row.getTest();
+			TestDetails testDetails = new TestDetails(test.getId(), test.getPatientId(), test.getDescription(), test.getDateTime());
+			List<TestResult> testResults = new ArrayList<>(row.getResults().size());
+
+			for(TestResultRow res : row.getResults()) {
+				ResultFlag flag = res.getFlag() != null ? res.getFlag() : ranges.evaluate(res.getParamName(), res.getParamValue());
+				testResults.add(new TestResult(res.getParamName(), res.getParamValue(), flag));
+			}
+
+			testDetails.setResults(testResults);
+
+			return testDetails;
+		});
+	}
+
+	private static TestSummary toTestSummary(TestSummaryRow row) {
+		return new TestSummary(row.getId(), row.getPatientId(), row.getDescription(), row.getDateTime());
+	}
+}
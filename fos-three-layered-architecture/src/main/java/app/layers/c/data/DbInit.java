@@ -1,27 +1,54 @@
 package app.layers.c.data;
 
+import java.time.LocalDate;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.ApplicationArguments;
-import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import app.layers.c.data.entities.Patient;
+import app.layers.c.data.entities.ReferenceRange;
 import app.layers.c.data.repositories.PatientsRepository;
+import app.layers.c.data.repositories.ReferenceRangesRepository;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Inserisce alcuni pazienti di esempio all'avvio. Può essere disattivato con la proprietà
+ * app.db-init.enabled=false, come avviene nel profilo "fast" (application-fast.properties).
+ *
+ * I dati vengono inseriti appena il bean è stato creato (@PostConstruct), prima che il
+ * webserver venga avviato: chi li legge all'avvio può così contare sulla loro presenza, sia
+ * il catalogo degli intervalli di riferimento, caricato quando tutti i bean sono stati creati
+ * (vedi ReferenceRangeCatalog.java), sia il riscaldamento (vedi JitWarmup.java).
+ */
 
 @Component
-public class DbInit implements ApplicationRunner {
+@ConditionalOnProperty(name="app.db-init.enabled", matchIfMissing=true)
+public class DbInit {
 
 	@Autowired
 	PatientsRepository patientsRepo;
 	
-	@Override
-	public void run(ApplicationArguments args) throws Exception {
+	@Autowired
+	ReferenceRangesRepository referenceRangesRepo;
+	
+	@PostConstruct
+	public void init() {
 		Patient p1 = new Patient("Walter", "Paganini");
 		Patient p2 = new Patient("Mario", "Rossi");
 		Patient p3 = new Patient("Luigi", "Rossi");
 		
+		p1.setBirthdate(LocalDate.of(1985, 3, 14));
+		p2.setBirthdate(LocalDate.of(1952, 11, 2));
+		p3.setBirthdate(LocalDate.of(2009, 7, 21));
+		
 		patientsRepo.saveAll(List.of(p1, p2, p3));		
+		
+		referenceRangesRepo.saveAll(List.of(
+			new ReferenceRange("K", 3.5f, 5.1f),
+			new ReferenceRange("Na", 135f, 145f),
+			new ReferenceRange("Ca++", 8.5f, 10.5f),
+			new ReferenceRange("Glucose", 70f, 99f)));
 	}
 }
@@ -0,0 +1,33 @@
+package app.layers.c.data.archive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * L'archivio degli esami è disattivato di default: per attivarlo basta impostare la
+ * proprietà app.archive.enabled=true nel file application.properties. I file dell'archivio
+ * vengono creati nella cartella indicata da app.archive.directory.
+ *
+ * (Vedi MedicalTestsArchiver.java per il job che sposta gli esami nell'archivio)
+ */
+
+@Configuration
+@ConditionalOnProperty(name="app.archive.enabled", havingValue="true")
+public class ArchiveConfig {
+
+	@Bean
+	public MedicalTestsArchive medicalTestsArchive(
+			@Value("${app.archive.directory:archive}") String directory,
+			@Value("${app.archive.compaction-threshold:0.25}") double compactionThreshold,
+			MeterRegistry meterRegistry) throws IOException {
+
+		return new MedicalTestsArchive(Path.of(directory), compactionThreshold, meterRegistry);
+	}
+}
@@ -0,0 +1,31 @@
+package app.layers.c.data.archive;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Risultato di un esame letto dall'archivio (vedi MedicalTestsArchive.java).
+ */
+
+public class ArchivedResult {
+	private final String paramName;
+	private final Float paramValue;
+	private final ResultFlag flag;
+
+	public ArchivedResult(String paramName, Float paramValue, ResultFlag flag) {
+		this.paramName = paramName;
+		this.paramValue = paramValue;
+		this.flag = flag;
+	}
+
+	public String getParamName() {
+		return paramName;
+	}
+
+	public Float getParamValue() {
+		return paramValue;
+	}
+
+	public ResultFlag getFlag() {
+		return flag;
+	}
+}
@@ -0,0 +1,44 @@
+package app.layers.c.data.archive;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Esame da scrivere nell'archivio, o letto dall'archivio (vedi MedicalTestsArchive.java).
+ */
+
+public class ArchivedTest {
+	private final long id;
+	private final long patientId;
+	private final String description;
+	private final LocalDateTime dateTime;
+	private final List<ArchivedResult> results;
+
+	public ArchivedTest(long id, long patientId, String description, LocalDateTime dateTime, List<ArchivedResult> results) {
+		this.id = id;
+		this.patientId = patientId;
+		this.description = description;
+		this.dateTime = dateTime;
+		this.results = results;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getPatientId() {
+		return patientId;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+
+	public List<ArchivedResult> getResults() {
+		return results;
+	}
+}
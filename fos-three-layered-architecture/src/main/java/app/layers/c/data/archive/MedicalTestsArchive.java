@@ -0,0 +1,773 @@
+package app.layers.c.data.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import app.layers.c.data.entities.ResultFlag;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Archivio "freddo" degli esami più vecchi, che vengono letti raramente: invece di tenerli
+ * sul DB (dove fanno crescere tabelle, indici e backup), li spostiamo in un file binario
+ * su disco, a cui si possono solo aggiungere record (append-only).
+ *
+ * L'archivio è composto da due file:
+ * - il file dei dati, che contiene un record per ogni esame, con tutti i suoi risultati;
+ * - il file indice, che contiene una coppia (id dell'esame, offset del record) per ogni
+ *   esame archiviato, di dimensione fissa (16 byte).
+ *
+ * All'avvio l'indice viene caricato in memoria in due array ordinati per id, in cui un
+ * esame si trova con una ricerca binaria. Il file dei dati viene invece mappato in memoria
+ * (memory-mapped file): la lettura di un record non richiede chiamate di sistema né copie
+ * intermedie in un buffer, perché il sistema operativo carica direttamente le pagine del
+ * file nella memoria del processo (e le tiene nella propria cache). Gli unici dati copiati
+ * sono i campi decodificati del record richiesto.
+ *
+ * Le scritture seguono sempre lo stesso ordine: prima i record, poi l'indice, ciascuno
+ * sincronizzato su disco (force) prima di proseguire. Se l'applicazione si interrompe nel
+ * mezzo, al riavvio i record non ancora presenti nell'indice vengono scartati (vedi
+ * recover()). Se uno stesso esame viene archiviato più volte (es. perché la cancellazione
+ * dal DB non è andata a buon fine), vale il record più recente.
+ *
+ * Anche la cancellazione di un esame (vedi remove(), usato da RetentionPurgeJob.java) è
+ * un'aggiunta: nell'indice viene scritta una "lapide", cioè una voce con offset -1, e da quel
+ * momento l'esame non viene più trovato. Il suo record però resta nel file dei dati, come i
+ * record sostituiti da un'archiviazione successiva dello stesso esame. Lo spazio occupato da
+ * questi record viene recuperato all'avvio, quando supera la frazione
+ * app.archive.compaction-threshold del file dei dati: i record ancora validi vengono copiati
+ * in una nuova coppia di file, che sostituisce quella vecchia (vedi compactIfNeeded()).
+ * La compattazione avviene solo all'avvio perché il file dei dati non può essere sostituito
+ * mentre è mappato in memoria.
+ *
+ * Un singolo file mappato non può superare i 2 GB: oltre quella dimensione, l'archivio va
+ * suddiviso su più file.
+ *
+ * Formato di un record (big-endian):
+ *   int length (dei byte seguenti), long id, long patientId,
+ *   long dateTime (secondi, UTC; Long.MIN_VALUE se null), int nanos,
+ *   string description, short resultsCount,
+ *   per ogni risultato: string paramName, byte hasValue, float paramValue, byte flag
+ * dove string è uno short con la lunghezza in byte (-1 se null) seguito dai byte UTF-8, e
+ * flag è 0 se null, altrimenti ordinal() + 1 (i nuovi valori di ResultFlag vanno quindi
+ * aggiunti sempre in fondo).
+ */
+
+public class MedicalTestsArchive implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(MedicalTestsArchive.class);
+
+	private static final String DATA_FILE = "medical-tests.dat";
+	private static final String INDEX_FILE = "medical-tests.idx";
+	private static final String COMPACTED_SUFFIX = ".compacted";
+	private static final String COMPACTION_MARKER = "medical-tests.compaction";
+	private static final int INDEX_ENTRY_SIZE = 16;
+	private static final long TOMBSTONE = -1;
+	private static final long NO_DATE_TIME = Long.MIN_VALUE;
+	private static final ResultFlag[] FLAGS = ResultFlag.values();
+
+	private final FileChannel dataChannel;
+	private final FileChannel indexChannel;
+	private final Timer readTimer;
+
+	/**
+	 * Lo stato in lettura viene sostituito per intero (e atomicamente) a ogni scrittura,
+	 * perciò le letture non hanno bisogno di alcun lock.
+	 */
+
+	private volatile Snapshot snapshot;
+
+	public MedicalTestsArchive(Path directory, double compactionThreshold, MeterRegistry meterRegistry) throws IOException {
+		Files.createDirectories(directory);
+		completeCompaction(directory);
+		compactIfNeeded(directory, compactionThreshold);
+
+		this.dataChannel = FileChannel.open(directory.resolve(DATA_FILE),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		this.snapshot = recover();
+
+		this.readTimer = Timer.builder("app.archive.reads")
+			.description("Letture di esami dall'archivio")
+			.register(meterRegistry);
+
+		Gauge.builder("app.archive.tests", this, archive -> archive.snapshot.size)
+			.register(meterRegistry);
+
+		Gauge.builder("app.archive.size", this, archive -> archive.snapshot.dataSize)
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	public int getArchivedCount() {
+		return snapshot.size;
+	}
+
+	public long getSizeBytes() {
+		return snapshot.dataSize;
+	}
+
+	/**
+	 * Restituisce null se l'esame non è presente nell'archivio.
+	 */
+
+	public ArchivedTest findById(long id) {
+		long start = System.nanoTime();
+
+		try {
+			Snapshot current = snapshot;
+			int index = binarySearch(current.ids, current.size, id);
+
+			return index >= 0 ? decode(current.data, current.offsets[index]) : null;
+		}
+		finally {
+			readTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Gli id, in ordine crescente e successivi ad afterId, di al più limit esami con data
+	 * precedente a cutoff (paginazione keyset, come MedicalTestsRepository.
+	 * findIdsAfterOlderThan()). Gli esami senza data non vengono mai restituiti.
+	 */
+
+	public List<Long> findIdsOlderThan(LocalDateTime cutoff, long afterId, int limit) {
+		Snapshot current = snapshot;
+		long cutoffSecond = cutoff.toEpochSecond(ZoneOffset.UTC);
+		int cutoffNanos = cutoff.getNano();
+		List<Long> ids = new ArrayList<>();
+
+		for(int i = firstAfter(current.ids, current.size, afterId); i < current.size && ids.size() < limit; i++) {
+			int pos = (int) current.offsets[i] + Integer.BYTES + Long.BYTES * 2;
+			long epochSecond = current.data.getLong(pos);
+
+			if(epochSecond == NO_DATE_TIME) {
+				continue;
+			}
+
+			if(epochSecond < cutoffSecond || (epochSecond == cutoffSecond && current.data.getInt(pos + Long.BYTES) < cutoffNanos)) {
+				ids.add(current.ids[i]);
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Cancella gli esami dall'archivio scrivendo una lapide per ognuno nell'indice. Gli id
+	 * non presenti vengono ignorati. Al termine del metodo le lapidi sono già state
+	 * sincronizzate su disco.
+	 */
+
+	public synchronized void remove(Collection<Long> ids) throws IOException {
+		Snapshot current = snapshot;
+		long[] removed = ids.stream()
+			.mapToLong(Long::longValue)
+			.filter(id -> binarySearch(current.ids, current.size, id) >= 0)
+			.sorted()
+			.distinct()
+			.toArray();
+
+		if(removed.length == 0) {
+			return;
+		}
+
+		ByteBuffer indexBuffer = ByteBuffer.allocate(removed.length * INDEX_ENTRY_SIZE);
+
+		for(long id : removed) {
+			indexBuffer.putLong(id).putLong(TOMBSTONE);
+		}
+
+		writeFully(indexChannel, indexBuffer.flip(), (long) current.indexEntries * INDEX_ENTRY_SIZE);
+		indexChannel.force(true);
+
+		snapshot = without(current, removed);
+	}
+
+	/**
+	 * Aggiunge gli esami in fondo all'archivio. Al termine del metodo i dati sono già stati
+	 * sincronizzati su disco, perciò il chiamante può cancellarli dal DB.
+	 */
+
+	public synchronized void append(List<ArchivedTest> tests) throws IOException {
+		if(tests.isEmpty()) {
+			return;
+		}
+
+		Snapshot current = snapshot;
+		List<byte[]> records = new ArrayList<>(tests.size());
+		long totalSize = 0;
+
+		for(ArchivedTest test : tests) {
+			byte[] record = encode(test);
+			records.add(record);
+			totalSize += record.length;
+		}
+
+		long newDataSize = current.dataSize + totalSize;
+
+		if(newDataSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("L'archivio ha raggiunto la dimensione massima di un file mappato");
+		}
+
+		ByteBuffer dataBuffer = ByteBuffer.allocate((int) totalSize);
+		ByteBuffer indexBuffer = ByteBuffer.allocate(tests.size() * INDEX_ENTRY_SIZE);
+		long[] newIds = new long[tests.size()];
+		long[] newOffsets = new long[tests.size()];
+
+		for(int i = 0; i < records.size(); i++) {
+			long offset = current.dataSize + dataBuffer.position();
+
+			newIds[i] = tests.get(i).getId();
+			newOffsets[i] = offset;
+
+			dataBuffer.put(records.get(i));
+			indexBuffer.putLong(newIds[i]).putLong(offset);
+		}
+
+		writeFully(dataChannel, dataBuffer.flip(), current.dataSize);
+		dataChannel.force(true);
+
+		writeFully(indexChannel, indexBuffer.flip(), (long) current.indexEntries * INDEX_ENTRY_SIZE);
+		indexChannel.force(true);
+
+		sortById(newIds, newOffsets, newIds.length);
+		snapshot = merge(current, newIds, newOffsets, current.indexEntries + newIds.length, map(newDataSize), newDataSize);
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		dataChannel.close();
+		indexChannel.close();
+	}
+
+	/**
+	 * Ricostruisce lo stato in memoria a partire dall'indice, scartando le voci incomplete
+	 * in fondo all'indice e i record in fondo al file dei dati che l'indice non conosce
+	 * (cioè quelli di una scrittura interrotta).
+	 */
+
+	private Snapshot recover() throws IOException {
+		Index index = readIndex(indexChannel, dataChannel);
+
+		indexChannel.truncate((long) index.entries * INDEX_ENTRY_SIZE);
+		dataChannel.truncate(index.dataSize);
+
+		return new Snapshot(map(index.dataSize), index.ids, index.offsets, index.size, index.entries, index.dataSize);
+	}
+
+	/**
+	 * Legge l'indice e restituisce, ordinata per id, l'ultima voce di ogni esame non
+	 * cancellato. Le lunghezze dei record vengono lette con il FileChannel e non da una
+	 * mappatura, perché prima di una compattazione il file dei dati non deve essere mappato.
+	 */
+
+	private static Index readIndex(FileChannel indexChannel, FileChannel dataChannel) throws IOException {
+		long dataFileSize = dataChannel.size();
+		int entries = (int) (indexChannel.size() / INDEX_ENTRY_SIZE);
+
+		ByteBuffer indexBuffer = ByteBuffer.allocate(entries * INDEX_ENTRY_SIZE);
+		readFully(indexChannel, indexBuffer, 0);
+		indexBuffer.flip();
+
+		ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+		long[] ids = new long[entries];
+		long[] offsets = new long[entries];
+		int size = 0;
+		long dataSize = 0;
+
+		for(int i = 0; i < entries; i++) {
+			long id = indexBuffer.getLong();
+			long offset = indexBuffer.getLong();
+
+			if(offset != TOMBSTONE) {
+				if(offset < 0 || offset + Integer.BYTES > dataFileSize) {
+					continue;
+				}
+
+				long end = offset + Integer.BYTES + readInt(dataChannel, lengthBuffer, offset);
+
+				if(end > dataFileSize) {
+					continue;
+				}
+
+				dataSize = Math.max(dataSize, end);
+			}
+
+			ids[size] = id;
+			offsets[size] = offset;
+			size++;
+		}
+
+		int validEntries = size;
+
+		sortById(ids, offsets, size);
+		size = removeDuplicates(ids, offsets, size);
+		size = removeTombstones(ids, offsets, size);
+
+		return new Index(ids, offsets, size, validEntries, dataSize);
+	}
+
+	/**
+	 * Se i record non più validi (cancellati o sostituiti) occupano almeno la frazione
+	 * threshold del file dei dati, copia i record validi, in ordine di id, in una nuova coppia
+	 * di file. I due file vengono poi sostituiti a quelli vecchi da completeCompaction(): il
+	 * file "marcatore" creato dopo averli sincronizzati su disco indica che la copia è
+	 * completa, e che al riavvio la sostituzione va portata a termine invece di scartarli.
+	 */
+
+	private static void compactIfNeeded(Path directory, double threshold) throws IOException {
+		Path dataFile = directory.resolve(DATA_FILE);
+		Path indexFile = directory.resolve(INDEX_FILE);
+
+		if(!Files.exists(dataFile) || !Files.exists(indexFile)) {
+			return;
+		}
+
+		long reclaimed;
+
+		try(FileChannel dataChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+				FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+
+			Index index = readIndex(indexChannel, dataChannel);
+			ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+			int[] lengths = new int[index.size];
+			long liveSize = 0;
+
+			for(int i = 0; i < index.size; i++) {
+				lengths[i] = Integer.BYTES + readInt(dataChannel, lengthBuffer, index.offsets[i]);
+				liveSize += lengths[i];
+			}
+
+			reclaimed = index.dataSize - liveSize;
+
+			if(reclaimed <= 0 || reclaimed < index.dataSize * threshold) {
+				return;
+			}
+
+			try(FileChannel newDataChannel = FileChannel.open(directory.resolve(DATA_FILE + COMPACTED_SUFFIX),
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+					FileChannel newIndexChannel = FileChannel.open(directory.resolve(INDEX_FILE + COMPACTED_SUFFIX),
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+				ByteBuffer indexBuffer = ByteBuffer.allocate(index.size * INDEX_ENTRY_SIZE);
+				long position = 0;
+
+				for(int i = 0; i < index.size; i++) {
+					for(long copied = 0; copied < lengths[i]; ) {
+						copied += dataChannel.transferTo(index.offsets[i] + copied, lengths[i] - copied, newDataChannel);
+					}
+
+					indexBuffer.putLong(index.ids[i]).putLong(position);
+					position += lengths[i];
+				}
+
+				writeFully(newIndexChannel, indexBuffer.flip(), 0);
+				newDataChannel.force(true);
+				newIndexChannel.force(true);
+			}
+		}
+
+		Files.createFile(directory.resolve(COMPACTION_MARKER));
+		completeCompaction(directory);
+
+		log.info("Compacted the medical tests archive: {} bytes reclaimed", reclaimed);
+	}
+
+	/**
+	 * Porta a termine una compattazione interrotta dopo la creazione del marcatore, oppure
+	 * scarta i file di una compattazione interrotta prima. Spostare di nuovo un file già
+	 * spostato non fa nulla, perciò il metodo può essere interrotto e ripetuto.
+	 */
+
+	private static void completeCompaction(Path directory) throws IOException {
+		Path marker = directory.resolve(COMPACTION_MARKER);
+		Path compactedData = directory.resolve(DATA_FILE + COMPACTED_SUFFIX);
+		Path compactedIndex = directory.resolve(INDEX_FILE + COMPACTED_SUFFIX);
+
+		if(Files.exists(marker)) {
+			moveIfExists(compactedData, directory.resolve(DATA_FILE));
+			moveIfExists(compactedIndex, directory.resolve(INDEX_FILE));
+			Files.delete(marker);
+		}
+		else {
+			Files.deleteIfExists(compactedData);
+			Files.deleteIfExists(compactedIndex);
+		}
+	}
+
+	private static void moveIfExists(Path source, Path target) throws IOException {
+		if(Files.exists(source)) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private ByteBuffer map(long size) throws IOException {
+		return size > 0 ? dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, size) : ByteBuffer.allocate(0);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+
+			if(read < 0) {
+				throw new EOFException();
+			}
+
+			position += read;
+		}
+	}
+
+	private static int readInt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		readFully(channel, buffer, position);
+
+		return buffer.getInt(0);
+	}
+
+	private static byte[] encode(ArchivedTest test) {
+		byte[] description = utf8(test.getDescription());
+		List<byte[]> names = new ArrayList<>(test.getResults().size());
+		int size = Long.BYTES * 3 + Integer.BYTES + stringSize(description) + Short.BYTES;
+
+		for(ArchivedResult result : test.getResults()) {
+			byte[] name = utf8(result.getParamName());
+			names.add(name);
+			size += stringSize(name) + 1 + Float.BYTES + 1;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + size);
+		buffer.putInt(size);
+		buffer.putLong(test.getId());
+		buffer.putLong(test.getPatientId());
+
+		if(test.getDateTime() != null) {
+			buffer.putLong(test.getDateTime().toEpochSecond(ZoneOffset.UTC));
+			buffer.putInt(test.getDateTime().getNano());
+		}
+		else {
+			buffer.putLong(NO_DATE_TIME);
+			buffer.putInt(0);
+		}
+
+		putString(buffer, description);
+		buffer.putShort((short) test.getResults().size());
+
+		for(int i = 0; i < names.size(); i++) {
+			ArchivedResult result = test.getResults().get(i);
+
+			putString(buffer, names.get(i));
+			buffer.put((byte) (result.getParamValue() != null ? 1 : 0));
+			buffer.putFloat(result.getParamValue() != null ? result.getParamValue() : 0f);
+			buffer.put((byte) (result.getFlag() != null ? result.getFlag().ordinal() + 1 : 0));
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Le letture usano solo metodi "assoluti" del buffer (con la posizione come parametro),
+	 * che non ne modificano lo stato: lo stesso buffer può quindi essere letto da più
+	 * thread contemporaneamente.
+	 */
+
+	private static ArchivedTest decode(ByteBuffer data, long offset) {
+		int[] pos = { (int) offset + Integer.BYTES };
+
+		long id = data.getLong(pos[0]);
+		long patientId = data.getLong(pos[0] + Long.BYTES);
+		long epochSecond = data.getLong(pos[0] + Long.BYTES * 2);
+		int nanos = data.getInt(pos[0] + Long.BYTES * 3);
+		pos[0] += Long.BYTES * 3 + Integer.BYTES;
+
+		LocalDateTime dateTime = epochSecond != NO_DATE_TIME ? LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC) : null;
+		String description = getString(data, pos);
+
+		int resultsCount = data.getShort(pos[0]);
+		pos[0] += Short.BYTES;
+
+		List<ArchivedResult> results = new ArrayList<>(resultsCount);
+
+		for(int i = 0; i < resultsCount; i++) {
+			String paramName = getString(data, pos);
+			boolean hasValue = data.get(pos[0]) != 0;
+			float value = data.getFloat(pos[0] + 1);
+			int flag = data.get(pos[0] + 1 + Float.BYTES);
+			pos[0] += 1 + Float.BYTES + 1;
+
+			results.add(new ArchivedResult(paramName, hasValue ? value : null, flag > 0 ? FLAGS[flag - 1] : null));
+		}
+
+		return new ArchivedTest(id, patientId, description, dateTime, results);
+	}
+
+	private static byte[] utf8(String value) {
+		if(value == null) {
+			return null;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		if(bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Stringa troppo lunga per l'archivio");
+		}
+
+		return bytes;
+	}
+
+	private static int stringSize(byte[] bytes) {
+		return Short.BYTES + (bytes != null ? bytes.length : 0);
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		buffer.putShort((short) (bytes != null ? bytes.length : -1));
+
+		if(bytes != null) {
+			buffer.put(bytes);
+		}
+	}
+
+	private static String getString(ByteBuffer data, int[] pos) {
+		int length = data.getShort(pos[0]);
+		pos[0] += Short.BYTES;
+
+		if(length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		data.get(pos[0], bytes);
+		pos[0] += length;
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int binarySearch(long[] ids, int size, long id) {
+		int low = 0;
+		int high = size - 1;
+
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+
+			if(ids[mid] < id) {
+				low = mid + 1;
+			}
+			else if(ids[mid] > id) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	// Posizione del primo id maggiore di id (size se non ce ne sono).
+	private static int firstAfter(long[] ids, int size, long id) {
+		int low = 0;
+		int high = size;
+
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+
+			if(ids[mid] <= id) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Unisce le nuove voci (già ordinate) a quelle esistenti. A parità di id prevale la
+	 * nuova voce, cioè il record scritto più di recente.
+	 */
+
+	private static Snapshot merge(Snapshot current, long[] newIds, long[] newOffsets, int indexEntries, ByteBuffer data, long dataSize) {
+		int newSize = removeDuplicates(newIds, newOffsets, newIds.length);
+		long[] ids = new long[current.size + newSize];
+		long[] offsets = new long[ids.length];
+		int i = 0, j = 0, k = 0;
+
+		while(i < current.size || j < newSize) {
+			if(j >= newSize || (i < current.size && current.ids[i] < newIds[j])) {
+				ids[k] = current.ids[i];
+				offsets[k++] = current.offsets[i++];
+			}
+			else {
+				if(i < current.size && current.ids[i] == newIds[j]) {
+					i++;
+				}
+
+				ids[k] = newIds[j];
+				offsets[k++] = newOffsets[j++];
+			}
+		}
+
+		return new Snapshot(data, ids, offsets, k, indexEntries, dataSize);
+	}
+
+	/**
+	 * Toglie dalle voci esistenti quelle degli id indicati (ordinati, e tutti presenti).
+	 */
+
+	private static Snapshot without(Snapshot current, long[] removed) {
+		long[] ids = new long[current.size - removed.length];
+		long[] offsets = new long[ids.length];
+		int j = 0, k = 0;
+
+		for(int i = 0; i < current.size; i++) {
+			if(j < removed.length && current.ids[i] == removed[j]) {
+				j++;
+				continue;
+			}
+
+			ids[k] = current.ids[i];
+			offsets[k++] = current.offsets[i];
+		}
+
+		return new Snapshot(current.data, ids, offsets, k, current.indexEntries + removed.length, current.dataSize);
+	}
+
+	/**
+	 * Ordinamento stabile (merge sort) di due array paralleli in base agli id: a parità di
+	 * id, le voci mantengono l'ordine in cui sono state scritte.
+	 */
+
+	private static void sortById(long[] ids, long[] offsets, int size) {
+		long[] idsBuffer = new long[size];
+		long[] offsetsBuffer = new long[size];
+
+		for(int width = 1; width < size; width *= 2) {
+			for(int low = 0; low < size - width; low += width * 2) {
+				int mid = low + width;
+				int high = Math.min(low + width * 2, size);
+				int i = low, j = mid, k = low;
+
+				while(i < mid || j < high) {
+					if(j >= high || (i < mid && ids[i] <= ids[j])) {
+						idsBuffer[k] = ids[i];
+						offsetsBuffer[k++] = offsets[i++];
+					}
+					else {
+						idsBuffer[k] = ids[j];
+						offsetsBuffer[k++] = offsets[j++];
+					}
+				}
+
+				System.arraycopy(idsBuffer, low, ids, low, high - low);
+				System.arraycopy(offsetsBuffer, low, offsets, low, high - low);
+			}
+		}
+	}
+
+	/**
+	 * Negli array ordinati, tiene solo l'ultima voce di ogni id. Restituisce la nuova
+	 * dimensione.
+	 */
+
+	private static int removeDuplicates(long[] ids, long[] offsets, int size) {
+		int k = 0;
+
+		for(int i = 0; i < size; i++) {
+			if(i + 1 < size && ids[i + 1] == ids[i]) {
+				continue;
+			}
+
+			ids[k] = ids[i];
+			offsets[k++] = offsets[i];
+		}
+
+		return k;
+	}
+
+	/**
+	 * Dopo removeDuplicates(), scarta gli esami la cui ultima voce è una lapide. Restituisce
+	 * la nuova dimensione.
+	 */
+
+	private static int removeTombstones(long[] ids, long[] offsets, int size) {
+		int k = 0;
+
+		for(int i = 0; i < size; i++) {
+			if(offsets[i] == TOMBSTONE) {
+				continue;
+			}
+
+			ids[k] = ids[i];
+			offsets[k++] = offsets[i];
+		}
+
+		return k;
+	}
+
+	/**
+	 * Oltre alle voci in memoria (una per esame), lo snapshot ricorda quante voci contiene
+	 * il file indice, compresi i duplicati e le lapidi: le nuove voci vanno scritte dopo
+	 * l'ultima.
+	 */
+
+	private static class Snapshot {
+		final ByteBuffer data;
+		final long[] ids;
+		final long[] offsets;
+		final int size;
+		final int indexEntries;
+		final long dataSize;
+
+		Snapshot(ByteBuffer data, long[] ids, long[] offsets, int size, int indexEntries, long dataSize) {
+			this.data = data;
+			this.ids = ids;
+			this.offsets = offsets;
+			this.size = size;
+			this.indexEntries = indexEntries;
+			this.dataSize = dataSize;
+		}
+	}
+
+	private static class Index {
+		final long[] ids;
+		final long[] offsets;
+		final int size;
+		final int entries;
+		final long dataSize;
+
+		Index(long[] ids, long[] offsets, int size, int entries, long dataSize) {
+			this.ids = ids;
+			this.offsets = offsets;
+			this.size = size;
+			this.entries = entries;
+			this.dataSize = dataSize;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package app.layers.c.data.cache;
+
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Espone come metriche le statistiche di ogni regione della cache di secondo livello
+ * (vedi ehcache.xml): quante volte un dato è stato trovato in cache (hit), quante volte è
+ * stato necessario leggerlo dal DB (miss), e il rapporto tra i due. Ogni hit corrisponde a
+ * una query risparmiata. Le metriche sono consultabili tramite /actuator/metrics, es.
+ * /actuator/metrics/app.hibernate.cache.hit.ratio?tag=region:patients
+ *
+ * Le statistiche vengono raccolte da Hibernate solo se la proprietà
+ * hibernate.generate_statistics è attiva (vedi application.properties).
+ */
+
+@Component
+public class CacheRegionMetrics implements MeterBinder {
+
+	private static final List<String> REGIONS = List.of(
+		"patients",
+		"medical-tests",
+		"default-query-results-region");
+
+	private final Statistics statistics;
+
+	public CacheRegionMetrics(EntityManagerFactory entityManagerFactory) {
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for(String region : REGIONS) {
+			FunctionCounter.builder("app.hibernate.cache.requests", statistics, s -> hits(s, region))
+				.tag("region", region)
+				.tag("result", "hit")
+				.register(registry);
+
+			FunctionCounter.builder("app.hibernate.cache.requests", statistics, s -> misses(s, region))
+				.tag("region", region)
+				.tag("result", "miss")
+				.register(registry);
+
+			Gauge.builder("app.hibernate.cache.hit.ratio", statistics, s -> hitRatio(s, region))
+				.tag("region", region)
+				.register(registry);
+		}
+	}
+
+	private static double hits(Statistics statistics, String region) {
+		CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+		return regionStatistics != null ? regionStatistics.getHitCount() : 0;
+	}
+
+	private static double misses(Statistics statistics, String region) {
+		CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+		return regionStatistics != null ? regionStatistics.getMissCount() : 0;
+	}
+
+	private static double hitRatio(Statistics statistics, String region) {
+		double hits = hits(statistics, region);
+		double total = hits + misses(statistics, region);
+		return total > 0 ? hits / total : 0;
+	}
+}
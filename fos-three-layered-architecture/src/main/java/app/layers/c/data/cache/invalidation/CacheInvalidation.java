@@ -0,0 +1,113 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.util.Objects;
+
+/**
+ * Un dato da scartare dalle cache degli altri nodi (vedi CacheInvalidationBus.java):
+ * - ENTITY: una singola entità di una regione della cache, es. il paziente 12 della regione
+ *   "patients";
+ * - REGION: tutte le entità di una regione;
+ * - QUERIES: tutti i risultati delle query in cache (vedi ehcache.xml);
+ * - REFERENCE_RANGES: gli intervalli di riferimento dei parametri clinici, che ogni nodo
+ *   tiene in memoria fuori da Hibernate e ricarica dal DB quando cambiano (vedi
+ *   ReferenceRangeCatalog.java).
+ * 
+ * I nomi delle regioni sono quelli dell'annotazione @Cache delle entità (es. Patient.java).
+ */
+
+public final class CacheInvalidation {
+
+	public static final String PATIENTS = "patients";
+	public static final String MEDICAL_TESTS = "medical-tests";
+	
+	public enum Kind {
+		ENTITY,
+		REGION,
+		QUERIES,
+		REFERENCE_RANGES
+	}
+	
+	private static final CacheInvalidation ALL_QUERIES = new CacheInvalidation(Kind.QUERIES, null, 0);
+	private static final CacheInvalidation ALL_REFERENCE_RANGES = new CacheInvalidation(Kind.REFERENCE_RANGES, null, 0);
+	
+	private final Kind kind;
+	private final String region;
+	private final long id;
+	
+	private CacheInvalidation(Kind kind, String region, long id) {
+		this.kind = kind;
+		this.region = region;
+		this.id = id;
+	}
+	
+	public static CacheInvalidation entity(String region, long id) {
+		return new CacheInvalidation(Kind.ENTITY, region, id);
+	}
+	
+	public static CacheInvalidation region(String region) {
+		return new CacheInvalidation(Kind.REGION, region, 0);
+	}
+	
+	public static CacheInvalidation queries() {
+		return ALL_QUERIES;
+	}
+	
+	public static CacheInvalidation referenceRanges() {
+		return ALL_REFERENCE_RANGES;
+	}
+	
+	public Kind getKind() {
+		return kind;
+	}
+	
+	public String getRegion() {
+		return region;
+	}
+	
+	public long getId() {
+		return id;
+	}
+	
+	/**
+	 * Formato di una riga del messaggio: "E regione id", "R regione", "Q" oppure "RR".
+	 */
+	
+	String encode() {
+		return switch(kind) {
+			case ENTITY -> "E " + region + " " + id;
+			case REGION -> "R " + region;
+			case QUERIES -> "Q";
+			case REFERENCE_RANGES -> "RR";
+		};
+	}
+	
+	static CacheInvalidation decode(String line) {
+		String[] parts = line.split(" ");
+		
+		return switch(parts[0]) {
+			case "E" -> entity(parts[1], Long.parseLong(parts[2]));
+			case "R" -> region(parts[1]);
+			case "Q" -> queries();
+			case "RR" -> referenceRanges();
+			default -> throw new IllegalArgumentException("Unknown cache invalidation: " + line);
+		};
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof CacheInvalidation invalidation
+			&& kind == invalidation.kind
+			&& id == invalidation.id
+			&& Objects.equals(region, invalidation.region);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(kind, region, id);
+	}
+	
+	@Override
+	public String toString() {
+		return encode();
+	}
+}
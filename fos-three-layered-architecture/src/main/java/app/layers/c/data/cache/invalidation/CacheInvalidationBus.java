@@ -0,0 +1,342 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Con più istanze dell'applicazione dietro un load balancer, ogni nodo ha le sue cache in
+ * memoria (es. la cache di secondo livello di Hibernate, vedi ehcache.xml): quando un nodo
+ * modifica un dato, Hibernate aggiorna la propria cache, ma gli altri nodi continuano a
+ * restituire la copia vecchia fino alla sua scadenza. Il bus avvisa invece gli altri nodi
+ * di scartare le copie dei dati modificati (vedi CacheInvalidation.java).
+ * 
+ * Le invalidazioni vengono inviate solo dopo il commit della transazione in cui il dato è
+ * stato modificato (se publish() viene chiamato fuori da una transazione, vengono inviate
+ * subito): inviarle prima permetterebbe a un altro nodo di rileggere dal DB il dato vecchio
+ * e rimetterlo in cache, e in caso di rollback invaliderebbe dati mai modificati.
+ * 
+ * Invece di un messaggio per ogni modifica, le invalidazioni vengono raccolte per
+ * app.cache.invalidation.batch-millis millisecondi e inviate insieme, dopo averle ridotte:
+ * - le invalidazioni uguali vengono inviate una volta sola;
+ * - oltre app.cache.invalidation.max-entities-per-region entità della stessa regione (es. un
+ *   blocco di esami cancellati, vedi RetentionPurgeJob.java), si invalida l'intera regione.
+ * 
+ * Il trasporto è intercambiabile (vedi InvalidationTransport.java), come le cache che
+ * ricevono le invalidazioni (vedi CacheInvalidationListener.java). Le invalidazioni vengono
+ * applicate solo agli altri nodi: il nodo che ha modificato il dato ha già aggiornato le
+ * proprie cache.
+ * 
+ * Ogni messaggio contiene l'id del nodo che l'ha inviato e l'istante del commit più vecchio
+ * del gruppo: il tempo tra quel commit e l'applicazione delle invalidazioni sugli altri nodi
+ * (la latenza end-to-end, che include l'attesa del batch) è visibile in
+ * /actuator/metrics/app.cache.invalidation.latency. Tra macchine diverse la misura è
+ * affidabile solo quanto la sincronizzazione dei loro orologi.
+ * 
+ * Formato di un messaggio (testo UTF-8): la riga "INV1 idNodo istanteInMicrosecondi",
+ * seguita da una riga per invalidazione.
+ */
+
+public class CacheInvalidationBus implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+	
+	private static final String HEADER = "INV1";
+	
+	private InvalidationTransport transport;
+	private List<CacheInvalidationListener> listeners;
+	private String nodeId;
+	private int batchMillis;
+	private int maxEntitiesPerRegion;
+	private Counter published;
+	private Counter sent;
+	private Counter messages;
+	private Counter received;
+	private Timer latency;
+	
+	private final ScheduledExecutorService executor;
+	
+	// Invalidazioni in attesa del prossimo invio, protette dal lock di pending.
+	private final Set<CacheInvalidation> pending = new LinkedHashSet<>();
+	private long oldestCommitMicros;
+	private boolean flushScheduled;
+	
+	public CacheInvalidationBus(
+			InvalidationTransport transport,
+			List<CacheInvalidationListener> listeners,
+			String nodeId,
+			int batchMillis,
+			int maxEntitiesPerRegion,
+			MeterRegistry meterRegistry) {
+		
+		this.transport = transport;
+		this.listeners = listeners;
+		this.nodeId = nodeId;
+		this.batchMillis = Math.max(0, batchMillis);
+		this.maxEntitiesPerRegion = Math.max(1, maxEntitiesPerRegion);
+		
+		this.published = Counter.builder("app.cache.invalidation.published")
+			.description("Invalidazioni pubblicate da questo nodo, prima della riduzione")
+			.register(meterRegistry);
+		
+		this.sent = Counter.builder("app.cache.invalidation.sent")
+			.description("Invalidazioni inviate agli altri nodi, dopo la riduzione")
+			.register(meterRegistry);
+		
+		this.messages = Counter.builder("app.cache.invalidation.messages")
+			.description("Messaggi inviati agli altri nodi")
+			.register(meterRegistry);
+		
+		this.received = Counter.builder("app.cache.invalidation.received")
+			.description("Invalidazioni ricevute dagli altri nodi")
+			.register(meterRegistry);
+		
+		this.latency = Timer.builder("app.cache.invalidation.latency")
+			.description("Tempo tra il commit sul nodo che ha modificato i dati e l'invalidazione sugli altri nodi")
+			.register(meterRegistry);
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cache-invalidation-bus");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() throws IOException {
+		transport.start(this::receive);
+		log.info("Cache invalidation bus started on node {}", nodeId);
+	}
+	
+	public void publish(CacheInvalidation... invalidations) {
+		publish(List.of(invalidations));
+	}
+	
+	public void publish(Collection<CacheInvalidation> invalidations) {
+		if(invalidations.isEmpty()) {
+			return;
+		}
+		
+		if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+			enqueue(invalidations);
+			return;
+		}
+		
+		List<CacheInvalidation> afterCommit = List.copyOf(invalidations);
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				enqueue(afterCommit);
+			}
+		});
+	}
+	
+	private void enqueue(Collection<CacheInvalidation> invalidations) {
+		long now = nowMicros();
+		published.increment(invalidations.size());
+		
+		synchronized(pending) {
+			if(pending.isEmpty()) {
+				oldestCommitMicros = now;
+			}
+			
+			pending.addAll(invalidations);
+			
+			if(!flushScheduled) {
+				try {
+					executor.schedule(this::flush, batchMillis, TimeUnit.MILLISECONDS);
+					flushScheduled = true;
+				}
+				catch(RejectedExecutionException e) {
+					// L'applicazione si sta fermando: le invalidazioni vengono inviate da destroy().
+				}
+			}
+		}
+	}
+	
+	private void flush() {
+		List<CacheInvalidation> batch;
+		long oldest;
+		
+		synchronized(pending) {
+			batch = new ArrayList<>(pending);
+			oldest = oldestCommitMicros;
+			pending.clear();
+			flushScheduled = false;
+		}
+		
+		if(batch.isEmpty()) {
+			return;
+		}
+		
+		List<CacheInvalidation> coalesced = coalesce(batch);
+		
+		try {
+			send(coalesced, oldest);
+			sent.increment(coalesced.size());
+		}
+		catch(IOException | RuntimeException e) {
+			log.warn("Could not send {} cache invalidations", coalesced.size(), e);
+		}
+	}
+	
+	/**
+	 * Le invalidazioni di una regione intera assorbono quelle delle sue entità, e oltre
+	 * maxEntitiesPerRegion entità della stessa regione si invalida direttamente la regione.
+	 */
+	
+	private List<CacheInvalidation> coalesce(List<CacheInvalidation> batch) {
+		Map<String, Integer> entitiesPerRegion = new LinkedHashMap<>();
+		Set<String> wholeRegions = new LinkedHashSet<>();
+		boolean queries = false;
+		boolean referenceRanges = false;
+		
+		for(CacheInvalidation invalidation : batch) {
+			switch(invalidation.getKind()) {
+				case ENTITY -> entitiesPerRegion.merge(invalidation.getRegion(), 1, Integer::sum);
+				case REGION -> wholeRegions.add(invalidation.getRegion());
+				case QUERIES -> queries = true;
+				case REFERENCE_RANGES -> referenceRanges = true;
+			}
+		}
+		
+		entitiesPerRegion.forEach((region, count) -> {
+			if(count > maxEntitiesPerRegion) {
+				wholeRegions.add(region);
+			}
+		});
+		
+		List<CacheInvalidation> coalesced = new ArrayList<>();
+		
+		for(String region : wholeRegions) {
+			coalesced.add(CacheInvalidation.region(region));
+		}
+		
+		for(CacheInvalidation invalidation : batch) {
+			if(invalidation.getKind() == CacheInvalidation.Kind.ENTITY && !wholeRegions.contains(invalidation.getRegion())) {
+				coalesced.add(invalidation);
+			}
+		}
+		
+		if(queries) {
+			coalesced.add(CacheInvalidation.queries());
+		}
+		
+		if(referenceRanges) {
+			coalesced.add(CacheInvalidation.referenceRanges());
+		}
+		
+		return coalesced;
+	}
+	
+	/**
+	 * Se le invalidazioni non stanno in un solo messaggio, vengono suddivise su più messaggi,
+	 * ognuno con la stessa intestazione.
+	 */
+	
+	private void send(List<CacheInvalidation> invalidations, long commitMicros) throws IOException {
+		String header = HEADER + " " + nodeId + " " + commitMicros;
+		StringBuilder message = new StringBuilder(header);
+		
+		for(CacheInvalidation invalidation : invalidations) {
+			String line = invalidation.encode();
+			
+			if(message.length() > header.length() && message.length() + 1 + line.length() > transport.maxMessageSize()) {
+				sendMessage(message);
+				message.setLength(0);
+				message.append(header);
+			}
+			
+			message.append('\n').append(line);
+		}
+		
+		sendMessage(message);
+	}
+	
+	private void sendMessage(StringBuilder message) throws IOException {
+		transport.send(message.toString().getBytes(StandardCharsets.UTF_8));
+		messages.increment();
+	}
+	
+	private void receive(byte[] message) {
+		String[] lines = new String(message, StandardCharsets.UTF_8).split("\n");
+		String[] header = lines[0].split(" ");
+		
+		if(header.length != 3 || !HEADER.equals(header[0])) {
+			log.warn("Ignoring an unknown cache invalidation message: {}", lines[0]);
+			return;
+		}
+		
+		if(nodeId.equals(header[1])) {
+			return;
+		}
+		
+		List<CacheInvalidation> invalidations = new ArrayList<>(lines.length - 1);
+		
+		for(int i = 1; i < lines.length; i++) {
+			invalidations.add(CacheInvalidation.decode(lines[i]));
+		}
+		
+		for(CacheInvalidationListener listener : listeners) {
+			try {
+				listener.invalidate(invalidations);
+			}
+			catch(RuntimeException e) {
+				log.warn("Cache invalidation listener {} failed", listener.getClass().getSimpleName(), e);
+			}
+		}
+		
+		received.increment(invalidations.size());
+		latency.record(Math.max(0, nowMicros() - Long.parseLong(header[2])), TimeUnit.MICROSECONDS);
+		
+		log.debug("Applied {} cache invalidations from node {}", invalidations.size(), header[1]);
+	}
+	
+	private static long nowMicros() {
+		Instant now = Instant.now();
+		return TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(now.getNano());
+	}
+	
+	/**
+	 * Le invalidazioni ancora in attesa vengono inviate subito. Il trasporto è un bean, e
+	 * viene chiuso da Spring dopo il bus.
+	 */
+	
+	@Override
+	public void destroy() {
+		executor.shutdown();
+		
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		flush();
+	}
+}
@@ -0,0 +1,54 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Il bus delle invalidazioni (vedi CacheInvalidationBus.java) è disattivato di default: serve
+ * solo quando più istanze dell'applicazione condividono lo stesso DB. Per attivarlo basta
+ * impostare la proprietà app.cache.invalidation.enabled=true.
+ * 
+ * Con app.cache.invalidation.transport=udp (il default) i messaggi viaggiano via UDP (vedi
+ * UdpInvalidationTransport.java); con un altro valore, il trasporto va fornito dichiarando
+ * un bean che implementa InvalidationTransport.
+ */
+
+@Configuration
+@ConditionalOnProperty(name="app.cache.invalidation.enabled", havingValue="true")
+public class CacheInvalidationConfig {
+
+	@Bean
+	@ConditionalOnProperty(name="app.cache.invalidation.transport", havingValue="udp", matchIfMissing=true)
+	public InvalidationTransport udpInvalidationTransport(
+			@Value("${app.cache.invalidation.udp.bind:127.0.0.1:9501}") String bind,
+			@Value("${app.cache.invalidation.udp.peers:}") String peers) throws IOException {
+		
+		return new UdpInvalidationTransport(bind, peers);
+	}
+	
+	/**
+	 * Se app.cache.invalidation.node-id non è impostato, ogni avvio usa un id casuale.
+	 */
+	
+	@Bean
+	public CacheInvalidationBus cacheInvalidationBus(
+			InvalidationTransport transport,
+			List<CacheInvalidationListener> listeners,
+			MeterRegistry meterRegistry,
+			@Value("${app.cache.invalidation.node-id:}") String nodeId,
+			@Value("${app.cache.invalidation.batch-millis:5}") int batchMillis,
+			@Value("${app.cache.invalidation.max-entities-per-region:64}") int maxEntitiesPerRegion) {
+		
+		String id = !nodeId.isBlank() ? nodeId : UUID.randomUUID().toString().substring(0, 8);
+		
+		return new CacheInvalidationBus(transport, listeners, id, batchMillis, maxEntitiesPerRegion, meterRegistry);
+	}
+}
@@ -0,0 +1,16 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.util.List;
+
+/**
+ * Una cache in memoria che deve scartare i dati modificati dagli altri nodi: i bean che
+ * implementano questa interfaccia ricevono da CacheInvalidationBus.java ogni gruppo di
+ * invalidazioni arrivato dagli altri nodi (vedi HibernateCacheInvalidator.java per la
+ * cache di secondo livello di Hibernate, e ReferenceRangeCatalog.java per gli intervalli di
+ * riferimento).
+ */
+
+public interface CacheInvalidationListener {
+
+	void invalidate(List<CacheInvalidation> invalidations);
+}
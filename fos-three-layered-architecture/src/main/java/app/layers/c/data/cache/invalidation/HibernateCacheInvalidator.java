@@ -0,0 +1,67 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.metamodel.EntityType;
+
+/**
+ * Applica alla cache di secondo livello di Hibernate le invalidazioni ricevute dagli altri
+ * nodi (vedi CacheInvalidationBus.java). Le regioni vengono associate alle entità tramite
+ * l'annotazione @Cache (es. "patients" a Patient.java); le invalidazioni delle regioni che
+ * non appartengono a nessuna entità vengono ignorate, perché riguardano altre cache.
+ * 
+ * Per i risultati delle query viene scartata l'intera regione: Hibernate non permette di
+ * scartare solo le query che leggono una certa tabella, se non tramite le sue API interne.
+ */
+
+@Component
+@ConditionalOnProperty(name="app.cache.invalidation.enabled", havingValue="true")
+public class HibernateCacheInvalidator implements CacheInvalidationListener {
+
+	private final Cache cache;
+	private final Map<String, Class<?>> entitiesByRegion = new HashMap<>();
+	
+	public HibernateCacheInvalidator(EntityManagerFactory entityManagerFactory) {
+		this.cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+		
+		for(EntityType<?> entity : entityManagerFactory.getMetamodel().getEntities()) {
+			org.hibernate.annotations.Cache annotation = entity.getJavaType().getAnnotation(org.hibernate.annotations.Cache.class);
+			
+			if(annotation != null) {
+				entitiesByRegion.put(annotation.region(), entity.getJavaType());
+			}
+		}
+	}
+	
+	@Override
+	public void invalidate(List<CacheInvalidation> invalidations) {
+		for(CacheInvalidation invalidation : invalidations) {
+			Class<?> entityClass = entitiesByRegion.get(invalidation.getRegion());
+			
+			switch(invalidation.getKind()) {
+				case ENTITY -> {
+					if(entityClass != null) {
+						cache.evictEntityData(entityClass, invalidation.getId());
+					}
+				}
+				case REGION -> {
+					if(entityClass != null) {
+						cache.evictEntityData(entityClass);
+					}
+				}
+				case QUERIES -> cache.evictQueryRegions();
+				case REFERENCE_RANGES -> {
+					// Non sono nella cache di Hibernate (vedi ReferenceRangeCatalog.java).
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Il mezzo con cui i messaggi di CacheInvalidationBus.java raggiungono gli altri nodi. Il
+ * bus non fa ipotesi sul trasporto, se non che un messaggio arrivi intero oppure non arrivi
+ * affatto: l'implementazione predefinita usa UDP (vedi UdpInvalidationTransport.java), ma
+ * basta dichiarare un bean che implementa questa interfaccia (es. basato su un message
+ * broker) per sostituirla.
+ */
+
+public interface InvalidationTransport extends AutoCloseable {
+
+	/**
+	 * Inizia a ricevere i messaggi degli altri nodi, passandoli al receiver. Il receiver può
+	 * essere invocato da un thread qualsiasi, e mai da più thread contemporaneamente.
+	 */
+	
+	void start(Consumer<byte[]> receiver) throws IOException;
+	
+	void send(byte[] message) throws IOException;
+	
+	/**
+	 * Dimensione massima di un messaggio, in byte: i messaggi più grandi vengono suddivisi.
+	 */
+	
+	int maxMessageSize();
+	
+	@Override
+	void close();
+}
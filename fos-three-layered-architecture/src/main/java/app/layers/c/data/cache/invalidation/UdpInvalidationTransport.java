@@ -0,0 +1,115 @@
+package app.layers.c.data.cache.invalidation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trasporto UDP: ogni messaggio viene inviato con un datagramma a ciascuno dei nodi indicati
+ * in app.cache.invalidation.udp.peers, e ogni nodo riceve i messaggi sulla porta indicata in
+ * app.cache.invalidation.udp.bind. Per provare il bus su una sola macchina basta avviare più
+ * istanze dell'applicazione su porte diverse, es. 127.0.0.1:9501 e 127.0.0.1:9502, ognuna con
+ * l'altra tra i peers.
+ * 
+ * UDP non garantisce la consegna: un messaggio perso lascia un dato obsoleto nella cache di
+ * un nodo, al più fino alla sua scadenza (vedi ehcache.xml). In cambio non servono né
+ * connessioni né un broker, e un messaggio arriva in una frazione di millisecondo.
+ */
+
+public class UdpInvalidationTransport implements InvalidationTransport {
+
+	private static final Logger log = LoggerFactory.getLogger(UdpInvalidationTransport.class);
+	
+	// Il carico utile massimo di un datagramma UDP su IPv4 è di 65507 byte; restando sotto
+	// i 1400 byte un datagramma non viene frammentato su una rete Ethernet.
+	private static final int MAX_MESSAGE_SIZE = 1400;
+	
+	private final InetSocketAddress bindAddress;
+	private final List<InetSocketAddress> peers;
+	private final DatagramChannel channel;
+	
+	public UdpInvalidationTransport(String bind, String peers) throws IOException {
+		this.bindAddress = parseAddress(bind);
+		this.peers = new ArrayList<>();
+		
+		for(String peer : peers.split(",")) {
+			if(!peer.isBlank()) {
+				this.peers.add(parseAddress(peer.trim()));
+			}
+		}
+		
+		this.channel = DatagramChannel.open();
+	}
+	
+	@Override
+	public void start(Consumer<byte[]> receiver) throws IOException {
+		channel.bind(bindAddress);
+		
+		Thread thread = new Thread(() -> receive(receiver), "cache-invalidation-udp");
+		thread.setDaemon(true);
+		thread.start();
+		
+		log.info("Cache invalidation transport listening on {}, peers {}", bindAddress, peers);
+	}
+	
+	@Override
+	public void send(byte[] message) throws IOException {
+		for(InetSocketAddress peer : peers) {
+			channel.send(ByteBuffer.wrap(message), peer);
+		}
+	}
+	
+	@Override
+	public int maxMessageSize() {
+		return MAX_MESSAGE_SIZE;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		}
+		catch(IOException e) {
+			log.warn("Error closing the cache invalidation transport", e);
+		}
+	}
+	
+	private void receive(Consumer<byte[]> receiver) {
+		ByteBuffer buffer = ByteBuffer.allocate(65536);
+		
+		while(channel.isOpen()) {
+			try {
+				buffer.clear();
+				channel.receive(buffer);
+				buffer.flip();
+				
+				receiver.accept(Arrays.copyOf(buffer.array(), buffer.limit()));
+			}
+			catch(ClosedChannelException e) {
+				return;
+			}
+			catch(IOException | RuntimeException e) {
+				log.warn("Error receiving a cache invalidation message", e);
+			}
+		}
+	}
+	
+	private static InetSocketAddress parseAddress(String address) {
+		int colon = address.lastIndexOf(':');
+		
+		if(colon < 0) {
+			throw new IllegalArgumentException("Invalid address, expected host:port: " + address);
+		}
+		
+		return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+	}
+}
@@ -0,0 +1,59 @@
+package app.layers.c.data.converters;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Come ParamValuesConverter, ma per una mappa (nome del parametro --> data e ora). Jackson
+ * gestisce le classi di java.time solo tramite il modulo JavaTimeModule; disabilitando
+ * WRITE_DATES_AS_TIMESTAMPS le date vengono scritte in formato ISO (es. "2024-01-10T10:00:00")
+ * invece che come array di numeri, e restano leggibili anche consultando il DB.
+ */
+
+@Converter
+public class ParamTimesConverter implements AttributeConverter<Map<String, LocalDateTime>, String> {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+		.registerModule(new JavaTimeModule())
+		.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+	private static final TypeReference<LinkedHashMap<String, LocalDateTime>> MAP_TYPE = new TypeReference<>() {};
+
+	@Override
+	public String convertToDatabaseColumn(Map<String, LocalDateTime> times) {
+		if(times == null) {
+			return null;
+		}
+
+		try {
+			return MAPPER.writeValueAsString(times);
+		}
+		catch(JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	@Override
+	public Map<String, LocalDateTime> convertToEntityAttribute(String json) {
+		if(json == null) {
+			return null;
+		}
+
+		try {
+			return MAPPER.readValue(json, MAP_TYPE);
+		}
+		catch(JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
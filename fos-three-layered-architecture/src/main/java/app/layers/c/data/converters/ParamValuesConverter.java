@@ -0,0 +1,53 @@
+package app.layers.c.data.converters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Un AttributeConverter permette di salvare in una sola colonna un attributo di un'entità
+ * che non corrisponde a nessun tipo SQL: JPA invoca convertToDatabaseColumn() prima di
+ * scrivere sul DB e convertToEntityAttribute() dopo aver letto. In questo caso salviamo una
+ * mappa (nome del parametro --> valore) come testo JSON.
+ */
+
+@Converter
+public class ParamValuesConverter implements AttributeConverter<Map<String, Float>, String> {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final TypeReference<LinkedHashMap<String, Float>> MAP_TYPE = new TypeReference<>() {};
+
+	@Override
+	public String convertToDatabaseColumn(Map<String, Float> values) {
+		if(values == null) {
+			return null;
+		}
+
+		try {
+			return MAPPER.writeValueAsString(values);
+		}
+		catch(JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	@Override
+	public Map<String, Float> convertToEntityAttribute(String json) {
+		if(json == null) {
+			return null;
+		}
+
+		try {
+			return MAPPER.readValue(json, MAP_TYPE);
+		}
+		catch(JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
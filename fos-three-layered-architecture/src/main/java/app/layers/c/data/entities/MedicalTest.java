@@ -3,31 +3,83 @@ package app.layers.c.data.entities;
 import java.time.LocalDateTime;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.Cacheable;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedAttributeNode;
+import jakarta.persistence.NamedEntityGraph;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderBy;
 import jakarta.persistence.Table;
 
+/**
+ * Una volta salvato, un esame non viene più modificato: per le entità di questo tipo la
+ * strategia READ_ONLY della cache di secondo livello è la più efficiente, perché Hibernate
+ * non deve gestire alcun lock né invalidazione (se non in caso di cancellazione).
+ * L'annotazione @Immutable lo dichiara esplicitamente a Hibernate, che così non controlla
+ * più le modifiche (dirty checking) di questi oggetti.
+ * 
+ * L'entity graph "MedicalTest.withResults" è il piano di caricamento usato per il dettaglio
+ * di un esame (vedi MedicalTestsRepository.findWithResultsById()): l'esame e i suoi
+ * risultati vengono letti con un'unica query, tramite una left join. Senza di esso, la
+ * collezione medicalTestResults verrebbe caricata solo al primo accesso, con una seconda
+ * query "nascosta".
+ * 
+ * L'indice su (patient_id, date_time) permette di leggere gli esami di un paziente già in
+ * ordine di tempo, come serve per la serie storica dei parametri (vedi
+ * MedicalTestResultsRepository.streamHistory()).
+ */
+
 @Entity
-@Table(name="medical_tests")
+@Immutable
+@NamedEntityGraph(name="MedicalTest.withResults", attributeNodes=@NamedAttributeNode("medicalTestResults"))
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_ONLY, region="medical-tests")
+@Table(name="medical_tests", indexes=@Index(name="idx_medical_tests_patient_datetime", columnList="patient_id, dateTime"))
 public class MedicalTest {
 	
 	@Id @GeneratedValue
 	private Long id;
 	
-	@ManyToOne(optional=false)
+	/**
+	 * Le relazioni @ManyToOne vengono caricate di default in modalità EAGER, cioè insieme
+	 * all'entità che le contiene: ogni volta che leggiamo un esame, leggeremmo anche il suo
+	 * paziente, anche quando ci serve soltanto il suo id. Con la modalità LAZY, Hibernate
+	 * crea invece un oggetto "proxy" che contiene solo l'id (cioè il valore della chiave
+	 * esterna patient_id), e legge il resto del paziente dal DB solo se serve davvero.
+	 */
+	
+	@ManyToOne(optional=false, fetch=FetchType.LAZY)
 	@JoinColumn(name="patient_id")
 	private Patient patient;
 	
 	private String description;
 	private LocalDateTime dateTime;
 	
+	// I risultati vengono restituiti nell'ordine in cui sono stati salvati.
 	@OneToMany(mappedBy="medicalTest")
+	@OrderBy("id")
 	private Set<MedicalTestResult> medicalTestResults;
 	
+	/**
+	 * Con app.results.packed=true i risultati dei nuovi esami non vengono salvati come righe
+	 * di medical_test_results, ma tutti insieme in questa colonna, nel formato descritto in
+	 * PackedResultsCodec.java. Per gli esami salvati come righe vale null.
+	 */
+	
+	@Column(length=8192)
+	private byte[] packedResults;
+	
 	public MedicalTest() {}
 	
 	public MedicalTest(Patient patient, String description) {
@@ -71,4 +123,12 @@ public class MedicalTest {
 	public void setMedicalTestResults(Set<MedicalTestResult> medicalTestResults) {
 		this.medicalTestResults = medicalTestResults;
 	}
+
+	public byte[] getPackedResults() {
+		return packedResults;
+	}
+
+	public void setPackedResults(byte[] packedResults) {
+		this.packedResults = packedResults;
+	}
 }
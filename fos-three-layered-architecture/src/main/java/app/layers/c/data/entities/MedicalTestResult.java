@@ -2,6 +2,9 @@ package app.layers.c.data.entities;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.ManyToOne;
@@ -13,20 +16,33 @@ public class MedicalTestResult {
 	@Id @GeneratedValue
 	private Long id;
 	
-	@ManyToOne(optional=false)
+	// Vedi MedicalTest.patient.
+	@ManyToOne(optional=false, fetch=FetchType.LAZY)
 	private MedicalTest medicalTest;
 	
 	@Column(nullable=false)
 	private String paramName;
 	
 	private Float paramValue;
+	
+	/**
+	 * Il flag viene calcolato una volta sola, al salvataggio del risultato, confrontando il
+	 * valore con l'intervallo di riferimento del parametro (null se non esiste un intervallo
+	 * per il parametro). Se gli intervalli cambiano, il flag viene ricalcolato in background
+	 * (vedi ReferenceRangeReevaluator.java).
+	 */
+	
+	@Enumerated(EnumType.STRING)
+	@Column(length=8)
+	private ResultFlag flag;
 
 	public MedicalTestResult() {}
 	
-	public MedicalTestResult(MedicalTest medicalTest, String paramName, Float paramValue) {
+	public MedicalTestResult(MedicalTest medicalTest, String paramName, Float paramValue, ResultFlag flag) {
 		this.medicalTest = medicalTest;
 		this.paramName = paramName;
 		this.paramValue = paramValue;
+		this.flag = flag;
 	}
 	
 	public Long getId() {
@@ -56,4 +72,12 @@ public class MedicalTestResult {
 	public void setParamValue(Float paramValue) {
 		this.paramValue = paramValue;
 	}
+
+	public ResultFlag getFlag() {
+		return flag;
+	}
+
+	public void setFlag(ResultFlag flag) {
+		this.flag = flag;
+	}
 }
@@ -4,16 +4,42 @@ import java.time.LocalDate;
 import java.time.Period;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 
+/**
+ * L'età di un paziente non è una colonna del DB ma un valore calcolato a partire dalla
+ * data di nascita (vedi getAge()): per filtrare i pazienti per età senza caricarli tutti
+ * in memoria, il service layer traduce l'intervallo di età in un intervallo di date di
+ * nascita. L'indice composito su (birthdate, id) permette al DB di leggere solo i pazienti
+ * nati nell'intervallo, senza scansionare l'intera tabella. Le pagine filtrate per età sono
+ * ordinate sulla stessa coppia di colonne, e il cursore della paginazione keyset è una
+ * coppia (data di nascita, id): il DB parte dal cursore e legge l'indice nell'ordine in cui
+ * è già memorizzato, perciò il costo di ogni pagina dipende solo dalla sua dimensione (vedi
+ * PatientsRepository.findPageByBirthdate()).
+ * 
+ * I pazienti vengono letti molto più spesso di quanto vengano modificati, perciò ne
+ * conserviamo una copia nella cache di secondo livello di Hibernate: a differenza della
+ * cache di primo livello (il persistence context, che dura quanto una transazione), questa
+ * è condivisa da tutte le sessioni dell'applicazione. Con la strategia READ_WRITE Hibernate
+ * aggiorna o invalida la copia in cache a ogni modifica dell'entità. La dimensione massima
+ * e la durata della regione "patients" sono configurate in ehcache.xml.
+ */
+
 @Entity
-@Table(name="patients")
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="patients")
+@Table(name="patients", indexes=@Index(name="idx_patients_birthdate_id", columnList="birthdate, id"))
 public class Patient {
 	@Id @GeneratedValue
 	private Long id;
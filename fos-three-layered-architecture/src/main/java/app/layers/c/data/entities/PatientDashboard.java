@@ -0,0 +1,134 @@
+package app.layers.c.data.entities;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import app.layers.c.data.converters.ParamTimesConverter;
+import app.layers.c.data.converters.ParamValuesConverter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+/**
+ * Riepilogo denormalizzato degli esami di un paziente: invece di ricalcolare ogni volta
+ * questi dati a partire dalla collezione Patient.medicalTests (che cresce senza limiti),
+ * li aggiorniamo a ogni nuovo esame, all'interno della stessa transazione del salvataggio.
+ * Leggerli richiede così un'unica lookup per chiave primaria, indipendentemente da quanti
+ * esami abbia fatto il paziente.
+ *
+ * La chiave primaria coincide con l'id del paziente. L'ultimo valore misurato per ogni
+ * parametro è salvato come JSON in una sola colonna (vedi ParamValuesConverter.java), e la
+ * data dell'esame da cui proviene in un'altra (vedi ParamTimesConverter.java). Il numero
+ * di parametri diversi misurati su un paziente non ha un limite, perciò le due colonne sono
+ * CLOB (@Lob) e non VARCHAR di lunghezza fissa, che prima o poi verrebbe superata.
+ *
+ * Quando degli esami vengono cancellati o archiviati, il riepilogo non può essere aggiornato
+ * "all'indietro" (non sappiamo quale fosse il valore precedente): viene quindi ricalcolato
+ * da capo con rebuild() (vedi MedicalTestsService.rebuildDashboards()).
+ */
+
+@Entity
+@Table(name="patient_dashboards")
+public class PatientDashboard {
+	@Id
+	private Long patientId;
+	
+	@Column(nullable=false)
+	private int testsCount;
+	
+	private LocalDateTime lastTestDateTime;
+	private String lastTestDescription;
+	
+	@Lob
+	@Convert(converter=ParamValuesConverter.class)
+	private Map<String, Float> latestValues = new LinkedHashMap<>();
+	
+	@Lob
+	@Convert(converter=ParamTimesConverter.class)
+	private Map<String, LocalDateTime> latestValueTimes = new LinkedHashMap<>();
+	
+	public PatientDashboard() {}
+	
+	public PatientDashboard(Long patientId) {
+		this.patientId = patientId;
+	}
+	
+	/**
+	 * Aggiorna il riepilogo con un nuovo esame. Gli esami possono arrivare fuori ordine (la
+	 * data è fornita dal client), perciò l'ultimo esame e l'ultimo valore di ogni parametro
+	 * vengono sostituiti solo se il nuovo esame non è più vecchio di quello già registrato.
+	 * Il confronto va fatto parametro per parametro: l'esame più recente potrebbe non
+	 * contenere un parametro misurato invece da un esame più vecchio, arrivato dopo.
+	 */
+	
+	public void recordTest(LocalDateTime dateTime, String description, Map<String, Float> values) {
+		testsCount++;
+		
+		if(isNotOlder(dateTime, lastTestDateTime)) {
+			lastTestDateTime = dateTime;
+			lastTestDescription = description;
+		}
+		
+		// Nuove mappe, perché JPA si accorga della modifica al momento del flush.
+		Map<String, Float> updatedValues = latestValues != null ? new LinkedHashMap<>(latestValues) : new LinkedHashMap<>();
+		Map<String, LocalDateTime> updatedTimes = latestValueTimes != null ? new LinkedHashMap<>(latestValueTimes) : new LinkedHashMap<>();
+		
+		for(Map.Entry<String, Float> value : values.entrySet()) {
+			String paramName = value.getKey();
+			
+			if(!updatedValues.containsKey(paramName) || isNotOlder(dateTime, updatedTimes.get(paramName))) {
+				updatedValues.put(paramName, value.getValue());
+				updatedTimes.put(paramName, dateTime);
+			}
+		}
+		
+		latestValues = updatedValues;
+		latestValueTimes = updatedTimes;
+	}
+	
+	/**
+	 * Sostituisce l'intero riepilogo con quello ricalcolato a partire dagli esami rimasti.
+	 */
+	
+	public void rebuild(int testsCount, LocalDateTime lastTestDateTime, String lastTestDescription, Map<String, Float> latestValues, Map<String, LocalDateTime> latestValueTimes) {
+		this.testsCount = testsCount;
+		this.lastTestDateTime = lastTestDateTime;
+		this.lastTestDescription = lastTestDescription;
+		this.latestValues = new LinkedHashMap<>(latestValues);
+		this.latestValueTimes = new LinkedHashMap<>(latestValueTimes);
+	}
+	
+	// Un esame senza data, o un valore registrato prima che le date venissero salvate, non
+	// viene considerato più vecchio di nessun altro (come faceva la versione precedente).
+	private static boolean isNotOlder(LocalDateTime dateTime, LocalDateTime current) {
+		return current == null || dateTime == null || !dateTime.isBefore(current);
+	}
+	
+	public Long getPatientId() {
+		return patientId;
+	}
+	
+	public int getTestsCount() {
+		return testsCount;
+	}
+	
+	public LocalDateTime getLastTestDateTime() {
+		return lastTestDateTime;
+	}
+	
+	public String getLastTestDescription() {
+		return lastTestDescription;
+	}
+	
+	public Map<String, Float> getLatestValues() {
+		return latestValues;
+	}
+	
+	public Map<String, LocalDateTime> getLatestValueTimes() {
+		return latestValueTimes;
+	}
+}
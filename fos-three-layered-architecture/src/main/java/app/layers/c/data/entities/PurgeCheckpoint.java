@@ -0,0 +1,99 @@
+package app.layers.c.data.entities;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Stato di avanzamento di un job di cancellazione a blocchi (vedi RetentionPurgeJob.java).
+ * Il job aggiorna questa riga nella stessa transazione in cui cancella ogni blocco: dopo un
+ * riavvio, il passaggio riprende esattamente dal blocco successivo all'ultimo cancellato,
+ * con la stessa data limite.
+ *
+ * La chiave primaria è il nome del job. Un passaggio è in corso finché completedAt è null.
+ */
+
+@Entity
+@Table(name="purge_checkpoints")
+public class PurgeCheckpoint {
+	@Id
+	private String job;
+	
+	private LocalDateTime cutoff;
+	private long lastId;
+	private long purgedTests;
+	private long purgedResults;
+	private LocalDateTime startedAt;
+	private LocalDateTime updatedAt;
+	private LocalDateTime completedAt;
+	
+	public PurgeCheckpoint() {}
+	
+	public PurgeCheckpoint(String job) {
+		this.job = job;
+	}
+	
+	public boolean isInProgress() {
+		return startedAt != null && completedAt == null;
+	}
+	
+	/**
+	 * Inizia un nuovo passaggio, che cancellerà i dati più vecchi di cutoff.
+	 */
+	
+	public void start(LocalDateTime cutoff) {
+		this.cutoff = cutoff;
+		this.lastId = 0;
+		this.purgedTests = 0;
+		this.purgedResults = 0;
+		this.startedAt = LocalDateTime.now();
+		this.updatedAt = startedAt;
+		this.completedAt = null;
+	}
+	
+	public void advance(long lastId, int tests, int results) {
+		this.lastId = lastId;
+		this.purgedTests += tests;
+		this.purgedResults += results;
+		this.updatedAt = LocalDateTime.now();
+	}
+	
+	public void complete() {
+		this.updatedAt = LocalDateTime.now();
+		this.completedAt = updatedAt;
+	}
+	
+	public String getJob() {
+		return job;
+	}
+	
+	public LocalDateTime getCutoff() {
+		return cutoff;
+	}
+	
+	public long getLastId() {
+		return lastId;
+	}
+	
+	public long getPurgedTests() {
+		return purgedTests;
+	}
+	
+	public long getPurgedResults() {
+		return purgedResults;
+	}
+	
+	public LocalDateTime getStartedAt() {
+		return startedAt;
+	}
+	
+	public LocalDateTime getUpdatedAt() {
+		return updatedAt;
+	}
+	
+	public LocalDateTime getCompletedAt() {
+		return completedAt;
+	}
+}
@@ -0,0 +1,51 @@
+package app.layers.c.data.entities;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Intervallo di riferimento di un parametro clinico (es. K: da 3.5 a 5.1): i valori al di
+ * sotto del limite inferiore sono considerati bassi, quelli al di sopra del limite superiore
+ * alti. Uno dei due limiti può mancare (es. un parametro che è anomalo solo se troppo alto).
+ *
+ * La chiave primaria è il nome del parametro, lo stesso usato in MedicalTestResult.
+ */
+
+@Entity
+@Table(name="reference_ranges")
+public class ReferenceRange {
+	@Id
+	private String paramName;
+	
+	private Float lowerLimit;
+	private Float upperLimit;
+	
+	public ReferenceRange() {}
+	
+	public ReferenceRange(String paramName, Float lowerLimit, Float upperLimit) {
+		this.paramName = paramName;
+		this.lowerLimit = lowerLimit;
+		this.upperLimit = upperLimit;
+	}
+
+	public String getParamName() {
+		return paramName;
+	}
+
+	public Float getLowerLimit() {
+		return lowerLimit;
+	}
+
+	public void setLowerLimit(Float lowerLimit) {
+		this.lowerLimit = lowerLimit;
+	}
+
+	public Float getUpperLimit() {
+		return upperLimit;
+	}
+
+	public void setUpperLimit(Float upperLimit) {
+		this.upperLimit = upperLimit;
+	}
+}
@@ -0,0 +1,13 @@
+package app.layers.c.data.entities;
+
+/**
+ * Esito del confronto tra il valore misurato di un parametro e il suo intervallo di
+ * riferimento (vedi ReferenceRange.java). Viene salvato sul DB come stringa, insieme al
+ * risultato dell'esame, così che le letture non debbano ricalcolarlo.
+ */
+
+public enum ResultFlag {
+	LOW,
+	NORMAL,
+	HIGH
+}
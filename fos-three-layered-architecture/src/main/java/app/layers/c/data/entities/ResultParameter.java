@@ -0,0 +1,40 @@
+package app.layers.c.data.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * Dizionario dei nomi dei parametri clinici usato dal formato compatto dei risultati (vedi
+ * PackedResultsCodec.java): nel formato compatto ogni risultato contiene l'id numerico del
+ * parametro invece del suo nome. Gli id sono assegnati dalla sequenza result_parameters_seq
+ * (un valore alla volta, così restano piccoli e occupano un solo byte nel formato compatto),
+ * e non cambiano mai. Le righe vengono inserite da ResultParameterDictionary con una INSERT
+ * esplicita: le annotazioni sull'id servono a far creare la sequenza insieme alla tabella.
+ */
+
+@Entity
+@Table(name="result_parameters")
+public class ResultParameter {
+	@Id
+	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="result_parameters_seq")
+	@SequenceGenerator(name="result_parameters_seq", sequenceName="result_parameters_seq", allocationSize=1)
+	private Integer id;
+	
+	@Column(nullable=false, unique=true)
+	private String name;
+	
+	public ResultParameter() {}
+	
+	public Integer getId() {
+		return id;
+	}
+	
+	public String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,183 @@
+package app.layers.c.data.packed;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Formato compatto dei risultati di un esame: invece di una riga di medical_test_results
+ * per ogni parametro (con il suo id, la chiave esterna, il nome e la voce nell'indice), tutti
+ * i risultati vengono salvati in un'unica colonna binaria dell'esame (vedi
+ * MedicalTest.packedResults). Il formato è:
+ * 
+ *   versione (1 byte) | numero di risultati (varint) | risultato | risultato | ...
+ * 
+ * dove ogni risultato è composto dall'id del parametro (varint, vedi
+ * ResultParameterDictionary.java) seguito dal valore (float a 4 byte, big endian). Un valore
+ * mancante viene salvato come NaN. Un varint usa 7 bit per byte, e il bit più alto indica se
+ * seguono altri byte: gli id inferiori a 128 occupano un solo byte, quindi un risultato
+ * occupa in genere 5 byte, e un pannello di 40 parametri circa 200 byte.
+ * 
+ * I flag non vengono salvati: dipendono dagli intervalli di riferimento, e il service layer
+ * li calcola al momento della lettura.
+ * 
+ * La decodifica controlla ogni lunghezza prima di leggere: un array troncato o danneggiato
+ * produce una IllegalStateException che indica il problema, invece di un indice fuori dai
+ * limiti dell'array o di un numero di risultati senza senso.
+ */
+
+@Component
+public class PackedResultsCodec {
+
+	private static final byte VERSION = 1;
+	
+	// Un risultato occupa almeno 5 byte: un byte di id e 4 di valore.
+	private static final int MIN_RESULT_SIZE = 1 + 4;
+	
+	// Un int non negativo richiede al più 5 byte da 7 bit.
+	private static final int MAX_VARINT_SIZE = 5;
+	
+	private ResultParameterDictionary dictionary;
+	
+	@Autowired
+	public PackedResultsCodec(ResultParameterDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+	
+	/**
+	 * Il codec non conosce gli oggetti del service layer: chi lo invoca indica come leggere
+	 * il nome e il valore di ogni risultato (es. TestResult::getParamName).
+	 */
+	
+	public <T> byte[] encode(Collection<T> results, Function<? super T, String> paramName, Function<? super T, Float> paramValue) {
+		int count = results != null ? results.size() : 0;
+		byte[] buffer = new byte[1 + 5 + count * (5 + 4)];
+		
+		buffer[0] = VERSION;
+		int position = writeVarint(buffer, 1, count);
+		
+		if(count > 0) {
+			for(T res : results) {
+				position = writeVarint(buffer, position, dictionary.idOf(paramName.apply(res)));
+				
+				Float value = paramValue.apply(res);
+				int bits = Float.floatToIntBits(value != null ? value : Float.NaN);
+				buffer[position++] = (byte) (bits >>> 24);
+				buffer[position++] = (byte) (bits >>> 16);
+				buffer[position++] = (byte) (bits >>> 8);
+				buffer[position++] = (byte) bits;
+			}
+		}
+		
+		return Arrays.copyOf(buffer, position);
+	}
+	
+	/**
+	 * Passa al visitor il nome e il valore di ogni risultato, nell'ordine in cui sono stati
+	 * salvati, leggendo l'array una sola volta. Restituisce il numero di risultati.
+	 */
+	
+	public int decode(byte[] packed, ResultVisitor visitor) {
+		int[] position = { 1 };
+		int count = readCount(packed, position);
+		
+		for(int i = 0; i < count; i++) {
+			String paramName = dictionary.nameOf(readVarint(packed, position));
+			
+			int p = position[0];
+			
+			if(p + 4 > packed.length) {
+				throw corrupted(packed, "truncated value of result " + i);
+			}
+			
+			int bits = (packed[p] & 0xFF) << 24 | (packed[p + 1] & 0xFF) << 16 | (packed[p + 2] & 0xFF) << 8 | (packed[p + 3] & 0xFF);
+			position[0] = p + 4;
+			
+			visitor.visit(paramName, Float.intBitsToFloat(bits));
+		}
+		
+		return count;
+	}
+	
+	public static int count(byte[] packed) {
+		return readCount(packed, new int[] { 1 });
+	}
+	
+	/**
+	 * Il valore viene passato come float e non come Float, per non creare un oggetto per ogni
+	 * risultato letto: un valore mancante è NaN.
+	 */
+	
+	@FunctionalInterface
+	public interface ResultVisitor {
+		void visit(String paramName, float paramValue);
+	}
+	
+	private static int writeVarint(byte[] buffer, int position, int value) {
+		while((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		
+		buffer[position++] = (byte) value;
+		
+		return position;
+	}
+	
+	private static int readCount(byte[] packed, int[] position) {
+		if(packed.length == 0) {
+			throw corrupted(packed, "empty array");
+		}
+		
+		if(packed[0] != VERSION) {
+			throw new IllegalStateException("Unsupported packed results version " + packed[0]);
+		}
+		
+		int count = readVarint(packed, position);
+		
+		if(count > (packed.length - position[0]) / MIN_RESULT_SIZE) {
+			throw corrupted(packed, count + " results declared");
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Legge un varint che rappresenta un int non negativo (gli unici scritti da encode()):
+	 * al più 5 byte, senza superare la fine dell'array.
+	 */
+	
+	private static int readVarint(byte[] buffer, int[] position) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		
+		do {
+			if(position[0] >= buffer.length) {
+				throw corrupted(buffer, "truncated varint at byte " + position[0]);
+			}
+			
+			if(shift == MAX_VARINT_SIZE * 7) {
+				throw corrupted(buffer, "varint longer than " + MAX_VARINT_SIZE + " bytes at byte " + position[0]);
+			}
+			
+			b = buffer[position[0]++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+		
+		if(value < 0) {
+			throw corrupted(buffer, "negative varint before byte " + position[0]);
+		}
+		
+		return value;
+	}
+	
+	private static IllegalStateException corrupted(byte[] packed, String problem) {
+		return new IllegalStateException("Corrupted packed results (" + packed.length + " bytes): " + problem);
+	}
+}
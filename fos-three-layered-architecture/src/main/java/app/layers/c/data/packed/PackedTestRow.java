@@ -0,0 +1,32 @@
+package app.layers.c.data.packed;
+
+import java.time.LocalDateTime;
+
+/**
+ * Un esame con i risultati in formato compatto (vedi PackedResultsCodec.java), così come
+ * viene letto da MedicalTestsRepository.streamPackedByPatientId().
+ */
+
+public class PackedTestRow {
+	private final Long id;
+	private final LocalDateTime dateTime;
+	private final byte[] packedResults;
+	
+	public PackedTestRow(Long id, LocalDateTime dateTime, byte[] packedResults) {
+		this.id = id;
+		this.dateTime = dateTime;
+		this.packedResults = packedResults;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+	
+	public byte[] getPackedResults() {
+		return packedResults;
+	}
+}
@@ -0,0 +1,138 @@
+package app.layers.c.data.packed;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import app.layers.c.data.entities.ResultParameter;
+import app.layers.c.data.repositories.ResultParametersRepository;
+
+/**
+ * Copia in memoria della tabella result_parameters (vedi ResultParameter.java), usata per
+ * convertire i nomi dei parametri in id e viceversa senza interrogare il DB. La tabella
+ * viene letta al primo utilizzo, e riletta soltanto se si incontra un id sconosciuto.
+ * 
+ * Un nuovo parametro viene salvato subito, in autocommit: l'id resta valido anche se la
+ * transazione dell'esame che lo ha introdotto viene annullata. Per farlo non usiamo una
+ * transazione REQUIRES_NEW, che richiederebbe una seconda connessione del pool mentre la
+ * prima è ancora occupata dall'esame: con un pool piccolo e molti salvataggi concorrenti,
+ * tutti i thread potrebbero restare in attesa di una connessione che nessuno restituirà.
+ * La registrazione usa invece una connessione dedicata, aperta al momento (vedi
+ * SimpleDriverDataSource) e chiusa subito dopo: capita solo la prima volta che si incontra
+ * un parametro, perciò il costo di una nuova connessione è trascurabile.
+ * 
+ * L'id viene assegnato dalla sequenza result_parameters_seq, quindi anche più nodi che
+ * condividono lo stesso DB non possono assegnare lo stesso id a due parametri diversi. Se
+ * invece due nodi registrano insieme lo stesso nome, la seconda INSERT viola il vincolo di
+ * unicità sul nome: in quel caso leggiamo l'id salvato dall'altro nodo e usiamo quello.
+ */
+
+@Component
+public class ResultParameterDictionary {
+
+	private ResultParametersRepository resultParametersRepo;
+	private JdbcTemplate registrationJdbc;
+	
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile String[] names = new String[0];
+	private volatile boolean loaded;
+	
+	@Autowired
+	public ResultParameterDictionary(ResultParametersRepository resultParametersRepo, DataSourceProperties dataSourceProperties) {
+		this.resultParametersRepo = resultParametersRepo;
+		this.registrationJdbc = new JdbcTemplate(dataSourceProperties.initializeDataSourceBuilder()
+			.type(SimpleDriverDataSource.class)
+			.build());
+	}
+	
+	public int idOf(String name) {
+		Integer id = ids.get(name);
+		return id != null ? id : register(name);
+	}
+	
+	/**
+	 * I nomi dei parametri già registrati (vedi JitWarmup.java, che non deve registrarne di
+	 * nuovi).
+	 */
+	
+	public Set<String> names() {
+		if(!loaded) {
+			reload();
+		}
+		
+		return Set.copyOf(ids.keySet());
+	}
+	
+	public String nameOf(int id) {
+		String name = lookup(id);
+		
+		if(name == null) {
+			reload();
+			name = lookup(id);
+		}
+		
+		if(name == null) {
+			throw new IllegalStateException("Unknown result parameter id " + id);
+		}
+		
+		return name;
+	}
+	
+	private String lookup(int id) {
+		String[] current = names;
+		return id >= 0 && id < current.length ? current[id] : null;
+	}
+	
+	private synchronized int register(String name) {
+		if(!loaded) {
+			reload();
+		}
+		
+		Integer id = ids.get(name);
+		
+		while(id == null) {
+			try {
+				registrationJdbc.update("insert into result_parameters (id, name) values (next value for result_parameters_seq, ?)", name);
+			}
+			catch(DuplicateKeyException e) {
+				// Il nome è stato registrato da un altro nodo, oppure (sui DB creati prima della
+				// sequenza) l'id è già usato: la SELECT lo dirà, e nel secondo caso si riprova
+				// con il valore successivo della sequenza.
+			}
+			
+			List<Integer> found = registrationJdbc.queryForList("select id from result_parameters where name = ?", Integer.class, name);
+			
+			if(!found.isEmpty()) {
+				id = found.get(0);
+				publish(id, name);
+			}
+		}
+		
+		return id;
+	}
+	
+	private synchronized void reload() {
+		for(ResultParameter parameter : resultParametersRepo.findAll()) {
+			publish(parameter.getId(), parameter.getName());
+		}
+		
+		loaded = true;
+	}
+	
+	private void publish(int id, String name) {
+		if(id >= names.length) {
+			names = Arrays.copyOf(names, id + 1);
+		}
+		
+		names[id] = name;
+		ids.put(name, id);
+	}
+}
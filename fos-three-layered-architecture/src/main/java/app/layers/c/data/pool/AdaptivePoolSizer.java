@@ -0,0 +1,215 @@
+package app.layers.c.data.pool;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import app.layers.c.data.pool.ConnectionPoolMetrics.Window;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Adatta la dimensione massima del pool di connessioni al carico, invece di fissarla una
+ * volta per tutte (spring.datasource.hikari.maximum-pool-size). Il controller esiste solo se
+ * la proprietà app.db-pool.adaptive.enabled vale true.
+ * 
+ * Ogni app.db-pool.adaptive.interval-millis millisecondi vengono letti i tempi dell'ultimo
+ * intervallo (vedi ConnectionPoolMetrics.java) e la dimensione viene corretta con lo schema
+ * AIMD (additive increase, multiplicative decrease) usato dal controllo di congestione del TCP:
+ * - se i thread hanno dovuto attendere una connessione (attesa media oltre
+ *   app.db-pool.adaptive.target-acquire-millis, thread ancora in coda o timeout) e il DB
+ *   risponde come al solito, il pool cresce di una connessione;
+ * - se il DB rallenta, cioè il tempo medio di occupazione delle connessioni supera di
+ *   app.db-pool.adaptive.latency-tolerance volte quello di riferimento, il pool viene ridotto
+ *   di colpo (moltiplicato per app.db-pool.adaptive.backoff): altre connessioni porterebbero
+ *   solo altre query concorrenti a un DB già saturo, e tempi ancora peggiori;
+ * - altrimenti la dimensione non cambia.
+ * 
+ * Il tempo di riferimento è il tempo di occupazione "a vuoto": segue subito i miglioramenti,
+ * e solo lentamente i peggioramenti, così che un rallentamento prolungato non diventi il nuovo
+ * riferimento. La dimensione resta sempre tra app.db-pool.adaptive.min-size e max-size.
+ * 
+ * HikariCP non chiude subito le connessioni in eccesso quando la dimensione massima si riduce:
+ * il numero minimo di connessioni inattive (minimum-idle) viene portato a min-size, e le
+ * connessioni oltre quel numero vengono chiuse dopo essere rimaste inattive per idle-timeout.
+ * 
+ * La dimensione attuale e le correzioni sono visibili in /actuator/metrics/app.db-pool.size e
+ * app.db-pool.resizes, e ogni correzione viene scritta nel log.
+ */
+
+@Component
+@ConditionalOnProperty(name="app.db-pool.adaptive.enabled", havingValue="true")
+public class AdaptivePoolSizer implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+	
+	// Peso delle nuove misure quando il tempo di occupazione peggiora (vedi sopra).
+	private static final double BASELINE_DRIFT = 0.05;
+	
+	// Con meno connessioni restituite nell'intervallo, il tempo medio è troppo rumoroso per
+	// concludere che il DB stia rallentando.
+	private static final int MIN_SAMPLES = 20;
+
+	private ConnectionPoolMetrics poolMetrics;
+	private int minSize;
+	private int maxSize;
+	private int intervalMillis;
+	private double targetAcquireMillis;
+	private double latencyTolerance;
+	private double backoff;
+	private Counter increases;
+	private Counter decreases;
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final ScheduledExecutorService executor;
+
+	private double baselineHoldMillis;
+
+	@Autowired
+	public AdaptivePoolSizer(
+			ConnectionPoolMetrics poolMetrics,
+			MeterRegistry meterRegistry,
+			@Value("${app.db-pool.adaptive.min-size:2}") int minSize,
+			@Value("${app.db-pool.adaptive.max-size:40}") int maxSize,
+			@Value("${app.db-pool.adaptive.interval-millis:1000}") int intervalMillis,
+			@Value("${app.db-pool.adaptive.target-acquire-millis:5}") double targetAcquireMillis,
+			@Value("${app.db-pool.adaptive.latency-tolerance:2.0}") double latencyTolerance,
+			@Value("${app.db-pool.adaptive.backoff:0.75}") double backoff) {
+
+		this.poolMetrics = poolMetrics;
+		this.minSize = Math.max(1, minSize);
+		this.maxSize = Math.max(this.minSize, maxSize);
+		this.intervalMillis = Math.max(100, intervalMillis);
+		this.targetAcquireMillis = targetAcquireMillis;
+		this.latencyTolerance = Math.max(1, latencyTolerance);
+		this.backoff = Math.min(Math.max(backoff, 0.1), 0.95);
+
+		Gauge.builder("app.db-pool.size", size, AtomicInteger::get)
+			.description("Dimensione massima del pool decisa da AdaptivePoolSizer")
+			.register(meterRegistry);
+
+		this.increases = Counter.builder("app.db-pool.resizes")
+			.tag("direction", "increase")
+			.register(meterRegistry);
+
+		this.decreases = Counter.builder("app.db-pool.resizes")
+			.tag("direction", "decrease")
+			.register(meterRegistry);
+
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "adaptive-pool-sizer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		HikariDataSource dataSource = poolMetrics.getDataSource();
+
+		if(dataSource == null) {
+			log.warn("Adaptive pool sizing requires a HikariCP data source: the pool size will not change");
+			return;
+		}
+
+		int initialSize = Math.min(Math.max(dataSource.getMaximumPoolSize(), minSize), maxSize);
+
+		dataSource.setMinimumIdle(Math.min(dataSource.getMinimumIdle(), minSize));
+		dataSource.setMaximumPoolSize(initialSize);
+		size.set(initialSize);
+		poolMetrics.nextWindow();
+
+		log.info("Adaptive pool sizing started: size {}, bounds [{}, {}]", initialSize, minSize, maxSize);
+
+		executor.scheduleWithFixedDelay(this::adjust, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void adjust() {
+		try {
+			HikariDataSource dataSource = poolMetrics.getDataSource();
+			HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+			Window window = poolMetrics.nextWindow();
+
+			if(pool == null || window.getReleased() == 0 && pool.getThreadsAwaitingConnection() == 0) {
+				return;
+			}
+
+			double holdMillis = window.getMeanHoldMillis();
+			boolean congested = window.getReleased() >= MIN_SAMPLES && updateBaseline(holdMillis);
+			boolean waiting = window.getMeanAcquireMillis() > targetAcquireMillis
+				|| window.getTimeouts() > 0
+				|| pool.getThreadsAwaitingConnection() > 0;
+
+			int current = size.get();
+			int next = current;
+
+			if(congested) {
+				next = Math.max(minSize, (int) (current * backoff));
+			}
+			else if(waiting) {
+				next = Math.min(maxSize, current + 1);
+			}
+
+			if(next != current) {
+				resize(dataSource, current, next, window, holdMillis);
+			}
+		}
+		catch(RuntimeException e) {
+			log.warn("Adaptive pool sizing failed", e);
+		}
+	}
+
+	/**
+	 * Restituisce true se il tempo di occupazione dell'ultimo intervallo supera di troppo
+	 * quello di riferimento.
+	 */
+
+	private boolean updateBaseline(double holdMillis) {
+		if(holdMillis <= 0) {
+			return false;
+		}
+
+		// Un tempo medio sotto il millisecondo è indistinguibile dal rumore di misura.
+		double measured = Math.max(holdMillis, 1);
+
+		if(baselineHoldMillis == 0 || measured < baselineHoldMillis) {
+			baselineHoldMillis = measured;
+			return false;
+		}
+
+		boolean congested = measured > baselineHoldMillis * latencyTolerance;
+		baselineHoldMillis += (measured - baselineHoldMillis) * BASELINE_DRIFT;
+
+		return congested;
+	}
+
+	private void resize(HikariDataSource dataSource, int current, int next, Window window, double holdMillis) {
+		dataSource.setMaximumPoolSize(next);
+		size.set(next);
+		(next > current ? increases : decreases).increment();
+
+		log.info("Connection pool resized from {} to {}: mean acquire {} ms, mean hold {} ms (baseline {} ms), {} timeouts",
+			current, next, String.format("%.2f", window.getMeanAcquireMillis()), String.format("%.2f", holdMillis),
+			String.format("%.2f", baselineHoldMillis), window.getTimeouts());
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
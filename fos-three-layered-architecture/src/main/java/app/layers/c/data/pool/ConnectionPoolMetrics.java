@@ -0,0 +1,199 @@
+package app.layers.c.data.pool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metriche del pool di connessioni al DB (HikariCP). Spring Boot espone già, in
+ * /actuator/metrics/hikaricp.connections.*, le connessioni attive, inattive e totali, i
+ * thread in attesa di una connessione (pending), il tempo di attesa per ottenerne una
+ * (acquire) e il tempo per cui ogni connessione resta occupata (usage). Il tempo di attesa
+ * viene registrato anche come istogramma, con i percentili indicati in application.properties.
+ * 
+ * Questa classe aggiunge il tempo di occupazione delle connessioni suddiviso per metodo dei
+ * service (app.db.connection.hold, con il tag method, es. "MedicalTestsService.saveTest"):
+ * quale metodo tiene occupate le connessioni, e per quanto, non si vede dal totale. Il metodo
+ * in corso su ogni thread viene indicato da ServiceMethodConnectionAspect.java; le connessioni
+ * usate fuori da un metodo di un service (es. all'avvio) hanno il tag method=none.
+ * 
+ * HikariCP permette di registrare un solo MetricsTrackerFactory, che riceve i tempi di ogni
+ * connessione: qui viene registrato, prima dell'avvio del pool, un factory che passa i tempi
+ * a quello di Micrometer usato normalmente da Spring Boot (le metriche hikaricp.* restano
+ * quindi le stesse) e li aggiunge alle metriche per metodo. Gli stessi tempi vengono anche
+ * accumulati in una "finestra" letta periodicamente da AdaptivePoolSizer.java.
+ * 
+ * Vengono misurate solo le connessioni del DataSource principale: i pool degli shard (vedi
+ * ShardingConfig.java) non sono bean, e non passano da qui.
+ */
+
+@Component
+public class ConnectionPoolMetrics implements BeanPostProcessor, MetricsTrackerFactory {
+
+	private static final String NO_METHOD = "none";
+	private static final ThreadLocal<String> SERVICE_METHOD = new ThreadLocal<>();
+	
+	private ObjectProvider<MeterRegistry> meterRegistry;
+	
+	private final ConcurrentHashMap<String, Timer> holdTimers = new ConcurrentHashMap<>();
+	
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder acquireNanos = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder holdMillis = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	
+	private volatile HikariDataSource dataSource;
+	
+	// Il MeterRegistry viene cercato solo all'avvio del pool: un BeanPostProcessor viene creato
+	// prima degli altri bean, e non deve forzare la creazione anticipata del registry.
+	public ConnectionPoolMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+	
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		if(bean instanceof HikariDataSource hikari && dataSource == null && hikari.getMetricsTrackerFactory() == null && hikari.getMetricRegistry() == null) {
+			hikari.setMetricsTrackerFactory(this);
+			dataSource = hikari;
+		}
+		
+		return bean;
+	}
+	
+	@Override
+	public IMetricsTracker create(String poolName, PoolStats poolStats) {
+		IMetricsTracker micrometer = new MicrometerMetricsTrackerFactory(meterRegistry.getObject()).create(poolName, poolStats);
+		
+		return new IMetricsTracker() {
+			@Override
+			public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+				micrometer.recordConnectionCreatedMillis(connectionCreatedMillis);
+			}
+			
+			@Override
+			public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+				micrometer.recordConnectionAcquiredNanos(elapsedAcquiredNanos);
+				acquired.increment();
+				acquireNanos.add(elapsedAcquiredNanos);
+			}
+			
+			@Override
+			public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+				micrometer.recordConnectionUsageMillis(elapsedBorrowedMillis);
+				released.increment();
+				holdMillis.add(elapsedBorrowedMillis);
+				holdTimer(currentServiceMethod()).record(elapsedBorrowedMillis, TimeUnit.MILLISECONDS);
+			}
+			
+			@Override
+			public void recordConnectionTimeout() {
+				micrometer.recordConnectionTimeout();
+				timeouts.increment();
+			}
+			
+			@Override
+			public void close() {
+				micrometer.close();
+			}
+		};
+	}
+	
+	/**
+	 * Il DataSource principale, o null se non è un pool HikariCP.
+	 */
+	
+	public HikariDataSource getDataSource() {
+		return dataSource;
+	}
+	
+	/**
+	 * Restituisce i tempi registrati dall'ultima chiamata, e riparte da zero.
+	 */
+	
+	public Window nextWindow() {
+		return new Window(acquired.sumThenReset(), acquireNanos.sumThenReset(), released.sumThenReset(), holdMillis.sumThenReset(), timeouts.sumThenReset());
+	}
+	
+	/**
+	 * Restituisce il metodo che era in corso in precedenza sullo stesso thread, da passare a
+	 * exitServiceMethod() al termine del metodo.
+	 */
+	
+	static String enterServiceMethod(String method) {
+		String previous = SERVICE_METHOD.get();
+		
+		if(previous == null) {
+			SERVICE_METHOD.set(method);
+		}
+		
+		return previous;
+	}
+	
+	static void exitServiceMethod(String previous) {
+		if(previous == null) {
+			SERVICE_METHOD.remove();
+		}
+	}
+	
+	private static String currentServiceMethod() {
+		String method = SERVICE_METHOD.get();
+		return method != null ? method : NO_METHOD;
+	}
+	
+	private Timer holdTimer(String method) {
+		return holdTimers.computeIfAbsent(method, m -> Timer.builder("app.db.connection.hold")
+			.description("Tempo per cui una connessione del pool resta occupata, per metodo dei service")
+			.tag("method", m)
+			.register(meterRegistry.getObject()));
+	}
+	
+	public static class Window {
+		private final long acquired;
+		private final long acquireNanos;
+		private final long released;
+		private final long holdMillis;
+		private final long timeouts;
+		
+		private Window(long acquired, long acquireNanos, long released, long holdMillis, long timeouts) {
+			this.acquired = acquired;
+			this.acquireNanos = acquireNanos;
+			this.released = released;
+			this.holdMillis = holdMillis;
+			this.timeouts = timeouts;
+		}
+		
+		public long getAcquired() {
+			return acquired;
+		}
+		
+		public long getReleased() {
+			return released;
+		}
+		
+		public long getTimeouts() {
+			return timeouts;
+		}
+		
+		public double getMeanAcquireMillis() {
+			return acquired > 0 ? acquireNanos / 1e6 / acquired : 0;
+		}
+		
+		public double getMeanHoldMillis() {
+			return released > 0 ? (double) holdMillis / released : 0;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package app.layers.c.data.pool;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Indica a ConnectionPoolMetrics.java quale metodo dei service è in corso su ogni thread, per
+ * attribuirgli il tempo di occupazione delle connessioni. Conta il metodo più esterno: se un
+ * service ne chiama un altro, le connessioni usate vengono attribuite al primo.
+ * 
+ * Come LayerTracingAspect.java, l'aspect avvolge il proxy di @Transactional: la connessione
+ * viene restituita al pool al commit della transazione, quando il metodo è ancora in corso.
+ */
+
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@Component
+public class ServiceMethodConnectionAspect {
+
+	@Around("within(app.layers.b.service..*) && @within(org.springframework.stereotype.Service) && execution(public * *(..))")
+	public Object enterServiceMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+		String previous = ConnectionPoolMetrics.enterServiceMethod(
+			joinPoint.getSignature().getDeclaringType().getSimpleName() + "." + joinPoint.getSignature().getName());
+		
+		try {
+			return joinPoint.proceed();
+		}
+		finally {
+			ConnectionPoolMetrics.exitServiceMethod(previous);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package app.layers.c.data.projections;
+
+import java.time.LocalDateTime;
+
+/**
+ * Un valore della serie storica di un parametro (vedi MedicalTestResultsRepository.
+ * streamHistory()).
+ */
+
+public class HistoryPointRow {
+	private final LocalDateTime dateTime;
+	private final float paramValue;
+	
+	public HistoryPointRow(LocalDateTime dateTime, float paramValue) {
+		this.dateTime = dateTime;
+		this.paramValue = paramValue;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+	
+	public float getParamValue() {
+		return paramValue;
+	}
+}
@@ -0,0 +1,32 @@
+package app.layers.c.data.projections;
+
+import java.time.LocalDateTime;
+
+/**
+ * Numero di valori e intervallo temporale della serie storica di un parametro (vedi
+ * MedicalTestResultsRepository.findHistoryRange()). Gli estremi sono null se la serie è vuota.
+ */
+
+public class HistoryRangeRow {
+	private final long count;
+	private final LocalDateTime from;
+	private final LocalDateTime to;
+	
+	public HistoryRangeRow(long count, LocalDateTime from, LocalDateTime to) {
+		this.count = count;
+		this.from = from;
+		this.to = to;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public LocalDateTime getFrom() {
+		return from;
+	}
+	
+	public LocalDateTime getTo() {
+		return to;
+	}
+}
@@ -0,0 +1,46 @@
+package app.layers.c.data.projections;
+
+import java.time.LocalDateTime;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * L'ultimo valore di un parametro, con la data e l'id dell'esame da cui proviene (vedi
+ * MedicalTestResultsRepository.findLatestByPatientId()).
+ */
+
+public class LatestResultRow {
+	private final String paramName;
+	private final Float paramValue;
+	private final ResultFlag flag;
+	private final LocalDateTime dateTime;
+	private final Long testId;
+	
+	public LatestResultRow(String paramName, Float paramValue, ResultFlag flag, LocalDateTime dateTime, Long testId) {
+		this.paramName = paramName;
+		this.paramValue = paramValue;
+		this.flag = flag;
+		this.dateTime = dateTime;
+		this.testId = testId;
+	}
+	
+	public String getParamName() {
+		return paramName;
+	}
+	
+	public Float getParamValue() {
+		return paramValue;
+	}
+	
+	public ResultFlag getFlag() {
+		return flag;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+	
+	public Long getTestId() {
+		return testId;
+	}
+}
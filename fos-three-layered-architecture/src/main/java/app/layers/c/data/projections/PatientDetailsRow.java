@@ -0,0 +1,64 @@
+package app.layers.c.data.projections;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * La riga di un paziente unita a quella del suo riepilogo (vedi PatientsRepository.
+ * findDetailsById()). I campi del riepilogo sono null se il paziente non ha ancora esami.
+ */
+
+public class PatientDetailsRow {
+	private final Long id;
+	private final String firstName;
+	private final String lastName;
+	private final LocalDate birthdate;
+	private final Integer testsCount;
+	private final LocalDateTime lastTestDateTime;
+	private final String lastTestDescription;
+	private final Map<String, Float> latestValues;
+	
+	public PatientDetailsRow(Long id, String firstName, String lastName, LocalDate birthdate, Integer testsCount, LocalDateTime lastTestDateTime, String lastTestDescription, Map<String, Float> latestValues) {
+		this.id = id;
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.birthdate = birthdate;
+		this.testsCount = testsCount;
+		this.lastTestDateTime = lastTestDateTime;
+		this.lastTestDescription = lastTestDescription;
+		this.latestValues = latestValues;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public String getFirstName() {
+		return firstName;
+	}
+	
+	public String getLastName() {
+		return lastName;
+	}
+	
+	public LocalDate getBirthdate() {
+		return birthdate;
+	}
+	
+	public Integer getTestsCount() {
+		return testsCount;
+	}
+	
+	public LocalDateTime getLastTestDateTime() {
+		return lastTestDateTime;
+	}
+	
+	public String getLastTestDescription() {
+		return lastTestDescription;
+	}
+	
+	public Map<String, Float> getLatestValues() {
+		return latestValues;
+	}
+}
@@ -0,0 +1,29 @@
+package app.layers.c.data.projections;
+
+/**
+ * Id, nome e cognome di un paziente (vedi ReactiveReadsStore.findAllPatients()).
+ */
+
+public class PatientSummaryRow {
+	private final Long id;
+	private final String firstName;
+	private final String lastName;
+	
+	public PatientSummaryRow(Long id, String firstName, String lastName) {
+		this.id = id;
+		this.firstName = firstName;
+		this.lastName = lastName;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public String getFirstName() {
+		return firstName;
+	}
+	
+	public String getLastName() {
+		return lastName;
+	}
+}
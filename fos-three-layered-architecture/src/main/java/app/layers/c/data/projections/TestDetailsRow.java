@@ -0,0 +1,25 @@
+package app.layers.c.data.projections;
+
+import java.util.List;
+
+/**
+ * Un esame insieme a tutti i suoi risultati (vedi ReactiveReadsStore.findTestDetails()).
+ */
+
+public class TestDetailsRow {
+	private final TestSummaryRow test;
+	private final List<TestResultRow> results;
+	
+	public TestDetailsRow(TestSummaryRow test, List<TestResultRow> results) {
+		this.test = test;
+		this.results = results;
+	}
+	
+	public TestSummaryRow getTest() {
+		return test;
+	}
+	
+	public List<TestResultRow> getResults() {
+		return results;
+	}
+}
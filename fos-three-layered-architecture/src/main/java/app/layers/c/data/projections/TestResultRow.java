@@ -0,0 +1,31 @@
+package app.layers.c.data.projections;
+
+import app.layers.c.data.entities.ResultFlag;
+
+/**
+ * Il valore di un parametro in un esame, con il suo flag (null se non è stato calcolato).
+ */
+
+public class TestResultRow {
+	private final String paramName;
+	private final Float paramValue;
+	private final ResultFlag flag;
+	
+	public TestResultRow(String paramName, Float paramValue, ResultFlag flag) {
+		this.paramName = paramName;
+		this.paramValue = paramValue;
+		this.flag = flag;
+	}
+	
+	public String getParamName() {
+		return paramName;
+	}
+	
+	public Float getParamValue() {
+		return paramValue;
+	}
+	
+	public ResultFlag getFlag() {
+		return flag;
+	}
+}
@@ -0,0 +1,44 @@
+package app.layers.c.data.projections;
+
+import java.time.LocalDateTime;
+
+/**
+ * Le colonne principali di un esame, senza i risultati (vedi MedicalTestsRepository.
+ * findAllSummaries()).
+ * 
+ * Le classi di questo package sono le proiezioni lette dal data layer, con le constructor
+ * expression JPQL (select new ...) o con le query SQL scritte a mano. Una constructor
+ * expression deve indicare una classe concreta, ma il data layer non deve conoscere gli
+ * oggetti del service layer: le proiezioni appartengono quindi al data layer, e il service
+ * layer le converte nei propri oggetti (es. TestSummaryRow in TestSummary).
+ */
+
+public class TestSummaryRow {
+	private final Long id;
+	private final Long patientId;
+	private final String description;
+	private final LocalDateTime dateTime;
+	
+	public TestSummaryRow(Long id, Long patientId, String description, LocalDateTime dateTime) {
+		this.id = id;
+		this.patientId = patientId;
+		this.description = description;
+		this.dateTime = dateTime;
+	}
+	
+	public Long getId() {
+		return id;
+	}
+	
+	public Long getPatientId() {
+		return patientId;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	public LocalDateTime getDateTime() {
+		return dateTime;
+	}
+}
@@ -0,0 +1,56 @@
+package app.layers.c.data.reactive;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import app.layers.c.data.packed.PackedResultsCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * Le letture reattive (vedi ReactiveReadsStore.java) sono attive di default, ma solo se lo
+ * sharding è disattivato: con lo sharding, gli esami non si trovano sul DB principale.
+ *
+ * Come per i DataSource degli shard (vedi ShardingConfig.java), la ConnectionFactory di
+ * R2DBC NON viene esposta come bean: in presenza di un bean di tipo ConnectionFactory,
+ * Spring Boot smetterebbe di creare il DataSource JDBC usato da JPA. Per lo stesso motivo
+ * l'auto-configurazione R2DBC di Spring Boot è esclusa in application.properties.
+ */
+
+@Configuration
+@ConditionalOnExpression(ReactiveReadsConfig.ENABLED)
+public class ReactiveReadsConfig {
+
+	public static final String ENABLED = "${app.reactive.enabled:true} and !${app.sharding.enabled:false}";
+
+	@Bean
+	public ReactiveReadsStore reactiveReadsStore(
+			@Value("${app.reactive.url:r2dbc:h2:mem:///testdb}") String url,
+			@Value("${spring.datasource.username:user}") String username,
+			@Value("${spring.datasource.password:password}") String password,
+			@Value("${app.reactive.pool-size:10}") int poolSize,
+			PackedResultsCodec packedCodec,
+			MeterRegistry meterRegistry) {
+
+		ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+			.option(ConnectionFactoryOptions.USER, username)
+			.option(ConnectionFactoryOptions.PASSWORD, password)
+			.build();
+
+		ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+			.name("reactive-reads")
+			.initialSize(1)
+			.maxSize(Math.max(1, poolSize))
+			.maxIdleTime(Duration.ofMinutes(10))
+			.build());
+
+		return new ReactiveReadsStore(pool, packedCodec, meterRegistry);
+	}
+}
@@ -0,0 +1,167 @@
+package app.layers.c.data.reactive;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import app.layers.c.data.entities.ResultFlag;
+import app.layers.c.data.packed.PackedResultsCodec;
+import app.layers.c.data.projections.PatientSummaryRow;
+import app.layers.c.data.projections.TestDetailsRow;
+import app.layers.c.data.projections.TestResultRow;
+import app.layers.c.data.projections.TestSummaryRow;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Letture "reattive" dal DB principale, tramite R2DBC (Reactive Relational Database
+ * Connectivity) invece di JDBC. Con JDBC ogni chiamata blocca il thread che la esegue
+ * finché il DB non risponde; con R2DBC i metodi restituiscono subito un Flux (o un Mono),
+ * cioè una sorgente di righe che verranno prodotte man mano che arrivano dal DB.
+ *
+ * Le righe vengono prodotte solo quando chi le consuma ne fa richiesta (backpressure): se
+ * il client che riceve la risposta è lento, la lettura dal DB rallenta di conseguenza,
+ * invece di accumulare in memoria tutte le righe in attesa di essere inviate. Per la stessa
+ * ragione le righe lette dal driver a ogni giro sono limitate (FETCH_SIZE).
+ *
+ * Le query sono scritte in SQL e usano i nomi delle tabelle e delle colonne (vedi
+ * db/schema.sql), perché qui non passiamo da Hibernate: eventuali modifiche alle entità
+ * vanno quindi riportate anche qui. Gli esami spostati nell'archivio (vedi
+ * MedicalTestsArchive.java) non sono visibili da queste letture.
+ *
+ * Nota: il driver R2DBC di H2 esegue le query sul motore embedded, nello stesso processo;
+ * con un DB remoto (es. il driver r2dbc-postgresql) l'attesa della rete non occuperebbe
+ * alcun thread. Il codice di questa classe non dipende dal driver usato.
+ */
+
+public class ReactiveReadsStore implements DisposableBean {
+
+	private static final int FETCH_SIZE = 256;
+
+	private final ConnectionPool pool;
+	private final PackedResultsCodec packedCodec;
+	private final AtomicInteger activeQueries = new AtomicInteger();
+
+	public ReactiveReadsStore(ConnectionPool pool, PackedResultsCodec packedCodec, MeterRegistry meterRegistry) {
+		this.pool = pool;
+		this.packedCodec = packedCodec;
+
+		Gauge.builder("app.reactive.queries.active", activeQueries, AtomicInteger::get)
+			.description("Letture reattive in corso")
+			.register(meterRegistry);
+	}
+
+	public Flux<PatientSummaryRow> findAllPatients() {
+		return query("select id, first_name, last_name from patients order by id",
+			(row, metadata) -> new PatientSummaryRow(
+				row.get("id", Long.class),
+				row.get("first_name", String.class),
+				row.get("last_name", String.class)));
+	}
+
+	public Flux<TestSummaryRow> findAllTests() {
+		return query("select id, patient_id, description, date_time from medical_tests order by id",
+			ReactiveReadsStore::toTestSummary);
+	}
+
+	/**
+	 * L'esame e i suoi risultati vengono letti con un'unica query (una riga per risultato,
+	 * oppure una sola riga con i campi del risultato a null se l'esame non ne ha).
+	 *
+	 * Se l'esame ha i risultati in formato compatto (vedi PackedResultsCodec.java), questi
+	 * vengono decodificati dalla colonna packed_results senza flag: li calcola il service
+	 * layer, come per le letture bloccanti.
+	 */
+
+	public Mono<TestDetailsRow> findTestDetails(long id) {
+		String sql = "select t.id, t.patient_id, t.description, t.date_time, t.packed_results, r.param_name, r.param_value, r.flag "
+			+ "from medical_tests t left join medical_test_results r on r.medical_test_id = t.id "
+			+ "where t.id = $1 order by r.id";
+
+		return query(sql, id, (row, metadata) -> new Object[] { toTestSummary(row, metadata), toTestResult(row), row.get("packed_results", byte[].class) })
+			.collectList()
+			.filter(rows -> !rows.isEmpty())
+			.map(rows -> {
+				TestSummaryRow test = (TestSummaryRow) rows.get(0)[0];
+				byte[] packed = (byte[]) rows.get(0)[2];
+				List<TestResultRow> testResults = new ArrayList<>(rows.size());
+
+				if(packed != null) {
+					packedCodec.decode(packed, (paramName, paramValue) ->
+						testResults.add(new TestResultRow(paramName, Float.isNaN(paramValue) ? null : paramValue, null)));
+				}
+
+				for(Object[] row : rows) {
+					if(row[1] != null) {
+						testResults.add((TestResultRow) row[1]);
+					}
+				}
+
+				return new TestDetailsRow(test, testResults);
+			});
+	}
+
+	private <T> Flux<T> query(String sql, BiFunction<Row, RowMetadata, T> mapper) {
+		return query(sql, null, mapper);
+	}
+
+	/**
+	 * La connessione viene presa dal pool solo quando qualcuno si iscrive al Flux, e viene
+	 * restituita al termine della lettura, sia in caso di successo, sia in caso di errore o
+	 * di cancellazione (es. il client chiude la connessione prima della fine).
+	 */
+
+	private <T> Flux<T> query(String sql, Object parameter, BiFunction<Row, RowMetadata, T> mapper) {
+		return Flux.usingWhen(
+				pool.create(),
+				connection -> execute(connection, sql, parameter, mapper),
+				Connection::close)
+			.doOnSubscribe(subscription -> activeQueries.incrementAndGet())
+			.doFinally(signal -> activeQueries.decrementAndGet());
+	}
+
+	private static <T> Flux<T> execute(Connection connection, String sql, Object parameter, BiFunction<Row, RowMetadata, T> mapper) {
+		var statement = connection.createStatement(sql).fetchSize(FETCH_SIZE);
+
+		if(parameter != null) {
+			statement.bind("$1", parameter);
+		}
+
+		return Flux.from(statement.execute()).flatMap(result -> result.map(mapper));
+	}
+
+	private static TestSummaryRow toTestSummary(Row row, RowMetadata metadata) {
+		return new TestSummaryRow(
+			row.get("id", Long.class),
+			row.get("patient_id", Long.class),
+			row.get("description", String.class),
+			row.get("date_time", LocalDateTime.class));
+	}
+
+	private static TestResultRow toTestResult(Row row) {
+		String paramName = row.get("param_name", String.class);
+
+		if(paramName == null) {
+			return null;
+		}
+
+		String flag = row.get("flag", String.class);
+
+		return new TestResultRow(paramName, row.get("param_value", Float.class), flag != null ? ResultFlag.valueOf(flag) : null);
+	}
+
+	@Override
+	public void destroy() {
+		pool.dispose();
+	}
+}
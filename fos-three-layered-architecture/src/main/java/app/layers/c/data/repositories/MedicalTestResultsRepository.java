@@ -1,11 +1,96 @@
 package app.layers.c.data.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 import app.layers.c.data.entities.MedicalTestResult;
+import app.layers.c.data.projections.HistoryPointRow;
+import app.layers.c.data.projections.HistoryRangeRow;
+import app.layers.c.data.projections.LatestResultRow;
+import app.layers.c.data.projections.TestResultRow;
+import jakarta.persistence.QueryHint;
 
 public interface MedicalTestResultsRepository extends CrudRepository<MedicalTestResult, Long> {
-	<T> List<T> findAllByMedicalTestId(long medicalTestId, Class<T> projection);
+	/**
+	 * I risultati di un esame, come proiezione del data layer (vedi TestResultRow.java): è il
+	 * service layer a convertirli nei propri oggetti, senza che il repository debba conoscerli.
+	 */
+	
+	@Query("select new app.layers.c.data.projections.TestResultRow(r.paramName, r.paramValue, r.flag) "
+		+ "from MedicalTestResult r where r.medicalTest.id = ?1 order by r.id")
+	List<TestResultRow> findRowsByMedicalTestId(long medicalTestId);
+	
+	/**
+	 * Serie storica dei valori di un parametro di un paziente, in ordine di tempo. I valori
+	 * di questa serie possono essere migliaia: invece di caricarli tutti in una lista, il
+	 * metodo restituisce uno Stream, che Hibernate alimenta leggendo le righe dal cursore
+	 * JDBC a blocchi di "fetchSize" righe. Trattandosi di una constructor expression, non
+	 * vengono create entità, perciò il persistence context non cresce durante la lettura.
+	 * 
+	 * Lo Stream deve essere consumato all'interno di una transazione, e chiuso al termine
+	 * (es. con un try-with-resources), altrimenti il cursore e la connessione restano aperti.
+	 */
+	
+	@QueryHints({
+		@QueryHint(name="org.hibernate.fetchSize", value="500"),
+		@QueryHint(name="org.hibernate.readOnly", value="true")
+	})
+	@Query("select new app.layers.c.data.projections.HistoryPointRow(t.dateTime, r.paramValue) "
+		+ "from MedicalTestResult r join r.medicalTest t "
+		+ "where t.patient.id = ?1 and r.paramName = ?2 and r.paramValue is not null and t.dateTime is not null "
+		+ "order by t.dateTime, t.id")
+	Stream<HistoryPointRow> streamHistory(long patientId, String paramName);
+	
+	@Query("select new app.layers.c.data.projections.HistoryRangeRow(count(r), min(t.dateTime), max(t.dateTime)) "
+		+ "from MedicalTestResult r join r.medicalTest t "
+		+ "where t.patient.id = ?1 and r.paramName = ?2 and r.paramValue is not null and t.dateTime is not null")
+	HistoryRangeRow findHistoryRange(long patientId, String paramName);
+	
+	/**
+	 * L'ultimo valore di ogni parametro di un paziente: per ogni risultato, la subquery
+	 * correlata trova la data dell'esame più recente che contiene lo stesso parametro. Se due
+	 * esami hanno la stessa data, la query restituisce entrambe le righe, ordinate per id
+	 * decrescente: chi la invoca tiene la prima di ogni parametro.
+	 */
+	
+	@Query("select new app.layers.c.data.projections.LatestResultRow(r.paramName, r.paramValue, r.flag, t.dateTime, t.id) "
+		+ "from MedicalTestResult r join r.medicalTest t "
+		+ "where t.patient.id = ?1 and t.dateTime = ("
+		+ "select max(t2.dateTime) from MedicalTestResult r2 join r2.medicalTest t2 "
+		+ "where t2.patient.id = ?1 and r2.paramName = r.paramName) "
+		+ "order by r.paramName, t.id desc")
+	List<LatestResultRow> findLatestByPatientId(long patientId);
+	
+	@Query("select coalesce(max(r.id), 0) from MedicalTestResult r")
+	long findMaxId();
+	
+	/**
+	 * Ricalcola il flag dei risultati di un parametro con un'unica UPDATE eseguita dal DB,
+	 * senza caricare le entità in memoria. Per non bloccare troppe righe in una volta sola,
+	 * la UPDATE è limitata a un intervallo di id (fromId escluso, toId incluso): chi la
+	 * invoca può così aggiornare la tabella un blocco alla volta, con una transazione per
+	 * ogni blocco. Un limite null indica che l'intervallo è aperto da quel lato.
+	 * 
+	 * (Vedi ReferenceRangeReevaluator.java)
+	 */
+	
+	@Modifying
+	@Query("update MedicalTestResult r set r.flag = case "
+		+ "when r.paramValue is null then null "
+		+ "when ?2 is not null and r.paramValue < ?2 then app.layers.c.data.entities.ResultFlag.LOW "
+		+ "when ?3 is not null and r.paramValue > ?3 then app.layers.c.data.entities.ResultFlag.HIGH "
+		+ "else app.layers.c.data.entities.ResultFlag.NORMAL end "
+		+ "where r.paramName = ?1 and r.id > ?4 and r.id <= ?5")
+	int updateFlags(String paramName, Float lowerLimit, Float upperLimit, long fromId, long toId);
+	
+	// Vedi MedicalTestsRepository.deleteAllByIds().
+	@Modifying
+	@Query("delete from MedicalTestResult r where r.medicalTest.id in ?1")
+	int deleteAllByMedicalTestIds(Collection<Long> medicalTestIds);
 }
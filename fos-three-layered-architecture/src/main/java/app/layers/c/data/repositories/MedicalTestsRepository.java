@@ -1,13 +1,109 @@
 package app.layers.c.data.repositories;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 import app.layers.c.data.entities.MedicalTest;
+import app.layers.c.data.packed.PackedTestRow;
+import app.layers.c.data.projections.TestSummaryRow;
+import jakarta.persistence.QueryHint;
 
-public interface MedicalTestsRepository extends CrudRepository<MedicalTest, Long> {
-	<T> List<T> findBy(Class<T> projection);
-	<T> T findById(long id, Class<T> projection);
-	<T> List<T> findAllByPatientId(long patientId, Class<T> projection);
+public interface MedicalTestsRepository extends CrudRepository<MedicalTest, Long>, SparseFieldsRepository {
+	/**
+	 * L'annotazione @EntityGraph indica a Spring Data quale piano di caricamento usare per
+	 * questa query (vedi l'entity graph "MedicalTest.withResults" dichiarato nell'entità):
+	 * l'esame viene restituito con la collezione dei risultati già inizializzata.
+	 */
+	
+	@EntityGraph("MedicalTest.withResults")
+	Optional<MedicalTest> findWithResultsById(long id);
+	
+	/**
+	 * Per gli elenchi usiamo query JPQL con una "constructor expression": la clausola
+	 * select new indica a Hibernate di selezionare soltanto le colonne elencate e di
+	 * passarle direttamente al costruttore della classe indicata, una riga alla volta.
+	 * Notate che t.patient.id corrisponde alla chiave esterna patient_id della tabella
+	 * medical_tests, perciò non serve alcuna join con la tabella dei pazienti.
+	 * 
+	 * Con l'hint "org.hibernate.cacheable" i risultati vengono salvati nella query cache
+	 * di Hibernate. Hibernate tiene traccia dell'ultima modifica di ogni tabella, e scarta
+	 * automaticamente i risultati memorizzati prima di una scrittura sulle tabelle lette.
+	 */
+	
+	@QueryHints(@QueryHint(name="org.hibernate.cacheable", value="true"))
+	@Query("select new app.layers.c.data.projections.TestSummaryRow(t.id, t.patient.id, t.description, t.dateTime) from MedicalTest t")
+	List<TestSummaryRow> findAllSummaries();
+	
+	@QueryHints(@QueryHint(name="org.hibernate.cacheable", value="true"))
+	@Query("select new app.layers.c.data.projections.TestSummaryRow(t.id, t.patient.id, t.description, t.dateTime) from MedicalTest t where t.patient.id = ?1")
+	List<TestSummaryRow> findSummariesByPatientId(long patientId);
+	
+	// Gli esami più recenti di un paziente, al più quanti ne indica il Pageable.
+	@Query("select new app.layers.c.data.projections.TestSummaryRow(t.id, t.patient.id, t.description, t.dateTime) from MedicalTest t where t.patient.id = ?1 order by t.dateTime desc nulls last, t.id desc")
+	List<TestSummaryRow> findRecentSummariesByPatientId(long patientId, Pageable pageable);
+	
+	/**
+	 * Letture dei risultati in formato compatto (vedi PackedResultsCodec.java). Gli esami di
+	 * un paziente vengono restituiti in ordine di tempo (o dal più recente), sfruttando lo
+	 * stesso indice di MedicalTestResultsRepository.streamHistory(). Come quel metodo, anche
+	 * questi restituiscono uno Stream, da consumare in una transazione e chiudere al termine:
+	 * un paziente può avere migliaia di esami, e non serve tenerli tutti in memoria.
+	 */
+	
+	@Query("select t.packedResults from MedicalTest t where t.id = ?1")
+	byte[] findPackedResultsById(long id);
+	
+	@QueryHints({
+		@QueryHint(name="org.hibernate.fetchSize", value="500"),
+		@QueryHint(name="org.hibernate.readOnly", value="true")
+	})
+	@Query("select new app.layers.c.data.packed.PackedTestRow(t.id, t.dateTime, t.packedResults) from MedicalTest t "
+		+ "where t.patient.id = ?1 and t.packedResults is not null and t.dateTime is not null order by t.dateTime, t.id")
+	Stream<PackedTestRow> streamPackedByPatientId(long patientId);
+	
+	@QueryHints({
+		@QueryHint(name="org.hibernate.fetchSize", value="500"),
+		@QueryHint(name="org.hibernate.readOnly", value="true")
+	})
+	@Query("select new app.layers.c.data.packed.PackedTestRow(t.id, t.dateTime, t.packedResults) from MedicalTest t "
+		+ "where t.patient.id = ?1 and t.packedResults is not null and t.dateTime is not null order by t.dateTime desc, t.id desc")
+	Stream<PackedTestRow> streamPackedNewestFirstByPatientId(long patientId);
+	
+	/**
+	 * Metodi usati dal job che sposta gli esami più vecchi nell'archivio (vedi
+	 * MedicalTestsArchiver.java) e da quello che li cancella (vedi RetentionPurgeJob.java):
+	 * gli esami vengono selezionati a blocchi, in ordine di id, e cancellati con una DELETE
+	 * eseguita dal DB, senza caricare di nuovo le entità.
+	 */
+	
+	@Query("select t.id from MedicalTest t where t.dateTime < ?1 order by t.id")
+	List<Long> findIdsOlderThan(LocalDateTime cutoff, Pageable pageable);
+	
+	// Come sopra, ma a partire dall'esame successivo ad afterId (vedi RetentionPurgeJob.java).
+	@Query("select t.id from MedicalTest t where t.id > ?1 and t.dateTime < ?2 order by t.id")
+	List<Long> findIdsAfterOlderThan(long afterId, LocalDateTime cutoff, Pageable pageable);
+	
+	@EntityGraph("MedicalTest.withResults")
+	List<MedicalTest> findWithResultsByIdIn(Collection<Long> ids);
+	
+	// I pazienti i cui riepiloghi vanno ricalcolati dopo la cancellazione degli esami.
+	@Query("select distinct t.patient.id from MedicalTest t where t.id in ?1")
+	List<Long> findPatientIdsByIds(Collection<Long> ids);
+	
+	@Query("select count(t) from MedicalTest t where t.patient.id = ?1")
+	int countByPatientId(long patientId);
+	
+	@Modifying
+	@Query("delete from MedicalTest t where t.id in ?1")
+	int deleteAllByIds(Collection<Long> ids);
 }
\ No newline at end of file
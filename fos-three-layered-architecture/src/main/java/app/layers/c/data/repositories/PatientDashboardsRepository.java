@@ -0,0 +1,24 @@
+package app.layers.c.data.repositories;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import app.layers.c.data.entities.PatientDashboard;
+import jakarta.persistence.LockModeType;
+
+public interface PatientDashboardsRepository extends CrudRepository<PatientDashboard, Long> {
+	
+	/**
+	 * Due esami dello stesso paziente salvati in contemporanea leggerebbero lo stesso
+	 * riepilogo e lo riscriverebbero ciascuno con il proprio aggiornamento, perdendo quello
+	 * dell'altro. Con un lock pessimistico (SELECT ... FOR UPDATE) la seconda transazione
+	 * aspetta che la prima abbia finito prima di leggere la riga.
+	 */
+	
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select d from PatientDashboard d where d.patientId = ?1")
+	Optional<PatientDashboard> findForUpdate(long patientId);
+}
@@ -1,10 +1,20 @@
 package app.layers.c.data.repositories;
 
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 import app.layers.c.data.entities.Patient;
+import app.layers.c.data.projections.PatientDetailsRow;
+import app.layers.c.data.projections.PatientSummaryRow;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 
 public interface PatientsRepository extends CrudRepository<Patient, Long> {
 	
@@ -35,7 +45,69 @@ public interface PatientsRepository extends CrudRepository<Patient, Long> {
 	 * entità complete. Per evitare questo problema possiamo utilizzare nomi alternativi che
 	 * corrispondano alla medesima funzionalità, sempre rispettando la sintassi supportata
 	 * da Spring Data. Una buona alternativa al metodo "findAll" può essere "findBy".
+	 * 
+	 * Anche con una proiezione, Spring Data costruisce la query a partire dal nome del
+	 * metodo: l'hint "org.hibernate.cacheable" (vedi MedicalTestsRepository.java) vale
+	 * quindi anche qui, e i risultati vengono salvati nella query cache di Hibernate.
 	 */
 	
+	@QueryHints(@QueryHint(name="org.hibernate.cacheable", value="true"))
 	<T> List<T> findBy(Class<T> projection);
+
+	/**
+	 * Se la proiezione deve leggere colonne di più entità, possiamo scrivere esplicitamente
+	 * la query con una constructor expression JPQL. Il paziente e il suo riepilogo
+	 * condividono la stessa chiave primaria: la left join le legge entrambe con un'unica
+	 * query, anche per i pazienti che non hanno ancora nessun esame (e quindi nessun
+	 * riepilogo). Una constructor expression deve indicare una classe concreta, perciò qui
+	 * usiamo una proiezione del data layer (vedi TestSummaryRow.java).
+	 */
+
+	@QueryHints(@QueryHint(name="org.hibernate.cacheable", value="true"))
+	@Query("select new app.layers.c.data.projections.PatientDetailsRow("
+		+ "p.id, p.firstName, p.lastName, p.birthdate, "
+		+ "d.testsCount, d.lastTestDateTime, d.lastTestDescription, d.latestValues) "
+		+ "from Patient p left join PatientDashboard d on d.patientId = p.id "
+		+ "where p.id = ?1")
+	PatientDetailsRow findDetailsById(long id);
+
+	/**
+	 * Paginazione keyset: invece di usare un offset (che costringe il DB a leggere e scartare
+	 * tutte le righe delle pagine precedenti), il client ci restituisce l'ultimo id che ha
+	 * ricevuto e noi selezioniamo soltanto le righe successive, in ordine di id. Il Pageable
+	 * viene usato solo per limitare il numero di righe restituite (sempre a partire da 0).
+	 */
+
+	<T> List<T> findByIdGreaterThanOrderByIdAsc(long afterId, Pageable pageable, Class<T> projection);
+
+	/**
+	 * Come sopra, ma con un filtro sull'intervallo di date di nascita (estremi inclusi). Qui
+	 * l'ordine e il cursore sono sulla coppia (birthdate, id), la stessa dell'indice dichiarato
+	 * nell'entità Patient: il DB legge l'indice a partire dalla posizione del cursore, già
+	 * nell'ordine richiesto, e si ferma dopo aver trovato le righe della pagina, qualunque sia
+	 * il numero di pazienti nell'intervallo. Il cursore è (fromBirthdate, afterId): le righe
+	 * nate proprio in fromBirthdate vengono restituite solo se hanno un id maggiore di afterId.
+	 * 
+	 * Spring Data non sa costruire la condizione sul cursore a partire dal nome del metodo,
+	 * perciò scriviamo la query, con una constructor expression (vedi findDetailsById()).
+	 */
+
+	@Query("select new app.layers.c.data.projections.PatientSummaryRow(p.id, p.firstName, p.lastName) "
+		+ "from Patient p "
+		+ "where p.birthdate >= ?1 and p.birthdate <= ?2 and (p.birthdate > ?1 or p.id > ?3) "
+		+ "order by p.birthdate, p.id")
+	List<PatientSummaryRow> findPageByBirthdate(LocalDate fromBirthdate, LocalDate maxBirthdate, long afterId, Pageable pageable);
+	
+	@Query("select p.birthdate from Patient p where p.id = ?1")
+	Optional<LocalDate> findBirthdateById(long id);
+	
+	/**
+	 * Un lock su una riga che non esiste ancora non blocca nessuno: la riga del paziente,
+	 * invece, esiste sempre, e il suo lock serializza la creazione del riepilogo (vedi
+	 * MedicalTestsService.lockDashboard()).
+	 */
+	
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select p from Patient p where p.id = ?1")
+	Optional<Patient> findForUpdate(long id);
 }
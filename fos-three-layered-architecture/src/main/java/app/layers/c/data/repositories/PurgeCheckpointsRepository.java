@@ -0,0 +1,8 @@
+package app.layers.c.data.repositories;
+
+import org.springframework.data.repository.CrudRepository;
+
+import app.layers.c.data.entities.PurgeCheckpoint;
+
+public interface PurgeCheckpointsRepository extends CrudRepository<PurgeCheckpoint, String> {
+}
@@ -0,0 +1,8 @@
+package app.layers.c.data.repositories;
+
+import org.springframework.data.repository.CrudRepository;
+
+import app.layers.c.data.entities.ResultParameter;
+
+public interface ResultParametersRepository extends CrudRepository<ResultParameter, Integer> {
+}
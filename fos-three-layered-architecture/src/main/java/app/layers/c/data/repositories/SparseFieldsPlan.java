@@ -0,0 +1,114 @@
+package app.layers.c.data.repositories;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Il "piano" di una proiezione dinamica: a partire dall'elenco di campi richiesti dal client
+ * (es. "fields=id,dateTime"), stabilisce quali colonne selezionare e costruisce una volta
+ * per tutte le query JPQL corrispondenti. Il campo "id" viene sempre incluso, mentre i
+ * risultati dell'esame ("results") vengono caricati solo se richiesti esplicitamente.
+ *
+ * I piani sono immutabili e vengono memorizzati da SparseFieldsRepositoryImpl, perciò la
+ * stringa ricevuta dal client viene analizzata soltanto la prima volta che la incontriamo.
+ */
+
+public class SparseFieldsPlan {
+
+	public static final String RESULTS = "results";
+
+	// Nomi dei campi esposti ai client --> espressioni JPQL corrispondenti.
+	private static final Map<String, String> TEST_COLUMNS = new LinkedHashMap<>();
+
+	static {
+		TEST_COLUMNS.put("id", "t.id");
+		TEST_COLUMNS.put("patientId", "t.patient.id");
+		TEST_COLUMNS.put("description", "t.description");
+		TEST_COLUMNS.put("dateTime", "t.dateTime");
+	}
+
+	private final List<String> columns;
+	private final boolean includesResults;
+	private final String listQuery;
+	private final String byIdQuery;
+
+	private SparseFieldsPlan(List<String> columns, boolean includesResults) {
+		this.columns = Collections.unmodifiableList(columns);
+		this.includesResults = includesResults;
+
+		StringBuilder select = new StringBuilder("select ");
+
+		for(int i = 0; i < columns.size(); i++) {
+			String column = columns.get(i);
+			select.append(i > 0 ? ", " : "").append(TEST_COLUMNS.get(column)).append(" as ").append(column);
+		}
+
+		select.append(" from MedicalTest t");
+
+		this.listQuery = select.toString();
+		this.byIdQuery = select + " where t.id = :id";
+	}
+
+	/**
+	 * Solleva IllegalArgumentException se viene richiesto un campo sconosciuto.
+	 */
+
+	static SparseFieldsPlan parse(String fields) {
+		boolean includesResults = false;
+		boolean[] requested = new boolean[TEST_COLUMNS.size()];
+		List<String> names = new ArrayList<>(TEST_COLUMNS.keySet());
+
+		requested[names.indexOf("id")] = true;
+
+		for(String field : fields.split(",")) {
+			String name = field.trim();
+
+			if(name.isEmpty()) {
+				continue;
+			}
+
+			if(name.equals(RESULTS)) {
+				includesResults = true;
+				continue;
+			}
+
+			int index = names.indexOf(name);
+
+			if(index < 0) {
+				throw new IllegalArgumentException("Campo sconosciuto: " + name);
+			}
+
+			requested[index] = true;
+		}
+
+		// Le colonne seguono sempre lo stesso ordine, indipendentemente da quello della richiesta.
+		List<String> columns = new ArrayList<>();
+
+		for(int i = 0; i < names.size(); i++) {
+			if(requested[i]) {
+				columns.add(names.get(i));
+			}
+		}
+
+		return new SparseFieldsPlan(columns, includesResults);
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public boolean includesResults() {
+		return includesResults;
+	}
+
+	String getListQuery() {
+		return listQuery;
+	}
+
+	String getByIdQuery() {
+		return byIdQuery;
+	}
+}
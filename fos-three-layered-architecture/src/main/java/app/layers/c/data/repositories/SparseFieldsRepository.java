@@ -0,0 +1,26 @@
+package app.layers.c.data.repositories;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Spring Data permette di aggiungere a un repository dei metodi implementati a mano: basta
+ * dichiararli in un'interfaccia a parte (un "fragment"), estenderla dal repository e
+ * scriverne l'implementazione in una classe con lo stesso nome e il suffisso "Impl".
+ * Spring Data userà la nostra implementazione per questi metodi, e la propria per tutti
+ * gli altri.
+ *
+ * In questo caso ci serve perché le colonne da selezionare non sono note a priori, ma
+ * dipendono dai campi richiesti dal client: la query va quindi costruita a runtime.
+ *
+ * findFieldsById restituisce un Optional e non una Map eventualmente null: per i metodi che
+ * restituiscono collezioni o mappe, infatti, Spring Data converte il null in una mappa vuota,
+ * e il chiamante non potrebbe più distinguere un esame inesistente.
+ */
+
+public interface SparseFieldsRepository {
+	SparseFieldsPlan planFor(String fields);
+	List<Map<String, Object>> findFieldsBy(SparseFieldsPlan plan);
+	Optional<Map<String, Object>> findFieldsById(long id, SparseFieldsPlan plan);
+}
@@ -0,0 +1,78 @@
+package app.layers.c.data.repositories;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+
+/**
+ * (Vedi SparseFieldsRepository.java)
+ */
+
+public class SparseFieldsRepositoryImpl implements SparseFieldsRepository {
+
+	/**
+	 * Le combinazioni di campi valide sono poche, ma i client possono scriverle in molti modi
+	 * diversi (ordine, spazi, ecc.): per non far crescere la mappa all'infinito, oltre una
+	 * certa soglia i nuovi piani vengono comunque calcolati ma non più memorizzati.
+	 */
+
+	private static final int MAX_CACHED_PLANS = 256;
+
+	private final Map<String, SparseFieldsPlan> plans = new ConcurrentHashMap<>();
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public SparseFieldsPlan planFor(String fields) {
+		SparseFieldsPlan plan = plans.get(fields);
+
+		if(plan == null) {
+			plan = SparseFieldsPlan.parse(fields);
+
+			if(plans.size() < MAX_CACHED_PLANS) {
+				plans.putIfAbsent(fields, plan);
+			}
+		}
+
+		return plan;
+	}
+
+	@Override
+	public List<Map<String, Object>> findFieldsBy(SparseFieldsPlan plan) {
+		List<Tuple> tuples = entityManager.createQuery(plan.getListQuery(), Tuple.class).getResultList();
+		List<Map<String, Object>> rows = new ArrayList<>(tuples.size());
+
+		for(Tuple tuple : tuples) {
+			rows.add(toMap(tuple, plan));
+		}
+
+		return rows;
+	}
+
+	@Override
+	public Optional<Map<String, Object>> findFieldsById(long id, SparseFieldsPlan plan) {
+		List<Tuple> tuples = entityManager.createQuery(plan.getByIdQuery(), Tuple.class)
+			.setParameter("id", id)
+			.getResultList();
+
+		return tuples.isEmpty() ? Optional.empty() : Optional.of(toMap(tuples.get(0), plan));
+	}
+
+	private static Map<String, Object> toMap(Tuple tuple, SparseFieldsPlan plan) {
+		Map<String, Object> row = new LinkedHashMap<>();
+
+		for(String column : plan.getColumns()) {
+			row.put(column, tuple.get(column));
+		}
+
+		return row;
+	}
+}
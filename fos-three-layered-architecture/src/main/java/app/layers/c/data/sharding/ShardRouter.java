@@ -0,0 +1,76 @@
+package app.layers.c.data.sharding;
+
+/**
+ * Il router decide su quale shard (cioè su quale database) deve finire ogni esame medico.
+ * La chiave di partizionamento è l'id del paziente: in questo modo tutti gli esami di uno
+ * stesso paziente, insieme ai loro risultati, si trovano sullo stesso shard, e le query
+ * relative a un singolo paziente possono essere eseguite su un unico database.
+ *
+ * Per poter risalire allo shard anche partendo dal solo id di un esame (es. nella chiamata
+ * GET "/medical-tests/{id}"), gli id restituiti ai layer superiori sono "globali": i bit
+ * meno significativi contengono l'indice dello shard, quelli più significativi l'id locale
+ * generato dal database dello shard. Il numero di shard non può quindi superare 2^SHARD_BITS.
+ */
+
+public class ShardRouter {
+
+	static final int SHARD_BITS = 8;
+	static final int MAX_SHARDS = 1 << SHARD_BITS;
+
+	private final int shardCount;
+
+	public ShardRouter(int shardCount) {
+		if(shardCount < 1 || shardCount > MAX_SHARDS) {
+			throw new IllegalArgumentException("Il numero di shard deve essere compreso tra 1 e " + MAX_SHARDS);
+		}
+
+		this.shardCount = shardCount;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Gli id dei pazienti sono generati in sequenza, perciò li "mescoliamo" con una funzione
+	 * di hash prima di calcolare il modulo: così i pazienti si distribuiscono uniformemente
+	 * sugli shard anche quando gli id seguono qualche regolarità.
+	 */
+
+	public int shardOfPatient(long patientId) {
+		return Math.floorMod(mix(patientId), shardCount);
+	}
+
+	public int shardOfTest(long globalTestId) {
+		return (int) (globalTestId & (MAX_SHARDS - 1));
+	}
+
+	/**
+	 * Gli id degli esami arrivano dai client (es. GET "/medical-tests/{id}"), perciò possono
+	 * contenere qualsiasi valore: un id negativo, o i cui bit meno significativi indicano uno
+	 * shard che non esiste, non può corrispondere ad alcun esame e non va cercato.
+	 */
+
+	public boolean isValidTestId(long globalTestId) {
+		return globalTestId > 0 && shardOfTest(globalTestId) < shardCount && toLocalTestId(globalTestId) > 0;
+	}
+
+	public long toGlobalTestId(int shard, long localTestId) {
+		return (localTestId << SHARD_BITS) | shard;
+	}
+
+	public long toLocalTestId(long globalTestId) {
+		return globalTestId >>> SHARD_BITS;
+	}
+
+	// Passo finale ("fmix64") dell'algoritmo MurmurHash3.
+
+	private static int mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return (int) x;
+	}
+}
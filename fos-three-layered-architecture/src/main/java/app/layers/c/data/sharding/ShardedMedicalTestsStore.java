@@ -0,0 +1,423 @@
+package app.layers.c.data.sharding;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import app.layers.c.data.projections.HistoryRangeRow;
+import app.layers.c.data.projections.TestSummaryRow;
+
+/**
+ * Quando le tabelle medical_tests e medical_test_results diventano troppo grandi per un
+ * unico database, possiamo partizionarle orizzontalmente (sharding) su più database
+ * indipendenti. Ogni shard contiene le stesse tabelle, ma soltanto gli esami dei pazienti
+ * che il ShardRouter gli assegna.
+ *
+ * Le query che riguardano un singolo paziente (o un singolo esame) vengono eseguite su un
+ * solo shard. Le query globali (es. l'elenco di tutti gli esami) vengono invece inviate a
+ * tutti gli shard in parallelo ("scatter"), e i risultati vengono poi uniti ("gather"):
+ * poiché ogni shard lavora su una frazione dei dati, il tempo complessivo è all'incirca
+ * quello dello shard più lento, e non la somma dei tempi di tutti gli shard.
+ *
+ * Notate che qui non usiamo JPA: ogni shard ha un proprio DataSource, un JdbcTemplate e un
+ * gestore delle transazioni locali. Le scritture di un esame e dei suoi risultati avvengono
+ * sempre sullo stesso shard, perciò una transazione locale è sufficiente a garantirne
+ * l'atomicità senza bisogno di transazioni distribuite.
+ *
+ * (Vedi ShardingConfig.java)
+ */
+
+public class ShardedMedicalTestsStore implements DisposableBean {
+
+	private static final String SCHEMA_TESTS =
+		"CREATE TABLE IF NOT EXISTS medical_tests ("
+			+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+			+ "patient_id BIGINT NOT NULL, "
+			+ "description VARCHAR(255), "
+			+ "date_time TIMESTAMP)";
+
+	private static final String SCHEMA_TESTS_INDEX =
+		"CREATE INDEX IF NOT EXISTS idx_medical_tests_patient_id ON medical_tests (patient_id, id)";
+
+	private static final String SCHEMA_TESTS_DATETIME_INDEX =
+		"CREATE INDEX IF NOT EXISTS idx_medical_tests_patient_datetime ON medical_tests (patient_id, date_time)";
+
+	private static final String SCHEMA_RESULTS =
+		"CREATE TABLE IF NOT EXISTS medical_test_results ("
+			+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+			+ "medical_test_id BIGINT NOT NULL REFERENCES medical_tests (id), "
+			+ "param_name VARCHAR(255) NOT NULL, "
+			+ "param_value REAL, "
+			+ "flag VARCHAR(8))";
+
+	// Per gli shard creati prima dell'introduzione dei flag (vedi ResultFlag.java).
+	private static final String SCHEMA_RESULTS_FLAG =
+		"ALTER TABLE medical_test_results ADD COLUMN IF NOT EXISTS flag VARCHAR(8)";
+
+	private static final String SCHEMA_RESULTS_INDEX =
+		"CREATE INDEX IF NOT EXISTS idx_medical_test_results_test_id ON medical_test_results (medical_test_id)";
+
+	// Numero massimo di id in una singola clausola IN (vedi findResultsByTestIds()).
+	private static final int MAX_IN_LIST_SIZE = 500;
+
+	private final ShardRouter router;
+	private final List<Shard> shards;
+	private final ExecutorService scatterExecutor;
+
+	public ShardedMedicalTestsStore(ShardRouter router, List<HikariDataSource> dataSources) {
+		if(dataSources.size() != router.getShardCount()) {
+			throw new IllegalArgumentException("Servono esattamente " + router.getShardCount() + " DataSource");
+		}
+
+		this.router = router;
+		this.shards = new ArrayList<>(dataSources.size());
+
+		for(int i = 0; i < dataSources.size(); i++) {
+			Shard shard = new Shard(i, dataSources.get(i));
+			shard.createSchema();
+			shards.add(shard);
+		}
+
+		AtomicInteger threadCount = new AtomicInteger();
+
+		this.scatterExecutor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+			Thread thread = new Thread(runnable, "shard-scatter-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public ShardRouter getRouter() {
+		return router;
+	}
+
+	/**
+	 * L'esame e i suoi risultati vengono committati subito, con una transazione locale dello
+	 * shard: la transazione JPA del chiamante (es. quella che aggiorna il riepilogo del
+	 * paziente sul DB principale) è indipendente e potrebbe ancora fallire. In quel caso il
+	 * chiamante deve annullare il salvataggio con deleteTest().
+	 */
+
+	public long saveTest(long patientId, String description, LocalDateTime dateTime, Collection<ShardedResultRow> results) {
+		Shard shard = shards.get(router.shardOfPatient(patientId));
+
+		Long localId = shard.transactionTemplate.execute(status -> {
+			long id = shard.insertTest(patientId, description, dateTime);
+			shard.insertResults(id, results);
+			return id;
+		});
+
+		return router.toGlobalTestId(shard.index, localId);
+	}
+
+	/**
+	 * Annulla saveTest(), eliminando l'esame e i suoi risultati. Restituisce false se l'esame
+	 * non esiste (o non è mai stato salvato).
+	 */
+
+	public boolean deleteTest(long testId) {
+		if(!router.isValidTestId(testId)) {
+			return false;
+		}
+
+		Shard shard = shards.get(router.shardOfTest(testId));
+		long localId = router.toLocalTestId(testId);
+
+		Integer deleted = shard.transactionTemplate.execute(status -> {
+			shard.jdbcTemplate.update("DELETE FROM medical_test_results WHERE medical_test_id = ?", localId);
+			return shard.jdbcTemplate.update("DELETE FROM medical_tests WHERE id = ?", localId);
+		});
+
+		return deleted != null && deleted > 0;
+	}
+
+	public TestSummaryRow findById(long testId) {
+		if(!router.isValidTestId(testId)) {
+			return null;
+		}
+
+		Shard shard = shards.get(router.shardOfTest(testId));
+
+		List<TestSummaryRow> rows = shard.jdbcTemplate.query(
+			"SELECT id, patient_id, description, date_time FROM medical_tests WHERE id = ?",
+			shard.testRowMapper, router.toLocalTestId(testId));
+
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	public List<ShardedResultRow> findResultsByTestId(long testId) {
+		if(!router.isValidTestId(testId)) {
+			return new ArrayList<>();
+		}
+
+		Shard shard = shards.get(router.shardOfTest(testId));
+
+		return shard.jdbcTemplate.query(
+			"SELECT param_name, param_value, flag FROM medical_test_results WHERE medical_test_id = ? ORDER BY id",
+			RESULT_ROW_MAPPER, router.toLocalTestId(testId));
+	}
+
+	/**
+	 * Come findResultsByTestId(), ma per più esami insieme: gli id vengono raggruppati per
+	 * shard, e su ogni shard i risultati vengono letti con una query per ogni blocco di
+	 * (al più) MAX_IN_LIST_SIZE id, invece che con una query per ogni esame. Gli esami di
+	 * uno stesso paziente si trovano tutti sullo stesso shard, perciò per loro le query
+	 * vengono eseguite su un unico database. Gli esami senza risultati non compaiono nella
+	 * mappa restituita.
+	 */
+
+	public Map<Long, List<ShardedResultRow>> findResultsByTestIds(Collection<Long> testIds) {
+		Map<Integer, List<Long>> localIdsByShard = new TreeMap<>();
+
+		for(Long testId : testIds) {
+			if(testId != null && router.isValidTestId(testId)) {
+				localIdsByShard.computeIfAbsent(router.shardOfTest(testId), k -> new ArrayList<>()).add(router.toLocalTestId(testId));
+			}
+		}
+
+		Map<Long, List<ShardedResultRow>> results = new HashMap<>();
+
+		for(Map.Entry<Integer, List<Long>> entry : localIdsByShard.entrySet()) {
+			Shard shard = shards.get(entry.getKey());
+			List<Long> localIds = entry.getValue();
+
+			for(int from = 0; from < localIds.size(); from += MAX_IN_LIST_SIZE) {
+				List<Long> chunk = localIds.subList(from, Math.min(from + MAX_IN_LIST_SIZE, localIds.size()));
+				String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+
+				shard.jdbcTemplate.query(
+					"SELECT medical_test_id, param_name, param_value, flag FROM medical_test_results "
+						+ "WHERE medical_test_id IN (" + placeholders + ") ORDER BY id",
+					rs -> {
+						long globalId = router.toGlobalTestId(shard.index, rs.getLong("medical_test_id"));
+						results.computeIfAbsent(globalId, k -> new ArrayList<>()).add(RESULT_ROW_MAPPER.mapRow(rs, 0));
+					},
+					chunk.toArray());
+			}
+		}
+
+		return results;
+	}
+
+	public List<TestSummaryRow> findAllByPatientId(long patientId) {
+		Shard shard = shards.get(router.shardOfPatient(patientId));
+
+		return shard.jdbcTemplate.query(
+			"SELECT id, patient_id, description, date_time FROM medical_tests WHERE patient_id = ? ORDER BY id",
+			shard.testRowMapper, patientId);
+	}
+
+	/**
+	 * Serie storica di un parametro di un paziente (vedi MedicalTestResultsRepository.
+	 * streamHistory()): le righe vengono passate al consumer una alla volta, in ordine di
+	 * tempo, man mano che vengono lette dal cursore JDBC, senza accumularle in una lista.
+	 * Restituisce il numero di righe lette.
+	 */
+
+	public long streamHistory(long patientId, String paramName, BiConsumer<LocalDateTime, Float> consumer) {
+		Shard shard = shards.get(router.shardOfPatient(patientId));
+		long[] count = new long[1];
+
+		shard.jdbcTemplate.query(connection -> {
+			PreparedStatement ps = connection.prepareStatement(
+				"SELECT t.date_time, r.param_value FROM medical_test_results r "
+					+ "JOIN medical_tests t ON t.id = r.medical_test_id "
+					+ "WHERE t.patient_id = ? AND r.param_name = ? AND r.param_value IS NOT NULL AND t.date_time IS NOT NULL "
+					+ "ORDER BY t.date_time, t.id");
+
+			ps.setFetchSize(500);
+			ps.setLong(1, patientId);
+			ps.setString(2, paramName);
+			return ps;
+		}, rs -> {
+			consumer.accept(rs.getTimestamp(1).toLocalDateTime(), rs.getFloat(2));
+			count[0]++;
+		});
+
+		return count[0];
+	}
+
+	/**
+	 * Come streamHistory(), ma restituisce soltanto il numero di valori e l'intervallo
+	 * temporale della serie.
+	 */
+
+	public HistoryRangeRow findHistoryRange(long patientId, String paramName) {
+		Shard shard = shards.get(router.shardOfPatient(patientId));
+
+		return shard.jdbcTemplate.queryForObject(
+			"SELECT COUNT(*), MIN(t.date_time), MAX(t.date_time) FROM medical_test_results r "
+				+ "JOIN medical_tests t ON t.id = r.medical_test_id "
+				+ "WHERE t.patient_id = ? AND r.param_name = ? AND r.param_value IS NOT NULL AND t.date_time IS NOT NULL",
+			(rs, rowNum) -> new HistoryRangeRow(
+				rs.getLong(1),
+				rs.getTimestamp(2) != null ? rs.getTimestamp(2).toLocalDateTime() : null,
+				rs.getTimestamp(3) != null ? rs.getTimestamp(3).toLocalDateTime() : null),
+			patientId, paramName);
+	}
+
+	/**
+	 * Scatter-gather: la stessa query viene inviata contemporaneamente a tutti gli shard, e
+	 * aspettiamo che tutti rispondano prima di unire i risultati. Se uno shard fallisce,
+	 * l'eccezione viene propagata al chiamante (non restituiamo elenchi parziali).
+	 */
+
+	public List<TestSummaryRow> findAll() {
+		List<CompletableFuture<List<TestSummaryRow>>> futures = new ArrayList<>(shards.size());
+
+		for(Shard shard : shards) {
+			futures.add(CompletableFuture.supplyAsync(() -> shard.jdbcTemplate.query(
+				"SELECT id, patient_id, description, date_time FROM medical_tests",
+				shard.testRowMapper), scatterExecutor));
+		}
+
+		List<TestSummaryRow> merged = new ArrayList<>();
+
+		for(CompletableFuture<List<TestSummaryRow>> future : futures) {
+			merged.addAll(future.join());
+		}
+
+		merged.sort(Comparator.comparing(TestSummaryRow::getId));
+		return merged;
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	public long findMaxResultId(int shardIndex) {
+		Long maxId = shards.get(shardIndex).jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM medical_test_results", Long.class);
+		return maxId != null ? maxId : 0;
+	}
+
+	/**
+	 * Ricalcola il flag dei risultati di un parametro su uno shard, con una UPDATE eseguita
+	 * direttamente dal DB e limitata a un intervallo di id (fromId escluso, toId incluso),
+	 * come MedicalTestResultsRepository.updateFlags(). Fuori da una transazione il JdbcTemplate
+	 * lavora in autocommit: ogni blocco è quindi una transazione a sé, breve e con pochi lock.
+	 * I flag sono i nomi dei valori di ResultFlag. Restituisce il numero di righe aggiornate.
+	 */
+
+	public int updateFlags(int shardIndex, String paramName, Float lowerLimit, Float upperLimit, String lowFlag, String normalFlag, String highFlag, long fromId, long toId) {
+		return shards.get(shardIndex).jdbcTemplate.update(
+			"UPDATE medical_test_results SET flag = CASE "
+				+ "WHEN param_value IS NULL THEN NULL "
+				+ "WHEN CAST(? AS REAL) IS NOT NULL AND param_value < ? THEN ? "
+				+ "WHEN CAST(? AS REAL) IS NOT NULL AND param_value > ? THEN ? "
+				+ "ELSE ? END "
+				+ "WHERE param_name = ? AND id > ? AND id <= ?",
+			lowerLimit, lowerLimit, lowFlag, upperLimit, upperLimit, highFlag, normalFlag, paramName, fromId, toId);
+	}
+
+	@Override
+	public void destroy() {
+		scatterExecutor.shutdownNow();
+
+		for(Shard shard : shards) {
+			shard.dataSource.close();
+		}
+	}
+
+	private static final RowMapper<ShardedResultRow> RESULT_ROW_MAPPER = (rs, rowNum) -> {
+		float value = rs.getFloat("param_value");
+		Float paramValue = rs.wasNull() ? null : value;
+
+		return new ShardedResultRow(rs.getString("param_name"), paramValue, rs.getString("flag"));
+	};
+
+	/**
+	 * Le risorse di un singolo shard. Il row mapper degli esami è specifico di ogni shard,
+	 * perché deve convertire l'id locale letto dal DB nell'id globale.
+	 */
+
+	private class Shard {
+		final int index;
+		final HikariDataSource dataSource;
+		final JdbcTemplate jdbcTemplate;
+		final TransactionTemplate transactionTemplate;
+		final RowMapper<TestSummaryRow> testRowMapper;
+
+		Shard(int index, HikariDataSource dataSource) {
+			this.index = index;
+			this.dataSource = dataSource;
+			this.jdbcTemplate = new JdbcTemplate(dataSource);
+			this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+			this.testRowMapper = (rs, rowNum) -> {
+				Timestamp dateTime = rs.getTimestamp("date_time");
+
+				return new TestSummaryRow(
+					router.toGlobalTestId(index, rs.getLong("id")),
+					rs.getLong("patient_id"),
+					rs.getString("description"),
+					dateTime != null ? dateTime.toLocalDateTime() : null);
+			};
+		}
+
+		void createSchema() {
+			jdbcTemplate.execute(SCHEMA_TESTS);
+			jdbcTemplate.execute(SCHEMA_TESTS_INDEX);
+			jdbcTemplate.execute(SCHEMA_TESTS_DATETIME_INDEX);
+			jdbcTemplate.execute(SCHEMA_RESULTS);
+			jdbcTemplate.execute(SCHEMA_RESULTS_FLAG);
+			jdbcTemplate.execute(SCHEMA_RESULTS_INDEX);
+		}
+
+		long insertTest(long patientId, String description, LocalDateTime dateTime) {
+			KeyHolder keyHolder = new GeneratedKeyHolder();
+
+			jdbcTemplate.update(connection -> {
+				PreparedStatement ps = connection.prepareStatement(
+					"INSERT INTO medical_tests (patient_id, description, date_time) VALUES (?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS);
+
+				ps.setLong(1, patientId);
+				ps.setString(2, description);
+				ps.setTimestamp(3, dateTime != null ? Timestamp.valueOf(dateTime) : null);
+				return ps;
+			}, keyHolder);
+
+			return keyHolder.getKey().longValue();
+		}
+
+		void insertResults(long localTestId, Collection<ShardedResultRow> results) {
+			if(results == null || results.isEmpty()) {
+				return;
+			}
+
+			List<Object[]> batch = new ArrayList<>(results.size());
+
+			for(ShardedResultRow result : results) {
+				batch.add(new Object[] { localTestId, result.getParamName(), result.getParamValue(), result.getFlag() });
+			}
+
+			jdbcTemplate.batchUpdate(
+				"INSERT INTO medical_test_results (medical_test_id, param_name, param_value, flag) VALUES (?, ?, ?, ?)",
+				batch);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package app.layers.c.data.sharding;
+
+/**
+ * Riga della tabella medical_test_results letta da (o da scrivere su) uno shard. Il flag
+ * è il nome di un valore di ResultFlag, oppure null.
+ */
+
+public class ShardedResultRow {
+	private final String paramName;
+	private final Float paramValue;
+	private final String flag;
+
+	public ShardedResultRow(String paramName, Float paramValue, String flag) {
+		this.paramName = paramName;
+		this.paramValue = paramValue;
+		this.flag = flag;
+	}
+
+	public String getParamName() {
+		return paramName;
+	}
+
+	public Float getParamValue() {
+		return paramValue;
+	}
+
+	public String getFlag() {
+		return flag;
+	}
+}
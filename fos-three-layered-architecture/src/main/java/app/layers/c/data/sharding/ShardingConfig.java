@@ -0,0 +1,51 @@
+package app.layers.c.data.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Lo sharding è disattivato di default: per attivarlo basta impostare la proprietà
+ * app.sharding.enabled=true nel file application.properties. Il numero di shard e l'URL
+ * JDBC di ciascuno sono configurabili; di default usiamo più database H2 in memoria, uno
+ * per shard, il che è comodo per provare il meccanismo in locale o nei test.
+ *
+ * Notate che i DataSource degli shard NON vengono esposti come bean: se lo facessimo,
+ * Spring Boot smetterebbe di creare il DataSource principale (quello usato da JPA per la
+ * tabella dei pazienti), perché la sua auto-configurazione si attiva solo in assenza di
+ * altri bean di tipo DataSource.
+ */
+
+@Configuration
+@ConditionalOnProperty(name="app.sharding.enabled", havingValue="true")
+public class ShardingConfig {
+
+	@Bean
+	public ShardedMedicalTestsStore shardedMedicalTestsStore(
+			@Value("${app.sharding.shards:4}") int shardCount,
+			@Value("${app.sharding.url-template:jdbc:h2:mem:shard%d;DB_CLOSE_DELAY=-1}") String urlTemplate,
+			@Value("${app.sharding.username:user}") String username,
+			@Value("${app.sharding.password:password}") String password,
+			@Value("${app.sharding.pool-size:8}") int poolSize) {
+
+		List<HikariDataSource> dataSources = new ArrayList<>(shardCount);
+
+		for(int i = 0; i < shardCount; i++) {
+			HikariDataSource dataSource = new HikariDataSource();
+			dataSource.setPoolName("shard-" + i);
+			dataSource.setJdbcUrl(String.format(urlTemplate, i));
+			dataSource.setUsername(username);
+			dataSource.setPassword(password);
+			dataSource.setMaximumPoolSize(poolSize);
+			dataSources.add(dataSource);
+		}
+
+		return new ShardedMedicalTestsStore(new ShardRouter(shardCount), dataSources);
+	}
+}
@@ -6,6 +6,8 @@ import java.lang.reflect.Method;
 import java.util.LinkedList;
 import java.util.List;
 
+import app.tracing.jfr.MappingEvent;
+
 /**
  * In alcuni rari casi, può essere che vi troviate costretti a scrivere un algoritmo basato
  * sulla reflection di Java per automatizzare il mapping tra oggetti di classi diverse (per
@@ -38,12 +40,14 @@ import java.util.List;
 public class NaiveMapper {
 	public static <In, Out> Out map(In inObject, Class<Out> outClass) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
 		
+		MappingEvent event = MappingEvent.start();
 		Class<?> inClass = inObject.getClass();
 		
 		String inClassName = inClass.getSimpleName();
 		String outClassName = outClass.getSimpleName();
 		
 		Out outObject = invokeDefaultConstructorOf(outClass);
+		int mappedProperties = 0;
 		
 		for(Method outSetter : settersOf(outClass)) {			
 			
@@ -60,6 +64,7 @@ public class NaiveMapper {
 				Object inValue = inGetter.invoke(inObject); // --> inObject.inGetter();
 				
 				outSetter.invoke(outObject, inValue); // --> outObject.outSetter(inValue);
+				mappedProperties++;
 				
 			} catch(NoSuchMethodException e) {
 				System.out.println("NOT FOUND");
@@ -68,6 +73,8 @@ public class NaiveMapper {
 			System.out.println();
 		}
 		
+		event.finish(inClass, outClass, mappedProperties);
+		
 		return outObject;
 	}
 	
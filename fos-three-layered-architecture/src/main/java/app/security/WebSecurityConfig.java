@@ -1,5 +1,6 @@
 package app.security;
 
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -9,6 +10,8 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 
+import app.security.ratelimit.RateLimitFilter;
+
 /**
  * Di default, quando aggiungiamo la dipendenza dal modulo Spring Security a una webapp
  * sviluppata in Spring Boot, tutti gli endpoint diventano automaticamente protetti, e
@@ -39,6 +42,27 @@ import org.springframework.security.web.SecurityFilterChain;
 @EnableMethodSecurity(securedEnabled = true)
 public class WebSecurityConfig {
 	
+	/**
+	 * Oltre ai filtri di Spring Security, possiamo inserire nella catena anche dei filtri
+	 * scritti da noi, indicando la loro posizione rispetto a quelli esistenti. Il filtro di
+	 * rate limiting viene aggiunto a ogni catena (anche a quella di default) da
+	 * RateLimitConfigurer, perciò non compare nei metodi qui sotto.
+	 * 
+	 * Spring Boot, però, registra automaticamente ogni bean di tipo Filter anche come normale
+	 * filtro della webapp: il filtro verrebbe così eseguito due volte, una dentro la catena di
+	 * sicurezza e una dopo. Per evitarlo, esponiamo un FilterRegistrationBean disabilitato,
+	 * che dice a Spring Boot di non registrarlo.
+	 * 
+	 * (Vedi RateLimitFilter.java e RateLimitConfigurer.java)
+	 */
+	
+	@Bean
+	public FilterRegistrationBean<RateLimitFilter> getRateLimitFilterRegistration(RateLimitFilter rateLimitFilter) {
+		FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(rateLimitFilter);
+		registration.setEnabled(false);
+		return registration;
+	}
+	
 	/**
 	 * Per costruire una nostra SecurityFilterChain, possiamo scrivere un metodo annotato
 	 * come @Bean che riceva in ingresso un oggetto di classe HttpSecurity: questa classe
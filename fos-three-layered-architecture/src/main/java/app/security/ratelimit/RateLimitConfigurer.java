@@ -0,0 +1,30 @@
+package app.security.ratelimit;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
+
+/**
+ * Inserisce il RateLimitFilter in OGNI catena di sicurezza, compresa quella di default che
+ * Spring Boot crea quando non esponiamo una nostra SecurityFilterChain (vedi
+ * WebSecurityConfig.java, dove i @Bean sono commentati).
+ *
+ * Spring Security, prima di passarci un oggetto HttpSecurity, applica automaticamente tutte
+ * le sottoclassi di AbstractHttpConfigurer elencate nel file META-INF/spring.factories: non
+ * dobbiamo quindi ricordarci di chiamare .addFilterAfter(...) in ogni catena che scriviamo.
+ *
+ * La classe viene istanziata da Spring Security e non da Spring: il filtro va quindi
+ * recuperato dall'ApplicationContext, che HttpSecurity mette a disposizione come "shared
+ * object". Il filtro deve conoscere l'utente autenticato, perciò lo inseriamo dopo tutti i
+ * filtri di autenticazione (l'ultimo dei quali è AnonymousAuthenticationFilter).
+ */
+
+public class RateLimitConfigurer extends AbstractHttpConfigurer<RateLimitConfigurer, HttpSecurity> {
+
+	@Override
+	public void configure(HttpSecurity http) {
+		ApplicationContext context = http.getSharedObject(ApplicationContext.class);
+		http.addFilterAfter(context.getBean(RateLimitFilter.class), AnonymousAuthenticationFilter.class);
+	}
+}
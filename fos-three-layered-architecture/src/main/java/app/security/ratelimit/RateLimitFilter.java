@@ -0,0 +1,117 @@
+package app.security.ratelimit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import app.security.ratelimit.RateLimiter.EndpointClass;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Filtro di "admission control": durante i picchi di scritture (es. molte chiamate POST su
+ * "/medical-tests"), le connessioni al DB si esauriscono e anche le letture degli altri
+ * client rallentano. Limitando il ritmo delle richieste di ogni client, quelle in eccesso
+ * vengono rifiutate subito con un codice 429 (Too Many Requests), senza arrivare ai
+ * controller e senza occupare connessioni al DB. L'header Retry-After indica al client
+ * quanti secondi aspettare prima di riprovare.
+ *
+ * Il client viene identificato dall'utente autenticato, oppure dall'indirizzo IP per le
+ * richieste anonime: per questo il filtro deve essere eseguito DOPO i filtri di
+ * autenticazione di Spring Security (vedi RateLimitConfigurer.java e WebSecurityConfig.java).
+ *
+ * Dietro un load balancer o un reverse proxy, però, l'indirizzo IP della connessione è quello
+ * del proxy: tutti i client anonimi finirebbero nello stesso secchio, e pochi di loro
+ * basterebbero a far rifiutare le richieste di tutti gli altri. In quel caso va abilitata
+ * l'impostazione server.forward-headers-strategy=native: Tomcat ricava allora l'indirizzo del
+ * client dall'header X-Forwarded-For, ma soltanto per le richieste che arrivano da un proxy
+ * fidato (server.tomcat.remoteip.internal-proxies), così un client non può scegliersi il
+ * secchio da solo. Per questo il filtro è disattivato per default (app.rate-limit.enabled).
+ *
+ * Il filtro entra in funzione quando l'applicazione è pronta (evento ApplicationReadyEvent):
+ * prima di allora un load balancer non le invia traffico, e le uniche richieste sono quelle
+ * del riscaldamento (vedi JitWarmup.java), che non devono consumare la quota dell'utente con
+ * cui vengono inviate né ricevere risposte 429 invece di raggiungere i controller.
+ *
+ * I limiti sono configurabili nel file application.properties (app.rate-limit.*).
+ */
+
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+	private final boolean enabled;
+	private final RateLimiter rateLimiter;
+	private volatile boolean ready;
+
+	public RateLimitFilter(
+			@Value("${app.rate-limit.enabled:false}") boolean enabled,
+			@Value("${app.rate-limit.read.per-second:50}") double readPerSecond,
+			@Value("${app.rate-limit.read.burst:100}") int readBurst,
+			@Value("${app.rate-limit.write.per-second:5}") double writePerSecond,
+			@Value("${app.rate-limit.write.burst:10}") int writeBurst,
+			@Value("${app.rate-limit.max-clients:10000}") int maxClients,
+			@Value("${app.rate-limit.sweep-interval-seconds:10}") int sweepIntervalSeconds) {
+
+		this.enabled = enabled;
+		this.rateLimiter = new RateLimiter(readPerSecond, readBurst, writePerSecond, writeBurst, maxClients, sweepIntervalSeconds);
+	}
+
+	@EventListener
+	public void onReady(ApplicationReadyEvent event) {
+		ready = true;
+	}
+
+	@Override
+	public void destroy() {
+		rateLimiter.shutdown();
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !enabled || !ready;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		long waitNanos = rateLimiter.tryAcquire(clientOf(request), endpointClassOf(request));
+
+		if(waitNanos > 0) {
+			long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+
+			response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+			response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+			return;
+		}
+
+		filterChain.doFilter(request, response);
+	}
+
+	private static String clientOf(HttpServletRequest request) {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+		if(authentication != null && authentication.isAuthenticated() && !(authentication instanceof AnonymousAuthenticationToken)) {
+			return "user:" + authentication.getName();
+		}
+
+		return "ip:" + request.getRemoteAddr();
+	}
+
+	private static EndpointClass endpointClassOf(HttpServletRequest request) {
+		return switch(request.getMethod()) {
+			case "GET", "HEAD", "OPTIONS" -> EndpointClass.READ;
+			default -> EndpointClass.WRITE;
+		};
+	}
+}
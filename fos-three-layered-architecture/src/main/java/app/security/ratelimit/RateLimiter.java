@@ -0,0 +1,137 @@
+package app.security.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mantiene un TokenBucket per ogni coppia (client, classe di endpoint). Le richieste in
+ * lettura e in scrittura hanno limiti separati: un client che satura le scritture non si
+ * vede quindi negate anche le letture, e viceversa.
+ *
+ * Per non far crescere la memoria senza limiti, il numero di secchi è limitato. I secchi
+ * pieni (cioè quelli dei client inattivi) vengono eliminati da un thread in background, ogni
+ * sweepIntervalSeconds secondi: la pulizia scorre l'intera mappa, e non deve quindi pesare
+ * sul thread che sta servendo una richiesta. Se la mappa è piena, la richiesta anticipa la
+ * prossima pulizia (senza aspettarla), e intanto i nuovi client condividono un unico secchio
+ * di riserva per ogni classe: accade solo se i client attivi superano davvero il massimo,
+ * oppure per le poche richieste che arrivano prima che la pulizia sia terminata.
+ */
+
+public class RateLimiter {
+
+	public enum EndpointClass { READ, WRITE }
+
+	private final Limit readLimit;
+	private final Limit writeLimit;
+	private final int maxBuckets;
+
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+	private final TokenBucket readOverflow;
+	private final TokenBucket writeOverflow;
+	private final AtomicBoolean sweepRequested = new AtomicBoolean();
+	private final ScheduledExecutorService sweeper;
+
+	public RateLimiter(double readPerSecond, int readBurst, double writePerSecond, int writeBurst, int maxBuckets, int sweepIntervalSeconds) {
+		this.readLimit = new Limit(readPerSecond, readBurst);
+		this.writeLimit = new Limit(writePerSecond, writeBurst);
+		this.maxBuckets = maxBuckets;
+
+		long now = System.nanoTime();
+		this.readOverflow = new TokenBucket(now);
+		this.writeOverflow = new TokenBucket(now);
+
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "rate-limit-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long interval = Math.max(1, sweepIntervalSeconds);
+		sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Restituisce 0 se la richiesta è ammessa, altrimenti i nanosecondi da attendere.
+	 */
+
+	public long tryAcquire(String client, EndpointClass endpointClass) {
+		long now = System.nanoTime();
+		Limit limit = endpointClass == EndpointClass.READ ? readLimit : writeLimit;
+
+		return bucketFor(client, endpointClass, now).tryAcquire(now, limit.emissionIntervalNanos, limit.burstToleranceNanos);
+	}
+
+	public int getBucketCount() {
+		return buckets.size();
+	}
+
+	public void shutdown() {
+		sweeper.shutdownNow();
+	}
+
+	private TokenBucket bucketFor(String client, EndpointClass endpointClass, long now) {
+		String key = endpointClass.name() + ':' + client;
+		TokenBucket bucket = buckets.get(key);
+
+		if(bucket != null) {
+			return bucket;
+		}
+
+		if(buckets.size() >= maxBuckets) {
+			requestSweep();
+			return endpointClass == EndpointClass.READ ? readOverflow : writeOverflow;
+		}
+
+		return buckets.computeIfAbsent(key, k -> new TokenBucket(now));
+	}
+
+	/**
+	 * Accoda al più una pulizia straordinaria alla volta: le richieste successive, finché
+	 * quella non è stata eseguita, non accodano altro lavoro.
+	 */
+
+	private void requestSweep() {
+		if(!sweepRequested.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			sweeper.execute(this::sweep);
+		}
+		catch(RejectedExecutionException e) {
+			// Il limitatore è in fase di chiusura.
+		}
+	}
+
+	/**
+	 * Viene eseguito solo dal thread in background, quindi mai da due thread insieme.
+	 */
+
+	private void sweep() {
+		sweepRequested.set(false);
+		long now = System.nanoTime();
+		Iterator<TokenBucket> it = buckets.values().iterator();
+
+		while(it.hasNext()) {
+			if(it.next().isFull(now)) {
+				it.remove();
+			}
+		}
+	}
+
+	private static class Limit {
+		final long emissionIntervalNanos;
+		final long burstToleranceNanos;
+
+		Limit(double perSecond, int burst) {
+			this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+			this.burstToleranceNanos = emissionIntervalNanos * Math.max(1, burst);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package app.security.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Un token bucket classico contiene al più "capacity" gettoni, si ricarica al ritmo di
+ * "ratePerSecond" gettoni al secondo, e ogni richiesta consuma un gettone: se il secchio è
+ * vuoto la richiesta viene rifiutata. Questo permette brevi raffiche di richieste (fino alla
+ * capacità del secchio) ma limita il ritmo medio.
+ *
+ * Per evitare lock, invece di memorizzare il numero di gettoni e l'istante dell'ultima
+ * ricarica (due valori da aggiornare insieme) usiamo la formulazione equivalente nota come
+ * GCRA (Generic Cell Rate Algorithm), che richiede un solo valore: il "theoretical arrival
+ * time" (TAT), cioè l'istante in cui il secchio tornerebbe a essere completamente pieno.
+ * Ogni richiesta sposta in avanti il TAT di un intervallo di emissione (1 / ratePerSecond);
+ * la richiesta è ammessa se il TAT così ottenuto non supera l'istante attuale di più di
+ * capacity intervalli. L'aggiornamento è un singolo compare-and-set su un AtomicLong.
+ */
+
+class TokenBucket {
+
+	private final AtomicLong theoreticalArrivalTime;
+
+	TokenBucket(long nowNanos) {
+		this.theoreticalArrivalTime = new AtomicLong(nowNanos);
+	}
+
+	/**
+	 * Restituisce 0 se la richiesta è ammessa, altrimenti il numero di nanosecondi da
+	 * attendere prima che un nuovo gettone sia disponibile.
+	 */
+
+	long tryAcquire(long nowNanos, long emissionIntervalNanos, long burstToleranceNanos) {
+		while(true) {
+			long tat = theoreticalArrivalTime.get();
+			long newTat = Math.max(tat, nowNanos) + emissionIntervalNanos;
+			long excess = newTat - nowNanos - burstToleranceNanos;
+
+			if(excess > 0) {
+				return excess;
+			}
+
+			if(theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Un secchio pieno non contiene informazioni utili: è identico a un secchio nuovo, e può
+	 * quindi essere eliminato senza cambiare il comportamento del limitatore.
+	 */
+
+	boolean isFull(long nowNanos) {
+		return theoreticalArrivalTime.get() <= nowNanos;
+	}
+}
@@ -0,0 +1,713 @@
+package app.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.context.WebServerGracefulShutdownLifecycle;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import app.layers.b.service.medicaltests.MedicalTestsService;
+import app.layers.b.service.medicaltests.TestDetails;
+import app.layers.b.service.medicaltests.TestResult;
+import app.layers.b.service.medicaltests.TestSummary;
+import app.layers.b.service.medicaltests.ranges.RangeLimits;
+import app.layers.b.service.medicaltests.ranges.ReferenceRangeCatalog;
+import app.layers.b.service.patients.PatientSummary;
+import app.layers.b.service.patients.PatientsService;
+import app.layers.c.data.entities.Patient;
+import app.layers.c.data.packed.ResultParameterDictionary;
+import app.layers.c.data.repositories.PatientsRepository;
+import app.layers.c.data.sharding.ShardedMedicalTestsStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Fase di "riscaldamento" eseguita all'avvio, prima che l'applicazione si dichiari pronta.
+ *
+ * Appena avviata, la JVM esegue il codice con l'interprete, e lo compila in codice nativo
+ * solo dopo che è stato eseguito un certo numero di volte: prima con il compilatore C1,
+ * veloce ma poco ottimizzato, poi con C2. Senza riscaldamento, sono le prime migliaia di
+ * richieste reali a pagare il conto, con tempi di risposta (soprattutto i percentili alti)
+ * molto peggiori di quelli a regime.
+ *
+ * Il riscaldamento si svolge in due fasi:
+ *
+ * 1) prima dell'avvio del webserver, app.warmup.iterations operazioni sintetiche, scelte a
+ *    caso secondo i pesi di app.warmup.mix, attraverso gli stessi service e repository usati
+ *    dai controller. Il risultato di ogni operazione viene serializzato dai convertitori della
+ *    DispatcherServlet, alternando JSON, CBOR e Smile (vedi ContentNegotiationConfig.java e
+ *    CompactTestResultsSerializer.java). Tutte le operazioni vengono eseguite in un'unica
+ *    transazione che viene sempre annullata: all'inizio vengono creati alcuni pazienti ed
+ *    esami "di prova", così il riscaldamento funziona anche con un DB vuoto (es. nel profilo
+ *    "fast"), e nulla di quanto viene salvato (compresi gli esami di "save-test") viene mai
+ *    committato, né compare nel feed. Dopo ogni operazione l'EntityManager viene svuotato,
+ *    come accadrebbe tra due richieste diverse. Gli esami di "save-test" vengono intestati
+ *    solo ai pazienti di prova: salvare un esame aggiorna la dashboard del paziente, e i lock
+ *    presi sulle righe di un paziente reale resterebbero attivi fino alla fine della fase.
+ *
+ * 2) dopo l'avvio del webserver, app.warmup.http-requests richieste GET inviate tramite HTTP
+ *    al webserver stesso, con le credenziali dell'utente configurato (spring.security.user.*),
+ *    per riscaldare anche i filtri, la DispatcherServlet, i controller e la scelta del formato
+ *    in base all'header Accept. Le richieste vengono servite dai thread del webserver, che
+ *    non vedono la transazione della prima fase: usano quindi solo i dati già presenti sul DB,
+ *    e con un DB vuoto si limitano agli elenchi. Nessuna richiesta scrive dati.
+ *
+ * La prima fase deve terminare prima che il webserver accetti connessioni: fino
+ * all'annullamento della transazione i dati di prova esistono sul DB, e una richiesta esterna
+ * potrebbe vederli: alcune letture non aspettano il commit (getAllTests() usa
+ * READ_UNCOMMITTED), e una richiesta che arriva mentre la stessa lettura è in corso nella
+ * transazione di prova ne condivide il risultato (vedi SingleFlight.java). Per questo la fase
+ * viene eseguita come SmartLifecycle, in una fase che precede quella in cui Spring Boot avvia
+ * il webserver (WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE - 1024, vedi
+ * WebServerStartStopLifecycle). A quel punto i dati di esempio (vedi DbInit.java) e gli
+ * intervalli di riferimento (vedi ReferenceRangeCatalog.java) sono già stati caricati. La
+ * seconda fase, che ha bisogno del webserver, viene eseguita invece come ApplicationRunner.
+ *
+ * Due dettagli per non lasciare tracce:
+ * - nella prima fase la cache di secondo livello di Hibernate viene letta ma mai scritta
+ *   (CacheMode.GET), perché non finiscano in cache i dati di prova o i risultati delle query
+ *   che li includono;
+ * - con app.results.packed=true un parametro mai visto viene registrato subito, e in modo
+ *   definitivo, nel dizionario (vedi ResultParameterDictionary.java): gli esami di prova usano
+ *   quindi solo i parametri già registrati, e non hanno risultati se non ce n'è nessuno.
+ *   Restano invece consumati i valori delle sequenze usati per gli id delle righe annullate.
+ *
+ * Con lo sharding attivo gli esami non passano dalla transazione JPA: non vengono quindi
+ * creati esami di prova, e "save-test" viene saltata.
+ *
+ * Spring Boot avvia gli SmartLifecycle ed esegue gli ApplicationRunner prima di pubblicare
+ * l'evento ApplicationReadyEvent, che porta lo stato di readiness (/actuator/health/readiness)
+ * ad ACCEPTING_TRAFFIC: finché il riscaldamento non è terminato, un load balancer che
+ * controlla la readiness non invia richieste all'istanza (per questo le richieste della
+ * seconda fase non sono soggette al RateLimitFilter). Il riscaldamento dura in tutto al più
+ * app.warmup.max-seconds secondi, di cui al più la metà per la prima fase se sono previste
+ * richieste HTTP.
+ *
+ * Al termine vengono scritti nel log il tempo impiegato e, per ogni operazione e richiesta,
+ * il tempo medio nel primo e nell'ultimo decimo delle iterazioni; il tempo impiegato è
+ * esposto anche come metrica (app.warmup.time).
+ */
+
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@ConditionalOnProperty(name="app.warmup.enabled", havingValue="true")
+public class JitWarmup implements SmartLifecycle, ApplicationRunner {
+
+	private static final Logger log = LoggerFactory.getLogger(JitWarmup.class);
+
+	private static final int ROUNDS = 10;
+	private static final int SAMPLE_SIZE = 100;
+	private static final int SCRATCH_PATIENTS = 20;
+	private static final int SCRATCH_TESTS_PER_PATIENT = 5;
+	private static final Duration HTTP_TIMEOUT = Duration.ofSeconds(10);
+
+	// Una fase prima di quella in cui viene avviato il webserver (vedi sopra).
+	private static final int SCRATCH_PHASE = WebServerGracefulShutdownLifecycle.SMART_LIFECYCLE_PHASE - 2048;
+
+	private static final List<MediaType> MEDIA_TYPES = List.of(
+		MediaType.APPLICATION_JSON,
+		MediaType.APPLICATION_CBOR,
+		MediaType.valueOf("application/x-jackson-smile"));
+
+	private PatientsService patientsService;
+	private MedicalTestsService medicalTestsService;
+	private PatientsRepository patientsRepo;
+	private ReferenceRangeCatalog rangeCatalog;
+	private ResultParameterDictionary parameterDictionary;
+	private List<HttpMessageConverter<?>> messageConverters;
+	private Environment environment;
+	private TransactionTemplate warmupTx;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean packedResults;
+	private final int iterations;
+	private final int httpRequests;
+	private final long maxNanos;
+	private final Map<String, Integer> mix;
+	private final AtomicLong warmupMillis = new AtomicLong(-1);
+	private final Random random = new Random(42);
+
+	// Stato condiviso tra le due fasi, eseguite entrambe dal thread principale.
+	private volatile boolean running;
+	private long startNanos;
+	private List<Long> samplePatientIds = List.of();
+	private List<Long> sampleTestIds = List.of();
+	private List<String> params = List.of();
+	private List<Operation> operations;
+
+	private ShardedMedicalTestsStore shardedStore;
+	private SecurityProperties securityProperties;
+
+	@Autowired
+	public JitWarmup(
+			PatientsService patientsService,
+			MedicalTestsService medicalTestsService,
+			PatientsRepository patientsRepo,
+			ReferenceRangeCatalog rangeCatalog,
+			ResultParameterDictionary parameterDictionary,
+			RequestMappingHandlerAdapter handlerAdapter,
+			Environment environment,
+			PlatformTransactionManager transactionManager,
+			MeterRegistry meterRegistry,
+			@Value("${app.results.packed:false}") boolean packedResults,
+			@Value("${app.warmup.iterations:5000}") int iterations,
+			@Value("${app.warmup.http-requests:200}") int httpRequests,
+			@Value("${app.warmup.max-seconds:60}") int maxSeconds,
+			@Value("${app.warmup.mix:test-details:30,patient-tests:20,patient-details:20,all-tests:5,patients:10,history:10,save-test:5}") String mix) {
+
+		this.patientsService = patientsService;
+		this.medicalTestsService = medicalTestsService;
+		this.patientsRepo = patientsRepo;
+		this.rangeCatalog = rangeCatalog;
+		this.parameterDictionary = parameterDictionary;
+		this.messageConverters = handlerAdapter.getMessageConverters();
+		this.environment = environment;
+		this.warmupTx = new TransactionTemplate(transactionManager);
+
+		this.packedResults = packedResults;
+		this.iterations = Math.max(ROUNDS, iterations);
+		this.httpRequests = Math.max(0, httpRequests);
+		this.maxNanos = TimeUnit.SECONDS.toNanos(Math.max(1, maxSeconds));
+		this.mix = parseMix(mix);
+
+		Gauge.builder("app.warmup.time", warmupMillis, AtomicLong::get)
+			.baseUnit("milliseconds")
+			.register(meterRegistry);
+	}
+
+	// Vedi MedicalTestsService.setShardedStore().
+	@Autowired(required=false)
+	public void setShardedStore(ShardedMedicalTestsStore shardedStore) {
+		this.shardedStore = shardedStore;
+	}
+
+	// Presenti solo se è attiva l'autoconfigurazione di Spring Security.
+	@Autowired(required=false)
+	public void setSecurityProperties(SecurityProperties securityProperties) {
+		this.securityProperties = securityProperties;
+	}
+
+	@Override
+	public int getPhase() {
+		return SCRATCH_PHASE;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Prima fase. Viene eseguita una sola volta, anche se il contesto viene fermato e
+	 * riavviato.
+	 */
+
+	@Override
+	public void start() {
+		running = true;
+
+		if(operations != null) {
+			return;
+		}
+
+		operations = List.of();
+		startNanos = System.nanoTime();
+
+		try {
+			operations = warmUpInProcess();
+		}
+		catch(RuntimeException e) {
+			log.warn("JIT warm-up aborted", e);
+		}
+	}
+
+	/**
+	 * Seconda fase, seguita dal riepilogo di entrambe.
+	 */
+
+	@Override
+	public void run(ApplicationArguments args) {
+		List<Operation> requests = List.of();
+
+		try {
+			requests = createRequests(samplePatientIds, sampleTestIds, params, random);
+			execute(requests, httpRequests, random, startNanos + maxNanos);
+		}
+		catch(RuntimeException e) {
+			log.warn("JIT warm-up of the HTTP endpoints aborted", e);
+		}
+
+		if(operations.isEmpty() && requests.isEmpty()) {
+			log.info("JIT warm-up skipped: no operation enabled in app.warmup.mix");
+			return;
+		}
+
+		warmupMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		log.info("JIT warm-up completed: {} operations and {} HTTP requests in {} ms", callsOf(operations), callsOf(requests), warmupMillis.get());
+
+		for(Operation operation : operations) {
+			log(operation);
+		}
+
+		for(Operation request : requests) {
+			log(request);
+		}
+	}
+
+	private List<Operation> warmUpInProcess() {
+		// Il campione dei dati già presenti viene letto prima di creare quelli di prova: è
+		// l'unico che le richieste HTTP della seconda fase possono vedere.
+		samplePatientIds = warmupTx.execute(status -> patientsService.getPatients(null, null, null, SAMPLE_SIZE)
+			.stream().map(PatientSummary::getId).toList());
+
+		sampleTestIds = warmupTx.execute(status -> medicalTestsService.getAllTests()
+			.stream().limit(SAMPLE_SIZE).map(TestSummary::getId).toList());
+
+		params = warmupParams();
+
+		long deadline = startNanos + (httpRequests > 0 ? maxNanos / 2 : maxNanos);
+
+		return warmupTx.execute(status -> {
+			status.setRollbackOnly();
+			entityManager.unwrap(Session.class).setCacheMode(CacheMode.GET);
+
+			List<Operation> scratchOperations = createOperations(samplePatientIds, sampleTestIds, params, random);
+			execute(scratchOperations, iterations, random, deadline);
+
+			return scratchOperations;
+		});
+	}
+
+	private void execute(List<Operation> operations, int count, Random random, long deadline) {
+		if(operations.isEmpty()) {
+			return;
+		}
+
+		int totalWeight = operations.stream().mapToInt(op -> op.weight).sum();
+		int executed = 0;
+
+		while(executed < count && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+			Operation operation = pick(operations, random.nextInt(totalWeight));
+			int round = executed * ROUNDS / count;
+
+			long operationStart = System.nanoTime();
+
+			try {
+				operation.call();
+			}
+			catch(RuntimeException e) {
+				if(operation.failures++ == 0) {
+					log.warn("JIT warm-up operation {} failed", operation.name, e);
+				}
+			}
+
+			operation.record(round, System.nanoTime() - operationStart);
+			executed++;
+		}
+	}
+
+	/**
+	 * Prima fase, eseguita nella transazione che verrà annullata: le operazioni lavorano sul
+	 * campione dei dati già presenti e su quelli di prova. Le operazioni che non compaiono in
+	 * app.warmup.mix vengono escluse.
+	 */
+
+	private List<Operation> createOperations(List<Long> samplePatientIds, List<Long> sampleTestIds, List<String> params, Random random) {
+		List<Long> scratchPatientIds = createScratchPatients(random);
+
+		List<Long> patientIds = new ArrayList<>(samplePatientIds);
+		patientIds.addAll(scratchPatientIds);
+
+		List<Long> testIds = new ArrayList<>(sampleTestIds);
+
+		if(shardedStore == null) {
+			testIds.addAll(createScratchTests(scratchPatientIds, params, random));
+		}
+
+		entityManager.flush();
+		entityManager.clear();
+
+		List<Operation> operations = new ArrayList<>();
+
+		if(!testIds.isEmpty()) {
+			add(operations, "test-details", inProcess(random, () -> medicalTestsService.getTestDetails(any(testIds, random))));
+			add(operations, "all-tests", inProcess(random, () -> medicalTestsService.getAllTests()));
+		}
+
+		add(operations, "patient-tests", inProcess(random, () -> medicalTestsService.getTestsOfPatient(any(patientIds, random))));
+		add(operations, "patient-details", inProcess(random, () -> patientsService.getPatientDetails(any(patientIds, random))));
+		add(operations, "patients", inProcess(random, () -> patientsService.getPatients(random.nextInt(40), 40 + random.nextInt(50), null, 50)));
+
+		if(!params.isEmpty()) {
+			add(operations, "history", inProcess(random, () -> medicalTestsService.getParameterHistory(any(patientIds, random), any(params, random), null)));
+		}
+
+		if(shardedStore == null) {
+			add(operations, "save-test", inProcess(random, () -> medicalTestsService.saveTest(syntheticTest(any(scratchPatientIds, random), params, random))));
+		}
+
+		return operations;
+	}
+
+	private List<Long> createScratchPatients(Random random) {
+		List<Patient> patients = new ArrayList<>(SCRATCH_PATIENTS);
+
+		for(int i = 0; i < SCRATCH_PATIENTS; i++) {
+			Patient patient = new Patient("JIT", "Warm-up " + i);
+			patient.setBirthdate(LocalDate.now().minusYears(18 + random.nextInt(70)).minusDays(random.nextInt(365)));
+			patients.add(patient);
+		}
+
+		patientsRepo.saveAll(patients);
+
+		return patients.stream().map(Patient::getId).toList();
+	}
+
+	private List<Long> createScratchTests(List<Long> patientIds, List<String> params, Random random) {
+		List<Long> testIds = new ArrayList<>(patientIds.size() * SCRATCH_TESTS_PER_PATIENT);
+
+		try {
+			for(long patientId : patientIds) {
+				for(int i = 0; i < SCRATCH_TESTS_PER_PATIENT; i++) {
+					testIds.add(medicalTestsService.saveTest(syntheticTest(patientId, params, random)).getId());
+				}
+			}
+		}
+		catch(Exception e) {
+			throw new IllegalStateException("Cannot create the JIT warm-up tests", e);
+		}
+
+		return testIds;
+	}
+
+	/**
+	 * Seconda fase: le richieste che si possono costruire con il campione dei dati già presenti
+	 * (con un DB vuoto, solo gli elenchi). Ogni richiesta usa lo stesso peso dell'operazione
+	 * corrispondente in app.warmup.mix.
+	 */
+
+	private List<Operation> createRequests(List<Long> patientIds, List<Long> testIds, List<String> params, Random random) {
+		List<Operation> requests = new ArrayList<>();
+		Integer port = environment.getProperty("local.server.port", Integer.class);
+
+		if(httpRequests == 0) {
+			return requests;
+		}
+
+		if(port == null || securityProperties == null) {
+			log.info("JIT warm-up of the HTTP endpoints skipped: no local web server or no configured user");
+			return requests;
+		}
+
+		SecurityProperties.User user = securityProperties.getUser();
+		LocalClient client = new LocalClient(
+			"http://localhost:" + port + environment.getProperty("server.servlet.context-path", ""),
+			user.getName(), user.getPassword());
+
+		add(requests, "all-tests", "GET /medical-tests", () -> client.get(any(MEDIA_TYPES, random), "/medical-tests"));
+		add(requests, "patients", "GET /patients", () -> client.get(any(MEDIA_TYPES, random), "/patients?minAge={min}&maxAge={max}&limit=50", random.nextInt(40), 40 + random.nextInt(50)));
+
+		if(!testIds.isEmpty()) {
+			add(requests, "test-details", "GET /medical-tests/{id}", () -> client.get(any(MEDIA_TYPES, random), "/medical-tests/{id}", any(testIds, random)));
+		}
+
+		// "/patients/{id}/medical-tests" non viene richiesto: con @Secured({}) Spring Security
+		// rifiuta ogni chiamata (vedi PatientsController.java).
+
+		if(!patientIds.isEmpty()) {
+			add(requests, "patient-details", "GET /patients/{id}", () -> client.get(any(MEDIA_TYPES, random), "/patients/{id}", any(patientIds, random)));
+
+			if(!params.isEmpty()) {
+				add(requests, "history", "GET /patients/{id}/parameters/{name}/history", () -> client.get(any(MEDIA_TYPES, random), "/patients/{id}/parameters/{name}/history", any(patientIds, random), any(params, random)));
+			}
+		}
+
+		return requests;
+	}
+
+	private void add(List<Operation> operations, String name, Action action) {
+		add(operations, name, name, action);
+	}
+
+	private void add(List<Operation> operations, String mixName, String name, Action action) {
+		Integer weight = mix.get(mixName);
+
+		if(weight != null && weight > 0) {
+			operations.add(new Operation(name, weight, action));
+		}
+	}
+
+	/**
+	 * Il risultato viene serializzato come farebbe la DispatcherServlet, in un formato scelto
+	 * a caso; poi l'EntityManager viene svuotato, in modo che l'operazione successiva legga di
+	 * nuovo i dati dal DB (i dati di prova restano comunque visibili nella transazione).
+	 */
+
+	private Action inProcess(Random random, ResultAction action) {
+		return () -> {
+			Object result = action.run();
+
+			if(result != null) {
+				write(result, any(MEDIA_TYPES, random));
+			}
+
+			entityManager.flush();
+			entityManager.clear();
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(Object result, MediaType mediaType) throws IOException {
+		for(HttpMessageConverter<?> converter : messageConverters) {
+			if(converter.canWrite(result.getClass(), mediaType)) {
+				((HttpMessageConverter<Object>) converter).write(result, mediaType, new DiscardedOutputMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Con app.results.packed=true vengono esclusi i parametri non ancora registrati nel
+	 * dizionario (vedi sopra).
+	 */
+
+	private List<String> warmupParams() {
+		List<String> params = rangeCatalog.current().getRanges().stream().map(RangeLimits::getParamName).toList();
+
+		if(params.isEmpty()) {
+			params = List.of("K", "Na");
+		}
+
+		if(packedResults) {
+			Set<String> registered = parameterDictionary.names();
+			params = params.stream().filter(registered::contains).toList();
+		}
+
+		return params;
+	}
+
+	private static TestDetails syntheticTest(long patientId, List<String> params, Random random) {
+		TestDetails testDetails = new TestDetails(null, patientId, "JIT warm-up", LocalDateTime.now().minusDays(random.nextInt(365)));
+		List<TestResult> results = new ArrayList<>(params.size());
+
+		for(String param : params) {
+			results.add(new TestResult(param, random.nextFloat() * 150, null));
+		}
+
+		testDetails.setResults(results);
+
+		return testDetails;
+	}
+
+	private static void log(Operation operation) {
+		log.info("JIT warm-up {}: {} calls, {} failed, mean {} us in the first round, {} us in the last round",
+			operation.name, operation.calls, operation.failures, operation.meanMicros(0), operation.meanMicros(operation.lastRound()));
+	}
+
+	private static int callsOf(List<Operation> operations) {
+		return operations.stream().mapToInt(op -> op.calls).sum();
+	}
+
+	private static <T> T any(List<T> values, Random random) {
+		return values.get(random.nextInt(values.size()));
+	}
+
+	private static Operation pick(List<Operation> operations, int ticket) {
+		for(Operation operation : operations) {
+			ticket -= operation.weight;
+
+			if(ticket < 0) {
+				return operation;
+			}
+		}
+
+		return operations.get(operations.size() - 1);
+	}
+
+	/**
+	 * Formato: "nome:peso,nome:peso,...", es. "test-details:30,save-test:5".
+	 */
+
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+
+		for(String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+
+			if(parts.length != 2) {
+				throw new IllegalArgumentException("Invalid app.warmup.mix entry: " + entry);
+			}
+
+			weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+		}
+
+		return weights;
+	}
+
+	@FunctionalInterface
+	private interface Action {
+		void run() throws Exception;
+	}
+
+	@FunctionalInterface
+	private interface ResultAction {
+		Object run() throws Exception;
+	}
+
+	/**
+	 * Client HTTP verso il webserver dell'applicazione. Una risposta diversa da 200 viene
+	 * considerata un errore, come la mancata risposta entro HTTP_TIMEOUT.
+	 */
+
+	private static class LocalClient {
+		private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(HTTP_TIMEOUT).build();
+		private final String baseUrl;
+		private final String authorization;
+
+		private LocalClient(String baseUrl, String username, String password) {
+			this.baseUrl = baseUrl;
+			this.authorization = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void get(MediaType accept, String path, Object... variables) throws IOException, InterruptedException {
+			URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + path).encode().buildAndExpand(variables).toUri();
+
+			HttpRequest request = HttpRequest.newBuilder(uri)
+				.header(HttpHeaders.AUTHORIZATION, authorization)
+				.header(HttpHeaders.ACCEPT, accept.toString())
+				.timeout(HTTP_TIMEOUT)
+				.GET()
+				.build();
+
+			HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+
+			if(response.statusCode() != HttpStatus.OK.value()) {
+				throw new IllegalStateException("GET " + uri + " (" + accept + ") returned " + response.statusCode());
+			}
+		}
+	}
+
+	private static class DiscardedOutputMessage implements HttpOutputMessage {
+		private final HttpHeaders headers = new HttpHeaders();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		@Override
+		public OutputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+	}
+
+	private static class Operation {
+		private final String name;
+		private final int weight;
+		private final Action action;
+
+		private final long[] nanos = new long[ROUNDS];
+		private final int[] counts = new int[ROUNDS];
+		private int calls;
+		private int failures;
+
+		private Operation(String name, int weight, Action action) {
+			this.name = name;
+			this.weight = weight;
+			this.action = action;
+		}
+
+		private void call() {
+			try {
+				action.run();
+			}
+			catch(RuntimeException e) {
+				throw e;
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+			catch(Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void record(int round, long elapsed) {
+			nanos[round] += elapsed;
+			counts[round]++;
+			calls++;
+		}
+
+		// L'ultimo round in cui l'operazione è stata eseguita (il tempo massimo può
+		// interrompere il riscaldamento prima della fine).
+		private int lastRound() {
+			for(int round = ROUNDS - 1; round > 0; round--) {
+				if(counts[round] > 0) {
+					return round;
+				}
+			}
+
+			return 0;
+		}
+
+		private long meanMicros(int round) {
+			return counts[round] > 0 ? TimeUnit.NANOSECONDS.toMicros(nanos[round] / counts[round]) : 0;
+		}
+	}
+}
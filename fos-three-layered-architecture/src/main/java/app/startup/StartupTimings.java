@@ -0,0 +1,105 @@
+package app.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.support.ServletRequestHandledEvent;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Misura i tempi di avvio dell'applicazione, a partire dall'avvio della JVM:
+ * - quando l'applicazione è pronta a ricevere richieste (evento ApplicationReadyEvent);
+ * - quando è stata servita la prima richiesta HTTP ("time to first request"), che include
+ *   anche il lavoro rimandato dall'inizializzazione lazy dei bean. Non contano le richieste
+ *   servite prima che l'applicazione sia pronta, come quelle del riscaldamento (vedi
+ *   JitWarmup.java) o quelle di un probe di readiness.
+ *
+ * I tempi vengono scritti nel log insieme ai profili attivi, così da poter confrontare i
+ * diversi profili (es. quello di default e "fast"), e sono esposti anche come metrica
+ * (app.startup.time, consultabile tramite /actuator/metrics).
+ *
+ * Con la proprietà app.startup.exit-on-ready=true l'applicazione termina appena è pronta:
+ * serve per il "training run" con cui si genera l'archivio CDS (Class Data Sharing) della JVM,
+ * vedi il profilo Maven "fast-start" nel pom.xml.
+ */
+
+@Component
+public class StartupTimings {
+
+	private static final Logger log = LoggerFactory.getLogger(StartupTimings.class);
+
+	private final String profiles;
+	private final boolean exitOnReady;
+	private final ApplicationContext context;
+
+	private final AtomicLong readyMillis = new AtomicLong(-1);
+	private final AtomicLong firstRequestMillis = new AtomicLong(-1);
+	private final AtomicBoolean firstRequestSeen = new AtomicBoolean();
+
+	@Autowired
+	public StartupTimings(
+			Environment environment,
+			ApplicationContext context,
+			MeterRegistry meterRegistry,
+			@Value("${app.startup.exit-on-ready:false}") boolean exitOnReady) {
+
+		String[] activeProfiles = environment.getActiveProfiles();
+		this.profiles = activeProfiles.length > 0 ? String.join(",", activeProfiles) : "default";
+		this.exitOnReady = exitOnReady;
+		this.context = context;
+
+		Gauge.builder("app.startup.time", readyMillis, AtomicLong::get)
+			.tag("phase", "ready")
+			.baseUnit("milliseconds")
+			.register(meterRegistry);
+
+		Gauge.builder("app.startup.time", firstRequestMillis, AtomicLong::get)
+			.tag("phase", "first-request")
+			.baseUnit("milliseconds")
+			.register(meterRegistry);
+	}
+
+	@EventListener
+	public void onReady(ApplicationReadyEvent event) {
+		readyMillis.set(jvmUptimeMillis());
+		log.info("Startup [profiles: {}]: ready after {} ms", profiles, readyMillis.get());
+
+		if(exitOnReady) {
+			log.info("Startup [profiles: {}]: exiting (app.startup.exit-on-ready=true)", profiles);
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+
+	/**
+	 * L'evento viene pubblicato dalla DispatcherServlet al termine di ogni richiesta: dopo la
+	 * prima, il costo del listener si riduce alla lettura di un AtomicBoolean.
+	 */
+
+	@EventListener
+	public void onRequestHandled(ServletRequestHandledEvent event) {
+		if(readyMillis.get() < 0 || firstRequestSeen.get() || !firstRequestSeen.compareAndSet(false, true)) {
+			return;
+		}
+
+		firstRequestMillis.set(jvmUptimeMillis());
+		log.info("Startup [profiles: {}]: first request ({} {}) served after {} ms",
+			profiles, event.getMethod(), event.getRequestUrl(), firstRequestMillis.get());
+	}
+
+	private static long jvmUptimeMillis() {
+		return ManagementFactory.getRuntimeMXBean().getUptime();
+	}
+}
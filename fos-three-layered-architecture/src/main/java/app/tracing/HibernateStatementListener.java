@@ -0,0 +1,78 @@
+package app.tracing;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Registra uno span per ogni statement JDBC eseguito da Hibernate (query, insert, update,
+ * batch), con il testo SQL dello statement.
+ *
+ * Hibernate crea un'istanza di questo listener per ogni sessione (vedi la proprietà
+ * hibernate.session.events.auto in application.properties), e la avvisa dell'inizio e
+ * della fine di ogni esecuzione. Il testo SQL non viene passato al listener: lo ricaviamo
+ * tramite lo StatementInspector (vedi SqlInspector), che Hibernate invoca quando prepara
+ * lo statement, cioè subito prima di eseguirlo.
+ */
+
+public class HibernateStatementListener extends BaseSessionEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient Span statementSpan;
+
+	@Override
+	public void jdbcExecuteStatementStart() {
+		startStatement("statement");
+	}
+
+	@Override
+	public void jdbcExecuteStatementEnd() {
+		endStatement();
+	}
+
+	@Override
+	public void jdbcExecuteBatchStart() {
+		startStatement("batch");
+	}
+
+	@Override
+	public void jdbcExecuteBatchEnd() {
+		endStatement();
+	}
+
+	private void startStatement(String name) {
+		Trace trace = TraceContext.current();
+
+		if(trace != null) {
+			statementSpan = TraceContext.startSpan(SpanLayer.SQL, name, trace.takePendingSql());
+		}
+	}
+
+	private void endStatement() {
+		if(statementSpan != null) {
+			TraceContext.endSpan(statementSpan);
+			statementSpan = null;
+		}
+	}
+
+	/**
+	 * Non modifica lo statement: si limita a memorizzarne il testo nella traccia in corso,
+	 * se la richiesta è tracciata (vedi la proprietà hibernate.session_factory.statement_inspector).
+	 */
+
+	public static class SqlInspector implements StatementInspector {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public String inspect(String sql) {
+			Trace trace = TraceContext.current();
+
+			if(trace != null) {
+				trace.setPendingSql(sql);
+			}
+
+			return sql;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package app.tracing;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Aspect (Spring AOP) che registra uno span per ogni chiamata ai bean dei tre layer:
+ * - i controller del presentation layer (app.layers.a);
+ * - i service del service layer (app.layers.b);
+ * - i repository di Spring Data e lo store degli shard del data layer (app.layers.c).
+ *
+ * Un aspect permette di aggiungere questo comportamento senza modificare le classi dei
+ * layer: Spring avvolge ogni bean selezionato dai pointcut in un proxy, che invoca i
+ * metodi di questa classe al posto di quelli originali. Se la richiesta non è tracciata,
+ * ogni metodo si limita a un controllo sul ThreadLocal della traccia prima di proseguire.
+ *
+ * L'aspect ha la precedenza più alta, così da avvolgere anche gli altri proxy dello stesso
+ * bean (es. quello di @Transactional): il commit della transazione, con gli statement SQL
+ * eseguiti durante il flush, fa quindi parte dello span del metodo del service.
+ */
+
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Component
+public class LayerTracingAspect {
+
+	@Around("within(app.layers.a.presentation.controllers..*) && execution(public * *(..))")
+	public Object tracePresentation(ProceedingJoinPoint joinPoint) throws Throwable {
+		return trace(joinPoint, SpanLayer.PRESENTATION);
+	}
+
+	@Around("within(app.layers.b.service..*) && @within(org.springframework.stereotype.Service) && execution(public * *(..))")
+	public Object traceService(ProceedingJoinPoint joinPoint) throws Throwable {
+		return trace(joinPoint, SpanLayer.SERVICE);
+	}
+
+	@Around("execution(* org.springframework.data.repository.Repository+.*(..))"
+		+ " || (within(app.layers.c.data.sharding.ShardedMedicalTestsStore) && execution(public * *(..)))")
+	public Object traceData(ProceedingJoinPoint joinPoint) throws Throwable {
+		return trace(joinPoint, SpanLayer.DATA);
+	}
+
+	private static Object trace(ProceedingJoinPoint joinPoint, SpanLayer layer) throws Throwable {
+		if(!TraceContext.isActive()) {
+			return joinPoint.proceed();
+		}
+
+		Span span = TraceContext.startSpan(layer, spanName(joinPoint));
+
+		try {
+			return joinPoint.proceed();
+		}
+		finally {
+			TraceContext.endSpan(span);
+		}
+	}
+
+	/**
+	 * Per i repository di Spring Data la classe che implementa i metodi è generata a
+	 * runtime (e molti metodi sono dichiarati da interfacce generiche come CrudRepository),
+	 * perciò usiamo il nome dell'interfaccia del repository implementata dal proxy (es.
+	 * "MedicalTestsRepository.save").
+	 */
+
+	private static String spanName(ProceedingJoinPoint joinPoint) {
+		Class<?> type = joinPoint.getSignature().getDeclaringType();
+
+		for(Class<?> candidate : joinPoint.getThis().getClass().getInterfaces()) {
+			if(candidate.getPackageName().startsWith("app.")) {
+				type = candidate;
+				break;
+			}
+		}
+
+		return type.getSimpleName() + "." + joinPoint.getSignature().getName();
+	}
+}
@@ -0,0 +1,39 @@
+package app.tracing;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Il body della risposta viene scritto (es. serializzato in JSON da Jackson) dopo che il
+ * metodo del controller ha restituito il risultato, perciò il suo costo non compare nello
+ * span del controller. Un ResponseBodyAdvice viene invocato da Spring MVC subito prima
+ * della scrittura del body: qui apriamo lo span della serializzazione, che non ha un punto
+ * di chiusura esplicito e viene chiuso insieme alla traccia, al termine della richiesta
+ * (vedi Trace.endSpan()). Lo span comprende quindi anche la scrittura dei byte sulla
+ * connessione, ed eventualmente la loro compressione.
+ */
+
+@ControllerAdvice
+public class SerializationTracingAdvice implements ResponseBodyAdvice<Object> {
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return true;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+			Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+
+		if(TraceContext.isActive()) {
+			TraceContext.startSpan(SpanLayer.SERIALIZATION, selectedConverterType.getSimpleName(), String.valueOf(selectedContentType));
+		}
+
+		return body;
+	}
+}
@@ -0,0 +1,114 @@
+package app.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Un intervallo di tempo all'interno di una richiesta tracciata (es. l'esecuzione di un
+ * metodo di un service). Gli span formano un albero: ogni span contiene quelli avviati
+ * mentre era in corso (es. il metodo di un repository chiamato dal service).
+ *
+ * Gli span vengono creati e chiusi dal thread che serve la richiesta, e vengono letti solo
+ * dopo la fine della richiesta (vedi TraceStore.java), perciò non serve sincronizzazione.
+ */
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({ "layer", "name", "detail", "offsetMillis", "durationMillis", "selfMillis", "children" })
+public class Span {
+	private final SpanLayer layer;
+	private final String name;
+	private final String detail;
+	private final Span parent;
+	private final long offsetNanos;
+	private final long startNanos;
+	private long endNanos = -1;
+	private List<Span> children;
+
+	Span(SpanLayer layer, String name, String detail, Span parent, long traceStartNanos) {
+		this.layer = layer;
+		this.name = name;
+		this.detail = detail;
+		this.parent = parent;
+		this.startNanos = System.nanoTime();
+		this.offsetNanos = startNanos - traceStartNanos;
+
+		if(parent != null) {
+			if(parent.children == null) {
+				parent.children = new ArrayList<>();
+			}
+
+			parent.children.add(this);
+		}
+	}
+
+	void end() {
+		if(endNanos < 0) {
+			endNanos = System.nanoTime();
+		}
+	}
+
+	boolean isEnded() {
+		return endNanos >= 0;
+	}
+
+	@JsonIgnore
+	Span getParent() {
+		return parent;
+	}
+
+	public SpanLayer getLayer() {
+		return layer;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Informazioni aggiuntive (es. il testo dello statement SQL), null se assenti.
+	 */
+
+	public String getDetail() {
+		return detail;
+	}
+
+	public double getOffsetMillis() {
+		return offsetNanos / 1e6;
+	}
+
+	public double getDurationMillis() {
+		return getDurationNanos() / 1e6;
+	}
+
+	/**
+	 * Il tempo trascorso in questo span, esclusi quelli figli.
+	 */
+
+	public double getSelfMillis() {
+		return getSelfNanos() / 1e6;
+	}
+
+	public List<Span> getChildren() {
+		return children;
+	}
+
+	long getDurationNanos() {
+		return (endNanos >= 0 ? endNanos : System.nanoTime()) - startNanos;
+	}
+
+	long getSelfNanos() {
+		long self = getDurationNanos();
+
+		if(children != null) {
+			for(Span child : children) {
+				self -= child.getDurationNanos();
+			}
+		}
+
+		return Math.max(0, self);
+	}
+}
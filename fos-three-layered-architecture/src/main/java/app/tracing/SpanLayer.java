@@ -0,0 +1,19 @@
+package app.tracing;
+
+/**
+ * Il "livello" a cui appartiene uno span, usato per ripartire il tempo di una richiesta
+ * (vedi Trace.getLayerBreakdown()):
+ * - HTTP: la richiesta nel suo complesso, inclusi i filtri (es. Spring Security);
+ * - PRESENTATION, SERVICE, DATA: i metodi dei package app.layers.a, b e c;
+ * - SQL: l'esecuzione di uno statement JDBC da parte di Hibernate;
+ * - SERIALIZATION: la scrittura del body della risposta (es. JSON).
+ */
+
+public enum SpanLayer {
+	HTTP,
+	PRESENTATION,
+	SERVICE,
+	DATA,
+	SQL,
+	SERIALIZATION
+}
@@ -0,0 +1,177 @@
+package app.tracing;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Una richiesta HTTP tracciata, con l'albero dei suoi span (vedi Span.java). Il numero di
+ * span di una singola richiesta è limitato (MAX_SPANS): oltre il limite, i nuovi span non
+ * vengono più registrati ma solo contati (vedi getDroppedSpans()), così che una richiesta
+ * che esegue migliaia di query non occupi troppa memoria.
+ */
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({ "id", "method", "uri", "route", "status", "startedAt", "durationMillis", "spanCount", "droppedSpans", "layerBreakdown", "root" })
+public class Trace {
+
+	static final int MAX_SPANS = 500;
+
+	private final long id;
+	private final String method;
+	private final String uri;
+	private final Instant startedAt;
+	private final long startNanos;
+	private final Span root;
+	private String route;
+	private int status;
+	private int spanCount = 1;
+	private int droppedSpans;
+
+	private Span current;
+	private String pendingSql;
+
+	Trace(long id, String method, String uri) {
+		this.id = id;
+		this.method = method;
+		this.uri = uri;
+		this.startedAt = Instant.now();
+		this.startNanos = System.nanoTime();
+		this.root = new Span(SpanLayer.HTTP, method + " " + uri, null, null, startNanos);
+		this.current = root;
+	}
+
+	Span startSpan(SpanLayer layer, String name, String detail) {
+		if(spanCount >= MAX_SPANS) {
+			droppedSpans++;
+			return null;
+		}
+
+		spanCount++;
+		current = new Span(layer, name, detail, current, startNanos);
+
+		return current;
+	}
+
+	/**
+	 * Chiude lo span indicato e tutti quelli ancora aperti al suo interno (es. lo span
+	 * della serializzazione, che non ha un punto di chiusura esplicito). Se lo span è già
+	 * stato chiuso, non fa nulla.
+	 */
+
+	void endSpan(Span span) {
+		Span open = current;
+
+		while(open != null && open != span) {
+			open = open.getParent();
+		}
+
+		if(open == null) {
+			return;
+		}
+
+		while(current != span) {
+			current.end();
+			current = current.getParent();
+		}
+
+		span.end();
+		current = span.getParent() != null ? span.getParent() : root;
+	}
+
+	void finish(String route, int status) {
+		this.route = route;
+		this.status = status;
+		endSpan(root);
+	}
+
+	String takePendingSql() {
+		String sql = pendingSql;
+		pendingSql = null;
+		return sql;
+	}
+
+	void setPendingSql(String pendingSql) {
+		this.pendingSql = pendingSql;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Il pattern dell'endpoint invocato (es. "/medical-tests/{id}"), utile per raggruppare
+	 * le richieste allo stesso endpoint; null se la richiesta non è arrivata a un controller.
+	 */
+
+	public String getRoute() {
+		return route;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Instant getStartedAt() {
+		return startedAt;
+	}
+
+	public double getDurationMillis() {
+		return root.getDurationMillis();
+	}
+
+	public int getSpanCount() {
+		return spanCount;
+	}
+
+	public int getDroppedSpans() {
+		return droppedSpans;
+	}
+
+	/**
+	 * Il tempo della richiesta suddiviso per livello: a ogni livello viene attribuito il
+	 * tempo dei suoi span esclusi i figli, perciò la somma dei valori è pari alla durata
+	 * della richiesta.
+	 */
+
+	public Map<SpanLayer, Double> getLayerBreakdown() {
+		Map<SpanLayer, Long> nanos = new EnumMap<>(SpanLayer.class);
+		collectSelfTime(root, nanos);
+
+		Map<SpanLayer, Double> millis = new EnumMap<>(SpanLayer.class);
+		nanos.forEach((layer, value) -> millis.put(layer, value / 1e6));
+
+		return millis;
+	}
+
+	public Span getRoot() {
+		return root;
+	}
+
+	@JsonIgnore
+	long getDurationNanos() {
+		return root.getDurationNanos();
+	}
+
+	private static void collectSelfTime(Span span, Map<SpanLayer, Long> nanos) {
+		nanos.merge(span.getLayer(), span.getSelfNanos(), Long::sum);
+
+		if(span.getChildren() != null) {
+			for(Span child : span.getChildren()) {
+				collectSelfTime(child, nanos);
+			}
+		}
+	}
+}
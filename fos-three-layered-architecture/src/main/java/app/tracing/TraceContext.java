@@ -0,0 +1,64 @@
+package app.tracing;
+
+/**
+ * Punto di accesso alla traccia della richiesta in corso, che viene tenuta in un
+ * ThreadLocal: la richiesta viene servita interamente dal thread che l'ha ricevuta, perciò
+ * tutti gli span (controller, service, repository, statement SQL) finiscono nella stessa
+ * traccia senza doverla passare da un metodo all'altro.
+ *
+ * I metodi sono statici perché devono essere raggiungibili anche da oggetti che non sono
+ * bean di Spring, come i listener istanziati direttamente da Hibernate (vedi
+ * HibernateStatementListener.java). Se la richiesta non è campionata, ogni metodo si
+ * limita a leggere il ThreadLocal e a trovarlo vuoto: è questo che rende trascurabile il
+ * costo del tracing per le richieste non tracciate.
+ */
+
+public final class TraceContext {
+
+	private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+	private TraceContext() {
+	}
+
+	public static boolean isActive() {
+		return CURRENT.get() != null;
+	}
+
+	/**
+	 * Restituisce null se la richiesta non è tracciata (oppure se ha già raggiunto il numero
+	 * massimo di span): il valore restituito va comunque passato a endSpan(), che in quel
+	 * caso non fa nulla.
+	 */
+
+	public static Span startSpan(SpanLayer layer, String name) {
+		Trace trace = CURRENT.get();
+		return trace != null ? trace.startSpan(layer, name, null) : null;
+	}
+
+	public static Span startSpan(SpanLayer layer, String name, String detail) {
+		Trace trace = CURRENT.get();
+		return trace != null ? trace.startSpan(layer, name, detail) : null;
+	}
+
+	public static void endSpan(Span span) {
+		Trace trace = CURRENT.get();
+
+		if(trace != null && span != null) {
+			trace.endSpan(span);
+		}
+	}
+
+	static void begin(Trace trace) {
+		CURRENT.set(trace);
+	}
+
+	static Trace end() {
+		Trace trace = CURRENT.get();
+		CURRENT.remove();
+		return trace;
+	}
+
+	static Trace current() {
+		return CURRENT.get();
+	}
+}
@@ -0,0 +1,73 @@
+package app.tracing;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Conserva in memoria le tracce più lente tra quelle recenti: al più "capacity" tracce, e
+ * solo quelle iniziate negli ultimi "window" minuti. Quando il limite è raggiunto, una
+ * nuova traccia prende il posto della più veloce tra quelle conservate, ma solo se è più
+ * lenta di quest'ultima.
+ *
+ * I metodi sono sincronizzati: vengono chiamati soltanto per le richieste campionate, e
+ * operano su poche decine di elementi.
+ */
+
+class TraceStore {
+
+	private final int capacity;
+	private final Duration window;
+	private final List<Trace> traces = new ArrayList<>();
+
+	TraceStore(int capacity, Duration window) {
+		this.capacity = Math.max(1, capacity);
+		this.window = window;
+	}
+
+	synchronized void add(Trace trace) {
+		evictExpired();
+
+		if(traces.size() < capacity) {
+			traces.add(trace);
+			return;
+		}
+
+		Trace fastest = traces.stream().min(Comparator.comparingLong(Trace::getDurationNanos)).get();
+
+		if(fastest.getDurationNanos() < trace.getDurationNanos()) {
+			traces.remove(fastest);
+			traces.add(trace);
+		}
+	}
+
+	/**
+	 * Le tracce conservate, dalla più lenta alla più veloce.
+	 */
+
+	synchronized List<Trace> slowest() {
+		evictExpired();
+
+		List<Trace> sorted = new ArrayList<>(traces);
+		sorted.sort(Comparator.comparingLong(Trace::getDurationNanos).reversed());
+
+		return sorted;
+	}
+
+	synchronized Trace findById(long id) {
+		for(Trace trace : traces) {
+			if(trace.getId() == id) {
+				return trace;
+			}
+		}
+
+		return null;
+	}
+
+	private void evictExpired() {
+		Instant oldest = Instant.now().minus(window);
+		traces.removeIf(trace -> trace.getStartedAt().isBefore(oldest));
+	}
+}
@@ -0,0 +1,72 @@
+package app.tracing;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decide quali richieste tracciare e conserva le tracce più lente (vedi TraceStore.java).
+ *
+ * Tracciare ogni richiesta costerebbe troppo in termini di tempo e di memoria, perciò ne
+ * viene tracciata solo una frazione scelta a caso (app.tracing.sample-rate, es. 0.01 per
+ * una richiesta su cento): con un traffico sufficiente, le richieste lente finiscono
+ * comunque nel campione. Con sample-rate=0 il tracing è disattivato, con 1 vengono
+ * tracciate tutte le richieste (utile solo per analisi mirate).
+ */
+
+@Component
+public class Tracer {
+
+	private final double sampleRate;
+	private final TraceStore store;
+	private final AtomicLong nextId = new AtomicLong();
+
+	public Tracer(
+			@Value("${app.tracing.sample-rate:0.01}") double sampleRate,
+			@Value("${app.tracing.max-traces:50}") int maxTraces,
+			@Value("${app.tracing.window-minutes:15}") int windowMinutes) {
+
+		this.sampleRate = sampleRate;
+		this.store = new TraceStore(maxTraces, Duration.ofMinutes(Math.max(1, windowMinutes)));
+	}
+
+	public boolean isEnabled() {
+		return sampleRate > 0;
+	}
+
+	/**
+	 * Restituisce true se la richiesta è stata campionata: in quel caso il chiamante deve
+	 * invocare finishTrace() al termine della richiesta, sullo stesso thread.
+	 */
+
+	boolean startTrace(String method, String uri) {
+		if(sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			return false;
+		}
+
+		TraceContext.begin(new Trace(nextId.incrementAndGet(), method, uri));
+
+		return true;
+	}
+
+	void finishTrace(String route, int status) {
+		Trace trace = TraceContext.end();
+
+		if(trace != null) {
+			trace.finish(route, status);
+			store.add(trace);
+		}
+	}
+
+	public List<Trace> getSlowestTraces() {
+		return store.slowest();
+	}
+
+	public Trace getTrace(long id) {
+		return store.findById(id);
+	}
+}
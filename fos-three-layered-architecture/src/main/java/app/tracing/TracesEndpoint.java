@@ -0,0 +1,39 @@
+package app.tracing;
+
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Endpoint di monitoraggio che espone le tracce più lente tra quelle recenti:
+ * - /actuator/traces restituisce l'elenco, dalla più lenta alla più veloce, con la
+ *   ripartizione del tempo per livello e l'albero degli span di ciascuna traccia;
+ * - /actuator/traces/{id} restituisce una singola traccia.
+ *
+ * Come gli altri endpoint di Actuator, va esposto esplicitamente tramite la proprietà
+ * management.endpoints.web.exposure.include (vedi application.properties).
+ */
+
+@Component
+@Endpoint(id="traces")
+public class TracesEndpoint {
+
+	private final Tracer tracer;
+
+	public TracesEndpoint(Tracer tracer) {
+		this.tracer = tracer;
+	}
+
+	@ReadOperation
+	public List<Trace> traces() {
+		return tracer.getSlowestTraces();
+	}
+
+	@ReadOperation
+	public Trace trace(@Selector long id) {
+		return tracer.getTrace(id);
+	}
+}
@@ -0,0 +1,56 @@
+package app.tracing;
+
+import java.io.IOException;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Apre e chiude la traccia delle richieste campionate (vedi Tracer.java). Il filtro viene
+ * registrato da Spring Boot con la massima precedenza, prima della catena di Spring
+ * Security: lo span radice della traccia include quindi anche il tempo speso nei filtri
+ * (es. autenticazione e rate limiting).
+ *
+ * Le richieste agli endpoint di monitoraggio (/actuator/...) non vengono tracciate, per
+ * non riempire l'elenco delle tracce con le richieste di chi lo consulta.
+ */
+
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TracingFilter extends OncePerRequestFilter {
+
+	private final Tracer tracer;
+
+	public TracingFilter(Tracer tracer) {
+		this.tracer = tracer;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !tracer.isEnabled() || request.getRequestURI().startsWith("/actuator");
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		if(!tracer.startTrace(request.getMethod(), request.getRequestURI())) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		try {
+			filterChain.doFilter(request, response);
+		}
+		finally {
+			Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+			tracer.finishTrace(route != null ? route.toString() : null, response.getStatus());
+		}
+	}
+}
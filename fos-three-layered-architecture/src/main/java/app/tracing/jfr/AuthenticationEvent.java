@@ -0,0 +1,36 @@
+package app.tracing.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR registrato per ogni autenticazione (AuthenticationManager.authenticate()) e
+ * per ogni lettura dei dati di un utente (UserDetailsService.loadUserByUsername()), vedi
+ * JfrEventsAspect.java. Lo username non viene registrato, per non scrivere dati personali
+ * nei file di registrazione.
+ */
+
+@Name("app.Authentication")
+@Label("Authentication")
+@Description("Autenticazione di un client o lettura dei dati di un utente")
+@Category({ "Medical App", "Security" })
+public class AuthenticationEvent extends Event {
+
+	@Label("Component")
+	@Description("Classe che ha eseguito l'operazione")
+	public String component;
+
+	@Label("Operation")
+	@Description("Es. UsersService.loadUserByUsername")
+	public String operation;
+
+	@Label("Succeeded")
+	public boolean succeeded;
+
+	@Label("Failure")
+	@Description("Classe dell'eccezione sollevata in caso di fallimento")
+	public String failure;
+}
@@ -0,0 +1,181 @@
+package app.tracing.jfr;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registra gli eventi JFR dei repository (RepositoryCallEvent) e dell'autenticazione
+ * (AuthenticationEvent). Come per il tracing delle richieste (vedi LayerTracingAspect.java),
+ * un aspect ci permette di coprire tutti i repository e tutti i bean di autenticazione
+ * senza modificarli: in particolare, anche lo UserDetailsService creato da Spring Boot
+ * per l'utente di default, e UsersService o AuthManager quando vengono attivati come bean.
+ *
+ * Quando l'evento non è abilitato (es. nessuna registrazione in corso), il costo si riduce
+ * alla creazione dell'oggetto evento e a un controllo su isEnabled(); gli attributi
+ * dell'evento vengono calcolati solo se l'evento verrà effettivamente registrato.
+ */
+
+@Aspect
+@Component
+public class JfrEventsAspect {
+
+	@Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+	public Object recordRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+		RepositoryCallEvent event = new RepositoryCallEvent();
+
+		if(!event.isEnabled()) {
+			return joinPoint.proceed();
+		}
+
+		Object result = null;
+		boolean failed = true;
+		event.begin();
+
+		try {
+			result = joinPoint.proceed();
+			failed = false;
+			return result;
+		}
+		finally {
+			event.end();
+
+			if(event.shouldCommit()) {
+				Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+				Class<?> repository = repositoryOf(joinPoint);
+
+				event.repository = repository.getName();
+				event.method = method.getName();
+				event.operation = repository.getSimpleName() + "." + method.getName();
+				event.resultType = resultTypeOf(method, repository, joinPoint.getArgs(), result);
+				event.rowCount = failed ? 0 : rowCountOf(method, result);
+				event.failed = failed;
+				event.commit();
+			}
+		}
+	}
+
+	@Around("execution(* org.springframework.security.core.userdetails.UserDetailsService+.loadUserByUsername(..))"
+		+ " || execution(* org.springframework.security.authentication.AuthenticationManager+.authenticate(..))")
+	public Object recordAuthentication(ProceedingJoinPoint joinPoint) throws Throwable {
+		AuthenticationEvent event = new AuthenticationEvent();
+
+		if(!event.isEnabled()) {
+			return joinPoint.proceed();
+		}
+
+		Throwable failure = null;
+		event.begin();
+
+		try {
+			return joinPoint.proceed();
+		}
+		catch(Throwable e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			event.end();
+
+			if(event.shouldCommit()) {
+				Class<?> component = joinPoint.getTarget().getClass();
+
+				event.component = component.getName();
+				event.operation = component.getSimpleName() + "." + joinPoint.getSignature().getName();
+				event.succeeded = failure == null;
+				event.failure = failure != null ? failure.getClass().getName() : null;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * La classe che implementa i metodi di un repository è generata a runtime: cerchiamo
+	 * quindi l'interfaccia dell'applicazione implementata dal proxy (es. MedicalTestsRepository).
+	 */
+
+	private static Class<?> repositoryOf(ProceedingJoinPoint joinPoint) {
+		for(Class<?> candidate : joinPoint.getThis().getClass().getInterfaces()) {
+			if(candidate.getPackageName().startsWith("app.")) {
+				return candidate;
+			}
+		}
+
+		return joinPoint.getSignature().getDeclaringType();
+	}
+
+	/**
+	 * Per i metodi con proiezioni dinamiche (es. findById(id, TestSummary.class)) la classe
+	 * restituita è quella passata come parametro; negli altri casi la ricaviamo dal tipo di
+	 * ritorno del metodo (es. l'elemento di una List<TestSummary>). I metodi ereditati da
+	 * CrudRepository usano tipi generici (es. Optional<T>), che vengono risolti rispetto
+	 * all'interfaccia del repository (es. T = MedicalTest per MedicalTestsRepository).
+	 */
+
+	private static String resultTypeOf(Method method, Class<?> repository, Object[] args, Object result) {
+		for(Object arg : args) {
+			if(arg instanceof Class<?> projection) {
+				return projection.getName();
+			}
+		}
+
+		ResolvableType returnType = ResolvableType.forMethodReturnType(method, repository);
+		Class<?> container = method.getReturnType();
+
+		if(Iterable.class.isAssignableFrom(container) || Optional.class.isAssignableFrom(container) || Stream.class.isAssignableFrom(container)) {
+			returnType = returnType.getGeneric(0);
+		}
+
+		Class<?> resolved = returnType.resolve();
+
+		if((resolved == null || resolved == Object.class) && result != null) {
+			return result.getClass().getName();
+		}
+
+		return resolved != null ? resolved.getName() : null;
+	}
+
+	/**
+	 * Il numero di elementi restituiti, oppure il numero di righe modificate da una query
+	 * @Modifying. Per uno Stream il numero non è noto al termine della chiamata (le righe
+	 * vengono lette man mano che lo Stream viene consumato).
+	 */
+
+	private static int rowCountOf(Method method, Object result) {
+		if(result == null) {
+			return 0;
+		}
+
+		if(method.isAnnotationPresent(Modifying.class) && result instanceof Number number) {
+			return number.intValue();
+		}
+
+		if(result instanceof Collection<?> collection) {
+			return collection.size();
+		}
+
+		if(result instanceof Map<?, ?> map) {
+			return map.isEmpty() ? 0 : 1;
+		}
+
+		if(result instanceof Optional<?> optional) {
+			return optional.isPresent() ? 1 : 0;
+		}
+
+		if(result instanceof Stream<?> || result instanceof Iterable<?>) {
+			return -1;
+		}
+
+		return 1;
+	}
+}
@@ -0,0 +1,57 @@
+package app.tracing.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR registrato per ogni conversione di un oggetto del data layer in un oggetto del
+ * service layer (es. da MedicalTest a TestDetails). Si usa così:
+ *
+ *   MappingEvent event = MappingEvent.start();
+ *   ... conversione ...
+ *   event.finish(MedicalTest.class, TestDetails.class, results.size());
+ *
+ * Se l'evento non è abilitato, start() e finish() non fanno praticamente nulla.
+ */
+
+@Name("app.Mapping")
+@Label("Mapping")
+@Description("Conversione di un oggetto in un oggetto di un'altra classe")
+@Category({ "Medical App", "Mapping" })
+public class MappingEvent extends Event {
+
+	@Label("Source Type")
+	public String sourceType;
+
+	@Label("Target Type")
+	public String targetType;
+
+	@Label("Operation")
+	@Description("Classi coinvolte, es. MedicalTest->TestDetails")
+	public String operation;
+
+	@Label("Items")
+	@Description("Numero di elementi convertiti (es. i risultati di un esame, o le proprietà copiate)")
+	public int items;
+
+	public static MappingEvent start() {
+		MappingEvent event = new MappingEvent();
+		event.begin();
+		return event;
+	}
+
+	public void finish(Class<?> source, Class<?> target, int items) {
+		end();
+
+		if(shouldCommit()) {
+			this.sourceType = source.getName();
+			this.targetType = target.getName();
+			this.operation = source.getSimpleName() + "->" + target.getSimpleName();
+			this.items = items;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package app.tracing.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento di Java Flight Recorder (JFR) registrato per ogni chiamata a un repository del
+ * data layer (vedi JfrEventsAspect.java). Oltre alla durata, che JFR misura da sé tra
+ * begin() e end(), l'evento riporta il metodo invocato, la classe degli oggetti restituiti
+ * (es. la proiezione richiesta) e il numero di righe lette o modificate.
+ *
+ * Gli eventi JFR hanno un costo trascurabile quando la registrazione non è attiva, o
+ * quando l'evento è disabilitato nel profilo di registrazione (vedi
+ * src/main/resources/jfr/app-operations.jfc).
+ */
+
+@Name("app.RepositoryCall")
+@Label("Repository Call")
+@Description("Chiamata a un metodo di un repository del data layer")
+@Category({ "Medical App", "Data" })
+public class RepositoryCallEvent extends Event {
+
+	@Label("Repository")
+	public String repository;
+
+	@Label("Method")
+	public String method;
+
+	@Label("Operation")
+	@Description("Repository e metodo, es. MedicalTestsRepository.findAllSummaries")
+	public String operation;
+
+	@Label("Result Type")
+	@Description("Classe degli oggetti restituiti (es. la proiezione richiesta)")
+	public String resultType;
+
+	@Label("Row Count")
+	@Description("Righe lette o modificate; -1 se non note (es. per uno Stream)")
+	public int rowCount;
+
+	@Label("Failed")
+	public boolean failed;
+}
@@ -0,0 +1,101 @@
+-- Schema del DB, usato dal profilo "fast" (vedi application-fast.properties) al posto della
+-- generazione automatica delle tabelle da parte di Hibernate (ddl-auto).
+--
+-- Deve rispecchiare le entità del package app.layers.c.data.entities: se si modifica
+-- un'entità, va aggiornato anche questo file. Per ottenere il DDL che Hibernate genererebbe,
+-- si può avviare l'applicazione con le proprietà:
+--   spring.jpa.properties.jakarta.persistence.schema-generation.scripts.action=create
+--   spring.jpa.properties.jakarta.persistence.schema-generation.scripts.create-target=ddl.sql
+--
+-- Tutte le istruzioni sono idempotenti (IF NOT EXISTS), così lo script può essere eseguito a
+-- ogni avvio anche su un DB già esistente.
+
+create sequence if not exists patients_seq start with 1 increment by 50;
+create sequence if not exists medical_tests_seq start with 1 increment by 50;
+create sequence if not exists medical_test_results_seq start with 1 increment by 50;
+create sequence if not exists result_parameters_seq start with 1 increment by 1;
+
+create table if not exists patients (
+	id bigint not null,
+	first_name varchar(255) not null,
+	last_name varchar(255) not null,
+	birthdate date,
+	primary key (id)
+);
+
+create index if not exists idx_patients_birthdate_id on patients (birthdate, id);
+
+create table if not exists medical_tests (
+	id bigint not null,
+	patient_id bigint not null,
+	description varchar(255),
+	date_time timestamp(6),
+	packed_results varbinary(8192),
+	primary key (id)
+);
+
+create index if not exists idx_medical_tests_patient_datetime on medical_tests (patient_id, date_time);
+
+create table if not exists medical_test_results (
+	id bigint not null,
+	medical_test_id bigint not null,
+	param_name varchar(255) not null,
+	param_value float(24),
+	flag varchar(8),
+	primary key (id)
+);
+
+-- Per i DB creati prima dell'introduzione dei flag (vedi ResultFlag.java).
+alter table medical_test_results add column if not exists flag varchar(8);
+
+-- Per i DB creati prima dell'introduzione del formato compatto (vedi PackedResultsCodec.java).
+alter table medical_tests add column if not exists packed_results varbinary(8192);
+
+create table if not exists result_parameters (
+	id integer not null,
+	name varchar(255) not null,
+	primary key (id),
+	constraint uk_result_parameters_name unique (name)
+);
+
+create table if not exists reference_ranges (
+	param_name varchar(255) not null,
+	lower_limit float(24),
+	upper_limit float(24),
+	primary key (param_name)
+);
+
+create table if not exists patient_dashboards (
+	patient_id bigint not null,
+	tests_count integer not null,
+	last_test_date_time timestamp(6),
+	last_test_description varchar(255),
+	latest_values clob,
+	latest_value_times clob,
+	primary key (patient_id)
+);
+
+-- Per i DB creati prima delle date dei singoli valori (vedi PatientDashboard.recordTest()).
+alter table patient_dashboards add column if not exists latest_value_times clob;
+
+-- Per i DB creati quando le due colonne erano varchar(8192) (vedi PatientDashboard.java).
+alter table patient_dashboards alter column latest_values set data type clob;
+alter table patient_dashboards alter column latest_value_times set data type clob;
+
+create table if not exists purge_checkpoints (
+	job varchar(255) not null,
+	cutoff timestamp(6),
+	last_id bigint not null,
+	purged_tests bigint not null,
+	purged_results bigint not null,
+	started_at timestamp(6),
+	updated_at timestamp(6),
+	completed_at timestamp(6),
+	primary key (job)
+);
+
+alter table medical_tests add constraint if not exists fk_medical_tests_patient
+	foreign key (patient_id) references patients;
+
+alter table medical_test_results add constraint if not exists fk_medical_test_results_test
+	foreign key (medical_test_id) references medical_tests;
@@ -0,0 +1,231 @@
+package app.layers.a.presentation.controllers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Confronto tra l'elenco degli esami letto in modo bloccante (GET /medical-tests, array
+ * JSON costruito per intero in memoria) e quello reattivo (GET /reactive/medical-tests,
+ * NDJSON scritto in streaming, vedi ReactiveReadsController.java).
+ *
+ * Molti client scaricano contemporaneamente l'elenco completo; per ogni variante vengono
+ * registrati il throughput (richieste al secondo), il picco di memoria heap occupata e il
+ * picco di thread attivi. Client e server girano nella stessa JVM, ma i client leggono la
+ * risposta come stream senza conservarla: la differenza di memoria è dovuta al server.
+ *
+ * Non fa parte della build normale: mvn test -Pbenchmark. I risultati vengono scritti nel log.
+ */
+
+@Tag("benchmark")
+@SpringBootTest(webEnvironment=WebEnvironment.RANDOM_PORT, properties={
+	"spring.security.user.password=pw",
+	"spring.jpa.show-sql=false",
+	"app.rate-limit.enabled=false"
+})
+class ReactiveReadsBenchmark {
+
+	private static final Logger log = LoggerFactory.getLogger(ReactiveReadsBenchmark.class);
+
+	private static final int TESTS = 20_000;
+	private static final int CLIENTS = 64;
+	private static final int REQUESTS_PER_CLIENT = 5;
+
+	private static final Pattern CSRF_TOKEN = Pattern.compile("name=\"_csrf\"[^>]*value=\"([^\"]*)\"");
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Test
+	void compareBlockingAndStreamingLists() throws Exception {
+		insertTests();
+		HttpClient client = login();
+
+		Result blocking = run(client, "/medical-tests", MediaType.APPLICATION_JSON_VALUE);
+		Result streaming = run(client, "/reactive/medical-tests", MediaType.APPLICATION_NDJSON_VALUE);
+
+		log.info("{} tests, {} clients x {} requests", TESTS, CLIENTS, REQUESTS_PER_CLIENT);
+		log.info("blocking  (/medical-tests):          {}", blocking);
+		log.info("streaming (/reactive/medical-tests): {}", streaming);
+
+		assertThat(blocking.failures).isZero();
+		assertThat(streaming.failures).isZero();
+	}
+
+	private void insertTests() {
+		long patientId = jdbc.queryForObject("select min(id) from patients", Long.class);
+		long firstId = jdbc.queryForObject("select coalesce(max(id), 0) from medical_tests", Long.class) + 1;
+		LocalDateTime dateTime = LocalDateTime.now().minusDays(TESTS);
+		List<Object[]> rows = new ArrayList<>(TESTS);
+
+		for(int i = 0; i < TESTS; i++) {
+			rows.add(new Object[] { firstId + i, patientId, "Benchmark test " + i, Timestamp.valueOf(dateTime.plusDays(i)) });
+		}
+
+		jdbc.batchUpdate("insert into medical_tests (id, patient_id, description, date_time) values (?, ?, ?, ?)", rows);
+	}
+
+	/**
+	 * Login tramite il form di Spring Security: la sessione evita di verificare la password
+	 * (con bcrypt) a ogni richiesta, che altrimenti dominerebbe i tempi misurati.
+	 */
+
+	private HttpClient login() throws Exception {
+		HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.cookieHandler(new CookieManager())
+			.followRedirects(HttpClient.Redirect.NEVER)
+			.build();
+
+		String page = client.send(HttpRequest.newBuilder(uri("/login")).build(), HttpResponse.BodyHandlers.ofString()).body();
+		Matcher token = CSRF_TOKEN.matcher(page);
+		assertThat(token.find()).isTrue();
+
+		String form = "username=user&password=pw&_csrf=" + URLEncoder.encode(token.group(1), StandardCharsets.UTF_8);
+		HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri("/login"))
+			.header("Content-Type", MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+			.POST(HttpRequest.BodyPublishers.ofString(form))
+			.build(), HttpResponse.BodyHandlers.discarding());
+
+		assertThat(response.headers().firstValue("Location")).hasValueSatisfying(location -> assertThat(location).doesNotContain("error"));
+
+		return client;
+	}
+
+	private Result run(HttpClient client, String path, String accept) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(uri(path)).header("Accept", accept).build();
+
+		// Riscaldamento: JIT, pool di connessioni e cache non devono pesare sulla misura.
+		for(int i = 0; i < 5; i++) {
+			fetch(client, request);
+		}
+
+		System.gc();
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		AtomicLong peakHeap = new AtomicLong();
+		AtomicLong peakThreads = new AtomicLong();
+		AtomicBoolean running = new AtomicBoolean(true);
+
+		Thread sampler = new Thread(() -> {
+			while(running.get()) {
+				peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+				peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+
+				try {
+					Thread.sleep(5);
+				}
+				catch(InterruptedException e) {
+					return;
+				}
+			}
+		});
+
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		List<Future<Long>> results = new ArrayList<>();
+		long startNanos = System.nanoTime();
+
+		sampler.start();
+
+		for(int c = 0; c < CLIENTS; c++) {
+			results.add(clients.submit(() -> {
+				long bytes = 0;
+
+				for(int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+					bytes += fetch(client, request);
+				}
+
+				return bytes;
+			}));
+		}
+
+		long bytes = 0;
+		int failures = 0;
+
+		for(Future<Long> result : results) {
+			long clientBytes = result.get();
+
+			if(clientBytes < 0) {
+				failures++;
+			}
+			else {
+				bytes += clientBytes;
+			}
+		}
+
+		long elapsedNanos = System.nanoTime() - startNanos;
+
+		running.set(false);
+		sampler.join();
+		clients.shutdown();
+
+		return new Result(CLIENTS * REQUESTS_PER_CLIENT, elapsedNanos, bytes, peakHeap.get(), peakThreads.get(), failures);
+	}
+
+	// Numero di byte letti, oppure -1 se la risposta non è 200.
+	private static long fetch(HttpClient client, HttpRequest request) throws Exception {
+		HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+		try(InputStream body = response.body()) {
+			byte[] buffer = new byte[8192];
+			long bytes = 0;
+
+			for(int n; (n = body.read(buffer)) != -1; ) {
+				bytes += n;
+			}
+
+			return response.statusCode() == 200 ? bytes : -1;
+		}
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://localhost:" + port + path);
+	}
+
+	private record Result(int requests, long elapsedNanos, long bytes, long peakHeapBytes, long peakThreads, int failures) {
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+
+			return String.format("%.1f req/s, %.1f MB/s, peak heap %d MB, peak threads %d, %d failures",
+				requests / seconds, bytes / seconds / (1024 * 1024), peakHeapBytes / (1024 * 1024), peakThreads, failures);
+		}
+	}
+}
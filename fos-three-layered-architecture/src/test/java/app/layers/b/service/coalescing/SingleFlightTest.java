@@ -0,0 +1,182 @@
+package app.layers.b.service.coalescing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SingleFlightTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final List<Thread> threads = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		for(Thread thread : threads) {
+			thread.join(5000);
+		}
+	}
+
+	@Test
+	void concurrentCallersShareOneLoad() throws Exception {
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", registry);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+
+		Supplier<String> loader = () -> {
+			loads.incrementAndGet();
+			await(release);
+			return "value";
+		};
+
+		CompletableFuture<String> first = call(() -> flight.load(1L, loader));
+		awaitCalls("loaded", 1);
+
+		CompletableFuture<String> second = call(() -> flight.load(1L, loader));
+		CompletableFuture<String> third = call(() -> flight.load(1L, loader));
+		awaitCalls("coalesced", 2);
+
+		release.countDown();
+
+		assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void differentKeysAndLaterCallsLoadAgain() {
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", registry);
+		AtomicInteger loads = new AtomicInteger();
+
+		flight.load(1L, () -> "a" + loads.incrementAndGet());
+		flight.load(2L, () -> "b" + loads.incrementAndGet());
+
+		// Non è una cache: a caricamento concluso, la chiamata successiva ne esegue un altro.
+		assertThat(flight.load(1L, () -> "a" + loads.incrementAndGet())).isEqualTo("a3");
+		assertThat(calls("coalesced")).isZero();
+	}
+
+	@Test
+	void waitingCallersReceiveTheException() throws Exception {
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", registry);
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<String> first = call(() -> flight.load(1L, () -> {
+			await(release);
+			throw new IllegalStateException("DB down");
+		}));
+		awaitCalls("loaded", 1);
+
+		CompletableFuture<String> second = call(() -> flight.load(1L, () -> "never"));
+		awaitCalls("coalesced", 1);
+
+		release.countDown();
+
+		for(CompletableFuture<String> result : List.of(first, second)) {
+			assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(IllegalStateException.class)
+				.hasRootCauseMessage("DB down");
+		}
+	}
+
+	@Test
+	void callsAfterInvalidateStartANewLoad() throws Exception {
+		SingleFlight<Long, String> flight = new SingleFlight<>("test", registry);
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<String> before = call(() -> flight.load(1L, () -> {
+			await(release);
+			return "stale";
+		}));
+		awaitCalls("loaded", 1);
+
+		flight.invalidate();
+
+		assertThat(flight.load(1L, () -> "fresh")).isEqualTo("fresh");
+
+		release.countDown();
+		assertThat(before.get(5, TimeUnit.SECONDS)).isEqualTo("stale");
+		assertThat(calls("coalesced")).isZero();
+	}
+
+	@Test
+	void coalescedCallersReceiveTheirOwnCopy() throws Exception {
+		SingleFlight<Long, List<String>> flight = new SingleFlight<>("test", registry, ArrayList::new);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> loaded = new ArrayList<>(List.of("a"));
+
+		CompletableFuture<List<String>> first = call(() -> flight.load(1L, () -> {
+			await(release);
+			return loaded;
+		}));
+		awaitCalls("loaded", 1);
+
+		CompletableFuture<List<String>> second = call(() -> flight.load(1L, () -> null));
+		CompletableFuture<List<String>> third = call(() -> flight.load(1L, () -> null));
+		awaitCalls("coalesced", 2);
+
+		release.countDown();
+
+		List<String> secondValue = second.get(5, TimeUnit.SECONDS);
+		secondValue.add("changed");
+
+		assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(loaded).containsExactly("a");
+		assertThat(third.get(5, TimeUnit.SECONDS)).isNotSameAs(secondValue).containsExactly("a");
+	}
+
+	private <T> CompletableFuture<T> call(Supplier<T> call) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		Thread thread = new Thread(() -> {
+			try {
+				result.complete(call.get());
+			}
+			catch(RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+
+		threads.add(thread);
+		thread.start();
+
+		return result;
+	}
+
+	private double calls(String outcome) {
+		return registry.get("app.singleflight.calls").tag("outcome", outcome).counter().count();
+	}
+
+	// Le chiamate vengono contate prima di mettersi in attesa: quando il contatore arriva al
+	// valore atteso, i thread sono già agganciati al caricamento in corso.
+	private void awaitCalls(String outcome, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while(calls(outcome) < expected) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+		catch(InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
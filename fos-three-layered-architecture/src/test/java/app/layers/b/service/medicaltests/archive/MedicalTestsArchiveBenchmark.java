@@ -0,0 +1,240 @@
+package app.layers.b.service.medicaltests.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongConsumer;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import app.layers.b.service.medicaltests.MedicalTestsService;
+import app.layers.c.data.archive.MedicalTestsArchive;
+
+/**
+ * Misura l'effetto dell'archivio degli esami (vedi MedicalTestsArchiver.java) su un DB con
+ * molti esami vecchi, ciascuno con un pannello completo di risultati:
+ * - le righe delle tabelle degli esami prima e dopo l'archiviazione, e lo spazio occupato
+ *   dai file dell'archivio (il DB H2 in memoria non riporta lo spazio occupato dalle tabelle);
+ * - la latenza di lettura di un esame archiviato (sia direttamente dall'archivio, sia
+ *   tramite MedicalTestsService.getTestDetails(), che prima cerca l'esame sul DB), confrontata
+ *   con quella di un esame con gli stessi risultati ancora sul DB.
+ *
+ * Gli esami vengono inseriti da un ApplicationRunner eseguito dopo DbInit: il primo passaggio
+ * dell'archiviatore, all'evento ApplicationReadyEvent, li trova già sul DB. Ogni paziente ha
+ * pochi esami vecchi con id consecutivi, come se fossero stati inseriti nel tempo: ogni blocco
+ * dell'archiviatore ricalcola la dashboard di pochi pazienti, con un costo che cresce con il
+ * numero dei loro esami. I pazienti hanno anche qualche esame recente, che resta sul DB.
+ *
+ * Il webserver viene avviato anche se non riceve richieste: è Tomcat a registrare il protocollo
+ * "classpath:" usato da hibernate.javax.cache.uri (vedi application.properties).
+ *
+ * Non fa parte della build normale: mvn test -Pbenchmark. I risultati vengono scritti nel log.
+ */
+
+@Tag("benchmark")
+@SpringBootTest(webEnvironment=WebEnvironment.RANDOM_PORT, properties={
+	"spring.jpa.show-sql=false",
+	"app.archive.enabled=true",
+	"app.archive.batch-size=500"
+})
+class MedicalTestsArchiveBenchmark {
+
+	private static final Logger log = LoggerFactory.getLogger(MedicalTestsArchiveBenchmark.class);
+
+	private static final int OLD_TESTS = 5_000;
+	private static final int RECENT_TESTS = 1_000;
+	private static final int RESULTS_PER_TEST = 40;
+	private static final int OLD_TESTS_PER_PATIENT = 10;
+	private static final int PATIENTS = OLD_TESTS / OLD_TESTS_PER_PATIENT;
+	private static final int READS = 20_000;
+
+	// Id lontani da quelli assegnati dalle sequenze, per non entrare in conflitto con DbInit.
+	private static final long FIRST_PATIENT_ID = 10_000_000L;
+	private static final long FIRST_OLD_ID = 10_000_000L;
+	private static final long FIRST_RECENT_ID = 20_000_000L;
+	private static final long FIRST_RESULT_ID = 100_000_000L;
+
+	private static final Path ARCHIVE_DIRECTORY = createTempDirectory();
+
+	private static volatile TableSizes before;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private MedicalTestsArchive archive;
+
+	@Autowired
+	private MedicalTestsService medicalTestsService;
+
+	@DynamicPropertySource
+	static void archiveDirectory(DynamicPropertyRegistry registry) {
+		registry.add("app.archive.directory", ARCHIVE_DIRECTORY::toString);
+	}
+
+	@TestConfiguration
+	static class OldTestsLoader {
+
+		@Bean
+		@Order(Ordered.LOWEST_PRECEDENCE)
+		ApplicationRunner insertOldTests(JdbcTemplate jdbc) {
+			return args -> {
+				insertPatients(jdbc);
+				insertTests(jdbc, FIRST_OLD_ID, OLD_TESTS, i -> i / OLD_TESTS_PER_PATIENT, LocalDateTime.now().minusYears(5), FIRST_RESULT_ID);
+				insertTests(jdbc, FIRST_RECENT_ID, RECENT_TESTS, i -> i % PATIENTS, LocalDateTime.now().minusDays(1), FIRST_RESULT_ID + (long) OLD_TESTS * RESULTS_PER_TEST);
+				before = TableSizes.read(jdbc);
+			};
+		}
+	}
+
+	@Test
+	void measureDbShrinkAndReadLatency() throws Exception {
+		awaitArchived();
+		TableSizes after = TableSizes.read(jdbc);
+
+		log.info("{} old tests x {} results moved to the archive", OLD_TESTS, RESULTS_PER_TEST);
+		log.info("DB before archiving: {}", before);
+		log.info("DB after archiving:  {}", after);
+		log.info("archive files: {} KB ({} tests, {} bytes per test)", archive.getSizeBytes() / 1024, archive.getArchivedCount(),
+			archive.getSizeBytes() / Math.max(1, archive.getArchivedCount()));
+
+		log.info("archive.findById (archived):                 {}", measure(FIRST_OLD_ID, OLD_TESTS, id -> archive.findById(id)));
+		log.info("MedicalTestsService.getTestDetails (archived): {}", measure(FIRST_OLD_ID, OLD_TESTS, id -> medicalTestsService.getTestDetails(id)));
+		log.info("MedicalTestsService.getTestDetails (on DB):    {}", measure(FIRST_RECENT_ID, RECENT_TESTS, id -> medicalTestsService.getTestDetails(id)));
+
+		assertThat(after.results).isLessThanOrEqualTo(before.results - (long) OLD_TESTS * RESULTS_PER_TEST);
+		assertThat(archive.findById(FIRST_OLD_ID).getResults()).hasSize(RESULTS_PER_TEST);
+		assertThat(medicalTestsService.getTestDetails(FIRST_OLD_ID + OLD_TESTS - 1)).isNotNull();
+	}
+
+	private void awaitArchived() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+
+		while(archive.findById(FIRST_OLD_ID + OLD_TESTS - 1) == null
+				|| jdbc.queryForObject("select count(*) from medical_tests where id >= ? and id < ?", Long.class, FIRST_OLD_ID, FIRST_OLD_ID + OLD_TESTS) > 0) {
+
+			assertThat(System.nanoTime()).as("archiving did not complete").isLessThan(deadline);
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * Legge READS esami a caso tra count esami consecutivi, dopo un primo giro di
+	 * riscaldamento (JIT, cache delle pagine del file e del DB).
+	 */
+
+	private static Latency measure(long firstId, int count, LongConsumer read) {
+		long[] ids = new long[READS];
+		long seed = 42;
+
+		for(int i = 0; i < READS; i++) {
+			seed = seed * 6364136223846793005L + 1442695040888963407L;
+			ids[i] = firstId + Math.floorMod(seed >>> 17, count);
+		}
+
+		for(long id : ids) {
+			read.accept(id);
+		}
+
+		long[] nanos = new long[READS];
+
+		for(int i = 0; i < READS; i++) {
+			long start = System.nanoTime();
+			read.accept(ids[i]);
+			nanos[i] = System.nanoTime() - start;
+		}
+
+		return Latency.of(nanos);
+	}
+
+	private static void insertPatients(JdbcTemplate jdbc) {
+		List<Object[]> patients = new ArrayList<>(PATIENTS);
+
+		for(int i = 0; i < PATIENTS; i++) {
+			patients.add(new Object[] { FIRST_PATIENT_ID + i, "Benchmark", "Patient " + i });
+		}
+
+		jdbc.batchUpdate("insert into patients (id, first_name, last_name) values (?, ?, ?)", patients);
+	}
+
+	// patientOf associa all'i-esimo esame l'indice del suo paziente.
+	private static void insertTests(JdbcTemplate jdbc, long firstId, int count, IntUnaryOperator patientOf, LocalDateTime dateTime, long firstResultId) {
+		List<Object[]> tests = new ArrayList<>(count);
+		List<Object[]> results = new ArrayList<>(count * RESULTS_PER_TEST);
+
+		for(int i = 0; i < count; i++) {
+			long testId = firstId + i;
+			tests.add(new Object[] { testId, FIRST_PATIENT_ID + patientOf.applyAsInt(i), "Benchmark panel " + i, Timestamp.valueOf(dateTime.minusMinutes(i)) });
+
+			for(int r = 0; r < RESULTS_PER_TEST; r++) {
+				results.add(new Object[] { firstResultId + (long) i * RESULTS_PER_TEST + r, testId, "Param" + r, 10f + (i + r) % 50, "NORMAL" });
+			}
+		}
+
+		jdbc.batchUpdate("insert into medical_tests (id, patient_id, description, date_time) values (?, ?, ?, ?)", tests);
+		jdbc.batchUpdate("insert into medical_test_results (id, medical_test_id, param_name, param_value, flag) values (?, ?, ?, ?, ?)", results);
+	}
+
+	private static Path createTempDirectory() {
+		try {
+			return Files.createTempDirectory("archive-benchmark");
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private record TableSizes(long tests, long results) {
+
+		static TableSizes read(JdbcTemplate jdbc) {
+			return new TableSizes(
+				jdbc.queryForObject("select count(*) from medical_tests", Long.class),
+				jdbc.queryForObject("select count(*) from medical_test_results", Long.class));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d tests, %d results", tests, results);
+		}
+	}
+
+	private record Latency(double meanMicros, double p50Micros, double p99Micros) {
+
+		static Latency of(long[] nanos) {
+			long[] sorted = nanos.clone();
+			Arrays.sort(sorted);
+
+			return new Latency(Arrays.stream(sorted).average().orElse(0) / 1000,
+				sorted[sorted.length / 2] / 1000.0, sorted[(int) (sorted.length * 0.99)] / 1000.0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("mean %.1f us, p50 %.1f us, p99 %.1f us", meanMicros, p50Micros, p99Micros);
+		}
+	}
+}
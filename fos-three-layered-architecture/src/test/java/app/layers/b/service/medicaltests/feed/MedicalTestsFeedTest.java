@@ -0,0 +1,108 @@
+package app.layers.b.service.medicaltests.feed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import app.layers.b.service.medicaltests.TestSummary;
+
+class MedicalTestsFeedTest {
+
+	@Test
+	void readsEventsInPublicationOrder() {
+		MedicalTestsFeed feed = feedWith(4, 3);
+
+		FeedSlice slice = feed.readAfter(0, 10);
+
+		assertThat(slice.hasGap()).isFalse();
+		assertThat(slice.getEntries()).extracting(entry -> entry.getTest().getId()).containsExactly(1L, 2L, 3L);
+		assertThat(slice.getEntries()).extracting(FeedEntry::getSequence).containsExactly(1L, 2L, 3L);
+		assertThat(slice.getCursor()).isEqualTo(3);
+
+		assertThat(feed.readAfter(1, 1).getEntries()).extracting(FeedEntry::getSequence).containsExactly(2L);
+		assertThat(feed.readAfter(1, 1).getCursor()).isEqualTo(2);
+	}
+
+	@Test
+	void readingAtTheEndReturnsNothing() {
+		MedicalTestsFeed feed = feedWith(4, 3);
+
+		FeedSlice slice = feed.readAfter(3, 10);
+
+		assertThat(slice.getEntries()).isEmpty();
+		assertThat(slice.hasGap()).isFalse();
+		assertThat(slice.getCursor()).isEqualTo(3);
+		assertThat(new MedicalTestsFeed(4).readAfter(0, 10).getEntries()).isEmpty();
+	}
+
+	@Test
+	void overwrittenEventsAreReportedAsGap() {
+		MedicalTestsFeed feed = feedWith(4, 10);
+
+		FeedSlice slice = feed.readAfter(2, 10);
+
+		assertThat(slice.hasGap()).isTrue();
+		assertThat(slice.getEntries()).extracting(FeedEntry::getSequence).containsExactly(7L, 8L, 9L, 10L);
+		assertThat(slice.getEntries()).extracting(entry -> entry.getTest().getId()).containsExactly(7L, 8L, 9L, 10L);
+
+		// L'ultimo evento ricevuto è il più vecchio ancora disponibile: nessun buco.
+		assertThat(feed.readAfter(6, 10).hasGap()).isFalse();
+	}
+
+	@Test
+	void eventIdsRoundTripOnlyWithinTheSameEpoch() {
+		MedicalTestsFeed feed = new MedicalTestsFeed(4);
+		MedicalTestsFeed otherNode = new MedicalTestsFeed(4);
+
+		assertThat(feed.sequenceOf(feed.eventIdOf(42))).isEqualTo(42);
+		assertThat(feed.sequenceOf(otherNode.eventIdOf(42))).isEqualTo(-1);
+		assertThat(feed.sequenceOf("42")).isEqualTo(-1);
+		assertThat(feed.sequenceOf(feed.eventIdOf(1) + "x")).isEqualTo(-1);
+		assertThat(feed.sequenceOf(feed.eventIdOf(-1))).isEqualTo(-1);
+	}
+
+	@Test
+	void unknownPositionsAreReportedAsGapFromTheOldestEvent() {
+		MedicalTestsFeed feed = feedWith(4, 6);
+
+		// Un id di un'altra epoca (sequenceOf() = -1) e uno "dal futuro", es. dopo un riavvio.
+		for(long after : new long[] { -1, 100 }) {
+			FeedSlice slice = feed.readAfter(after, 10);
+
+			assertThat(slice.hasGap()).isTrue();
+			assertThat(slice.getEntries()).extracting(FeedEntry::getSequence).containsExactly(3L, 4L, 5L, 6L);
+		}
+	}
+
+	@Test
+	void listenersAreNotifiedUntilUnregistered() {
+		MedicalTestsFeed feed = new MedicalTestsFeed(4);
+		AtomicInteger notifications = new AtomicInteger();
+
+		Runnable unregister = feed.addListener(notifications::incrementAndGet);
+		feed.publish(test(1));
+		feed.publish(test(2));
+		unregister.run();
+		feed.publish(test(3));
+
+		assertThat(notifications).hasValue(2);
+		assertThat(feed.getLastSequence()).isEqualTo(3);
+	}
+
+	private static MedicalTestsFeed feedWith(int capacity, int events) {
+		MedicalTestsFeed feed = new MedicalTestsFeed(capacity);
+
+		for(long id = 1; id <= events; id++) {
+			feed.publish(test(id));
+		}
+
+		return feed;
+	}
+
+	private static TestSummary test(long id) {
+		return new TestSummary(id, 1L, "test " + id, LocalDateTime.of(2020, 1, 1, 0, 0).plusDays(id));
+	}
+}
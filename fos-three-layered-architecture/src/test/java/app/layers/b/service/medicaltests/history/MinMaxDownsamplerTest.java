@@ -0,0 +1,88 @@
+package app.layers.b.service.medicaltests.history;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MinMaxDownsamplerTest {
+
+	private static final LocalDateTime FROM = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+	@Test
+	void keepsMinAndMaxOfEachBucketInTimeOrder() {
+		// 4 punti = 2 bucket di 10 giorni.
+		MinMaxDownsampler downsampler = new MinMaxDownsampler(FROM, day(19), 4);
+
+		downsampler.add(day(0), 5f);
+		downsampler.add(day(1), 9f);
+		downsampler.add(day(2), 1f);
+		downsampler.add(day(3), 4f);
+		downsampler.add(day(10), 3f);
+		downsampler.add(day(11), 2f);
+		downsampler.add(day(12), 8f);
+
+		assertThat(downsampler.finish())
+			.extracting(HistoryPoint::getDateTime, HistoryPoint::getParamValue)
+			.containsExactly(tuple(day(1), 9f), tuple(day(2), 1f), tuple(day(11), 2f), tuple(day(12), 8f));
+	}
+
+	@Test
+	void bucketWithASingleValueProducesOnePoint() {
+		MinMaxDownsampler downsampler = new MinMaxDownsampler(FROM, day(19), 4);
+
+		downsampler.add(day(0), 5f);
+		downsampler.add(day(15), 7f);
+		downsampler.add(day(16), 7f);
+
+		assertThat(downsampler.finish())
+			.extracting(HistoryPoint::getDateTime, HistoryPoint::getParamValue)
+			.containsExactly(tuple(day(0), 5f), tuple(day(15), 7f));
+	}
+
+	@Test
+	void valuesOutsideTheRangeGoToTheFirstAndLastBucket() {
+		MinMaxDownsampler downsampler = new MinMaxDownsampler(FROM, day(19), 4);
+
+		downsampler.add(day(-5), 1f);
+		downsampler.add(day(0), 2f);
+		downsampler.add(day(19), 3f);
+		downsampler.add(day(30), 4f);
+
+		assertThat(downsampler.finish())
+			.extracting(HistoryPoint::getDateTime, HistoryPoint::getParamValue)
+			.containsExactly(tuple(day(-5), 1f), tuple(day(0), 2f), tuple(day(19), 3f), tuple(day(30), 4f));
+	}
+
+	@Test
+	void longSeriesIsReducedToAtMostMaxPoints() {
+		MinMaxDownsampler downsampler = new MinMaxDownsampler(FROM, FROM.plusMinutes(99_999), 200);
+		float max = Float.NEGATIVE_INFINITY;
+		float min = Float.POSITIVE_INFINITY;
+
+		for(int i = 0; i < 100_000; i++) {
+			float value = (float) Math.sin(i / 100.0) * 100 + (i == 54_321 ? 1000 : 0);
+			downsampler.add(FROM.plusMinutes(i), value);
+			max = Math.max(max, value);
+			min = Math.min(min, value);
+		}
+
+		List<HistoryPoint> points = downsampler.finish();
+
+		assertThat(points).hasSizeLessThanOrEqualTo(200).hasSizeGreaterThan(100);
+		assertThat(points).extracting(HistoryPoint::getDateTime).isSorted();
+		assertThat(points).extracting(HistoryPoint::getParamValue).contains(max, min);
+	}
+
+	@Test
+	void emptySeriesProducesNoPoints() {
+		assertThat(new MinMaxDownsampler(FROM, day(10), 100).finish()).isEmpty();
+	}
+
+	private static LocalDateTime day(int days) {
+		return FROM.plusDays(days);
+	}
+}
@@ -0,0 +1,217 @@
+package app.layers.c.data.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.layers.c.data.entities.ResultFlag;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MedicalTestsArchiveTest {
+
+	private static final LocalDateTime OLD = LocalDateTime.of(2000, 1, 1, 8, 30);
+	private static final LocalDateTime RECENT = LocalDateTime.of(2020, 6, 15, 10, 0);
+	private static final LocalDateTime CUTOFF = LocalDateTime.of(2010, 1, 1, 0, 0);
+
+	// Con questa soglia l'archivio non viene mai compattato all'avvio.
+	private static final double NEVER = 2.0;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void removedTestsAreNotFoundAfterRestart() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, RECENT), test(3, OLD)));
+		archive.remove(List.of(1L, 3L, 99L));
+
+		assertThat(archive.findById(1)).isNull();
+		assertThat(archive.findById(2)).isNotNull();
+		assertThat(archive.getArchivedCount()).isEqualTo(1);
+		archive.destroy();
+
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.findById(1)).isNull();
+		assertThat(reopened.findById(3)).isNull();
+		assertThat(reopened.findById(2).getDescription()).isEqualTo("test 2");
+		reopened.destroy();
+	}
+
+	@Test
+	void testArchivedAgainAfterRemovalIsFound() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD)));
+		archive.remove(List.of(1L));
+		archive.append(List.of(test(1, RECENT)));
+		archive.destroy();
+
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.findById(1).getDateTime()).isEqualTo(RECENT);
+		reopened.destroy();
+	}
+
+	@Test
+	void findsOnlyTestsOlderThanCutoffAfterTheGivenId() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, RECENT), test(3, OLD), test(4, null), test(5, OLD)));
+
+		assertThat(archive.findIdsOlderThan(CUTOFF, 0, 10)).containsExactly(1L, 3L, 5L);
+		assertThat(archive.findIdsOlderThan(CUTOFF, 1, 1)).containsExactly(3L);
+		assertThat(archive.findIdsOlderThan(CUTOFF, 5, 10)).isEmpty();
+		archive.destroy();
+	}
+
+	@Test
+	void appendAfterRemovalDoesNotOverwriteIndexEntries() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, OLD)));
+		archive.remove(List.of(1L));
+		archive.append(List.of(test(3, OLD)));
+		archive.destroy();
+
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.findById(1)).isNull();
+		assertThat(reopened.findById(2)).isNotNull();
+		assertThat(reopened.findById(3)).isNotNull();
+		reopened.destroy();
+	}
+
+	@Test
+	void compactionReclaimsSpaceOfRemovedTests() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, RECENT), test(3, OLD)));
+		long sizeBefore = archive.getSizeBytes();
+		archive.remove(List.of(1L, 3L));
+		archive.destroy();
+
+		MedicalTestsArchive compacted = open(0.1);
+		assertThat(compacted.getSizeBytes()).isLessThan(sizeBefore);
+		assertThat(compacted.getArchivedCount()).isEqualTo(1);
+		assertThat(compacted.findById(2).getResults()).hasSize(2);
+		assertThat(compacted.findById(1)).isNull();
+		assertThat(Files.size(directory.resolve("medical-tests.idx"))).isEqualTo(16);
+		compacted.destroy();
+	}
+
+	@Test
+	void interruptedCompactionIsDiscardedOrCompleted() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, RECENT)));
+		archive.destroy();
+
+		// Copia incompleta, senza marcatore: viene scartata.
+		Files.write(directory.resolve("medical-tests.dat.compacted"), new byte[] { 1, 2, 3 });
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.getArchivedCount()).isEqualTo(2);
+		assertThat(Files.exists(directory.resolve("medical-tests.dat.compacted"))).isFalse();
+		reopened.remove(List.of(1L));
+		reopened.destroy();
+
+		// Copia completa, con il marcatore: la sostituzione viene portata a termine.
+		open(0.1).destroy();
+		Files.copy(directory.resolve("medical-tests.dat"), directory.resolve("medical-tests.dat.compacted"));
+		Files.copy(directory.resolve("medical-tests.idx"), directory.resolve("medical-tests.idx.compacted"));
+		Files.write(directory.resolve("medical-tests.idx"), new byte[0]);
+		Files.createFile(directory.resolve("medical-tests.compaction"));
+
+		MedicalTestsArchive completed = open(NEVER);
+		assertThat(completed.getArchivedCount()).isEqualTo(1);
+		assertThat(completed.findById(2)).isNotNull();
+		assertThat(Files.exists(directory.resolve("medical-tests.compaction"))).isFalse();
+		completed.destroy();
+	}
+
+	@Test
+	void newestRecordOfATestArchivedTwiceWins() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, OLD)));
+		archive.append(List.of(test(1, RECENT)));
+
+		assertThat(archive.findById(1).getDateTime()).isEqualTo(RECENT);
+		assertThat(archive.getArchivedCount()).isEqualTo(2);
+		archive.destroy();
+
+		// Anche all'interno dello stesso blocco vale l'ultimo record.
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.findById(1).getDateTime()).isEqualTo(RECENT);
+		reopened.append(List.of(test(3, OLD), test(3, null)));
+		assertThat(reopened.findById(3).getDateTime()).isNull();
+		reopened.destroy();
+
+		MedicalTestsArchive compacted = open(0.1);
+		assertThat(compacted.findById(1).getDateTime()).isEqualTo(RECENT);
+		assertThat(compacted.findById(3).getDateTime()).isNull();
+		assertThat(compacted.getArchivedCount()).isEqualTo(3);
+		compacted.destroy();
+	}
+
+	@Test
+	void interruptedAppendIsDiscardedOnRecovery() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(test(1, OLD), test(2, OLD)));
+		long dataSize = Files.size(directory.resolve("medical-tests.dat"));
+		archive.destroy();
+
+		// Record scritti senza la voce nell'indice, una voce incompleta e una che punta oltre
+		// la fine del file dei dati.
+		Path dataFile = directory.resolve("medical-tests.dat");
+		Path indexFile = directory.resolve("medical-tests.idx");
+		Files.write(dataFile, new byte[] { 0, 0, 0, 100, 1, 2, 3 }, StandardOpenOption.APPEND);
+		Files.write(indexFile, ByteBuffer.allocate(16).putLong(9).putLong(dataSize).array(), StandardOpenOption.APPEND);
+		Files.write(indexFile, new byte[] { 0, 0, 0, 0, 0, 0, 0, 7 }, StandardOpenOption.APPEND);
+
+		MedicalTestsArchive recovered = open(NEVER);
+		assertThat(recovered.getArchivedCount()).isEqualTo(2);
+		assertThat(recovered.findById(9)).isNull();
+		assertThat(Files.size(dataFile)).isEqualTo(dataSize);
+		assertThat(Files.size(indexFile)).isEqualTo(32);
+
+		recovered.append(List.of(test(3, OLD)));
+		recovered.destroy();
+
+		MedicalTestsArchive reopened = open(NEVER);
+		assertThat(reopened.findById(1)).isNotNull();
+		assertThat(reopened.findById(3).getResults()).hasSize(2);
+		reopened.destroy();
+	}
+
+	@Test
+	void recordsRoundTrip() throws IOException {
+		MedicalTestsArchive archive = open(NEVER);
+		archive.append(List.of(new ArchivedTest(7, 42, null, OLD.withNano(123_000_000), List.of(
+			new ArchivedResult("Glucosio à jeun", -1.5f, ResultFlag.values()[ResultFlag.values().length - 1]),
+			new ArchivedResult(null, null, null)))));
+		archive.destroy();
+
+		MedicalTestsArchive reopened = open(NEVER);
+		ArchivedTest test = reopened.findById(7);
+		assertThat(test.getPatientId()).isEqualTo(42);
+		assertThat(test.getDescription()).isNull();
+		assertThat(test.getDateTime()).isEqualTo(OLD.withNano(123_000_000));
+		assertThat(test.getResults()).extracting(ArchivedResult::getParamName, ArchivedResult::getParamValue, ArchivedResult::getFlag)
+			.containsExactly(
+				tuple("Glucosio à jeun", -1.5f, ResultFlag.values()[ResultFlag.values().length - 1]),
+				tuple(null, null, null));
+		reopened.destroy();
+	}
+
+	private MedicalTestsArchive open(double compactionThreshold) throws IOException {
+		return new MedicalTestsArchive(directory, compactionThreshold, new SimpleMeterRegistry());
+	}
+
+	private static ArchivedTest test(long id, LocalDateTime dateTime) {
+		return new ArchivedTest(id, 1, "test " + id, dateTime, List.of(
+			new ArchivedResult("Na", 140f, ResultFlag.NORMAL),
+			new ArchivedResult("K", null, null)));
+	}
+}
@@ -0,0 +1,130 @@
+package app.layers.c.data.packed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PackedResultsCodecTest {
+
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+
+	private PackedResultsCodec codec;
+
+	// Il dizionario assegna gli id in ordine di registrazione, come la sequenza del DB.
+	@BeforeEach
+	void setUp() {
+		ResultParameterDictionary dictionary = mock(ResultParameterDictionary.class);
+
+		when(dictionary.idOf(anyString())).thenAnswer(invocation -> ids.computeIfAbsent(invocation.getArgument(0), name -> {
+			names.add(name);
+			return names.size() - 1;
+		}));
+		when(dictionary.nameOf(anyInt())).thenAnswer(invocation -> names.get(invocation.getArgument(0)));
+
+		codec = new PackedResultsCodec(dictionary);
+	}
+
+	@Test
+	void decodesWhatWasEncoded() {
+		List<Result> results = List.of(new Result("Na", 140f), new Result("K", null), new Result("Glucose", -0.5f));
+
+		byte[] packed = encode(results);
+		List<Result> decoded = decode(packed);
+
+		assertThat(decoded).containsExactly(new Result("Na", 140f), new Result("K", Float.NaN), new Result("Glucose", -0.5f));
+		assertThat(PackedResultsCodec.count(packed)).isEqualTo(3);
+		assertThat(packed).hasSize(1 + 1 + 3 * 5);
+	}
+
+	@Test
+	void encodesEmptyAndMissingResults() {
+		assertThat(decode(encode(List.of()))).isEmpty();
+		assertThat(decode(codec.encode(null, Result::name, Result::value))).isEmpty();
+	}
+
+	@Test
+	void idsAboveOneByteUseLongerVarints() {
+		for(int i = 0; i < 300; i++) {
+			ids.put("P" + i, i);
+			names.add("P" + i);
+		}
+
+		List<Result> results = List.of(new Result("P0", 1f), new Result("P127", 2f), new Result("P128", 3f), new Result("P299", 4f));
+		byte[] packed = encode(results);
+
+		assertThat(decode(packed)).containsExactlyElementsOf(results);
+		assertThat(packed).hasSize(1 + 1 + 4 * 4 + 1 + 1 + 2 + 2);
+	}
+
+	@Test
+	void rejectsTruncatedArrays() {
+		byte[] packed = encode(List.of(new Result("Na", 140f), new Result("K", 4.1f)));
+
+		for(int length = 0; length < packed.length; length++) {
+			byte[] truncated = Arrays.copyOf(packed, length);
+
+			assertThatThrownBy(() -> decode(truncated))
+				.as("%d bytes", length)
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageStartingWith("Corrupted packed results");
+		}
+	}
+
+	@Test
+	void rejectsCountsThatDoNotFitTheArray() {
+		// 1000 risultati dichiarati in 12 byte.
+		byte[] packed = { 1, (byte) 0xE8, 0x07, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+		assertThatThrownBy(() -> PackedResultsCodec.count(packed))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("1000 results declared");
+	}
+
+	@Test
+	void rejectsOverlongAndNegativeVarints() {
+		byte[] overlong = { 1, (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+		byte[] negative = { 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0, 0, 0, 0, 0 };
+
+		assertThatThrownBy(() -> PackedResultsCodec.count(overlong))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("varint longer than 5 bytes");
+
+		assertThatThrownBy(() -> PackedResultsCodec.count(negative))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("negative varint");
+	}
+
+	@Test
+	void rejectsUnknownVersions() {
+		assertThatThrownBy(() -> PackedResultsCodec.count(new byte[] { 2, 0 }))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("version 2");
+	}
+
+	private byte[] encode(List<Result> results) {
+		return codec.encode(results, Result::name, Result::value);
+	}
+
+	private List<Result> decode(byte[] packed) {
+		List<Result> decoded = new ArrayList<>();
+		int count = codec.decode(packed, (name, value) -> decoded.add(new Result(name, value)));
+
+		assertThat(count).isEqualTo(decoded.size());
+		return decoded;
+	}
+
+	private record Result(String name, Float value) {}
+}
@@ -0,0 +1,103 @@
+package app.layers.c.data.packed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import app.layers.c.data.entities.ResultParameter;
+import app.layers.c.data.repositories.ResultParametersRepository;
+
+/**
+ * Ogni test usa un proprio DB H2 in memoria, con la tabella e la sequenza di schema.sql. Il
+ * repository JPA è sostituito da un mock che legge la stessa tabella.
+ */
+
+class ResultParameterDictionaryTest {
+
+	private DataSourceProperties dataSourceProperties;
+	private JdbcTemplate jdbc;
+	private ResultParametersRepository repo;
+
+	@BeforeEach
+	void setUp() {
+		dataSourceProperties = new DataSourceProperties();
+		dataSourceProperties.setUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+		dataSourceProperties.setUsername("sa");
+		dataSourceProperties.setPassword("");
+
+		jdbc = new JdbcTemplate(dataSourceProperties.initializeDataSourceBuilder().type(SimpleDriverDataSource.class).build());
+		jdbc.execute("create sequence result_parameters_seq start with 1 increment by 1");
+		jdbc.execute("create table result_parameters (id integer not null primary key, name varchar(255) not null, constraint uk_result_parameters_name unique (name))");
+
+		repo = mock(ResultParametersRepository.class);
+		when(repo.findAll()).thenAnswer(invocation -> jdbc.query("select id, name from result_parameters",
+			(rs, row) -> parameter(rs.getInt("id"), rs.getString("name"))));
+	}
+
+	@Test
+	void registersNewNamesOnce() {
+		ResultParameterDictionary dictionary = new ResultParameterDictionary(repo, dataSourceProperties);
+
+		int na = dictionary.idOf("Na");
+		int k = dictionary.idOf("K");
+
+		assertThat(na).isNotEqualTo(k);
+		assertThat(dictionary.idOf("Na")).isEqualTo(na);
+		assertThat(dictionary.nameOf(na)).isEqualTo("Na");
+		assertThat(dictionary.names()).containsExactlyInAnyOrder("Na", "K");
+		assertThat(jdbc.queryForObject("select count(*) from result_parameters", Integer.class)).isEqualTo(2);
+	}
+
+	@Test
+	void usesTheIdRegisteredByAnotherNode() {
+		ResultParameterDictionary node1 = new ResultParameterDictionary(repo, dataSourceProperties);
+		ResultParameterDictionary node2 = new ResultParameterDictionary(repo, dataSourceProperties);
+
+		// Il secondo nodo ha già letto la tabella, quando ancora non conteneva "Na".
+		assertThat(node2.names()).isEmpty();
+
+		int id = node1.idOf("Na");
+
+		assertThat(node2.idOf("Na")).isEqualTo(id);
+		assertThat(jdbc.queryForObject("select count(*) from result_parameters", Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	void reloadsWhenReadingAnUnknownId() {
+		ResultParameterDictionary dictionary = new ResultParameterDictionary(repo, dataSourceProperties);
+		assertThat(dictionary.names()).isEmpty();
+
+		jdbc.update("insert into result_parameters (id, name) values (7, 'Cl')");
+
+		assertThat(dictionary.nameOf(7)).isEqualTo("Cl");
+		assertThatThrownBy(() -> dictionary.nameOf(8))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("Unknown result parameter id 8");
+	}
+
+	@Test
+	void skipsSequenceValuesAlreadyUsedById() {
+		// Un DB creato prima della sequenza: l'id 1 è già stato assegnato.
+		jdbc.update("insert into result_parameters (id, name) values (1, 'Na')");
+		ResultParameterDictionary dictionary = new ResultParameterDictionary(repo, dataSourceProperties);
+
+		assertThat(dictionary.idOf("K")).isEqualTo(2);
+	}
+
+	private static ResultParameter parameter(int id, String name) {
+		ResultParameter parameter = new ResultParameter();
+		ReflectionTestUtils.setField(parameter, "id", id);
+		ReflectionTestUtils.setField(parameter, "name", name);
+		return parameter;
+	}
+}
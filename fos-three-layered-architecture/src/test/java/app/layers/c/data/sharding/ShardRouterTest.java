@@ -0,0 +1,63 @@
+package app.layers.c.data.sharding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+class ShardRouterTest {
+
+	@Test
+	void rejectsShardCountsOutsideTheIdRange() {
+		assertThatThrownBy(() -> new ShardRouter(0)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new ShardRouter(257)).isInstanceOf(IllegalArgumentException.class);
+		assertThat(new ShardRouter(256).getShardCount()).isEqualTo(256);
+	}
+
+	@Test
+	void globalTestIdsRoundTrip() {
+		ShardRouter router = new ShardRouter(4);
+
+		for(int shard = 0; shard < 4; shard++) {
+			for(long local : new long[] { 1, 2, 255, 256, 123_456_789L, Long.MAX_VALUE >>> ShardRouter.SHARD_BITS }) {
+				long global = router.toGlobalTestId(shard, local);
+
+				assertThat(router.shardOfTest(global)).isEqualTo(shard);
+				assertThat(router.toLocalTestId(global)).isEqualTo(local);
+				assertThat(router.isValidTestId(global)).isTrue();
+			}
+		}
+	}
+
+	@Test
+	void rejectsIdsThatCannotBelongToAnyShard() {
+		ShardRouter router = new ShardRouter(4);
+
+		assertThat(router.isValidTestId(0)).isFalse();
+		assertThat(router.isValidTestId(-1)).isFalse();
+		assertThat(router.isValidTestId(Long.MIN_VALUE)).isFalse();
+
+		// Id locale 0, oppure shard 4 che non esiste.
+		assertThat(router.isValidTestId(router.toGlobalTestId(2, 0))).isFalse();
+		assertThat(router.isValidTestId(router.toGlobalTestId(4, 10))).isFalse();
+	}
+
+	@Test
+	void patientsAreSpreadEvenlyAndAlwaysOnTheSameShard() {
+		ShardRouter router = new ShardRouter(8);
+		int[] patients = new int[8];
+
+		for(long patientId = 1; patientId <= 80_000; patientId++) {
+			int shard = router.shardOfPatient(patientId);
+
+			assertThat(shard).isBetween(0, 7);
+			assertThat(router.shardOfPatient(patientId)).isEqualTo(shard);
+			patients[shard]++;
+		}
+
+		// 10000 pazienti per shard in media: nessuno shard si discosta di più del 5%.
+		for(int count : patients) {
+			assertThat(count).isBetween(9_500, 10_500);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package app.security.ratelimit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+	// 10 richieste al secondo, raffiche di 3 richieste (vedi RateLimiter.Limit).
+	private static final long INTERVAL = 100_000_000L;
+	private static final long TOLERANCE = 3 * INTERVAL;
+
+	private static final long START = 1_000_000_000_000L;
+
+	@Test
+	void admitsABurstThenRejectsWithTheWaitTime() {
+		TokenBucket bucket = new TokenBucket(START);
+
+		assertThat(bucket.tryAcquire(START, INTERVAL, TOLERANCE)).isZero();
+		assertThat(bucket.tryAcquire(START, INTERVAL, TOLERANCE)).isZero();
+		assertThat(bucket.tryAcquire(START, INTERVAL, TOLERANCE)).isZero();
+
+		assertThat(bucket.tryAcquire(START, INTERVAL, TOLERANCE)).isEqualTo(INTERVAL);
+		assertThat(bucket.tryAcquire(START + 40_000_000L, INTERVAL, TOLERANCE)).isEqualTo(INTERVAL - 40_000_000L);
+	}
+
+	@Test
+	void rejectedRequestsDoNotConsumeTokens() {
+		TokenBucket bucket = new TokenBucket(START);
+
+		for(int i = 0; i < 3; i++) {
+			bucket.tryAcquire(START, INTERVAL, TOLERANCE);
+		}
+
+		for(int i = 0; i < 100; i++) {
+			assertThat(bucket.tryAcquire(START, INTERVAL, TOLERANCE)).isPositive();
+		}
+
+		assertThat(bucket.tryAcquire(START + INTERVAL, INTERVAL, TOLERANCE)).isZero();
+		assertThat(bucket.tryAcquire(START + INTERVAL, INTERVAL, TOLERANCE)).isPositive();
+	}
+
+	@Test
+	void refillsAtTheConfiguredRate() {
+		TokenBucket bucket = new TokenBucket(START);
+		int admitted = 0;
+
+		// Una richiesta ogni 10 ms per 10 secondi: ne passano 3 subito, poi 10 al secondo.
+		for(long now = START; now < START + 10 * 1_000_000_000L; now += 10_000_000L) {
+			if(bucket.tryAcquire(now, INTERVAL, TOLERANCE) == 0) {
+				admitted++;
+			}
+		}
+
+		assertThat(admitted).isBetween(100, 103);
+	}
+
+	@Test
+	void isFullOnlyWhenAllTokensAreBack() {
+		TokenBucket bucket = new TokenBucket(START);
+		assertThat(bucket.isFull(START)).isTrue();
+
+		bucket.tryAcquire(START, INTERVAL, TOLERANCE);
+		bucket.tryAcquire(START, INTERVAL, TOLERANCE);
+
+		assertThat(bucket.isFull(START + INTERVAL)).isFalse();
+		assertThat(bucket.isFull(START + 2 * INTERVAL)).isTrue();
+	}
+}